@@ -0,0 +1,455 @@
+package org.imsglobal.lti;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.http.Header;
+import org.apache.http.HttpEntity;
+import org.apache.http.HttpResponse;
+import org.apache.http.client.ResponseHandler;
+import org.apache.http.client.config.RequestConfig;
+import org.apache.http.client.methods.CloseableHttpResponse;
+import org.apache.http.client.methods.HttpGet;
+import org.apache.http.client.methods.HttpUriRequest;
+import org.apache.http.concurrent.FutureCallback;
+import org.apache.http.impl.client.CloseableHttpClient;
+import org.apache.http.impl.client.HttpClients;
+import org.apache.http.impl.conn.PoolingHttpClientConnectionManager;
+import org.apache.http.impl.nio.client.CloseableHttpAsyncClient;
+import org.apache.http.impl.nio.client.HttpAsyncClients;
+import org.apache.http.impl.nio.conn.PoolingNHttpClientConnectionManager;
+import org.apache.http.impl.nio.reactor.DefaultConnectingIOReactor;
+import org.apache.http.impl.nio.reactor.IOReactorConfig;
+import org.apache.http.pool.PoolStats;
+import org.apache.http.util.EntityUtils;
+
+/**
+ * Class to send outbound HTTP requests (service calls, outcomes and profile fetches) to
+ * tool consumers.
+ *
+ * A transport holds a pool of connections, so that repeated requests to the same host
+ * (for example, grade passback to a single LMS) reuse an open, already negotiated
+ * connection rather than connecting and completing a TLS handshake each time.  The pool
+ * has a limit on the total number of connections and on the number for each route;
+ * connections idle for longer than the configured time are closed by a background
+ * thread.  A transport is thread-safe and one instance is normally shared by the whole
+ * application: see getDefault().
+ *
+ * Requests may also be sent asynchronously, using a non-blocking client with its own
+ * pool (with the same limits), which is started when first used.  The response is then
+ * read on an I/O dispatch thread, so many requests can be in progress without a thread
+ * waiting for each of them.
+ *
+ * @author  David Block (dave@northcreek.ca)
+ */
+public final class HttpTransport implements Closeable {
+
+	/**
+	 * Default maximum number of open connections.
+	 */
+	    public static final int DEFAULT_MAX_TOTAL = 100;
+	/**
+	 * Default maximum number of open connections to one route (host).
+	 */
+	    public static final int DEFAULT_MAX_PER_ROUTE = 20;
+	/**
+	 * Default connect, socket and pool wait timeout.
+	 */
+	    public static final int DEFAULT_TIMEOUT = 30000;  // in milliseconds (30 seconds)
+	/**
+	 * Default time after which an idle connection is closed.
+	 */
+	    public static final long DEFAULT_MAX_IDLE_TIME = 60000L;  // in milliseconds (1 minute)
+
+	    private static HttpTransport defaultTransport = null;
+
+	    private final Builder settings;
+	    private final RequestConfig requestConfig;
+	    private final PoolingHttpClientConnectionManager connectionManager;
+	    private final CloseableHttpClient client;
+	    private PoolingNHttpClientConnectionManager asyncConnectionManager = null;
+	    private CloseableHttpAsyncClient asyncClient = null;
+	    private ScheduledExecutorService evictor = null;
+	    private boolean closed = false;
+
+	    private HttpTransport(Builder builder) {
+	    	settings = builder.copy();
+	    	connectionManager = new PoolingHttpClientConnectionManager();
+	    	connectionManager.setMaxTotal(builder.maxTotal);
+	    	connectionManager.setDefaultMaxPerRoute(builder.maxPerRoute);
+	    	requestConfig = RequestConfig.custom()
+	    		.setConnectTimeout(builder.connectTimeout)
+	    		.setConnectionRequestTimeout(builder.connectionRequestTimeout)
+	    		.setSocketTimeout(builder.socketTimeout)
+	    		.build();
+	    	client = HttpClients.custom()
+	    		.setConnectionManager(connectionManager)
+	    		.setDefaultRequestConfig(requestConfig)
+	    		.evictExpiredConnections()
+	    		.evictIdleConnections(builder.maxIdleTime, TimeUnit.MILLISECONDS)
+	    		.build();
+	    }
+
+	/**
+	 * Create a builder for a transport.
+	 *
+	 * @return builder
+	 */
+	    public static Builder builder() {
+
+	    	return new Builder();
+
+	    }
+
+	/**
+	 * Get the transport shared by the application, creating one with the default
+	 * settings if none has been set.
+	 *
+	 * @return transport
+	 */
+	    public static synchronized HttpTransport getDefault() {
+
+	    	if (defaultTransport == null) {
+	    		defaultTransport = builder().build();
+	    	}
+
+	    	return defaultTransport;
+
+	    }
+
+	/**
+	 * Set the transport shared by the application.  The transport previously set is not
+	 * closed, as requests may still be using it.
+	 *
+	 * @param transport  transport (null to revert to the default settings)
+	 */
+	    public static synchronized void setDefault(HttpTransport transport) {
+
+	    	defaultTransport = transport;
+
+	    }
+
+	/**
+	 * Send a request and read the complete response, releasing the connection back to
+	 * the pool.
+	 *
+	 * @param request  request to send
+	 *
+	 * @return response
+	 *
+	 * @throws IOException  if the request could not be sent or the response read
+	 */
+	    public Response execute(HttpUriRequest request) throws IOException {
+
+	    	try (CloseableHttpResponse response = client.execute(request)) {
+	    		return toResponse(response);
+	    	}
+
+	    }
+
+	/**
+	 * Send a request and pass the response to a handler, which can read the body as a
+	 * stream rather than as a string.  The connection is released back to the pool once
+	 * the handler returns.
+	 *
+	 * @param request  request to send
+	 * @param handler  handler for the response
+	 *
+	 * @return value returned by the handler
+	 *
+	 * @throws IOException  if the request could not be sent or the handler failed to read the response
+	 */
+	    public <T> T execute(HttpUriRequest request, ResponseHandler<? extends T> handler) throws IOException {
+
+	    	return client.execute(request, handler);
+
+	    }
+
+	/**
+	 * Send a request without waiting for the response.  The future completes, on an I/O
+	 * dispatch thread, once the complete response has been read, or exceptionally if the
+	 * request fails.
+	 *
+	 * @param request  request to send
+	 *
+	 * @return future response
+	 */
+	    public CompletableFuture<Response> executeAsync(HttpUriRequest request) {
+
+	    	final CompletableFuture<Response> future = new CompletableFuture<Response>();
+	    	CloseableHttpAsyncClient async;
+	    	try {
+	    		async = getAsyncClient();
+	    	} catch (IOException e) {
+	    		future.completeExceptionally(e);
+	    		return future;
+	    	}
+	    	async.execute(request, new FutureCallback<HttpResponse>() {
+	    		@Override
+	    		public void completed(HttpResponse response) {
+	    			try {
+	    				future.complete(toResponse(response));
+	    			} catch (IOException e) {
+	    				future.completeExceptionally(e);
+	    			}
+	    		}
+	    		@Override
+	    		public void failed(Exception e) {
+	    			future.completeExceptionally(e);
+	    		}
+	    		@Override
+	    		public void cancelled() {
+	    			future.cancel(false);
+	    		}
+	    	});
+
+	    	return future;
+
+	    }
+
+	/**
+	 * Send a GET request.
+	 *
+	 * @param url     URL to request
+	 * @param accept  value for the Accept header (null for none)
+	 *
+	 * @return response
+	 *
+	 * @throws IOException  if the request could not be sent or the response read
+	 */
+	    public Response get(String url, String accept) throws IOException {
+
+	    	HttpGet get = new HttpGet(url);
+	    	if (accept != null) {
+	    		get.addHeader("Accept", accept);
+	    	}
+
+	    	return execute(get);
+
+	    }
+
+	/**
+	 * Get the current state of the connection pool.
+	 *
+	 * @return numbers of leased, available and pending connections
+	 */
+	    public PoolStats getStats() {
+
+	    	return connectionManager.getTotalStats();
+
+	    }
+
+	/**
+	 * Close all connections and stop the idle connection threads.
+	 */
+	    @Override
+	    public void close() {
+
+	    	CloseableHttpAsyncClient async;
+	    	synchronized (this) {
+	    		closed = true;
+	    		async = asyncClient;
+	    		if (evictor != null) {
+	    			evictor.shutdownNow();
+	    		}
+	    	}
+	    	try {
+	    		client.close();
+	    		if (async != null) {
+	    			async.close();
+	    		}
+	    	} catch (IOException e) {
+	    		e.printStackTrace();
+	    	}
+
+	    }
+
+	    private synchronized CloseableHttpAsyncClient getAsyncClient() throws IOException {
+
+	    	if (closed) {
+	    		throw new IOException("Transport has been closed");
+	    	}
+	    	if (asyncClient == null) {
+	    		IOReactorConfig ioConfig = IOReactorConfig.custom()
+	    			.setConnectTimeout(settings.connectTimeout)
+	    			.setSoTimeout(settings.socketTimeout)
+	    			.build();
+	    		asyncConnectionManager = new PoolingNHttpClientConnectionManager(new DefaultConnectingIOReactor(ioConfig));
+	    		asyncConnectionManager.setMaxTotal(settings.maxTotal);
+	    		asyncConnectionManager.setDefaultMaxPerRoute(settings.maxPerRoute);
+	    		asyncClient = HttpAsyncClients.custom()
+	    			.setConnectionManager(asyncConnectionManager)
+	    			.setDefaultRequestConfig(requestConfig)
+	    			.build();
+	    		asyncClient.start();
+// The non-blocking client has no idle connection thread of its own
+	    		evictor = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+	    			@Override
+	    			public Thread newThread(Runnable r) {
+	    				Thread thread = new Thread(r, "lti-http-evictor");
+	    				thread.setDaemon(true);
+	    				return thread;
+	    			}
+	    		});
+	    		final PoolingNHttpClientConnectionManager manager = asyncConnectionManager;
+	    		final long maxIdleTime = settings.maxIdleTime;
+	    		long period = Math.max(maxIdleTime / 2, 1000L);
+	    		evictor.scheduleWithFixedDelay(new Runnable() {
+	    			@Override
+	    			public void run() {
+	    				manager.closeExpiredConnections();
+	    				manager.closeIdleConnections(maxIdleTime, TimeUnit.MILLISECONDS);
+	    			}
+	    		}, period, period, TimeUnit.MILLISECONDS);
+	    	}
+
+	    	return asyncClient;
+
+	    }
+
+	    private static Response toResponse(HttpResponse response) throws IOException {
+
+	    	HttpEntity entity = response.getEntity();
+	    	String body = (entity != null) ? EntityUtils.toString(entity, StandardCharsets.UTF_8) : "";
+	    	Map<String, String> headers = new LinkedHashMap<String, String>();
+	    	for (Header header : response.getAllHeaders()) {
+	    		headers.put(header.getName(), header.getValue());
+	    	}
+
+	    	return new Response(response.getStatusLine().getStatusCode(), body, headers);
+
+	    }
+
+	/**
+	 * Class to represent a response, read in full.
+	 */
+	    public static final class Response {
+
+	    	private final int status;
+	    	private final String body;
+	    	private final Map<String, String> headers;
+
+	    	private Response(int status, String body, Map<String, String> headers) {
+	    		this.status = status;
+	    		this.body = body;
+	    		this.headers = Collections.unmodifiableMap(headers);
+	    	}
+
+	    	public int getStatus() {
+	    		return status;
+	    	}
+
+	    	public String getBody() {
+	    		return body;
+	    	}
+
+	    	public Map<String, String> getHeaders() {
+	    		return headers;
+	    	}
+
+	/**
+	 * Get the value of a header, ignoring the case of its name.
+	 *
+	 * @param name  header name
+	 *
+	 * @return header value, null if not present
+	 */
+	    	public String getHeader(String name) {
+	    		for (Map.Entry<String, String> header : headers.entrySet()) {
+	    			if (header.getKey().equalsIgnoreCase(name)) {
+	    				return header.getValue();
+	    			}
+	    		}
+	    		return null;
+	    	}
+
+	/**
+	 * Check whether the request succeeded.
+	 *
+	 * @return <code>true</code> if the status code is below 400
+	 */
+	    	public boolean isOk() {
+	    		return (status >= 100) && (status < 400);
+	    	}
+
+	    }
+
+	/**
+	 * Settings from which a transport is built.
+	 */
+	    public static final class Builder {
+
+	    	private int maxTotal = DEFAULT_MAX_TOTAL;
+	    	private int maxPerRoute = DEFAULT_MAX_PER_ROUTE;
+	    	private int connectTimeout = DEFAULT_TIMEOUT;
+	    	private int connectionRequestTimeout = DEFAULT_TIMEOUT;
+	    	private int socketTimeout = DEFAULT_TIMEOUT;
+	    	private long maxIdleTime = DEFAULT_MAX_IDLE_TIME;
+
+	    	private Builder() {
+	    	}
+
+	    	public Builder setMaxTotal(int maxTotal) {
+	    		this.maxTotal = maxTotal;
+	    		return this;
+	    	}
+
+	    	public Builder setMaxPerRoute(int maxPerRoute) {
+	    		this.maxPerRoute = maxPerRoute;
+	    		return this;
+	    	}
+
+	    	public Builder setConnectTimeout(int connectTimeout) {
+	    		this.connectTimeout = connectTimeout;
+	    		return this;
+	    	}
+
+	    	public Builder setConnectionRequestTimeout(int connectionRequestTimeout) {
+	    		this.connectionRequestTimeout = connectionRequestTimeout;
+	    		return this;
+	    	}
+
+	    	public Builder setSocketTimeout(int socketTimeout) {
+	    		this.socketTimeout = socketTimeout;
+	    		return this;
+	    	}
+
+	    	public Builder setMaxIdleTime(long maxIdleTime) {
+	    		this.maxIdleTime = maxIdleTime;
+	    		return this;
+	    	}
+
+	    	private Builder copy() {
+	    		Builder copy = new Builder();
+	    		copy.maxTotal = maxTotal;
+	    		copy.maxPerRoute = maxPerRoute;
+	    		copy.connectTimeout = connectTimeout;
+	    		copy.connectionRequestTimeout = connectionRequestTimeout;
+	    		copy.socketTimeout = socketTimeout;
+	    		copy.maxIdleTime = maxIdleTime;
+	    		return copy;
+	    	}
+
+	/**
+	 * Build a transport from the current settings.
+	 *
+	 * @return transport
+	 */
+	    	public HttpTransport build() {
+
+	    		return new HttpTransport(this);
+
+	    	}
+
+	    }
+
+}
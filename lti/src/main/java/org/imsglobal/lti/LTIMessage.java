@@ -1,8 +1,20 @@
 package org.imsglobal.lti;
 
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
-
+import java.util.concurrent.CompletableFuture;
+import java.util.function.BiFunction;
+
+import org.apache.commons.lang3.StringUtils;
+import org.apache.http.Header;
+import org.apache.http.HttpResponse;
+import org.apache.http.client.ResponseHandler;
+import org.apache.http.client.methods.HttpUriRequest;
+import org.apache.http.client.methods.RequestBuilder;
+import org.apache.http.entity.StringEntity;
 import org.json.simple.JSONArray;
 import org.json.simple.JSONObject;
 import org.json.simple.parser.JSONParser;
@@ -44,7 +56,7 @@ public class LTIMessage {
 		setBody(data);
 		setHeader(header);
 		setParams(parameters);
-		JSONParser parser = new JSONParser();
+		this.parser = new JSONParser();
 	}
 	
 	
@@ -54,7 +66,7 @@ public class LTIMessage {
 		setUrl(url);
 		setMethod(method);
 		setParams(parameters);
-		JSONParser parser = new JSONParser();
+		this.parser = new JSONParser();
 	}
 	
 	
@@ -104,11 +116,137 @@ public class LTIMessage {
 		this.responseJson = responseJson;
 	}
 
+	/**
+	 * Send the message using the shared HTTP transport, waiting for the response.
+	 *
+	 * The parameters are sent as a form body for POST and PUT requests, and on the query
+	 * string otherwise; each line of the header ("name: value") is added as a request header.
+	 *
+	 * @return <code>true</code> if the request was sent and a status below 400 was returned
+	 */
 	public boolean send() {
-		//send message
-		//store response in setResponse (so json is parsed at the same time)
-		return false;
-		
+		return send(HttpTransport.getDefault());
+	}
+
+	/**
+	 * Send the message using a specific HTTP transport, waiting for the response.
+	 *
+	 * @param transport  transport to send the message with
+	 *
+	 * @return <code>true</code> if the request was sent and a status below 400 was returned
+	 */
+	public boolean send(HttpTransport transport) {
+		return sendAsync(transport).join().isOk();
+	}
+
+	/**
+	 * Send the message using the shared HTTP transport without waiting for the response.
+	 *
+	 * @return future which completes with this message once the response has been
+	 *         stored (or the request has failed, in which case isOk() returns false)
+	 */
+	public CompletableFuture<LTIMessage> sendAsync() {
+		return sendAsync(HttpTransport.getDefault());
+	}
+
+	/**
+	 * Send the message using a specific HTTP transport without waiting for the response.
+	 *
+	 * @param transport  transport to send the message with
+	 *
+	 * @return future which completes with this message once the response has been
+	 *         stored (or the request has failed, in which case isOk() returns false)
+	 */
+	public CompletableFuture<LTIMessage> sendAsync(HttpTransport transport) {
+		ok = false;
+		HttpUriRequest httpRequest = buildRequest();
+		requestHeaders = new LinkedHashMap<String, String>();
+		for (Header h : httpRequest.getAllHeaders()) {
+			requestHeaders.put(h.getName(), h.getValue());
+		}
+		setRequest(httpRequest.getRequestLine().toString());
+		return transport.executeAsync(httpRequest).handle(
+			new BiFunction<HttpTransport.Response, Throwable, LTIMessage>() {
+				@Override
+				public LTIMessage apply(HttpTransport.Response httpResponse, Throwable error) {
+					if (error != null) {
+						error.printStackTrace();
+					} else {
+						status = httpResponse.getStatus();
+						responseHeaders = httpResponse.getHeaders();
+						setResponse(httpResponse.getBody());
+						ok = httpResponse.isOk();
+					}
+					return LTIMessage.this;
+				}
+			});
+	}
+
+	/**
+	 * Send the message, passing the response to a handler so that the body can be read
+	 * as a stream.  The response is not stored, but the status and headers are.
+	 *
+	 * @param transport  transport to send the message with
+	 * @param handler    handler for the response
+	 *
+	 * @return value returned by the handler (null if the request failed)
+	 */
+	public <T> T send(HttpTransport transport, final ResponseHandler<? extends T> handler) {
+		ok = false;
+		HttpUriRequest httpRequest = buildRequest();
+		requestHeaders = new LinkedHashMap<String, String>();
+		for (Header h : httpRequest.getAllHeaders()) {
+			requestHeaders.put(h.getName(), h.getValue());
+		}
+		setRequest(httpRequest.getRequestLine().toString());
+		try {
+			return transport.execute(httpRequest, new ResponseHandler<T>() {
+				@Override
+				public T handleResponse(HttpResponse httpResponse) throws IOException {
+					status = httpResponse.getStatusLine().getStatusCode();
+					responseHeaders = new LinkedHashMap<String, String>();
+					for (Header h : httpResponse.getAllHeaders()) {
+						responseHeaders.put(h.getName(), h.getValue());
+					}
+					ok = (status >= 100) && (status < 400);
+					return handler.handleResponse(httpResponse);
+				}
+			});
+		} catch (IOException e) {
+			e.printStackTrace();
+			ok = false;
+			return null;
+		}
+	}
+
+	private HttpUriRequest buildRequest() {
+		String httpMethod = StringUtils.isEmpty(method) ? "GET" : method.toUpperCase();
+		RequestBuilder builder = RequestBuilder.create(httpMethod).setUri(url);
+		if (params != null) {
+			for (Map.Entry<String, List<String>> entry : params.entrySet()) {
+				for (String value : entry.getValue()) {
+					builder.addParameter(entry.getKey(), value);
+				}
+			}
+		}
+		if (body != null) {
+			builder.setEntity(new StringEntity(body, StandardCharsets.UTF_8));
+		}
+		if (header != null) {
+			for (String line : header.split("\\r?\\n")) {
+				int pos = line.indexOf(':');
+				if (pos <= 0) {
+					continue;
+				}
+				String name = line.substring(0, pos).trim();
+				String value = line.substring(pos + 1).trim();
+// The length is set from the entity
+				if (!name.equalsIgnoreCase("Content-Length")) {
+					builder.setHeader(name, value);
+				}
+			}
+		}
+		return builder.build();
 	}
 	
 	public void setRequest(String request) {
@@ -1,7 +1,7 @@
 package org.imsglobal.lti;
 
-import java.io.ByteArrayInputStream;
 import java.io.IOException;
+import java.io.InputStream;
 import java.io.UnsupportedEncodingException;
 import java.net.URLEncoder;
 import java.util.ArrayList;
@@ -16,7 +16,6 @@ import org.jdom2.Document;
 import org.jdom2.Element;
 import org.jdom2.JDOMException;
 import org.jdom2.filter.ElementFilter;
-import org.jdom2.input.SAXBuilder;
 
 
 /*
@@ -255,14 +254,28 @@ public static Document getXMLDoc(String xml) {
 
 Document xmlDoc = null;
 
-//Remove any garbage from the top of the XML response
-int pos = xml.indexOf("<?xml ");
-if (pos > 0) {
-  xml = xml.substring(pos);
+try {
+  xmlDoc = XmlParser.parse(xml);
+} catch (JDOMException e) {
+}
+
+return xmlDoc;
+
 }
+
+/**
+* Returns an XML document read from a stream
+*
+* @param in  stream containing XML (not closed)
+*
+* @return XML document, null if not XML or the stream could not be read
+*/
+public static Document getXMLDoc(InputStream in) {
+
+Document xmlDoc = null;
+
 try {
-  SAXBuilder sb = new SAXBuilder();
-  xmlDoc = sb.build(new ByteArrayInputStream(xml.getBytes()));
+  xmlDoc = XmlParser.parse(in);
 } catch (JDOMException e) {
 } catch (IOException e) {
 }
@@ -276,6 +289,9 @@ return xmlDoc;
 * <p>
 * The first element will be returned if more than one exists with the given name.
 * The first child element will be returned if the name is null.
+* <p>
+* Each call searches all the descendants of the parent; use an XmlIndex to look up
+* several elements in the same document.
 *
 * @param root  parent element
 * @param name  name of child element
@@ -0,0 +1,174 @@
+package org.imsglobal.lti;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.jdom2.Document;
+import org.jdom2.Element;
+
+/**
+ * Class to look up the elements of an XML document by name without searching it each time.
+ *
+ * The document is walked once when the index is created, recording the elements with
+ * each name in document order and the position of every element.  Finding the first
+ * descendant of an element with a given name (as LTIUtil.getXmlChild does) is then a
+ * binary search of the elements with that name, rather than a walk of the subtree.
+ * Names are matched on the local name, in any namespace.
+ *
+ * The index is not updated if the document is changed.
+ *
+ * @author  David Block (dave@northcreek.ca)
+ */
+public final class XmlIndex {
+
+	    private final Element root;
+	    private final Map<String, List<Element>> elements = new HashMap<String, List<Element>>();
+	// Position of each element in document order, and of its last descendant
+	    private final Map<Element, int[]> positions = new IdentityHashMap<Element, int[]>();
+	    private int count = 0;
+
+	/**
+	 * Class constructor.
+	 *
+	 * @param doc  document to index
+	 */
+	    public XmlIndex(Document doc) {
+	    	this(doc.getRootElement());
+	    }
+
+	/**
+	 * Class constructor.
+	 *
+	 * @param root  element to index, with its descendants
+	 */
+	    public XmlIndex(Element root) {
+	    	this.root = root;
+	    	add(root);
+	    }
+
+	/**
+	 * Get the root element of the index.
+	 *
+	 * @return root element
+	 */
+	    public Element getRoot() {
+	    	return root;
+	    }
+
+	/**
+	 * Get all the elements with a name, in document order.
+	 *
+	 * @param name  name of elements
+	 *
+	 * @return list of elements (empty if none)
+	 */
+	    public List<Element> getElements(String name) {
+
+	    	List<Element> list = elements.get(name);
+
+	    	return (list != null) ? Collections.unmodifiableList(list) : Collections.<Element>emptyList();
+
+	    }
+
+	/**
+	 * Get the first descendant of the root element with a name.
+	 *
+	 * @param name  name of element
+	 *
+	 * @return element, null if not found
+	 */
+	    public Element getChild(String name) {
+	    	return getChild(root, name);
+	    }
+
+	/**
+	 * Get the first descendant of an element with a name.  The first child element is
+	 * returned if the name is null.
+	 *
+	 * @param parent  parent element (which must be in the index)
+	 * @param name    name of element
+	 *
+	 * @return element, null if not found
+	 */
+	    public Element getChild(Element parent, String name) {
+
+	    	if (parent == null) {
+	    		return null;
+	    	}
+	    	if (name == null) {
+	    		List<Element> children = parent.getChildren();
+	    		return children.isEmpty() ? null : children.get(0);
+	    	}
+	    	int[] range = positions.get(parent);
+	    	List<Element> list = elements.get(name);
+	    	if ((range == null) || (list == null)) {
+	    		return null;
+	    	}
+	// Find the first element with the name after the parent
+	    	int low = 0;
+	    	int high = list.size();
+	    	while (low < high) {
+	    		int mid = (low + high) >>> 1;
+	    		if (positions.get(list.get(mid))[0] <= range[0]) {
+	    			low = mid + 1;
+	    		} else {
+	    			high = mid;
+	    		}
+	    	}
+	    	if ((low < list.size()) && (positions.get(list.get(low))[0] <= range[1])) {
+	    		return list.get(low);
+	    	}
+
+	    	return null;
+
+	    }
+
+	/**
+	 * Get the value of the first descendant of the root element with a name.
+	 *
+	 * @param name  name of element
+	 *
+	 * @return element value, null if not found
+	 */
+	    public String getChildValue(String name) {
+	    	return getChildValue(root, name);
+	    }
+
+	/**
+	 * Get the value of the first descendant of an element with a name.
+	 *
+	 * @param parent  parent element (which must be in the index)
+	 * @param name    name of element
+	 *
+	 * @return element value, null if not found
+	 */
+	    public String getChildValue(Element parent, String name) {
+
+	    	Element child = getChild(parent, name);
+
+	    	return (child != null) ? child.getText() : null;
+
+	    }
+
+	    private void add(Element element) {
+
+	    	int[] range = new int[] {count++, 0};
+	    	positions.put(element, range);
+	    	List<Element> list = elements.get(element.getName());
+	    	if (list == null) {
+	    		list = new ArrayList<Element>();
+	    		elements.put(element.getName(), list);
+	    	}
+	    	list.add(element);
+	    	for (Element child : element.getChildren()) {
+	    		add(child);
+	    	}
+	    	range[1] = count - 1;
+
+	    }
+
+}
@@ -0,0 +1,102 @@
+package org.imsglobal.lti;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.StringReader;
+
+import org.jdom2.Document;
+import org.jdom2.JDOMException;
+import org.jdom2.input.SAXBuilder;
+import org.jdom2.input.sax.XMLReaders;
+
+/**
+ * Class to parse XML responses from tool consumers (such as POX envelopes).
+ *
+ * Each thread keeps its own builder and reuses its SAX parser, rather than creating and
+ * configuring a new one for every response.  Responses come from another system, so
+ * document type declarations are rejected and external entities are never loaded.
+ *
+ * @author  David Block (dave@northcreek.ca)
+ */
+public final class XmlParser {
+
+	    private static final ThreadLocal<SAXBuilder> BUILDER = new ThreadLocal<SAXBuilder>() {
+	    	@Override
+	    	protected SAXBuilder initialValue() {
+	    		return newBuilder();
+	    	}
+	    };
+
+	    private XmlParser() {
+	    }
+
+	/**
+	 * Parse a document from a stream.  The encoding is taken from the XML declaration
+	 * (UTF-8 if there is none).
+	 *
+	 * @param in  stream to read (not closed)
+	 *
+	 * @return document
+	 *
+	 * @throws JDOMException  if the stream is not well-formed XML, or contains a DTD
+	 * @throws IOException    if the stream cannot be read
+	 */
+	    public static Document parse(InputStream in) throws JDOMException, IOException {
+
+	    	SAXBuilder builder = BUILDER.get();
+	    	try {
+	    		return builder.build(in);
+	    	} catch (JDOMException e) {
+	    		BUILDER.remove();
+	    		throw e;
+	    	} catch (IOException e) {
+	    		BUILDER.remove();
+	    		throw e;
+	    	}
+
+	    }
+
+	/**
+	 * Parse a document from a string.  Any text before the XML declaration is ignored.
+	 *
+	 * @param xml  XML to parse
+	 *
+	 * @return document
+	 *
+	 * @throws JDOMException  if the string is not well-formed XML, or contains a DTD
+	 */
+	    public static Document parse(String xml) throws JDOMException {
+
+	// Remove any garbage from the top of the XML response
+	    	int pos = xml.indexOf("<?xml ");
+	    	if (pos > 0) {
+	    		xml = xml.substring(pos);
+	    	}
+	    	SAXBuilder builder = BUILDER.get();
+	    	try {
+	    		return builder.build(new StringReader(xml));
+	    	} catch (JDOMException e) {
+	    		BUILDER.remove();
+	    		throw e;
+	    	} catch (IOException e) {
+	    		BUILDER.remove();
+	    		throw new JDOMException(e.getMessage(), e);
+	    	}
+
+	    }
+
+	    private static SAXBuilder newBuilder() {
+
+	    	SAXBuilder builder = new SAXBuilder(XMLReaders.NONVALIDATING);
+	    	builder.setFeature("http://apache.org/xml/features/disallow-doctype-decl", true);
+	    	builder.setFeature("http://xml.org/sax/features/external-general-entities", false);
+	    	builder.setFeature("http://xml.org/sax/features/external-parameter-entities", false);
+	    	builder.setFeature("http://apache.org/xml/features/nonvalidating/load-external-dtd", false);
+	    	builder.setExpandEntities(false);
+	    	builder.setReuseParser(true);
+
+	    	return builder;
+
+	    }
+
+}
@@ -0,0 +1,131 @@
+package org.imsglobal.lti;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import org.jdom2.Element;
+
+/**
+ * Class to represent a path of child element names (for example "statusinfo/codemajor"),
+ * parsed once so that it can be applied to many elements.
+ *
+ * Each step selects children only, so applying a path visits the children of one element
+ * for each step rather than every descendant.  Names are matched on the local name, in
+ * any namespace.
+ *
+ * @author  David Block (dave@northcreek.ca)
+ */
+public final class XmlPath {
+
+	    private final String path;
+	    private final String[] steps;
+
+	    private XmlPath(String path, String[] steps) {
+	    	this.path = path;
+	    	this.steps = steps;
+	    }
+
+	/**
+	 * Parse a path.
+	 *
+	 * @param path  element names separated by "/"
+	 *
+	 * @return compiled path
+	 */
+	    public static XmlPath compile(String path) {
+
+	    	List<String> steps = new ArrayList<String>();
+	    	for (String step : path.split("/")) {
+	    		if (!step.isEmpty()) {
+	    			steps.add(step);
+	    		}
+	    	}
+	    	if (steps.isEmpty()) {
+	    		throw new IllegalArgumentException("Empty XML path: " + path);
+	    	}
+
+	    	return new XmlPath(path, steps.toArray(new String[steps.size()]));
+
+	    }
+
+	/**
+	 * Get the first element selected by the path.
+	 *
+	 * @param context  element the path starts from
+	 *
+	 * @return element, null if not found
+	 */
+	    public Element select(Element context) {
+
+	    	Element element = context;
+	    	for (int i = 0; (element != null) && (i < steps.length); i++) {
+	    		element = getChild(element, steps[i]);
+	    	}
+
+	    	return element;
+
+	    }
+
+	/**
+	 * Get all the elements selected by the path, in document order.
+	 *
+	 * @param context  element the path starts from
+	 *
+	 * @return list of elements (empty if none)
+	 */
+	    public List<Element> selectAll(Element context) {
+
+	    	if (context == null) {
+	    		return Collections.emptyList();
+	    	}
+	    	List<Element> current = Collections.singletonList(context);
+	    	for (String step : steps) {
+	    		List<Element> next = new ArrayList<Element>();
+	    		for (Element element : current) {
+	    			for (Element child : element.getChildren()) {
+	    				if (child.getName().equals(step)) {
+	    					next.add(child);
+	    				}
+	    			}
+	    		}
+	    		current = next;
+	    	}
+
+	    	return current;
+
+	    }
+
+	/**
+	 * Get the value of the first element selected by the path.
+	 *
+	 * @param context  element the path starts from
+	 *
+	 * @return element value, null if not found
+	 */
+	    public String valueOf(Element context) {
+
+	    	Element element = select(context);
+
+	    	return (element != null) ? element.getText() : null;
+
+	    }
+
+	    @Override
+	    public String toString() {
+	    	return path;
+	    }
+
+	    private static Element getChild(Element parent, String name) {
+
+	    	for (Element child : parent.getChildren()) {
+	    		if (child.getName().equals(name)) {
+	    			return child;
+	    		}
+	    	}
+
+	    	return null;
+
+	    }
+
+}
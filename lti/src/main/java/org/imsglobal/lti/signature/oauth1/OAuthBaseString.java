@@ -0,0 +1,324 @@
+package org.imsglobal.lti.signature.oauth1;
+
+import java.io.UnsupportedEncodingException;
+import java.net.URI;
+import java.net.URISyntaxException;
+import java.net.URLDecoder;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+
+/**
+ * Class to build OAuth 1.0a signature base strings (RFC 5849 section 3.4.1).
+ *
+ * Each parameter name and value is percent-encoded (RFC 3986) once, straight into a
+ * per-thread buffer, and the encoded pairs are sorted in a single pass; the normalised
+ * parameter string is then encoded a second time as it is written into the base string,
+ * rather than being built separately and encoded again.  Parameters in the query of the
+ * URL are included, as they are by the net.oauth library.
+ *
+ * @author  David Block (dave@northcreek.ca)
+ */
+public final class OAuthBaseString {
+
+	/**
+	 * Name of the parameter which holds the signature (excluded from the base string).
+	 */
+	    public static final String SIGNATURE = "oauth_signature";
+
+	// Separates an encoded name from its encoded value while sorting; it sorts before any
+	// character which can appear in an encoded string
+	    private static final char PAIR_SEPARATOR = '\u0000';
+	    private static final char[] HEX = "0123456789ABCDEF".toCharArray();
+	    private static final boolean[] UNRESERVED = new boolean[128];
+	    static {
+	    	for (char c = 'a'; c <= 'z'; c++) {
+	    		UNRESERVED[c] = true;
+	    	}
+	    	for (char c = 'A'; c <= 'Z'; c++) {
+	    		UNRESERVED[c] = true;
+	    	}
+	    	for (char c = '0'; c <= '9'; c++) {
+	    		UNRESERVED[c] = true;
+	    	}
+	    	UNRESERVED['-'] = true;
+	    	UNRESERVED['.'] = true;
+	    	UNRESERVED['_'] = true;
+	    	UNRESERVED['~'] = true;
+	    }
+
+	    private static final ThreadLocal<StringBuilder> BUFFER = new ThreadLocal<StringBuilder>() {
+	    	@Override
+	    	protected StringBuilder initialValue() {
+	    		return new StringBuilder(1024);
+	    	}
+	    };
+
+	    private OAuthBaseString() {
+	    }
+
+	/**
+	 * Build the signature base string for a message whose parameters are held by name.
+	 *
+	 * @param method  HTTP method
+	 * @param url     request URL (any query parameters are included in the base string)
+	 * @param params  message parameters
+	 *
+	 * @return signature base string
+	 */
+	    public static String build(String method, String url, Map<String, List<String>> params) {
+
+	    	int count = 0;
+	    	for (List<String> values : params.values()) {
+	    		count += (values != null) ? values.size() : 0;
+	    	}
+	    	String query = getQuery(url);
+	    	String[] pairs = new String[count + countQueryPairs(query)];
+	    	StringBuilder sb = BUFFER.get();
+	    	int n = 0;
+	    	for (Map.Entry<String, List<String>> entry : params.entrySet()) {
+	    		if (SIGNATURE.equals(entry.getKey()) || (entry.getValue() == null)) {
+	    			continue;
+	    		}
+	    		for (String value : entry.getValue()) {
+	    			pairs[n++] = encodePair(sb, entry.getKey(), value);
+	    		}
+	    	}
+	    	n = addQueryPairs(sb, query, pairs, n);
+
+	    	return build(sb, method, url, pairs, n);
+
+	    }
+
+	/**
+	 * Build the signature base string for a message whose parameters are held as a list.
+	 *
+	 * @param method  HTTP method
+	 * @param url     request URL (any query parameters are included in the base string)
+	 * @param params  message parameters
+	 *
+	 * @return signature base string
+	 */
+	    public static String build(String method, String url, Collection<? extends Map.Entry<String, String>> params) {
+
+	    	String query = getQuery(url);
+	    	String[] pairs = new String[params.size() + countQueryPairs(query)];
+	    	StringBuilder sb = BUFFER.get();
+	    	int n = 0;
+	    	for (Map.Entry<String, String> entry : params) {
+	    		if (!SIGNATURE.equals(entry.getKey())) {
+	    			pairs[n++] = encodePair(sb, entry.getKey(), entry.getValue());
+	    		}
+	    	}
+	    	n = addQueryPairs(sb, query, pairs, n);
+
+	    	return build(sb, method, url, pairs, n);
+
+	    }
+
+	/**
+	 * Percent-encode a string as required by RFC 3986: every character other than the
+	 * unreserved characters (letters, digits, '-', '.', '_' and '~') is encoded as its
+	 * UTF-8 bytes.
+	 *
+	 * @param value  string to encode (null is treated as empty)
+	 *
+	 * @return encoded string
+	 */
+	    public static String percentEncode(String value) {
+
+	    	if ((value == null) || value.isEmpty()) {
+	    		return "";
+	    	}
+	    	StringBuilder sb = BUFFER.get();
+	    	sb.setLength(0);
+	    	percentEncode(value, sb);
+
+	    	return sb.toString();
+
+	    }
+
+	/**
+	 * Percent-encode a string as required by RFC 3986, appending the result to a buffer.
+	 *
+	 * @param value  string to encode (null is treated as empty)
+	 * @param out    buffer to append to
+	 */
+	    public static void percentEncode(String value, StringBuilder out) {
+
+	    	if (value == null) {
+	    		return;
+	    	}
+	    	int len = value.length();
+	    	for (int i = 0; i < len; i++) {
+	    		char c = value.charAt(i);
+	    		if ((c < 128) && UNRESERVED[c]) {
+	    			out.append(c);
+	    		} else if (c < 0x80) {
+	    			appendByte(out, c);
+	    		} else if (c < 0x800) {
+	    			appendByte(out, 0xC0 | (c >> 6));
+	    			appendByte(out, 0x80 | (c & 0x3F));
+	    		} else if (Character.isHighSurrogate(c) && (i + 1 < len) && Character.isLowSurrogate(value.charAt(i + 1))) {
+	    			int cp = Character.toCodePoint(c, value.charAt(++i));
+	    			appendByte(out, 0xF0 | (cp >> 18));
+	    			appendByte(out, 0x80 | ((cp >> 12) & 0x3F));
+	    			appendByte(out, 0x80 | ((cp >> 6) & 0x3F));
+	    			appendByte(out, 0x80 | (cp & 0x3F));
+	    		} else if (Character.isSurrogate(c)) {
+	// Unpaired surrogate: encode as the replacement character, as String.getBytes would
+	    			appendByte(out, 0xEF);
+	    			appendByte(out, 0xBF);
+	    			appendByte(out, 0xBD);
+	    		} else {
+	    			appendByte(out, 0xE0 | (c >> 12));
+	    			appendByte(out, 0x80 | ((c >> 6) & 0x3F));
+	    			appendByte(out, 0x80 | (c & 0x3F));
+	    		}
+	    	}
+
+	    }
+
+	/**
+	 * Normalise a request URL as required for the base string: lower-case scheme and host,
+	 * default port omitted, and no query or fragment.
+	 *
+	 * @param url  request URL
+	 *
+	 * @return normalised URL
+	 */
+	    public static String normalizeUrl(String url) {
+
+	    	URI uri;
+	    	try {
+	    		uri = new URI(url);
+	    	} catch (URISyntaxException e) {
+	    		return url;
+	    	}
+	    	if ((uri.getScheme() == null) || (uri.getRawAuthority() == null)) {
+	    		return url;
+	    	}
+	    	String scheme = uri.getScheme().toLowerCase(Locale.ROOT);
+	    	String authority = uri.getRawAuthority().toLowerCase(Locale.ROOT);
+	    	boolean dropPort = ("http".equals(scheme) && (uri.getPort() == 80)) ||
+	    		("https".equals(scheme) && (uri.getPort() == 443));
+	    	if (dropPort) {
+	    		authority = authority.substring(0, authority.lastIndexOf(':'));
+	    	}
+	    	String path = uri.getRawPath();
+	    	if ((path == null) || path.isEmpty()) {
+	    		path = "/";
+	    	}
+
+	    	return scheme + "://" + authority + path;
+
+	    }
+
+	    private static String build(StringBuilder sb, String method, String url, String[] pairs, int n) {
+
+	    	Arrays.sort(pairs, 0, n);
+	    	sb.setLength(0);
+	    	sb.append(method.toUpperCase(Locale.ROOT)).append('&');
+	    	percentEncode(normalizeUrl(url), sb);
+	    	sb.append('&');
+	    	for (int i = 0; i < n; i++) {
+	    		if (i > 0) {
+	    			sb.append("%26");
+	    		}
+	    		String pair = pairs[i];
+	    		int len = pair.length();
+	    		for (int j = 0; j < len; j++) {
+	    			char c = pair.charAt(j);
+	    			if (c == PAIR_SEPARATOR) {
+	    				sb.append("%3D");
+	    			} else if (c == '%') {
+	    				sb.append("%25");
+	    			} else {
+	    				sb.append(c);
+	    			}
+	    		}
+	    	}
+
+	    	return sb.toString();
+
+	    }
+
+	    private static String encodePair(StringBuilder sb, String name, String value) {
+
+	    	sb.setLength(0);
+	    	percentEncode(name, sb);
+	    	sb.append(PAIR_SEPARATOR);
+	    	percentEncode(value, sb);
+
+	    	return sb.toString();
+
+	    }
+
+	    private static String getQuery(String url) {
+
+	    	int start = url.indexOf('?');
+	    	if (start < 0) {
+	    		return null;
+	    	}
+	    	int end = url.indexOf('#', start);
+
+	    	return url.substring(start + 1, (end < 0) ? url.length() : end);
+
+	    }
+
+	    private static int countQueryPairs(String query) {
+
+	    	if ((query == null) || query.isEmpty()) {
+	    		return 0;
+	    	}
+	    	int count = 1;
+	    	for (int i = 0; i < query.length(); i++) {
+	    		if (query.charAt(i) == '&') {
+	    			count++;
+	    		}
+	    	}
+
+	    	return count;
+
+	    }
+
+	    private static int addQueryPairs(StringBuilder sb, String query, String[] pairs, int n) {
+
+	    	if ((query == null) || query.isEmpty()) {
+	    		return n;
+	    	}
+	    	for (String item : query.split("&")) {
+	    		if (item.isEmpty()) {
+	    			continue;
+	    		}
+	    		int index = item.indexOf('=');
+	    		String name = decode((index < 0) ? item : item.substring(0, index));
+	    		String value = (index < 0) ? "" : decode(item.substring(index + 1));
+	    		if (!SIGNATURE.equals(name)) {
+	    			pairs[n++] = encodePair(sb, name, value);
+	    		}
+	    	}
+
+	    	return n;
+
+	    }
+
+	    private static String decode(String value) {
+
+	    	try {
+	    		return URLDecoder.decode(value, "UTF-8");
+	    	} catch (UnsupportedEncodingException | IllegalArgumentException e) {
+	    		return value;
+	    	}
+
+	    }
+
+	    private static void appendByte(StringBuilder out, int b) {
+
+	    	out.append('%').append(HEX[(b >> 4) & 0x0F]).append(HEX[b & 0x0F]);
+
+	    }
+
+}
@@ -0,0 +1,256 @@
+package org.imsglobal.lti.signature.oauth1;
+
+import java.io.IOException;
+import java.net.URISyntaxException;
+import java.nio.charset.StandardCharsets;
+import java.security.GeneralSecurityException;
+import java.security.MessageDigest;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ThreadLocalRandom;
+
+import javax.crypto.Mac;
+import javax.crypto.spec.SecretKeySpec;
+
+import org.apache.commons.codec.binary.Base64;
+import org.apache.commons.lang3.StringUtils;
+
+import net.oauth.OAuth;
+import net.oauth.OAuthAccessor;
+import net.oauth.OAuthConsumer;
+import net.oauth.OAuthException;
+import net.oauth.OAuthMessage;
+import net.oauth.OAuthProblemException;
+import net.oauth.OAuthValidator;
+import net.oauth.SimpleOAuthValidator;
+
+/**
+ * Class to sign and verify OAuth 1.0 messages for one consumer key and secret.
+ *
+ * A context is held by each tool consumer (and shared with the copies made from the
+ * consumer cache), so the accessor, validator and HMAC key are only created once for each
+ * consumer rather than for every message.  HMAC-SHA1 signatures are calculated
+ * with a Mac held for each thread, already initialised with the key, so no provider
+ * lookup or key setup is needed per message.  Other signature methods are passed on to
+ * the OAuth library.
+ *
+ * @author  David Block (dave@northcreek.ca)
+ */
+public final class OAuthSigningContext {
+
+	/**
+	 * Maximum age of a message timestamp accepted on verification.
+	 */
+	    public static final long MAX_TIMESTAMP_AGE = 5 * 60 * 1000L;  // in milliseconds (5 minutes)
+
+	    private static final String ALGORITHM = "HmacSHA1";
+
+	    private final String key;
+	    private final String secret;
+	    private final OAuthAccessor accessor;
+	    private final OAuthValidator validator;
+	    private final ThreadLocal<Mac> mac;
+
+	    private OAuthSigningContext(String key, String secret) {
+	    	this.key = key;
+	    	this.secret = secret;
+	    	this.accessor = new OAuthAccessor(new OAuthConsumer("about:blank", key, secret, null));
+	    	this.validator = new SimpleOAuthValidator();
+	// The token secret is always empty for LTI
+	    	final SecretKeySpec keySpec = new SecretKeySpec(
+	    		(OAuth.percentEncode(secret) + "&").getBytes(StandardCharsets.UTF_8), ALGORITHM);
+	    	this.mac = new ThreadLocal<Mac>() {
+	    		@Override
+	    		protected Mac initialValue() {
+	    			try {
+	    				Mac mac = Mac.getInstance(ALGORITHM);
+	    				mac.init(keySpec);
+	    				return mac;
+	    			} catch (GeneralSecurityException e) {
+	    				throw new IllegalStateException(e);
+	    			}
+	    		}
+	    	};
+	    }
+
+	/**
+	 * Create a signing context for a consumer.  Callers signing more than one message for
+	 * the same consumer should keep the context rather than create a new one each time;
+	 * see ToolConsumer.getSigningContext().
+	 *
+	 * @param key     consumer key
+	 * @param secret  shared secret
+	 *
+	 * @return signing context
+	 */
+	    public static OAuthSigningContext forConsumer(String key, String secret) {
+
+	    	return new OAuthSigningContext(key, (secret != null) ? secret : "");
+
+	    }
+
+	/**
+	 * Check whether this context was created for a consumer key and secret.
+	 *
+	 * @param key     consumer key
+	 * @param secret  shared secret
+	 *
+	 * @return <code>true</code> if the key and secret are those of this context
+	 */
+	    public boolean matches(String key, String secret) {
+
+	    	return StringUtils.equals(this.key, key) && this.secret.equals((secret != null) ? secret : "");
+
+	    }
+
+	    public String getKey() {
+	    	return key;
+	    }
+
+	    public OAuthAccessor getAccessor() {
+	    	return accessor;
+	    }
+
+	/**
+	 * Calculate the HMAC-SHA1 signature of a signature base string.
+	 *
+	 * @param baseString  signature base string
+	 *
+	 * @return Base64-encoded signature
+	 */
+	    public String sign(String baseString) {
+
+	    	return Base64.encodeBase64String(hmac(baseString));
+
+	    }
+
+	/**
+	 * Check an HMAC-SHA1 signature, taking the same time whichever byte differs.
+	 *
+	 * @param baseString  signature base string
+	 * @param signature   Base64-encoded signature to check
+	 *
+	 * @return <code>true</code> if the signature is valid
+	 */
+	    public boolean verify(String baseString, String signature) {
+
+	    	if (signature == null) {
+	    		return false;
+	    	}
+
+	    	return MessageDigest.isEqual(hmac(baseString), Base64.decodeBase64(signature));
+
+	    }
+
+	/**
+	 * Add the OAuth parameters and signature to a message.  Any OAuth parameters already
+	 * present (other than the signature) are retained.
+	 *
+	 * @param message  message to sign
+	 *
+	 * @throws IOException         if the message parameters cannot be read
+	 * @throws OAuthException      if the message cannot be signed
+	 * @throws URISyntaxException  if the message URL is invalid
+	 */
+	    public void sign(OAuthMessage message) throws IOException, OAuthException, URISyntaxException {
+
+	    	String method = message.getParameter(OAuth.OAUTH_SIGNATURE_METHOD);
+	    	if ((method != null) && !OAuth.HMAC_SHA1.equals(method)) {
+	    		message.addRequiredParameters(accessor);
+	    		return;
+	    	}
+	    	if (method == null) {
+	    		message.addParameter(OAuth.OAUTH_SIGNATURE_METHOD, OAuth.HMAC_SHA1);
+	    	}
+	    	if (message.getParameter(OAuth.OAUTH_CONSUMER_KEY) == null) {
+	    		message.addParameter(OAuth.OAUTH_CONSUMER_KEY, key);
+	    	}
+	    	if (message.getParameter(OAuth.OAUTH_TIMESTAMP) == null) {
+	    		message.addParameter(OAuth.OAUTH_TIMESTAMP, Long.toString(System.currentTimeMillis() / 1000L));
+	    	}
+	    	if (message.getParameter(OAuth.OAUTH_NONCE) == null) {
+	    		message.addParameter(OAuth.OAUTH_NONCE, Long.toHexString(ThreadLocalRandom.current().nextLong()) +
+	    			Long.toHexString(System.nanoTime()));
+	    	}
+	    	if (message.getParameter(OAuth.OAUTH_VERSION) == null) {
+	    		message.addParameter(OAuth.OAUTH_VERSION, OAuth.VERSION_1_0);
+	    	}
+	    	message.addParameter(OAuth.OAUTH_SIGNATURE, sign(OAuthBaseString.build(message.method, message.URL, message.getParameters())));
+
+	    }
+
+	/**
+	 * Check the version, timestamp and signature of a received message.  Nonce values are
+	 * not checked here; they are recorded by the data connector.
+	 *
+	 * @param method      HTTP method
+	 * @param url         request URL
+	 * @param params      message parameters
+	 * @param baseString  signature base string of the message (as built by OAuthBaseString)
+	 *
+	 * @throws IOException            if the message parameters cannot be read
+	 * @throws OAuthProblemException  if the message is not valid
+	 * @throws OAuthException         if the message cannot be checked
+	 * @throws URISyntaxException     if the message URL is invalid
+	 */
+	    public void validate(String method, String url, Map<String, List<String>> params, String baseString)
+	    		throws IOException, OAuthException, URISyntaxException {
+
+	    	if (!OAuth.HMAC_SHA1.equals(getFirst(params, OAuth.OAUTH_SIGNATURE_METHOD))) {
+	    		List<Map.Entry<String, String>> entries = new ArrayList<Map.Entry<String, String>>();
+	    		for (Map.Entry<String, List<String>> entry : params.entrySet()) {
+	    			for (String value : entry.getValue()) {
+	    				entries.add(new OAuth.Parameter(entry.getKey(), value));
+	    			}
+	    		}
+	    		validator.validateMessage(new OAuthMessage(method, url, entries), accessor);
+	    		return;
+	    	}
+	    	String version = getFirst(params, OAuth.OAUTH_VERSION);
+	    	if ((version != null) && !OAuth.VERSION_1_0.equals(version)) {
+	    		OAuthProblemException problem = new OAuthProblemException(OAuth.Problems.VERSION_REJECTED);
+	    		problem.setParameter("oauth_acceptable_versions", OAuth.VERSION_1_0);
+	    		throw problem;
+	    	}
+	    	long timestamp;
+	    	try {
+	    		timestamp = Long.parseLong(getFirst(params, OAuth.OAUTH_TIMESTAMP)) * 1000L;
+	    	} catch (NumberFormatException e) {
+	    		OAuthProblemException problem = new OAuthProblemException(OAuth.Problems.PARAMETER_ABSENT);
+	    		problem.setParameter("oauth_parameters_absent", OAuth.OAUTH_TIMESTAMP);
+	    		throw problem;
+	    	}
+	    	long now = System.currentTimeMillis();
+	    	if (Math.abs(now - timestamp) > MAX_TIMESTAMP_AGE) {
+	    		OAuthProblemException problem = new OAuthProblemException(OAuth.Problems.TIMESTAMP_REFUSED);
+	    		problem.setParameter("oauth_acceptable_timestamps", ((now - MAX_TIMESTAMP_AGE) / 1000L) + "-" +
+	    			((now + MAX_TIMESTAMP_AGE) / 1000L));
+	    		throw problem;
+	    	}
+	    	String signature = getFirst(params, OAuth.OAUTH_SIGNATURE);
+	    	if (!verify(baseString, signature)) {
+	    		OAuthProblemException problem = new OAuthProblemException(OAuth.Problems.SIGNATURE_INVALID);
+	    		problem.setParameter("oauth_signature", signature);
+	    		problem.setParameter("oauth_signature_base_string", baseString);
+	    		problem.setParameter("oauth_signature_method", OAuth.HMAC_SHA1);
+	    		throw problem;
+	    	}
+
+	    }
+
+	    private static String getFirst(Map<String, List<String>> params, String name) {
+
+	    	List<String> values = params.get(name);
+
+	    	return ((values != null) && !values.isEmpty()) ? values.get(0) : null;
+
+	    }
+
+	    private byte[] hmac(String baseString) {
+
+	    	return mac.get().doFinal(baseString.getBytes(StandardCharsets.UTF_8));
+
+	    }
+
+}
@@ -2,12 +2,9 @@ package org.imsglobal.lti.signature.oauth1;
 
 import java.util.List;
 import java.util.Map;
-import java.util.SortedMap;
-import java.util.TreeMap;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 
-import org.apache.commons.lang3.StringUtils;
 import org.joda.time.format.DateTimeFormatter;
 import org.joda.time.format.ISODateTimeFormat;
 
@@ -17,9 +14,7 @@ import java.util.HashMap;
 import java.util.LinkedHashMap;
 import java.util.LinkedList;
 import java.io.UnsupportedEncodingException;
-import java.net.URL;
 import java.net.URLDecoder;
-import java.net.URLEncoder;
 
 public class OAuthUtil {
 	public static DateTimeFormatter dateFormatter = ISODateTimeFormat.dateTime();
@@ -33,16 +28,7 @@ public class OAuthUtil {
 	 */
 
 	    public static String urlencode_rfc3986(String input) {
-	    	try {
-	    		return StringUtils.replace(
-	    				StringUtils.replace(
-	    						URLEncoder.encode(input, "UTF-8"),
-	    						" ", "+"), 
-	    						"~", "%7E");
-	    	} catch (UnsupportedEncodingException e) {
-	    		e.printStackTrace();
-	    		return "";
-	    	}
+	    	return OAuthBaseString.percentEncode(input);
 	    }
 	    
 	    public static List<String> urlencode_rfc3986_list(Iterable<String> input) {
@@ -97,6 +83,9 @@ public class OAuthUtil {
 	    public static Map<String, List<String>> parse_parameters(String input) 
 	    		throws UnsupportedEncodingException {
 			final Map<String, List<String>> query_pairs = new LinkedHashMap<String, List<String>>();
+			if ((input == null) || input.isEmpty()) {
+				return query_pairs;  // no query string
+			}
 			final String[] pairs = input.split("&");
 			for (String pair : pairs) {
 				final int idx = pair.indexOf("=");
@@ -116,31 +105,27 @@ public class OAuthUtil {
 
 	        if (parameters == null) return "";
 
-	        // UrlEncode both keys and values
-	        Map<String, List<String>> encParams = new TreeMap<String, List<String>>();
-
-	        for (String key : parameters.keySet()) {
-	        	String encKey = OAuthUtil.urlencode_rfc3986(key);
-	        	List<String> valueList = parameters.get(key);
-	        	List<String> encValues = new ArrayList<String>();
-	        	for (String value : valueList) {
-	        		String encVal = OAuthUtil.urlencode_rfc3986(value);
-	        		encValues.add(encVal);
+	        // UrlEncode both keys and values, then sort by key and value in one pass
+	        List<String> pairs = new ArrayList<String>();
+	        StringBuilder sb = new StringBuilder();
+	        for (Map.Entry<String, List<String>> entry : parameters.entrySet()) {
+	        	for (String value : entry.getValue()) {
+	        		sb.setLength(0);
+	        		OAuthBaseString.percentEncode(entry.getKey(), sb);
+	        		sb.append('\u0000');
+	        		OAuthBaseString.percentEncode(value, sb);
+	        		pairs.add(sb.toString());
 	        	}
-	        	Collections.sort(encValues);
-	        	encParams.put(encKey, encValues);
 	        }
-	        
-	        StringBuilder sb = new StringBuilder();
-	        for (String key : encParams.keySet()) {
-	        	for (String val : encParams.get(key)) {
-	        		sb.append(key);
-	        		sb.append("=");
-	        		sb.append(val);
+	        Collections.sort(pairs);
+
+	        sb.setLength(0);
+	        for (String pair : pairs) {
+	        	if (sb.length() > 0) {
 	        		sb.append("&");
 	        	}
+	        	sb.append(pair.replace('\u0000', '='));
 	        }
-	        sb.deleteCharAt(sb.length()-1);
 	        return sb.toString();
 	    }
 }
@@ -82,6 +82,18 @@ public class ConsumerNonce {
 
 	    }
 
+	/**
+	 * Record the nonce value in the database if it has not already been used+
+	 *
+	 * @return boolean True if the nonce value was new and has been recorded
+	 */
+	    public boolean checkAndRecord()
+	    {
+
+	        return this.consumer.getDataConnector().checkAndRecordNonce(this);
+
+	    }
+
 	/**
 	 * Get tool consumer+
 	 *
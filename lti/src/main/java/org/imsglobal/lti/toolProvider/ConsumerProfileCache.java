@@ -0,0 +1,303 @@
+package org.imsglobal.lti.toolProvider;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
+
+import org.apache.http.client.methods.HttpGet;
+import org.imsglobal.lti.HttpTransport;
+import org.imsglobal.lti.toolProvider.mediaType.ConsumerProfile;
+import org.json.simple.JSONObject;
+import org.json.simple.parser.JSONParser;
+import org.json.simple.parser.ParseException;
+
+/**
+ * Class to hold tool consumer profiles fetched from their URLs, so that repeated
+ * launches from the same tool consumer copy one parsed profile rather than each
+ * downloading and parsing it.
+ *
+ * A profile is kept for the time given by the max-age directive of its Cache-Control
+ * header (or the default time-to-live if there is none), and is not kept at all if the
+ * header includes no-store.  Once an entry has expired and the response included an
+ * ETag, the profile is revalidated with If-None-Match, so an unchanged profile is not
+ * downloaded again.  Only one request for a URL is made at a time: other threads
+ * wanting the same profile wait for its result.  The least recently used entry is
+ * dropped once the cache is full.
+ *
+ * @author  David Block (dave@northcreek.ca)
+ */
+public class ConsumerProfileCache {
+
+	/**
+	 * Media type of a tool consumer profile.
+	 */
+	    public static final String MEDIA_TYPE = "application/vnd.ims.lti.v2.toolconsumerprofile+json";
+	/**
+	 * Default number of profiles held.
+	 */
+	    public static final int DEFAULT_MAX_ENTRIES = 100;
+	/**
+	 * Default life of a cached profile whose response has no max-age.
+	 */
+	    public static final long DEFAULT_TTL = 5 * 60 * 1000L;  // in milliseconds (5 minutes)
+
+	    private static ConsumerProfileCache defaultCache = null;
+
+	    private final HttpTransport transport;
+	    private final int maxEntries;
+	    private final long ttl;
+	    private final Map<String, CachedProfile> entries;
+	    private final ConcurrentMap<String, CompletableFuture<CachedProfile>> inFlight =
+	    	new ConcurrentHashMap<String, CompletableFuture<CachedProfile>>();
+
+	/**
+	 * Class constructor using the default transport, size and time-to-live.
+	 */
+	    public ConsumerProfileCache() {
+	    	this(null, DEFAULT_MAX_ENTRIES, DEFAULT_TTL);
+	    }
+
+	/**
+	 * Class constructor.
+	 *
+	 * @param transport   transport used to fetch profiles (null for the default transport)
+	 * @param maxEntries  maximum number of profiles to hold
+	 * @param ttl         time-to-live in milliseconds of a profile whose response has no max-age
+	 */
+	    public ConsumerProfileCache(HttpTransport transport, int maxEntries, long ttl) {
+	    	this.transport = transport;
+	    	this.maxEntries = maxEntries;
+	    	this.ttl = ttl;
+	    	this.entries = new LinkedHashMap<String, CachedProfile>(16, 0.75f, true) {
+				private static final long serialVersionUID = 1L;
+
+				@Override
+	    		protected boolean removeEldestEntry(Map.Entry<String, CachedProfile> eldest) {
+	    			return size() > ConsumerProfileCache.this.maxEntries;
+	    		}
+	    	};
+	    }
+
+	/**
+	 * Get the cache shared by the application, creating one with the default settings
+	 * if none has been set.
+	 *
+	 * @return cache
+	 */
+	    public static synchronized ConsumerProfileCache getDefault() {
+
+	    	if (defaultCache == null) {
+	    		defaultCache = new ConsumerProfileCache();
+	    	}
+
+	    	return defaultCache;
+
+	    }
+
+	/**
+	 * Set the cache shared by the application.
+	 *
+	 * @param cache  cache (null to revert to the default settings)
+	 */
+	    public static synchronized void setDefault(ConsumerProfileCache cache) {
+
+	    	defaultCache = cache;
+
+	    }
+
+	/**
+	 * Get a tool consumer profile, fetching or revalidating it if there is no current
+	 * entry for its URL.  Each caller is given its own copy of the cached profile, so it
+	 * may be changed without affecting other tool consumers.
+	 *
+	 * @param url  URL of the profile
+	 *
+	 * @return profile
+	 *
+	 * @throws IOException     if the profile could not be fetched
+	 * @throws ParseException  if the profile is not a valid JSON object
+	 */
+	    public ConsumerProfile get(String url) throws IOException, ParseException {
+
+	    	CachedProfile cached = lookup(url);
+	    	if ((cached != null) && cached.isCurrent()) {
+	    		return cached.profile.copy();
+	    	}
+	    	CompletableFuture<CachedProfile> future = new CompletableFuture<CachedProfile>();
+	    	CompletableFuture<CachedProfile> pending = inFlight.putIfAbsent(url, future);
+	    	if (pending != null) {
+	    		return await(pending).profile.copy();
+	    	}
+	    	try {
+	// Another thread may have completed a request since the entry was looked up
+	    		cached = lookup(url);
+	    		if ((cached == null) || !cached.isCurrent()) {
+	    			cached = fetch(url, cached);
+	    		}
+	    		future.complete(cached);
+	    		return cached.profile.copy();
+	    	} catch (IOException | ParseException | RuntimeException e) {
+	    		future.completeExceptionally(e);
+	    		throw e;
+	    	} finally {
+	    		inFlight.remove(url, future);
+	    	}
+
+	    }
+
+	/**
+	 * Remove a profile from the cache.
+	 *
+	 * @param url  URL of the profile
+	 */
+	    public void invalidate(String url) {
+	    	synchronized (entries) {
+	    		entries.remove(url);
+	    	}
+	    }
+
+	/**
+	 * Remove all profiles from the cache.
+	 */
+	    public void clear() {
+	    	synchronized (entries) {
+	    		entries.clear();
+	    	}
+	    }
+
+	/**
+	 * Get the number of profiles currently held (including any which have expired).
+	 *
+	 * @return number of entries
+	 */
+	    public int size() {
+	    	synchronized (entries) {
+	    		return entries.size();
+	    	}
+	    }
+
+	    private CachedProfile lookup(String url) {
+	    	synchronized (entries) {
+	    		return entries.get(url);
+	    	}
+	    }
+
+	/**
+	 * Request a profile, conditionally if an expired entry has an ETag, and update the
+	 * cache with the response.
+	 */
+	    private CachedProfile fetch(String url, CachedProfile stale) throws IOException, ParseException {
+
+	    	HttpGet get = new HttpGet(url);
+	    	get.addHeader("Accept", MEDIA_TYPE);
+	    	if ((stale != null) && (stale.etag != null)) {
+	    		get.addHeader("If-None-Match", stale.etag);
+	    	}
+	    	HttpTransport http = (transport != null) ? transport : HttpTransport.getDefault();
+	    	HttpTransport.Response response = http.execute(get);
+	    	CachedProfile cached;
+	    	if ((response.getStatus() == 304) && (stale != null)) {
+	    		String etag = response.getHeader("ETag");
+	    		cached = new CachedProfile(stale.profile, (etag != null) ? etag : stale.etag, getExpiry(response));
+	    	} else if (response.isOk() && (response.getStatus() != 304)) {
+	    		Object json = new JSONParser().parse(response.getBody());
+	    		if (!(json instanceof JSONObject)) {
+	    			throw new ParseException(ParseException.ERROR_UNEXPECTED_TOKEN, json);
+	    		}
+	    		cached = new CachedProfile(ConsumerProfile.fromJson((JSONObject)json), response.getHeader("ETag"), getExpiry(response));
+	    	} else {
+	    		throw new IOException("Tool consumer profile request returned status " + response.getStatus());
+	    	}
+	    	synchronized (entries) {
+	    		if (cached.expires >= 0) {
+	    			entries.put(url, cached);
+	    		} else {
+	    			entries.remove(url);
+	    		}
+	    	}
+
+	    	return cached;
+
+	    }
+
+	/**
+	 * Get the time until which a response may be used without revalidation.
+	 *
+	 * @return time in milliseconds, or -1 if the response must not be stored
+	 */
+	    private long getExpiry(HttpTransport.Response response) {
+
+	    	long now = System.currentTimeMillis();
+	    	long expires = now + ttl;
+	    	String cacheControl = response.getHeader("Cache-Control");
+	    	if (cacheControl != null) {
+	    		for (String directive : cacheControl.split(",")) {
+	    			directive = directive.trim().toLowerCase();
+	    			if (directive.equals("no-store")) {
+	    				return -1L;
+	    			} else if (directive.equals("no-cache")) {
+	    				expires = now;
+	    			} else if (directive.startsWith("max-age=")) {
+	    				try {
+	    					long maxAge = Long.parseLong(directive.substring(8).replace("\"", "").trim());
+	    					expires = now + (Math.max(maxAge, 0L) * 1000L);
+	    				} catch (NumberFormatException e) {
+	    					expires = now;
+	    				}
+	    			}
+	    		}
+	    	}
+
+	    	return expires;
+
+	    }
+
+	    private static CachedProfile await(CompletableFuture<CachedProfile> pending) throws IOException, ParseException {
+
+	    	try {
+	    		return pending.get();
+	    	} catch (InterruptedException e) {
+	    		Thread.currentThread().interrupt();
+	    		throw new InterruptedIOException("Interrupted waiting for tool consumer profile");
+	    	} catch (ExecutionException e) {
+	    		Throwable cause = e.getCause();
+	    		if (cause instanceof IOException) {
+	    			throw (IOException)cause;
+	    		} else if (cause instanceof ParseException) {
+	    			throw (ParseException)cause;
+	    		} else if (cause instanceof RuntimeException) {
+	    			throw (RuntimeException)cause;
+	    		}
+	    		throw new IOException(cause);
+	    	}
+
+	    }
+
+	/**
+	 * Parsed profile with its validator and expiry time.  The profile itself is never
+	 * given out, only copies of it.
+	 */
+	    private static class CachedProfile {
+
+	    	private final ConsumerProfile profile;
+	    	private final String etag;
+	    	private final long expires;
+
+	    	private CachedProfile(ConsumerProfile profile, String etag, long expires) {
+	    		this.profile = profile;
+	    		this.etag = etag;
+	    		this.expires = expires;
+	    	}
+
+	    	private boolean isCurrent() {
+	    		return expires > System.currentTimeMillis();
+	    	}
+
+	    }
+
+}
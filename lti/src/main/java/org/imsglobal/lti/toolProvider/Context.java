@@ -8,6 +8,7 @@ import org.apache.commons.lang3.StringUtils;
 import org.imsglobal.lti.LTIMessage;
 import org.imsglobal.lti.LTIUtil;
 import org.imsglobal.lti.toolProvider.dataConnector.DataConnector;
+import org.imsglobal.lti.toolProvider.dataConnector.RecordSnapshot;
 import org.imsglobal.lti.toolProvider.service.Membership;
 import org.imsglobal.lti.toolProvider.service.Service;
 import org.imsglobal.lti.toolProvider.service.ToolSettings;
@@ -80,6 +81,12 @@ public class Context implements LTISource {
 	 * @var boolean settingsChanged
 	 */
 	    private boolean settingsChanged = false;
+	/**
+	 * Column values as last loaded or saved (null if not known).
+	 *
+	 * @var RecordSnapshot snapshot
+	 */
+	    private RecordSnapshot snapshot = null;
 	/**
 	 * Data connector object or string.
 	 *
@@ -107,6 +114,7 @@ public class Context implements LTISource {
 	        this.settings = new HashMap<String, List<String>>();
 	        this.created = null;
 	        this.updated = null;
+	        this.snapshot = null;
 
 	    }
 
@@ -503,6 +511,14 @@ public class Context implements LTISource {
 		this.updated = now;
 	}
 
+	public RecordSnapshot getSnapshot() {
+		return snapshot;
+	}
+
+	public void setSnapshot(RecordSnapshot snapshot) {
+		this.snapshot = snapshot;
+	}
+
 	public Map<String, User> getUserResultSourcedIDs(boolean flag, int scope) {
 		return getDataConnector().getUserResultSourcedIDsContext(this, flag, scope);
 	}
@@ -0,0 +1,352 @@
+package org.imsglobal.lti.toolProvider;
+
+import java.net.URL;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import org.apache.commons.lang3.StringUtils;
+import org.imsglobal.lti.product.Product;
+import org.imsglobal.lti.product.ProductFamily;
+import org.imsglobal.lti.profile.ProfileMessage;
+import org.imsglobal.lti.profile.ProfileResourceHandler;
+import org.imsglobal.lti.toolProvider.dataConnector.DataConnector;
+import org.imsglobal.lti.toolProvider.mediaType.ToolService;
+
+/**
+ * Class to hold the configuration of a tool provider: its data connector, parameter
+ * constraints, resource handlers, services and product details.
+ *
+ * An engine is built once (using a Builder) and is then never changed, so a single
+ * instance may be shared by every request thread; each request is processed by a
+ * ToolProvider constructed from the engine, which holds only the state of that request.
+ * The constraints which apply to each message type and the capabilities required for
+ * registration are worked out when the engine is built rather than on each request.
+ *
+ * The vendor and product objects are held by reference and must not be modified once
+ * the engine has been built.
+ *
+ * @author  David Block (dave@northcreek.ca)
+ */
+public final class LaunchEngine {
+
+	/**
+	 * Message types which may be validated against parameter constraints.
+	 */
+	    private static final String[] MESSAGE_TYPES = {"basic-lti-launch-request",
+	                                                   "ContentItemSelectionRequest",
+	                                                   "ToolProxyRegistrationRequest"};
+
+	    private final DataConnector dataConnector;
+	    private final Map<String, ParameterConstraint> constraints;
+	    private final Map<String, Map<String, ParameterConstraint>> constraintsByMessageType;
+	    private final List<String> requiredCapabilities;
+	    private final String defaultEmail;
+	    private final int idScope;
+	    private final boolean allowSharing;
+	    private final URL baseUrl;
+	    private final ProductFamily vendor;
+	    private final Product product;
+	    private final List<ToolService> requiredServices;
+	    private final List<ToolService> optionalServices;
+	    private final List<ProfileResourceHandler> resourceHandlers;
+
+	    private LaunchEngine(Builder builder) {
+	    	this.dataConnector = builder.dataConnector;
+	    	this.constraints = Collections.unmodifiableMap(new LinkedHashMap<String, ParameterConstraint>(builder.constraints));
+	    	Map<String, Map<String, ParameterConstraint>> byType = new HashMap<String, Map<String, ParameterConstraint>>();
+	    	for (String type : MESSAGE_TYPES) {
+	    		byType.put(type, Collections.unmodifiableMap(constraintsFor(this.constraints, type)));
+	    	}
+	    	this.constraintsByMessageType = Collections.unmodifiableMap(byType);
+	    	this.requiredCapabilities = Collections.unmodifiableList(requiredCapabilities(builder));
+	    	this.defaultEmail = builder.defaultEmail;
+	    	this.idScope = builder.idScope;
+	    	this.allowSharing = builder.allowSharing;
+	    	this.baseUrl = builder.baseUrl;
+	    	this.vendor = builder.vendor;
+	    	this.product = builder.product;
+	    	this.requiredServices = Collections.unmodifiableList(new ArrayList<ToolService>(builder.requiredServices));
+	    	this.optionalServices = Collections.unmodifiableList(new ArrayList<ToolService>(builder.optionalServices));
+	    	this.resourceHandlers = Collections.unmodifiableList(new ArrayList<ProfileResourceHandler>(builder.resourceHandlers));
+	    }
+
+	/**
+	 * Create a builder for an engine.
+	 *
+	 * @param dataConnector  data connector used by the tool provider
+	 *
+	 * @return builder
+	 */
+	    public static Builder builder(DataConnector dataConnector) {
+
+	    	return new Builder(dataConnector);
+
+	    }
+
+	    public DataConnector getDataConnector() {
+	    	return dataConnector;
+	    }
+
+	/**
+	 * Get all parameter constraints, by parameter name.
+	 *
+	 * @return map of parameter constraints
+	 */
+	    public Map<String, ParameterConstraint> getParameterConstraints() {
+	    	return constraints;
+	    }
+
+	/**
+	 * Get the parameter constraints which apply to a message type, by parameter name.
+	 *
+	 * @param messageType  message type
+	 *
+	 * @return map of parameter constraints
+	 */
+	    public Map<String, ParameterConstraint> getParameterConstraints(String messageType) {
+
+	    	Map<String, ParameterConstraint> applicable = constraintsByMessageType.get(messageType);
+	    	if (applicable == null) {
+	    		applicable = constraintsFor(constraints, messageType);
+	    	}
+
+	    	return applicable;
+
+	    }
+
+	/**
+	 * Get the capabilities a tool consumer must offer for a tool proxy registration to be
+	 * accepted: the messages required by each resource handler and the required parameters.
+	 *
+	 * @return list of capability names
+	 */
+	    public List<String> getRequiredCapabilities() {
+	    	return requiredCapabilities;
+	    }
+
+	    public String getDefaultEmail() {
+	    	return defaultEmail;
+	    }
+
+	    public int getIdScope() {
+	    	return idScope;
+	    }
+
+	    public boolean isAllowSharing() {
+	    	return allowSharing;
+	    }
+
+	    public URL getBaseUrl() {
+	    	return baseUrl;
+	    }
+
+	    public ProductFamily getVendor() {
+	    	return vendor;
+	    }
+
+	    public Product getProduct() {
+	    	return product;
+	    }
+
+	    public List<ToolService> getRequiredServices() {
+	    	return requiredServices;
+	    }
+
+	    public List<ToolService> getOptionalServices() {
+	    	return optionalServices;
+	    }
+
+	    public List<ProfileResourceHandler> getResourceHandlers() {
+	    	return resourceHandlers;
+	    }
+
+	    private static Map<String, ParameterConstraint> constraintsFor(Map<String, ParameterConstraint> constraints, String messageType) {
+
+	    	Map<String, ParameterConstraint> applicable = new LinkedHashMap<String, ParameterConstraint>();
+	    	for (Map.Entry<String, ParameterConstraint> entry : constraints.entrySet()) {
+	    		Set<String> types = entry.getValue().getMessageTypes();
+	    		if ((types == null) || types.isEmpty() || types.contains(messageType)) {
+	    			applicable.put(entry.getKey(), entry.getValue());
+	    		}
+	    	}
+
+	    	return applicable;
+
+	    }
+
+	    private static List<String> requiredCapabilities(Builder builder) {
+
+	    	List<String> capabilities = new ArrayList<String>();
+	    	for (ProfileResourceHandler handler : builder.resourceHandlers) {
+	    		for (ProfileMessage message : handler.getRequiredMessages()) {
+	    			capabilities.add(message.getType());
+	    		}
+	    	}
+	    	for (Map.Entry<String, ParameterConstraint> entry : builder.constraints.entrySet()) {
+	    		if (entry.getValue().isRequired()) {
+	    			capabilities.add(entry.getKey());
+	    		}
+	    	}
+
+	    	return capabilities;
+
+	    }
+
+	/**
+	 * Mutable configuration from which an engine is built.
+	 */
+	    public static final class Builder {
+
+	    	private DataConnector dataConnector;
+	    	private final Map<String, ParameterConstraint> constraints = new LinkedHashMap<String, ParameterConstraint>();
+	    	private String defaultEmail = "";
+	    	private int idScope = ToolProvider.ID_SCOPE_ID_ONLY;
+	    	private boolean allowSharing = false;
+	    	private URL baseUrl = null;
+	    	private ProductFamily vendor = new ProductFamily();
+	    	private Product product = new Product();
+	    	private List<ToolService> requiredServices = new ArrayList<ToolService>();
+	    	private List<ToolService> optionalServices = new ArrayList<ToolService>();
+	    	private List<ProfileResourceHandler> resourceHandlers = new ArrayList<ProfileResourceHandler>();
+
+	    	private Builder(DataConnector dataConnector) {
+	    		this.dataConnector = dataConnector;
+	    	}
+
+	/**
+	 * Add a parameter constraint to be checked on launch.
+	 *
+	 * @param name          name of parameter to be checked
+	 * @param required      <code>true</code> if parameter is required
+	 * @param maxLength     maximum permitted length of parameter value (0 for any length)
+	 * @param messageTypes  message types to which the constraint applies (null for all)
+	 *
+	 * @return this builder
+	 */
+	    	public Builder setParameterConstraint(String name, boolean required, int maxLength, String[] messageTypes) {
+
+	    		name = StringUtils.trim(name);
+	    		if (StringUtils.isNotEmpty(name)) {
+	    			ParameterConstraint pc = new ParameterConstraint(required, maxLength);
+	    			Set<String> types = new HashSet<String>();
+	    			if (messageTypes != null) {
+	    				Collections.addAll(types, messageTypes);
+	    			}
+	    			pc.setMessageTypes(types);
+	    			constraints.put(name, pc);
+	    		}
+
+	    		return this;
+
+	    	}
+
+	    	public Builder setDataConnector(DataConnector dataConnector) {
+	    		this.dataConnector = dataConnector;
+	    		return this;
+	    	}
+
+	    	public Builder setDefaultEmail(String defaultEmail) {
+	    		this.defaultEmail = defaultEmail;
+	    		return this;
+	    	}
+
+	    	public Builder setIdScope(int idScope) {
+	    		this.idScope = idScope;
+	    		return this;
+	    	}
+
+	    	public Builder setAllowSharing(boolean allowSharing) {
+	    		this.allowSharing = allowSharing;
+	    		return this;
+	    	}
+
+	    	public Builder setBaseUrl(URL baseUrl) {
+	    		this.baseUrl = baseUrl;
+	    		return this;
+	    	}
+
+	    	public Builder setVendor(ProductFamily vendor) {
+	    		this.vendor = vendor;
+	    		return this;
+	    	}
+
+	    	public Builder setProduct(Product product) {
+	    		this.product = product;
+	    		return this;
+	    	}
+
+	    	public Builder setRequiredServices(List<ToolService> requiredServices) {
+	    		this.requiredServices = requiredServices;
+	    		return this;
+	    	}
+
+	    	public Builder setOptionalServices(List<ToolService> optionalServices) {
+	    		this.optionalServices = optionalServices;
+	    		return this;
+	    	}
+
+	    	public Builder setResourceHandlers(List<ProfileResourceHandler> resourceHandlers) {
+	    		this.resourceHandlers = resourceHandlers;
+	    		return this;
+	    	}
+
+	    	DataConnector getDataConnector() {
+	    		return dataConnector;
+	    	}
+
+	    	String getDefaultEmail() {
+	    		return defaultEmail;
+	    	}
+
+	    	int getIdScope() {
+	    		return idScope;
+	    	}
+
+	    	boolean isAllowSharing() {
+	    		return allowSharing;
+	    	}
+
+	    	URL getBaseUrl() {
+	    		return baseUrl;
+	    	}
+
+	    	ProductFamily getVendor() {
+	    		return vendor;
+	    	}
+
+	    	Product getProduct() {
+	    		return product;
+	    	}
+
+	    	List<ToolService> getRequiredServices() {
+	    		return requiredServices;
+	    	}
+
+	    	List<ToolService> getOptionalServices() {
+	    		return optionalServices;
+	    	}
+
+	    	List<ProfileResourceHandler> getResourceHandlers() {
+	    		return resourceHandlers;
+	    	}
+
+	/**
+	 * Build an engine from the current configuration.
+	 *
+	 * @return engine
+	 */
+	    	public LaunchEngine build() {
+
+	    		return new LaunchEngine(this);
+
+	    	}
+
+	    }
+
+}
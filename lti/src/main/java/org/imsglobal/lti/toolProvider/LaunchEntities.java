@@ -0,0 +1,104 @@
+package org.imsglobal.lti.toolProvider;
+
+/**
+ * Class to hold the tool consumer, context, resource link and user of a launch request
+ * as resolved together by a data connector.
+ *
+ * Each object is the one which would be created for the launch request: it is loaded if
+ * a matching record exists (its record ID is non-zero), and otherwise holds only the LTI
+ * ID from the request.  The context is null if the request has no context ID, and the
+ * resource link and user are null if it has no resource link ID.
+ *
+ * @author  David Block (dave@northcreek.ca)
+ */
+public class LaunchEntities {
+
+	/**
+	 * Tool consumer.
+	 */
+	    private final ToolConsumer consumer;
+	/**
+	 * Context (null if none).
+	 */
+	    private final Context context;
+	/**
+	 * Resource link (null if none).
+	 */
+	    private final ResourceLink resourceLink;
+	/**
+	 * User (null if there is no resource link).
+	 */
+	    private final User user;
+
+	/**
+	 * Class constructor.
+	 *
+	 * @param consumer      tool consumer
+	 * @param context       context (null if none)
+	 * @param resourceLink  resource link (null if none)
+	 * @param user          user (null if there is no resource link)
+	 */
+	    public LaunchEntities(ToolConsumer consumer, Context context, ResourceLink resourceLink, User user) {
+	    	this.consumer = consumer;
+	    	this.context = context;
+	    	this.resourceLink = resourceLink;
+	    	this.user = user;
+	    }
+
+	/**
+	 * Create the objects for a launch request without loading them.
+	 *
+	 * @param consumer           tool consumer
+	 * @param ltiContextId       LTI context ID (null if none)
+	 * @param ltiResourceLinkId  LTI resource link ID (null if none)
+	 * @param ltiUserId          LTI user ID (null if none)
+	 *
+	 * @return launch entities
+	 */
+	    public static LaunchEntities create(ToolConsumer consumer, String ltiContextId, String ltiResourceLinkId, String ltiUserId) {
+
+	    	Context context = null;
+	    	if ((ltiContextId != null) && (ltiContextId.length() > 0)) {
+	// A null ID stops the factory method loading the object
+	    		context = Context.fromConsumer(consumer, null);
+	    		context.setLtiContextId(ltiContextId);
+	    	}
+	    	ResourceLink resourceLink = null;
+	    	User user = null;
+	    	if ((ltiResourceLinkId != null) && (ltiResourceLinkId.length() > 0)) {
+	    		resourceLink = ResourceLink.fromConsumer(consumer, null);
+	    		resourceLink.setLtiResourceLinkId(ltiResourceLinkId);
+	    		user = User.fromResourceLink(resourceLink, null);
+	    		user.setLtiUserId(ltiUserId);
+	    	}
+
+	    	return new LaunchEntities(consumer, context, resourceLink, user);
+
+	    }
+
+	public ToolConsumer getConsumer() {
+		return consumer;
+	}
+
+	public Context getContext() {
+		return context;
+	}
+
+	public ResourceLink getResourceLink() {
+		return resourceLink;
+	}
+
+	public User getUser() {
+		return user;
+	}
+
+	/**
+	 * Check whether the tool consumer was found.
+	 *
+	 * @return <code>true</code> if the tool consumer was loaded
+	 */
+	    public boolean isConsumerFound() {
+	    	return consumer.getCreated() != null;
+	    }
+
+}
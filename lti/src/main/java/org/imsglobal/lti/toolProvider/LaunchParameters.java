@@ -0,0 +1,314 @@
+package org.imsglobal.lti.toolProvider;
+
+import java.net.MalformedURLException;
+import java.net.URL;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import javax.servlet.http.HttpServletRequest;
+
+import org.apache.commons.lang3.StringUtils;
+
+/**
+ * Class to represent the parameters of an LTI message as received by the tool provider.
+ *
+ * The parameters are copied from the servlet request once, when the snapshot is created;
+ * the snapshot is never changed afterwards, so every validation, OAuth and persistence
+ * step can share it rather than querying the container again.  The custom_ and ext_
+ * parameters are also separated out at that point.
+ *
+ * @author  David Block (dave@northcreek.ca)
+ */
+public final class LaunchParameters {
+
+	/**
+	 * Prefix of custom parameter names.
+	 */
+	    public static final String CUSTOM_PREFIX = "custom_";
+	/**
+	 * Prefix of extension parameter names.
+	 */
+	    public static final String EXTENSION_PREFIX = "ext_";
+
+	    private final Map<String, List<String>> values;
+	    private final Map<String, String> first;
+	    private final Map<String, String> custom;
+	    private final Map<String, String> extensions;
+
+	    private LaunchParameters(Map<String, String[]> parameterMap) {
+	    	Map<String, List<String>> values = new LinkedHashMap<String, List<String>>();
+	    	Map<String, String> first = new HashMap<String, String>();
+	    	Map<String, String> custom = new LinkedHashMap<String, String>();
+	    	Map<String, String> extensions = new LinkedHashMap<String, String>();
+	    	if (parameterMap != null) {
+	    		for (Map.Entry<String, String[]> entry : parameterMap.entrySet()) {
+	    			String name = entry.getKey();
+	    			String[] v = (entry.getValue() != null) ? entry.getValue() : new String[0];
+	    			values.put(name, Collections.unmodifiableList(Arrays.asList(v.clone())));
+	    			String value = (v.length > 0) ? v[0] : null;
+	    			first.put(name, value);
+	    			if (name.startsWith(CUSTOM_PREFIX)) {
+	    				custom.put(name, value);
+	    			} else if (name.startsWith(EXTENSION_PREFIX)) {
+	    				extensions.put(name, value);
+	    			}
+	    		}
+	    	}
+	    	this.values = Collections.unmodifiableMap(values);
+	    	this.first = first;
+	    	this.custom = Collections.unmodifiableMap(custom);
+	    	this.extensions = Collections.unmodifiableMap(extensions);
+	    }
+
+	/**
+	 * Take a snapshot of the parameters of a servlet request.
+	 *
+	 * @param request  servlet request
+	 *
+	 * @return launch parameters
+	 */
+	    public static LaunchParameters fromRequest(HttpServletRequest request) {
+
+	    	return new LaunchParameters((request != null) ? request.getParameterMap() : null);
+
+	    }
+
+	/**
+	 * Take a snapshot of a map of parameter values.
+	 *
+	 * @param parameterMap  map of parameter names to their values
+	 *
+	 * @return launch parameters
+	 */
+	    public static LaunchParameters fromMap(Map<String, String[]> parameterMap) {
+
+	    	return new LaunchParameters(parameterMap);
+
+	    }
+
+	/**
+	 * Get the value of a parameter (the first value, if it was given more than once).
+	 *
+	 * @param name  parameter name
+	 *
+	 * @return value, or null if the parameter is not present
+	 */
+	    public String get(String name) {
+
+	    	return first.get(name);
+
+	    }
+
+	/**
+	 * Get the value of a parameter with any surrounding whitespace removed.
+	 *
+	 * @param name  parameter name
+	 *
+	 * @return trimmed value, or an empty string if the parameter is not present
+	 */
+	    public String getTrimmed(String name) {
+
+	    	return StringUtils.trimToEmpty(first.get(name));
+
+	    }
+
+	/**
+	 * Get all values of a parameter.
+	 *
+	 * @param name  parameter name
+	 *
+	 * @return list of values (empty if the parameter is not present)
+	 */
+	    public List<String> getValues(String name) {
+
+	    	List<String> v = values.get(name);
+	    	if (v == null) {
+	    		v = Collections.emptyList();
+	    	}
+
+	    	return v;
+
+	    }
+
+	/**
+	 * Check whether a parameter is present with a non-empty value.
+	 *
+	 * @param name  parameter name
+	 *
+	 * @return <code>true</code> if the parameter has a value
+	 */
+	    public boolean has(String name) {
+
+	    	return StringUtils.isNotEmpty(first.get(name));
+
+	    }
+
+	/**
+	 * Get the value of a true/false parameter.
+	 *
+	 * @param name  parameter name
+	 *
+	 * @return Boolean value, or null if the parameter is not present or is not "true" or "false"
+	 */
+	    public Boolean getBoolean(String name) {
+
+	    	String value = first.get(name);
+	    	if ("true".equals(value)) {
+	    		return Boolean.TRUE;
+	    	} else if ("false".equals(value)) {
+	    		return Boolean.FALSE;
+	    	}
+
+	    	return null;
+
+	    }
+
+	/**
+	 * Get the value of an integer parameter.
+	 *
+	 * @param name          parameter name
+	 * @param defaultValue  value to return if the parameter is not present or is not an integer
+	 *
+	 * @return integer value
+	 */
+	    public int getInt(String name, int defaultValue) {
+
+	    	String value = StringUtils.trimToEmpty(first.get(name));
+	    	try {
+	    		return Integer.parseInt(value);
+	    	} catch (NumberFormatException e) {
+	    		return defaultValue;
+	    	}
+
+	    }
+
+	/**
+	 * Get the value of a URL parameter.
+	 *
+	 * @param name  parameter name
+	 *
+	 * @return URL, or null if the parameter is not present or is not a valid URL
+	 */
+	    public URL getUrl(String name) {
+
+	    	String value = first.get(name);
+	    	if (StringUtils.isEmpty(value)) {
+	    		return null;
+	    	}
+	    	try {
+	    		return new URL(value);
+	    	} catch (MalformedURLException e) {
+	    		return null;
+	    	}
+
+	    }
+
+	/**
+	 * Get the distinct elements of a comma-separated parameter value.
+	 *
+	 * @param name  parameter name
+	 *
+	 * @return set of elements, in the order given (empty if the parameter is not present)
+	 */
+	    public Set<String> getSet(String name) {
+
+	    	Set<String> elements = new LinkedHashSet<String>();
+	    	String value = first.get(name);
+	    	if (StringUtils.isNotEmpty(value)) {
+	    		Collections.addAll(elements, StringUtils.split(value, ","));
+	    	}
+
+	    	return elements;
+
+	    }
+
+	/**
+	 * Get the LTI message type.
+	 *
+	 * @return value of the lti_message_type parameter
+	 */
+	    public String getMessageType() {
+
+	    	return first.get("lti_message_type");
+
+	    }
+
+	/**
+	 * Get the LTI version.
+	 *
+	 * @return value of the lti_version parameter
+	 */
+	    public String getLtiVersion() {
+
+	    	return first.get("lti_version");
+
+	    }
+
+	/**
+	 * Get the OAuth consumer key.
+	 *
+	 * @return value of the oauth_consumer_key parameter
+	 */
+	    public String getConsumerKey() {
+
+	    	return first.get("oauth_consumer_key");
+
+	    }
+
+	/**
+	 * Get the custom parameters (those named custom_*).
+	 *
+	 * @return map of parameter names to values
+	 */
+	    public Map<String, String> getCustom() {
+
+	    	return custom;
+
+	    }
+
+	/**
+	 * Get the extension parameters (those named ext_*).
+	 *
+	 * @return map of parameter names to values
+	 */
+	    public Map<String, String> getExtensions() {
+
+	    	return extensions;
+
+	    }
+
+	/**
+	 * Get all parameters.
+	 *
+	 * @return map of parameter names to all their values
+	 */
+	    public Map<String, List<String>> getAll() {
+
+	    	return values;
+
+	    }
+
+	/**
+	 * Get a modifiable copy of all parameters, for example to be signed and sent on.
+	 *
+	 * @return map of parameter names to all their values
+	 */
+	    public Map<String, List<String>> copy() {
+
+	    	Map<String, List<String>> copy = new HashMap<String, List<String>>();
+	    	for (Map.Entry<String, List<String>> entry : values.entrySet()) {
+	    		copy.put(entry.getKey(), new ArrayList<String>(entry.getValue()));
+	    	}
+
+	    	return copy;
+
+	    }
+
+}
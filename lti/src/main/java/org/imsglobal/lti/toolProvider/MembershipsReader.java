@@ -0,0 +1,361 @@
+package org.imsglobal.lti.toolProvider;
+
+import java.io.Closeable;
+import java.io.InputStream;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.NoSuchElementException;
+
+import javax.xml.stream.XMLInputFactory;
+import javax.xml.stream.XMLStreamConstants;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamReader;
+
+/**
+ * Class to read the response to a memberships service request one member at a time.
+ *
+ * The response is parsed as a stream (StAX), so only the member being read is held in
+ * memory, however large the roster; each user is returned as soon as its member element
+ * has been read.  The groups and group sets found are kept (there are few of them
+ * compared with members), and the counts of each group set are updated as members are
+ * read.  Members are only returned once a codemajor of Success has been read from the
+ * statusinfo element, which consumers send before the memberships element.
+ *
+ * Users can either be read using the Iterator methods or passed to a Listener by read().
+ * Elements which are not recognised are skipped.
+ *
+ * @author  David Block (dave@northcreek.ca)
+ */
+public class MembershipsReader implements Iterator<User>, Closeable {
+
+	/**
+	 * Class to receive the records from a memberships response as they are read.
+	 */
+	    public interface Listener {
+
+	    	/**
+	    	 * Called when a member has been read.
+	    	 *
+	    	 * @param user  user for the member
+	    	 */
+	    	void user(User user);
+
+	    	/**
+	    	 * Called the first time a group is read.
+	    	 *
+	    	 * @param id     group ID
+	    	 * @param group  group
+	    	 */
+	    	default void group(String id, Group group) {
+	    	}
+
+	    	/**
+	    	 * Called the first time a group set is read.
+	    	 *
+	    	 * @param id        group set ID
+	    	 * @param groupSet  group set
+	    	 */
+	    	default void groupSet(String id, GroupSet groupSet) {
+	    	}
+
+	    }
+
+	    private static final XMLInputFactory FACTORY = XMLInputFactory.newInstance();
+	    static {
+// Responses come from the tool consumer, so no DTDs or external entities are processed
+	    	FACTORY.setProperty(XMLInputFactory.SUPPORT_DTD, Boolean.FALSE);
+	    	FACTORY.setProperty(XMLInputFactory.IS_SUPPORTING_EXTERNAL_ENTITIES, Boolean.FALSE);
+	    	FACTORY.setProperty(XMLInputFactory.IS_COALESCING, Boolean.TRUE);
+	    }
+
+	    private final ResourceLink resourceLink;
+	    private final XMLStreamReader reader;
+	    private final Map<String, Group> groups = new HashMap<String, Group>();
+	    private final Map<String, GroupSet> groupSets = new HashMap<String, GroupSet>();
+	    private Listener listener = null;
+	    private String codeMajor = null;
+	    private User next = null;
+	    private boolean finished = false;
+
+	/**
+	 * Class constructor.
+	 *
+	 * @param resourceLink  resource link the memberships are for
+	 * @param in            stream containing the response (not closed by the reader)
+	 *
+	 * @throws XMLStreamException  if the stream cannot be read as XML
+	 */
+	    public MembershipsReader(ResourceLink resourceLink, InputStream in) throws XMLStreamException {
+	    	this.resourceLink = resourceLink;
+	    	this.reader = FACTORY.createXMLStreamReader(in);
+	    }
+
+	/**
+	 * Read a complete response, passing each record to a listener.
+	 *
+	 * @param listener  listener for the records read
+	 *
+	 * @return <code>true</code> if the response had a codemajor of Success
+	 *
+	 * @throws XMLStreamException  if the response is not valid XML
+	 */
+	    public boolean read(Listener listener) throws XMLStreamException {
+
+	    	this.listener = listener;
+	    	while (fetch()) {
+	    		listener.user(next);
+	    		next = null;
+	    	}
+
+	    	return isSuccess();
+
+	    }
+
+	    @Override
+	    public boolean hasNext() {
+
+	    	try {
+	    		return fetch();
+	    	} catch (XMLStreamException e) {
+	    		throw new IllegalStateException(e);
+	    	}
+
+	    }
+
+	    @Override
+	    public User next() {
+
+	    	if (!hasNext()) {
+	    		throw new NoSuchElementException();
+	    	}
+	    	User user = next;
+	    	next = null;
+
+	    	return user;
+
+	    }
+
+	/**
+	 * Get the codemajor value of the statusinfo element.
+	 *
+	 * @return codemajor value (null if it has not been read)
+	 */
+	    public String getCodeMajor() {
+	    	return codeMajor;
+	    }
+
+	/**
+	 * Check whether the response reported success.
+	 *
+	 * @return <code>true</code> if a codemajor of Success has been read
+	 */
+	    public boolean isSuccess() {
+	    	return "Success".equals(codeMajor);
+	    }
+
+	/**
+	 * Get the groups read so far.
+	 *
+	 * @return groups, keyed by ID
+	 */
+	    public Map<String, Group> getGroups() {
+	    	return groups;
+	    }
+
+	/**
+	 * Get the group sets read so far.
+	 *
+	 * @return group sets, keyed by ID
+	 */
+	    public Map<String, GroupSet> getGroupSets() {
+	    	return groupSets;
+	    }
+
+	    @Override
+	    public void close() {
+
+	    	try {
+	    		reader.close();
+	    	} catch (XMLStreamException e) {
+	    		e.printStackTrace();
+	    	}
+
+	    }
+
+	// Read up to the end of the next member element
+	    private boolean fetch() throws XMLStreamException {
+
+	    	if (next != null) {
+	    		return true;
+	    	}
+	    	while (!finished && reader.hasNext()) {
+	    		if (reader.next() != XMLStreamConstants.START_ELEMENT) {
+	    			continue;
+	    		}
+	    		String name = reader.getLocalName();
+	    		if (name.equals("codemajor")) {
+	    			codeMajor = reader.getElementText().trim();
+	    		} else if (name.equals("member")) {
+	    			if (isSuccess()) {
+	    				next = readMember();
+	    				return true;
+	    			}
+	    			skip();
+	    		}
+	    	}
+	    	finished = true;
+
+	    	return false;
+
+	    }
+
+	// Called positioned on the member start element; returns positioned on its end element
+	    private User readMember() throws XMLStreamException {
+
+	    	String userId = null;
+	    	String firstname = null;
+	    	String lastname = null;
+	    	String fullname = null;
+	    	String email = null;
+	    	String roles = null;
+	    	String sourcedId = null;
+	    	Map<String, String[]> memberGroups = new LinkedHashMap<String, String[]>();
+	    	while (nextChild()) {
+	    		String name = reader.getLocalName();
+	    		if (name.equals("user_id")) {
+	    			userId = reader.getElementText();
+	    		} else if (name.equals("person_name_given")) {
+	    			firstname = reader.getElementText();
+	    		} else if (name.equals("person_name_family")) {
+	    			lastname = reader.getElementText();
+	    		} else if (name.equals("person_name_full")) {
+	    			fullname = reader.getElementText();
+	    		} else if (name.equals("person_contact_email_primary")) {
+	    			email = reader.getElementText();
+	    		} else if (name.equals("roles")) {
+	    			roles = reader.getElementText();
+	    		} else if (name.equals("lis_result_sourcedid")) {
+	    			sourcedId = reader.getElementText();
+	    		} else if (name.equals("groups")) {
+	    			while (nextChild()) {
+	    				if (reader.getLocalName().equals("group")) {
+	    					readGroup(memberGroups);
+	    				} else {
+	    					skip();
+	    				}
+	    			}
+	    		} else {
+	    			skip();
+	    		}
+	    	}
+// Stored users are matched when the roster is synchronised, so none are loaded here
+	    	User user = User.fromResourceLink(resourceLink, null);
+	    	user.setLtiUserId(userId);
+	    	user.setNames(firstname, lastname, fullname);
+	    	user.setEmail((email != null) ? email : "", resourceLink.getConsumer().getDefaultEmail());
+	    	if (roles != null) {
+	    		user.setRoles(roles);
+	    	}
+	    	for (Map.Entry<String, String[]> entry : memberGroups.entrySet()) {
+	    		String groupId = entry.getKey();
+	    		String setId = entry.getValue()[1];
+	    		if (setId != null) {
+	    			GroupSet groupSet = groupSets.get(setId);
+	    			if (groupSet == null) {
+	    				groupSet = new GroupSet(entry.getValue()[2]);
+	    				groupSets.put(setId, groupSet);
+	    				if (listener != null) {
+	    					listener.groupSet(setId, groupSet);
+	    				}
+	    			}
+	    			groupSet.incNumMembers();
+	    			if (user.isStaff()) {
+	    				groupSet.incNumStaff();
+	    			}
+	    			if (user.isLearner()) {
+	    				groupSet.incNumLearners();
+	    			}
+	    			groupSet.addGroup(groupId);
+	    		}
+	    		if (!groups.containsKey(groupId)) {
+	    			Group group = new Group(entry.getValue()[0], setId);
+	    			groups.put(groupId, group);
+	    			if (listener != null) {
+	    				listener.group(groupId, group);
+	    			}
+	    		}
+	    		user.addGroup(groupId);
+	    	}
+	    	if (sourcedId != null) {
+	    		user.setLtiResultSourcedId(sourcedId);
+	    	}
+
+	    	return user;
+
+	    }
+
+	// Read a group element into the map of group ID to {title, set ID, set title}
+	    private void readGroup(Map<String, String[]> memberGroups) throws XMLStreamException {
+
+	    	String id = null;
+	    	String[] group = new String[3];
+	    	while (nextChild()) {
+	    		String name = reader.getLocalName();
+	    		if (name.equals("id")) {
+	    			id = reader.getElementText();
+	    		} else if (name.equals("title")) {
+	    			group[0] = reader.getElementText();
+	    		} else if (name.equals("set")) {
+	    			while (nextChild()) {
+	    				if (reader.getLocalName().equals("id")) {
+	    					group[1] = reader.getElementText();
+	    				} else if (reader.getLocalName().equals("title")) {
+	    					group[2] = reader.getElementText();
+	    				} else {
+	    					skip();
+	    				}
+	    			}
+	    		} else {
+	    			skip();
+	    		}
+	    	}
+	    	if (id != null) {
+	    		memberGroups.put(id, group);
+	    	}
+
+	    }
+
+	// Move to the next child start element, returning false at the end of the current element
+	    private boolean nextChild() throws XMLStreamException {
+
+	    	while (reader.hasNext()) {
+	    		int event = reader.next();
+	    		if (event == XMLStreamConstants.START_ELEMENT) {
+	    			return true;
+	    		} else if (event == XMLStreamConstants.END_ELEMENT) {
+	    			return false;
+	    		}
+	    	}
+
+	    	return false;
+
+	    }
+
+	// Skip the current element and its content
+	    private void skip() throws XMLStreamException {
+
+	    	int depth = 1;
+	    	while ((depth > 0) && reader.hasNext()) {
+	    		int event = reader.next();
+	    		if (event == XMLStreamConstants.START_ELEMENT) {
+	    			depth++;
+	    		} else if (event == XMLStreamConstants.END_ELEMENT) {
+	    			depth--;
+	    		}
+	    	}
+
+	    }
+
+}
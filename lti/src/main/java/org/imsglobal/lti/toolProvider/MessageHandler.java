@@ -0,0 +1,23 @@
+package org.imsglobal.lti.toolProvider;
+
+/**
+ * Interface for the code which processes a valid message of one type, such as
+ * basic-lti-launch-request.
+ *
+ * A handler may be registered for a ToolProvider class with ToolProvider.registerHandler;
+ * otherwise the onLaunch, onContentItem or onRegister method of the class is used.
+ *
+ * @author  David Block (dave@northcreek.ca)
+ */
+public interface MessageHandler {
+
+	/**
+	 * Process a valid message.
+	 *
+	 * @param toolProvider  tool provider which received the message
+	 *
+	 * @return <code>true</code> if no error
+	 */
+	    boolean handle(ToolProvider toolProvider);
+
+}
@@ -0,0 +1,346 @@
+package org.imsglobal.lti.toolProvider;
+
+import java.io.Closeable;
+import java.net.URI;
+import java.util.ArrayDeque;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+
+import org.apache.commons.lang3.StringUtils;
+
+/**
+ * Class to send outcome (grade) writes to tool consumers in the background.
+ *
+ * Writes are queued by the host of the outcome service URL and sent with at most a fixed
+ * number in progress for each host, so a regrade of a large section is sent over a few
+ * connections in parallel rather than one request at a time on the caller's thread,
+ * without flooding the LMS.  A write for a result (lis_result_sourcedid) which is still
+ * waiting to be sent is replaced by a later write for the same result, so only the last
+ * value is sent; both callers are given the same future.  Writes for one result are
+ * never in progress at the same time, so the last value submitted is the one kept.
+ *
+ * The outcome and user objects passed in must not be changed until the write is complete.
+ *
+ * @author  David Block (dave@northcreek.ca)
+ */
+public class OutcomeDispatcher implements Closeable {
+
+	/**
+	 * Default maximum number of writes in progress for each host.
+	 */
+	    public static final int DEFAULT_MAX_PER_HOST = 4;
+
+	    private final Executor executor;
+	    private final ExecutorService ownedExecutor;
+	    private final int maxPerHost;
+	    private final Map<String, Slot> slots = new HashMap<String, Slot>();
+	    private final Map<String, Host> hosts = new HashMap<String, Host>();
+	    private boolean closed = false;
+
+	/**
+	 * Class constructor using its own daemon threads and the default limit per host.
+	 */
+	    public OutcomeDispatcher() {
+	    	this(DEFAULT_MAX_PER_HOST);
+	    }
+
+	/**
+	 * Class constructor using its own daemon threads.
+	 *
+	 * @param maxPerHost  maximum number of writes in progress for each host
+	 */
+	    public OutcomeDispatcher(int maxPerHost) {
+	    	this.ownedExecutor = Executors.newCachedThreadPool(new ThreadFactory() {
+	    		@Override
+	    		public Thread newThread(Runnable r) {
+	    			Thread thread = new Thread(r, "lti-outcome-dispatcher");
+	    			thread.setDaemon(true);
+	    			return thread;
+	    		}
+	    	});
+	    	this.executor = ownedExecutor;
+	    	this.maxPerHost = Math.max(1, maxPerHost);
+	    }
+
+	/**
+	 * Class constructor.
+	 *
+	 * @param executor    executor on which writes are sent
+	 * @param maxPerHost  maximum number of writes in progress for each host
+	 */
+	    public OutcomeDispatcher(Executor executor, int maxPerHost) {
+	    	this.ownedExecutor = null;
+	    	this.executor = executor;
+	    	this.maxPerHost = Math.max(1, maxPerHost);
+	    }
+
+	/**
+	 * Queue an outcome to be written.
+	 *
+	 * @param resourceLink  resource link the outcome is for
+	 * @param outcome       outcome to write
+	 * @param user          user the outcome is for (null to use the sourcedId of the outcome)
+	 *
+	 * @return future which completes with <code>true</code> if the outcome was written,
+	 *         or exceptionally if the write could not be attempted
+	 */
+	    public CompletableFuture<Boolean> submit(ResourceLink resourceLink, Outcome outcome, User user) {
+
+	    	ResourceLink source = (user != null) ? user.getResourceLink() : resourceLink;
+	    	String sourcedId = getSourcedId(outcome, user);
+	    	String url = source.getSetting("lis_outcome_service_url");
+	    	if (StringUtils.isEmpty(url)) {
+	    		url = source.getSetting("ext_ims_lis_basic_outcome_url");
+	    	}
+	    	String key = url + " " + sourcedId;
+	    	Write write = new Write(resourceLink, outcome, user);
+	    	CompletableFuture<Boolean> future;
+	    	synchronized (this) {
+	    		if (closed) {
+	    			throw new IllegalStateException("Outcome dispatcher has been closed");
+	    		}
+	    		Slot slot = slots.get(key);
+	    		if (slot == null) {
+	    			slot = new Slot(key, getHost(url));
+	    			slots.put(key, slot);
+	    			slot.queued = write;
+	    			slot.host.queue.add(slot);
+	    		} else if (slot.queued == null) {
+// A write for this result is in progress; send this one when it is complete
+	    			slot.queued = write;
+	    		} else {
+	    			slot.queued.resourceLink = resourceLink;
+	    			slot.queued.outcome = outcome;
+	    			slot.queued.user = user;
+	    		}
+	    		future = slot.queued.future;
+	    		dispatch(slot.host);
+	    	}
+
+	    	return future;
+
+	    }
+
+	/**
+	 * Get the number of results with a write queued or in progress.
+	 *
+	 * @return number of results
+	 */
+	    public synchronized int getPending() {
+
+	    	return slots.size();
+
+	    }
+
+	/**
+	 * Get the number of hosts with a write queued or in progress.
+	 *
+	 * @return number of hosts
+	 */
+	    public synchronized int getHostCount() {
+
+	    	return hosts.size();
+
+	    }
+
+	/**
+	 * Wait until every queued write is complete.
+	 *
+	 * @param timeout  maximum time to wait (in milliseconds)
+	 *
+	 * @return <code>true</code> if no writes remain
+	 */
+	    public synchronized boolean flush(long timeout) {
+
+	    	long end = System.currentTimeMillis() + timeout;
+	    	try {
+	    		long wait;
+	    		while (!slots.isEmpty() && ((wait = end - System.currentTimeMillis()) > 0)) {
+	    			this.wait(wait);
+	    		}
+	    	} catch (InterruptedException e) {
+	    		Thread.currentThread().interrupt();
+	    	}
+
+	    	return slots.isEmpty();
+
+	    }
+
+	/**
+	 * Stop accepting writes.  Writes already queued are still sent; the dispatcher's own
+	 * threads end once they are complete.
+	 */
+	    @Override
+	    public synchronized void close() {
+
+	    	closed = true;
+	    	if (slots.isEmpty() && (ownedExecutor != null)) {
+	    		ownedExecutor.shutdown();
+	    	}
+
+	    }
+
+	/**
+	 * Get the sourcedId an outcome is written for.  Without a user, ResourceLink sends the
+	 * sourcedId held by the (deprecated) outcome property, so writes must be coalesced on
+	 * that same value: any other source could merge writes for different results.
+	 */
+	    @SuppressWarnings("deprecation")
+	    private static String getSourcedId(Outcome outcome, User user) {
+
+	    	return (user != null) ? user.getLtiResultSourcedId() : outcome.getSourcedId();
+
+	    }
+
+	    private Host getHost(String url) {
+
+	    	String name = "";
+	    	try {
+	    		String host = new URI(url).getHost();
+	    		if (host != null) {
+	    			name = host.toLowerCase();
+	    		}
+	    	} catch (Exception e) {
+// Requests with an invalid URL fail when sent; they are grouped together
+	    	}
+	    	Host host = hosts.get(name);
+	    	if (host == null) {
+	    		host = new Host(name);
+	    		hosts.put(name, host);
+	    	}
+
+	    	return host;
+
+	    }
+
+	// Called holding the lock
+	    private void dispatch(final Host host) {
+
+	    	while ((host.active < maxPerHost) && !host.queue.isEmpty()) {
+	    		final Slot slot = host.queue.poll();
+	    		final Write write = slot.queued;
+	    		slot.queued = null;
+	    		host.active++;
+	    		try {
+	    			executor.execute(new Runnable() {
+	    				@Override
+	    				public void run() {
+	    					send(host, slot, write);
+	    				}
+	    			});
+	    		} catch (RejectedExecutionException e) {
+	    			complete(host, slot);
+	    			write.future.completeExceptionally(e);
+	    		}
+	    	}
+
+	    }
+
+	    private void send(Host host, Slot slot, Write write) {
+
+	    	ResourceLink resourceLink;
+	    	Outcome outcome;
+	    	User user;
+	    	synchronized (this) {
+	    		resourceLink = write.resourceLink;
+	    		outcome = write.outcome;
+	    		user = write.user;
+	    	}
+	    	boolean ok = false;
+	    	Throwable error = null;
+	    	try {
+	    		ok = resourceLink.doOutcomesService(ResourceLink.EXT_WRITE, outcome, user);
+	    	} catch (RuntimeException e) {
+	    		error = e;
+	    	}
+	// Complete the future first, so it is done by the time flush() sees the write finished
+	    	if (error != null) {
+	    		write.future.completeExceptionally(error);
+	    	} else {
+	    		write.future.complete(ok);
+	    	}
+	    	synchronized (this) {
+	    		complete(host, slot);
+	    	}
+
+	    }
+
+	// Called holding the lock
+	    private void complete(Host host, Slot slot) {
+
+	    	host.active--;
+	    	if (slot.queued != null) {
+	    		host.queue.add(slot);
+	    	} else {
+	    		slots.remove(slot.key);
+	    	}
+	    	dispatch(host);
+// Drop an idle host so the map only holds hosts with writes outstanding
+	    	if ((host.active == 0) && host.queue.isEmpty()) {
+	    		hosts.remove(host.name, host);
+	    	}
+	    	if (slots.isEmpty()) {
+	    		this.notifyAll();
+	    		if (closed && (ownedExecutor != null)) {
+	    			ownedExecutor.shutdown();
+	    		}
+	    	}
+
+	    }
+
+	/**
+	 * Class to represent the writes for one result; only the next write to send is held.
+	 */
+	    private static final class Slot {
+
+	    	private final String key;
+	    	private final Host host;
+	    	private Write queued = null;
+
+	    	private Slot(String key, Host host) {
+	    		this.key = key;
+	    		this.host = host;
+	    	}
+
+	    }
+
+	/**
+	 * Class to represent the queue of results to be written to one host.
+	 */
+	    private static final class Host {
+
+	    	private final String name;
+	    	private final ArrayDeque<Slot> queue = new ArrayDeque<Slot>();
+	    	private int active = 0;
+
+	    	private Host(String name) {
+	    		this.name = name;
+	    	}
+
+	    }
+
+	/**
+	 * Class to represent one outcome write.
+	 */
+	    private static final class Write {
+
+	    	private ResourceLink resourceLink;
+	    	private Outcome outcome;
+	    	private User user;
+	    	private final CompletableFuture<Boolean> future = new CompletableFuture<Boolean>();
+
+	    	private Write(ResourceLink resourceLink, Outcome outcome, User user) {
+	    		this.resourceLink = resourceLink;
+	    		this.outcome = outcome;
+	    		this.user = user;
+	    	}
+
+	    }
+
+}
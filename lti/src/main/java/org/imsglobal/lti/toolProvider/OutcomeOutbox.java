@@ -0,0 +1,268 @@
+package org.imsglobal.lti.toolProvider;
+
+import java.io.Closeable;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.function.BiConsumer;
+
+import org.imsglobal.lti.toolProvider.dataConnector.DataConnector;
+import org.joda.time.DateTime;
+
+/**
+ * Class to record outcome writes in the outbox table of a data connector and send them
+ * from a background worker, so that a grade is not lost when the tool consumer is slow or
+ * unavailable.
+ *
+ * submit() only records the write (in a single short transaction), so it never waits
+ * for the tool consumer.  The worker regularly claims writes which are due and passes
+ * them to an OutcomeDispatcher; a write is removed from the outbox once the consumer has
+ * accepted it.  A failed write is retried after a delay which doubles with each attempt
+ * (up to a maximum), with random jitter so that writes which failed together are not all
+ * retried at the same moment.  Writes to each tool consumer are limited to a fixed rate;
+ * writes over the limit are left in the outbox until the rate allows them.  Claims are
+ * leased, so a write claimed by a server which stops is sent by another once the lease
+ * has expired.
+ *
+ * The outbox table has the columns outbox_pk (auto-increment key), consumer_pk,
+ * resource_link_pk, user_pk, sourcedid, result_value, language, result_type, status,
+ * data_source, result_date, attempts, next_attempt, locked_until, last_error and created.
+ *
+ * @author  David Block (dave@northcreek.ca)
+ */
+public class OutcomeOutbox implements Closeable {
+
+	/**
+	 * Default interval between checks for writes which are due.
+	 */
+	    public static final long DEFAULT_POLL_INTERVAL = 5000L;  // in milliseconds (5 seconds)
+	/**
+	 * Default maximum rate of writes to each tool consumer.
+	 */
+	    public static final double DEFAULT_RATE = 10.0;  // per second
+	/**
+	 * Length of the claim on a write while it is being sent.
+	 */
+	    public static final long LEASE = 5 * 60 * 1000L;  // in milliseconds (5 minutes)
+	/**
+	 * Delay before the first retry of a failed write.
+	 */
+	    public static final long BASE_DELAY = 30 * 1000L;  // in milliseconds (30 seconds)
+	/**
+	 * Maximum delay between retries of a failed write.
+	 */
+	    public static final long MAX_DELAY = 6 * 60 * 60 * 1000L;  // in milliseconds (6 hours)
+	/**
+	 * Maximum number of writes claimed but not yet complete.
+	 */
+	    public static final int BATCH_SIZE = 100;
+
+	    private final DataConnector dataConnector;
+	    private final OutcomeDispatcher dispatcher;
+	    private final boolean ownDispatcher;
+	    private final double rate;
+	    private final ConcurrentMap<Integer, RateLimit> rateLimits = new ConcurrentHashMap<Integer, RateLimit>();
+	    private final ScheduledExecutorService worker;
+
+	/**
+	 * Class constructor using the default rate and its own dispatcher.
+	 *
+	 * @param dataConnector  data connector holding the outbox table
+	 */
+	    public OutcomeOutbox(DataConnector dataConnector) {
+	    	this(dataConnector, null, DEFAULT_RATE, DEFAULT_POLL_INTERVAL);
+	    }
+
+	/**
+	 * Class constructor.
+	 *
+	 * @param dataConnector  data connector holding the outbox table
+	 * @param dispatcher     dispatcher used to send writes (null to create one)
+	 * @param rate           maximum rate of writes to each tool consumer (per second, 0 for no limit)
+	 * @param pollInterval   interval between checks for writes which are due (in milliseconds)
+	 */
+	    public OutcomeOutbox(DataConnector dataConnector, OutcomeDispatcher dispatcher, double rate, long pollInterval) {
+	    	this.dataConnector = dataConnector;
+	    	this.ownDispatcher = dispatcher == null;
+	    	this.dispatcher = (dispatcher != null) ? dispatcher : new OutcomeDispatcher();
+	    	this.rate = rate;
+	    	this.worker = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+	    		@Override
+	    		public Thread newThread(Runnable r) {
+	    			Thread thread = new Thread(r, "lti-outcome-outbox");
+	    			thread.setDaemon(true);
+	    			return thread;
+	    		}
+	    	});
+	    	this.worker.scheduleWithFixedDelay(new Runnable() {
+	    		@Override
+	    		public void run() {
+	    			try {
+	    				drain();
+	    			} catch (RuntimeException e) {
+	    				e.printStackTrace();
+	    			}
+	    		}
+	    	}, pollInterval, pollInterval, TimeUnit.MILLISECONDS);
+	    }
+
+	/**
+	 * Record an outcome to be written to the tool consumer.  A write for the same result
+	 * which has not yet been sent is replaced.
+	 *
+	 * @param resourceLink  resource link the outcome is for
+	 * @param outcome       outcome to write
+	 * @param user          user the outcome is for (null to use the sourcedId of the outcome)
+	 *
+	 * @return <code>true</code> if the write was recorded
+	 */
+	    public boolean submit(ResourceLink resourceLink, Outcome outcome, User user) {
+
+	    	return dataConnector.enqueueOutcome(new PendingOutcome(resourceLink, outcome, user));
+
+	    }
+
+	/**
+	 * Claim the writes which are due and pass them to the dispatcher.  This is called
+	 * regularly by the worker thread.
+	 *
+	 * @return number of writes passed to the dispatcher
+	 */
+	    public int drain() {
+
+	    	int limit = BATCH_SIZE - dispatcher.getPending();
+	    	if (limit <= 0) {
+	    		return 0;
+	    	}
+	    	int sent = 0;
+	    	List<PendingOutcome> outcomes = dataConnector.claimOutcomes(limit, LEASE);
+	    	for (PendingOutcome pending : outcomes) {
+	    		long wait = (rate > 0) ? getRateLimit(pending.getConsumerId()).acquire() : 0L;
+	    		if (wait > 0) {
+// Over the rate for this consumer: release the write without counting an attempt
+	    			pending.setNextAttempt(DateTime.now().plus(wait));
+	    			dataConnector.rescheduleOutcome(pending);
+	    		} else {
+	    			send(pending);
+	    			sent++;
+	    		}
+	    	}
+
+	    	return sent;
+
+	    }
+
+	/**
+	 * Stop the worker thread.  Writes which have been claimed but not sent remain in the
+	 * outbox and are sent again once their lease has expired.
+	 */
+	    @Override
+	    public void close() {
+
+	    	worker.shutdown();
+	    	if (ownDispatcher) {
+	    		dispatcher.close();
+	    	}
+
+	    }
+
+	    private void send(final PendingOutcome pending) {
+
+	    	try {
+	    		ResourceLink resourceLink = ResourceLink.fromRecordId(pending.getResourceLinkId(), dataConnector);
+	    		User user = null;
+	    		if (pending.getUserId() != 0) {
+	    			user = User.fromRecordId(pending.getUserId(), dataConnector);
+	    		}
+	    		dispatcher.submit(resourceLink, pending.toOutcome(), user).whenComplete(new BiConsumer<Boolean, Throwable>() {
+	    			@Override
+	    			public void accept(Boolean ok, Throwable error) {
+	    				if ((error == null) && Boolean.TRUE.equals(ok)) {
+	    					dataConnector.completeOutcome(pending);
+	    				} else {
+	    					retry(pending, (error != null) ? error.toString() : "Outcome not accepted by tool consumer");
+	    				}
+	    			}
+	    		});
+	    	} catch (RuntimeException e) {
+	    		retry(pending, e.toString());
+	    	}
+
+	    }
+
+	    private void retry(PendingOutcome pending, String reason) {
+
+	    	int attempts = pending.getAttempts() + 1;
+	    	long delay = MAX_DELAY;
+	    	if (attempts <= 20) {
+	    		delay = Math.min(MAX_DELAY, BASE_DELAY << (attempts - 1));
+	    	}
+// Between half and all of the delay
+	    	delay = (delay / 2) + ThreadLocalRandom.current().nextLong((delay / 2) + 1);
+	    	pending.setAttempts(attempts);
+	    	pending.setNextAttempt(DateTime.now().plus(delay));
+	    	pending.setLastError(reason);
+	    	dataConnector.rescheduleOutcome(pending);
+
+	    }
+
+	    private RateLimit getRateLimit(int consumerId) {
+
+	    	RateLimit limit = rateLimits.get(consumerId);
+	    	if (limit == null) {
+	    		limit = new RateLimit(rate);
+	    		RateLimit existing = rateLimits.putIfAbsent(consumerId, limit);
+	    		if (existing != null) {
+	    			limit = existing;
+	    		}
+	    	}
+
+	    	return limit;
+
+	    }
+
+	/**
+	 * Class to limit the rate of writes to one tool consumer (a token bucket, allowing a
+	 * burst of up to one second's writes).
+	 */
+	    private static final class RateLimit {
+
+	    	private final double rate;
+	    	private final double capacity;
+	    	private double tokens;
+	    	private long updated;
+
+	    	private RateLimit(double rate) {
+	    		this.rate = rate;
+	    		this.capacity = Math.max(1.0, rate);
+	    		this.tokens = capacity;
+	    		this.updated = System.nanoTime();
+	    	}
+
+	/**
+	 * Take a token if one is available.
+	 *
+	 * @return 0 if a token was taken, otherwise the time until one is available (in milliseconds)
+	 */
+	    	private synchronized long acquire() {
+
+	    		long now = System.nanoTime();
+	    		tokens = Math.min(capacity, tokens + ((now - updated) / 1.0e9) * rate);
+	    		updated = now;
+	    		if (tokens >= 1.0) {
+	    			tokens -= 1.0;
+	    			return 0L;
+	    		}
+
+	    		return (long)Math.ceil(((1.0 - tokens) / rate) * 1000.0);
+
+	    	}
+
+	    }
+
+}
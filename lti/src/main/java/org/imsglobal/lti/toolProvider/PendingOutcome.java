@@ -0,0 +1,247 @@
+package org.imsglobal.lti.toolProvider;
+
+import org.joda.time.DateTime;
+
+/**
+ * Class to represent an outcome write held in the outbox until it has been accepted by
+ * the tool consumer.
+ *
+ * @author  David Block (dave@northcreek.ca)
+ */
+public class PendingOutcome {
+
+	/**
+	 * Record ID of the outbox entry.
+	 */
+	    private int id = 0;
+	/**
+	 * Record ID of the tool consumer.
+	 */
+	    private int consumerId = 0;
+	/**
+	 * Record ID of the resource link.
+	 */
+	    private int resourceLinkId = 0;
+	/**
+	 * Record ID of the user (0 if the sourcedId of the outcome is used).
+	 */
+	    private int userId = 0;
+	/**
+	 * Result sourcedId the outcome is written to.
+	 */
+	    private String sourcedId = null;
+	/**
+	 * Outcome value.
+	 */
+	    private String value = null;
+	/**
+	 * Outcome language.
+	 */
+	    private String language = null;
+	/**
+	 * Outcome type.
+	 */
+	    private String type = null;
+	/**
+	 * Outcome status.
+	 */
+	    private String status = null;
+	/**
+	 * Outcome data source.
+	 */
+	    private String dataSource = null;
+	/**
+	 * Outcome date.
+	 */
+	    private DateTime date = null;
+	/**
+	 * Number of failed attempts to send the outcome.
+	 */
+	    private int attempts = 0;
+	/**
+	 * Earliest time of the next attempt.
+	 */
+	    private DateTime nextAttempt = null;
+	/**
+	 * Reason the last attempt failed.
+	 */
+	    private String lastError = null;
+	/**
+	 * Date/time when the outcome was queued.
+	 */
+	    private DateTime created = null;
+
+	/**
+	 * Class constructor.
+	 */
+	    public PendingOutcome() {
+	    }
+
+	/**
+	 * Class constructor for an outcome to be written.
+	 *
+	 * @param resourceLink  resource link the outcome is for
+	 * @param outcome       outcome to write
+	 * @param user          user the outcome is for (null to use the sourcedId of the outcome)
+	 */
+	// Without a user the deprecated sourcedId of the outcome is the one ResourceLink sends
+	    @SuppressWarnings("deprecation")
+	    public PendingOutcome(ResourceLink resourceLink, Outcome outcome, User user) {
+	    	this.consumerId = resourceLink.getConsumer().getRecordId();
+	    	this.resourceLinkId = resourceLink.getRecordId();
+	    	if (user != null) {
+	    		this.userId = user.getRecordId();
+	    		this.sourcedId = user.getLtiResultSourcedId();
+	    	} else {
+	    		this.sourcedId = outcome.getSourcedId();
+	    	}
+	    	this.value = outcome.getValue();
+	    	this.language = outcome.getLanguage();
+	    	this.type = outcome.getType();
+	    	this.status = outcome.getStatus();
+	    	this.dataSource = outcome.getDataSource();
+	    	this.date = outcome.getDate();
+	    	this.nextAttempt = DateTime.now();
+	    	this.created = this.nextAttempt;
+	    }
+
+	/**
+	 * Create the outcome object to send.
+	 *
+	 * @return outcome
+	 */
+	    @SuppressWarnings("deprecation")
+	    public Outcome toOutcome() {
+
+	    	Outcome outcome = (userId == 0) ? new Outcome(sourcedId, value) : new Outcome(value);
+	    	outcome.setLanguage(language);
+	    	outcome.setType(type);
+	    	outcome.setStatus(status);
+	    	outcome.setDataSource(dataSource);
+	    	outcome.setDate(date);
+
+	    	return outcome;
+
+	    }
+
+	public int getRecordId() {
+		return id;
+	}
+
+	public void setRecordId(int id) {
+		this.id = id;
+	}
+
+	public int getConsumerId() {
+		return consumerId;
+	}
+
+	public void setConsumerId(int consumerId) {
+		this.consumerId = consumerId;
+	}
+
+	public int getResourceLinkId() {
+		return resourceLinkId;
+	}
+
+	public void setResourceLinkId(int resourceLinkId) {
+		this.resourceLinkId = resourceLinkId;
+	}
+
+	public int getUserId() {
+		return userId;
+	}
+
+	public void setUserId(int userId) {
+		this.userId = userId;
+	}
+
+	public String getSourcedId() {
+		return sourcedId;
+	}
+
+	public void setSourcedId(String sourcedId) {
+		this.sourcedId = sourcedId;
+	}
+
+	public String getValue() {
+		return value;
+	}
+
+	public void setValue(String value) {
+		this.value = value;
+	}
+
+	public String getLanguage() {
+		return language;
+	}
+
+	public void setLanguage(String language) {
+		this.language = language;
+	}
+
+	public String getType() {
+		return type;
+	}
+
+	public void setType(String type) {
+		this.type = type;
+	}
+
+	public String getStatus() {
+		return status;
+	}
+
+	public void setStatus(String status) {
+		this.status = status;
+	}
+
+	public String getDataSource() {
+		return dataSource;
+	}
+
+	public void setDataSource(String dataSource) {
+		this.dataSource = dataSource;
+	}
+
+	public DateTime getDate() {
+		return date;
+	}
+
+	public void setDate(DateTime date) {
+		this.date = date;
+	}
+
+	public int getAttempts() {
+		return attempts;
+	}
+
+	public void setAttempts(int attempts) {
+		this.attempts = attempts;
+	}
+
+	public DateTime getNextAttempt() {
+		return nextAttempt;
+	}
+
+	public void setNextAttempt(DateTime nextAttempt) {
+		this.nextAttempt = nextAttempt;
+	}
+
+	public String getLastError() {
+		return lastError;
+	}
+
+	public void setLastError(String lastError) {
+		this.lastError = lastError;
+	}
+
+	public DateTime getCreated() {
+		return created;
+	}
+
+	public void setCreated(DateTime created) {
+		this.created = created;
+	}
+
+}
@@ -0,0 +1,242 @@
+package org.imsglobal.lti.toolProvider;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.security.DigestOutputStream;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+
+import org.apache.commons.codec.binary.Base64;
+import org.apache.http.entity.ByteArrayEntity;
+import org.apache.http.entity.ContentType;
+
+/**
+ * Class to write the imsx_POXEnvelopeRequest of an LTI 1.1 outcomes service request.
+ *
+ * The fixed parts of the envelope are encoded once, and the values are escaped and
+ * encoded as UTF-8 straight into a buffer which each thread reuses.  The SHA-1 hash for
+ * oauth_body_hash is updated as the bytes are written, and the entity returned wraps the
+ * buffer itself, so the body is only ever held once.  As the buffer is reused, the entity
+ * must be sent before the thread writes another envelope.
+ *
+ * @author  David Block (dave@northcreek.ca)
+ */
+public final class PoxEnvelopeWriter {
+
+	    private static final byte[] ENVELOPE_START = bytes("<?xml version=\"1.0\" encoding=\"UTF-8\"?>\n" +
+	    		"<imsx_POXEnvelopeRequest xmlns=\"http://www.imsglobal.org/services/ltiv1p1/xsd/imsoms_v1p0\">\n" +
+	    		"  <imsx_POXHeader>\n" +
+	    		"    <imsx_POXRequestHeaderInfo>\n" +
+	    		"      <imsx_version>V1.0</imsx_version>\n" +
+	    		"      <imsx_messageIdentifier>");
+	    private static final byte[] HEADER_END = bytes("</imsx_messageIdentifier>\n" +
+	    		"    </imsx_POXRequestHeaderInfo>\n" +
+	    		"  </imsx_POXHeader>\n" +
+	    		"  <imsx_POXBody>\n" +
+	    		"    <");
+	    private static final byte[] RECORD_START = bytes("Request>\n" +
+	    		"      <resultRecord>\n" +
+	    		"        <sourcedGUID>\n" +
+	    		"          <sourcedId>");
+	    private static final byte[] SOURCED_ID_END = bytes("</sourcedId>\n" +
+	    		"        </sourcedGUID>\n");
+	    private static final byte[] RESULT_START = bytes("        <result>\n" +
+	    		"          <resultScore>\n" +
+	    		"            <language>");
+	    private static final byte[] LANGUAGE_END = bytes("</language>\n" +
+	    		"            <textString>");
+	    private static final byte[] RESULT_END = bytes("</textString>\n" +
+	    		"          </resultScore>\n" +
+	    		"        </result>\n");
+	    private static final byte[] RECORD_END = bytes("      </resultRecord>\n" +
+	    		"    </");
+	    private static final byte[] ENVELOPE_END = bytes("Request>\n" +
+	    		"  </imsx_POXBody>\n" +
+	    		"</imsx_POXEnvelopeRequest>\n");
+	    private static final byte[] AMP = bytes("&amp;");
+	    private static final byte[] LT = bytes("&lt;");
+	    private static final byte[] GT = bytes("&gt;");
+	    private static final byte[] QUOT = bytes("&quot;");
+	    private static final byte[] APOS = bytes("&apos;");
+
+	    private static final ContentType CONTENT_TYPE = ContentType.create("application/xml", StandardCharsets.UTF_8);
+
+	    private static final ThreadLocal<PoxEnvelopeWriter> WRITER = new ThreadLocal<PoxEnvelopeWriter>() {
+	    	@Override
+	    	protected PoxEnvelopeWriter initialValue() {
+	    		return new PoxEnvelopeWriter();
+	    	}
+	    };
+
+	    private final Buffer buffer = new Buffer();
+	    private final MessageDigest digest;
+	    private final OutputStream out;
+	    private String bodyHash = null;
+
+	    private PoxEnvelopeWriter() {
+	    	try {
+	    		this.digest = MessageDigest.getInstance("SHA-1");
+	    	} catch (NoSuchAlgorithmException e) {
+	    		throw new IllegalStateException(e);
+	    	}
+	    	this.out = new DigestOutputStream(buffer, digest);
+	    }
+
+	/**
+	 * Get the writer for the current thread.
+	 *
+	 * @return envelope writer
+	 */
+	    public static PoxEnvelopeWriter get() {
+	    	return WRITER.get();
+	    }
+
+	/**
+	 * Write an envelope, replacing any envelope previously written by this writer.
+	 *
+	 * @param messageId   message identifier
+	 * @param operation   operation name (readResult, replaceResult or deleteResult)
+	 * @param sourcedId   result sourcedId
+	 * @param language    language of the result (null for en-US)
+	 * @param textString  result value (null if the request does not include a result)
+	 *
+	 * @return this writer
+	 */
+	    public PoxEnvelopeWriter write(String messageId, String operation, String sourcedId, String language, String textString) {
+
+	    	buffer.reset();
+	    	digest.reset();
+	    	try {
+	    		out.write(ENVELOPE_START);
+	    		writeText(messageId);
+	    		out.write(HEADER_END);
+	    		writeText(operation);
+	    		out.write(RECORD_START);
+	    		writeText(sourcedId);
+	    		out.write(SOURCED_ID_END);
+	    		if (textString != null) {
+	    			out.write(RESULT_START);
+	    			writeText((language != null) ? language : "en-US");
+	    			out.write(LANGUAGE_END);
+	    			writeText(textString);
+	    			out.write(RESULT_END);
+	    		}
+	    		out.write(RECORD_END);
+	    		writeText(operation);
+	    		out.write(ENVELOPE_END);
+	    		bodyHash = Base64.encodeBase64String(digest.digest());
+	    	} catch (IOException e) {
+	// Not thrown when writing to memory
+	    		throw new IllegalStateException(e);
+	    	}
+
+	    	return this;
+
+	    }
+
+	/**
+	 * Get the oauth_body_hash value of the envelope.
+	 *
+	 * @return Base64-encoded SHA-1 hash of the envelope
+	 */
+	    public String getBodyHash() {
+
+	    	return bodyHash;
+
+	    }
+
+	/**
+	 * Get an entity for the envelope, sharing the writer's buffer.
+	 *
+	 * @return HTTP entity
+	 */
+	    public ByteArrayEntity getEntity() {
+
+	    	return new ByteArrayEntity(buffer.getBytes(), 0, buffer.size(), CONTENT_TYPE);
+
+	    }
+
+	/**
+	 * Get the envelope as a string (for logging).
+	 *
+	 * @return envelope
+	 */
+	    @Override
+	    public String toString() {
+
+	    	return new String(buffer.getBytes(), 0, buffer.size(), StandardCharsets.UTF_8);
+
+	    }
+
+	// Write a value, escaped for XML and encoded as UTF-8
+	    private void writeText(String text) throws IOException {
+
+	    	if (text == null) {
+	    		return;
+	    	}
+	    	int length = text.length();
+	    	for (int i = 0; i < length; i++) {
+	    		char c = text.charAt(i);
+	    		switch (c) {
+	    			case '&':
+	    				out.write(AMP);
+	    				break;
+	    			case '<':
+	    				out.write(LT);
+	    				break;
+	    			case '>':
+	    				out.write(GT);
+	    				break;
+	    			case '"':
+	    				out.write(QUOT);
+	    				break;
+	    			case '\'':
+	    				out.write(APOS);
+	    				break;
+	    			default:
+	    				if (c < 0x80) {
+	    					out.write(c);
+	    				} else if (c < 0x800) {
+	    					out.write(0xC0 | (c >> 6));
+	    					out.write(0x80 | (c & 0x3F));
+	    				} else if (Character.isHighSurrogate(c) && (i + 1 < length) && Character.isLowSurrogate(text.charAt(i + 1))) {
+	    					int cp = Character.toCodePoint(c, text.charAt(++i));
+	    					out.write(0xF0 | (cp >> 18));
+	    					out.write(0x80 | ((cp >> 12) & 0x3F));
+	    					out.write(0x80 | ((cp >> 6) & 0x3F));
+	    					out.write(0x80 | (cp & 0x3F));
+	    				} else if (Character.isSurrogate(c)) {
+	    					out.write('?');
+	    				} else {
+	    					out.write(0xE0 | (c >> 12));
+	    					out.write(0x80 | ((c >> 6) & 0x3F));
+	    					out.write(0x80 | (c & 0x3F));
+	    				}
+	    				break;
+	    		}
+	    	}
+
+	    }
+
+	    private static byte[] bytes(String s) {
+	    	return s.getBytes(StandardCharsets.UTF_8);
+	    }
+
+	/**
+	 * Byte buffer giving access to its array without a copy.
+	 */
+	    private static final class Buffer extends ByteArrayOutputStream {
+
+	    	private Buffer() {
+	    		super(1024);
+	    	}
+
+	    	private byte[] getBytes() {
+	    		return buf;
+	    	}
+
+	    }
+
+}
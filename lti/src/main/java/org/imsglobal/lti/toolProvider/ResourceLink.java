@@ -1,44 +1,38 @@
 package org.imsglobal.lti.toolProvider;
 
-import java.io.BufferedReader;
 import java.io.IOException;
-import java.io.InputStreamReader;
-import java.io.UnsupportedEncodingException;
+import java.io.InputStream;
 import java.net.MalformedURLException;
 import java.net.URISyntaxException;
 import java.net.URL;
 import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.HashSet;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.UUID;
 
-import org.apache.commons.codec.binary.Base64;
-import org.apache.commons.codec.digest.DigestUtils;
-import org.apache.commons.lang3.StringEscapeUtils;
+import javax.xml.stream.XMLStreamException;
+
 import org.apache.commons.lang3.StringUtils;
+import org.apache.http.HttpEntity;
 import org.apache.http.HttpResponse;
-import org.apache.http.NameValuePair;
-import org.apache.http.client.config.RequestConfig;
-import org.apache.http.client.entity.UrlEncodedFormEntity;
+import org.apache.http.client.ResponseHandler;
 import org.apache.http.client.methods.HttpPost;
-import org.apache.http.entity.StringEntity;
-import org.apache.http.impl.client.CloseableHttpClient;
-import org.apache.http.impl.client.DefaultRedirectStrategy;
-import org.apache.http.impl.client.HttpClients;
-import org.apache.http.message.BasicNameValuePair;
+import org.imsglobal.lti.HttpTransport;
 import org.imsglobal.lti.LTIMessage;
 import org.imsglobal.lti.LTIUtil;
+import org.imsglobal.lti.XmlIndex;
+import org.imsglobal.lti.signature.oauth1.OAuthSigningContext;
 import org.imsglobal.lti.toolProvider.dataConnector.DataConnector;
+import org.imsglobal.lti.toolProvider.dataConnector.RecordSnapshot;
 import org.imsglobal.lti.toolProvider.service.Membership;
 import org.imsglobal.lti.toolProvider.service.ToolSettings;
 import org.jdom2.Document;
 import org.jdom2.Element;
 import org.joda.time.DateTime;
 
-import net.oauth.OAuthAccessor;
-import net.oauth.OAuthConsumer;
 import net.oauth.OAuthException;
 import net.oauth.OAuthMessage;
 
@@ -103,8 +97,22 @@ public class ResourceLink implements LTISource {
  * Free text outcome type.
  */
     public static final String EXT_TYPE_TEXT = "freetext";
-    
-    private static final int TIMEOUT = 30000;
+
+/**
+ * Response handler which parses the body of a successful response as XML, as it is read.
+ */
+    private static final ResponseHandler<Document> XML_RESPONSE = new ResponseHandler<Document>() {
+    	@Override
+    	public Document handleResponse(HttpResponse response) throws IOException {
+    		HttpEntity entity = response.getEntity();
+    		if ((response.getStatusLine().getStatusCode() >= 400) || (entity == null)) {
+    			return null;
+    		}
+    		try (InputStream in = entity.getContent()) {
+    			return LTIUtil.getXMLDoc(in);
+    		}
+    	}
+    };
 
 /**
  * Context title.
@@ -225,12 +233,24 @@ public class ResourceLink implements LTISource {
  * @var boolean settingsChanged
  */
     private boolean settingsChanged = false;
+/**
+ * Column values as last loaded or saved (null if not known).
+ *
+ * @var RecordSnapshot snapshot
+ */
+    private RecordSnapshot snapshot = null;
 /**
  * XML document for the last extension service request.
  *
  * @var string extDoc
  */
     private Document extDoc = null;
+/**
+ * Index of the elements of extDoc.
+ *
+ * @var XmlIndex extIndex
+ */
+    private XmlIndex extIndex = null;
 /**
  * XML node array for the last extension service request.
  *
@@ -270,6 +290,7 @@ public class ResourceLink implements LTISource {
         this.primaryResourceLinkId = 0;
         this.created = null;
         this.updated = null;
+        this.snapshot = null;
 
     }
 
@@ -620,7 +641,6 @@ public class ResourceLink implements LTISource {
         boolean response = false;
         this.extResponse = null;
         String todo = "";
-        String xml;
         ResourceLink sourceResourceLink = this;
         String sourcedId = ltiOutcome.getSourcedId();
 
@@ -671,29 +691,11 @@ public class ResourceLink implements LTISource {
                 value = "";
             }
             if (lti11) {
-                xml = "";
-                if (action == EXT_WRITE) {
-                    xml = "\n"
-+"        <result>\n"
-+"          <resultScore>\n"
-+"            <language>" + ltiOutcome.getLanguage() + "</language>\n"
-+"            <textString>" + ltiOutcome.getValue() + "</textString>\n"
-+"          </resultScore>\n"
-+"        </result>\n";
-
-                }
-                sourcedId = StringEscapeUtils.escapeHtml4(sourcedId);
-                xml += "\n"
-+"      <resultRecord>\n"
-+"        <sourcedGUID>\n"
-+"          <sourcedId>{sourcedId}</sourcedId>\n"
-+"        </sourcedGUID>\n"
-+"      </resultRecord>\n";
-
-                if (doLTI11Service(todo, urlLTI11, xml)) {
+                String score = (action == EXT_WRITE) ? value : null;
+                if (doLTI11Service(todo, urlLTI11, sourcedId, ltiOutcome.getLanguage(), score)) {
                     switch (action) {
                         case EXT_READ:
-                        	value = LTIUtil.getXmlChildValue(this.extDoc.getRootElement(), "textString");
+                        	value = this.extIndex.getChildValue("textString");
                         	if (value == null) {
                         		break;
                         	} else {
@@ -729,7 +731,7 @@ public class ResourceLink implements LTISource {
 	                if (this.doService(todo, u, params)) {
 	                    switch (action) {
 	                        case EXT_READ:
-	                        	value = LTIUtil.getXmlChildValue(this.extDoc.getRootElement(), "textstring");
+	                        	value = this.extIndex.getChildValue("textstring");
 	                        	if (value != null) {
 	                        		ltiOutcome.setValue(value);
 	                        	}
@@ -768,117 +770,152 @@ public class ResourceLink implements LTISource {
     public List<User> doMembershipsService(boolean withGroups)
     {
 
-        List<User> users = new ArrayList<User>();
-        Map<String, User> oldUsers = this.getUserResultSourcedIDs(true, ToolProvider.ID_SCOPE_RESOURCE);
-        this.extResponse = null;
-        String urlString = this.getSetting("ext_ims_lis_memberships_url");
-	    boolean ok = false;
-	    Map<String, List<String>> params = new HashMap<String, List<String>>();
-	    try {	
-			URL url = new URL(urlString);
-
-		    LTIUtil.setParameter(params, "id", getSetting("ext_ims_lis_memberships_id"));
-		    if (withGroups) {
-		        ok = doService("basic-lis-readmembershipsforcontextwithgroups", url, params);
-		    }
-		    if (ok) {
-		    	groupSets = new HashMap<String, GroupSet>();
-		        groups = new HashMap<String, Group>();
-		    } else {
-		        ok = doService("basic-lis-readmembershipsforcontext", url, params);
-		    }
-        } catch (MalformedURLException e) {
-			e.printStackTrace();
-		}
+        final List<User> users = new ArrayList<User>();
+        boolean ok = readMemberships(withGroups, new MembershipsReader.Listener() {
+        	@Override
+        	public void user(User user) {
+        		users.add(user);
+        	}
+        });
+        if (ok) {
+            this.getDataConnector().syncRoster(this, users);
+        }
+
+        return ok ? users : null;
 
+    }
+
+/**
+ * Perform a Memberships service request, passing each user to a listener as it is read.
+ *
+ * The response is read as a stream, so the XML is not held in memory, and only the ID
+ * and result sourcedid of each user are kept.  Once the roster has been read the stored
+ * users are synchronised with it in one operation: users with a new result sourcedid are
+ * added or updated and users no longer in the roster are deleted.  Users passed to the
+ * listener have not yet been saved.
+ *
+ * @param boolean  withGroups True is group information is to be requested as well
+ * @param Listener listener   Listener for the users (and groups) read
+ *
+ * @return RosterSyncResult Summary of the changes to the stored users, or null if the request was not successful
+ */
+    public RosterSyncResult doMembershipsService(boolean withGroups, final MembershipsReader.Listener listener)
+    {
+
+        final Map<String, String> roster = new LinkedHashMap<String, String>();
+        boolean ok = readMemberships(withGroups, new MembershipsReader.Listener() {
+        	@Override
+        	public void user(User user) {
+        		String id = user.getId(ToolProvider.ID_SCOPE_ID_ONLY);
+        		if (!roster.containsKey(id)) {
+        			roster.put(id, user.getLtiResultSourcedId());
+        		}
+        		listener.user(user);
+        	}
+        	@Override
+        	public void group(String id, Group group) {
+        		listener.group(id, group);
+        	}
+        	@Override
+        	public void groupSet(String id, GroupSet groupSet) {
+        		listener.groupSet(id, groupSet);
+        	}
+        });
+        RosterSyncResult result = null;
         if (ok) {
-        	Element el = LTIUtil.getXmlChild(this.extDoc.getRootElement(), "memberships");
-            if (el != null) {
-              List<Element> members = el.getChildren("member");
-              for (Element el2 : members) {
-            	  String value = LTIUtil.getXmlChildValue(el2, "user_id");
-            	  User user = User.fromResourceLink(this, value);
-      //
-      /// Set the user name
-      //
-                String firstname = LTIUtil.getXmlChildValue(el, "person_name_given");
-                String lastname = LTIUtil.getXmlChildValue(el, "person_name_family");
-                String fullname = LTIUtil.getXmlChildValue(el, "person_name_full");
-                user.setNames(firstname, lastname, fullname);
-      //
-      /// Set the user email
-      //
-                value = LTIUtil.getXmlChildValue(el, "person_contact_email_primary");
-                if (value == null) {
-                  value = "";
-                }
-                user.setEmail(value, this.consumer.getDefaultEmail());
-      //
-      /// Set the user roles
-      //
-                value = LTIUtil.getXmlChildValue(el, "roles");
-                if (value != null) {
-                  user.setRoles(value);
-                }
-      //
-      /// Set the user groups
-      //
-                el = LTIUtil.getXmlChild(el, "groups");
-                if (el != null) {
-                  List<Element> memberGroups = el.getChildren("group");
-                  for (Element group : memberGroups) {
-                    String groupId = LTIUtil.getXmlChildValue(group, "id");
-                    Element set = LTIUtil.getXmlChild(group, "set");
-                    String setId = null;
-                    if (set != null) {
-                      setId = LTIUtil.getXmlChildValue(set, "id");
-                      GroupSet groupSet = this.groupSets.get(setId);
-                      if (groupSet == null) {
-                        groupSet = new GroupSet(LTIUtil.getXmlChildValue(set, "title"));
-                        this.groupSets.put(setId, groupSet);
-                      }
-                      groupSet.incNumMembers();
-                      if (user.isStaff()) {
-                        groupSet.incNumStaff();
-                      }
-                      if (user.isLearner()) {
-                        groupSet.incNumLearners();
-                      }
-                      groupSet.addGroup(groupId);
-                    }
-                    this.groups.put(groupId, new Group(LTIUtil.getXmlChildValue(group, "title"), setId));
-                    user.addGroup(groupId);
-                  }
-                }
-      //
-      /// If a result sourcedid is provided save the user
-      //
-                value = LTIUtil.getXmlChildValue(el, "lis_result_sourcedid");
-                if (value != null) {
-                  user.setLtiResultSourcedId(value);
-                  user.save();
-                }
-                users.add(user);
-      //
-      /// Remove old user (if it exists)
-      //
-                oldUsers.remove(user.getId(ToolProvider.ID_SCOPE_RESOURCE));
-              }
-      //
-      /// Delete any old users which were not in the latest list from the tool consumer
-      //
-              for (User user : oldUsers.values()) {
-            	  user.delete();
-              }
-            }
-          } else {
-            users = null;
-          }
+            result = this.getDataConnector().syncRoster(this, roster);
+        }
+
+        return result;
 
-          return users;
+    }
+
+/**
+ * Send a memberships request (with groups if requested, falling back to one without)
+ * and pass each user read from the response to a listener.
+ *
+ * @param boolean  withGroups True is group information is to be requested as well
+ * @param Listener listener   Listener for the users (and groups) read
+ *
+ * @return boolean True if the request was successful
+ */
+    private boolean readMemberships(boolean withGroups, MembershipsReader.Listener listener)
+    {
 
+        MembershipsListener collect = new MembershipsListener(listener);
+        this.extResponse = null;
+        boolean ok = false;
+        try {
+            URL url = new URL(this.getSetting("ext_ims_lis_memberships_url"));
+            Map<String, List<String>> params = new HashMap<String, List<String>>();
+            LTIUtil.setParameter(params, "id", getSetting("ext_ims_lis_memberships_id"));
+            if (withGroups) {
+                ok = doMembershipsRequest("basic-lis-readmembershipsforcontextwithgroups", url, params, collect, true);
+            }
+// Fall back to a request without groups, unless some users have already been read
+            if (!ok && !collect.read) {
+                ok = doMembershipsRequest("basic-lis-readmembershipsforcontext", url, params, collect, false);
+            }
+        } catch (MalformedURLException e) {
+            e.printStackTrace();
         }
 
+        return ok;
+
+    }
+
+/**
+ * Send a memberships request and stream the response through a MembershipsReader.
+ *
+ * @param string   type       Message type value
+ * @param URL      url        URL to send request to
+ * @param array    params     Parameters to send (before signing)
+ * @param Listener listener   Listener for the users read
+ * @param boolean  withGroups True if the groups read are to be kept
+ *
+ * @return boolean True if the response had a codemajor of Success
+ */
+    private boolean doMembershipsRequest(String type, URL url, Map<String, List<String>> params,
+    		final MembershipsReader.Listener listener, final boolean withGroups)
+    {
+
+        params = this.getConsumer().signParameters(
+        		url.toExternalForm(),
+        		type,
+        		this.getConsumer().getLtiVersion(),
+        		"POST",
+        		params);
+        LTIMessage http = new LTIMessage(url.toExternalForm(), "POST", params);
+        Boolean ok = http.send(HttpTransport.getDefault(), new ResponseHandler<Boolean>() {
+        	@Override
+        	public Boolean handleResponse(HttpResponse response) throws IOException {
+        		HttpEntity entity = response.getEntity();
+        		if ((response.getStatusLine().getStatusCode() >= 400) || (entity == null)) {
+        			return false;
+        		}
+        		try (InputStream in = entity.getContent();
+        				MembershipsReader reader = new MembershipsReader(ResourceLink.this, in)) {
+        			boolean success = reader.read(listener);
+        			if (success && withGroups) {
+        				groupSets = reader.getGroupSets();
+        				groups = reader.getGroups();
+        			}
+        			return success;
+        		} catch (XMLStreamException e) {
+        			e.printStackTrace();
+        			return false;
+        		}
+        	}
+        });
+// The response body is not kept as it has been read as a stream
+        this.extRequest = http.getRequest();
+        this.extRequestHeaders = http.getRequestHeaders();
+        this.extResponseHeaders = http.getResponseHeaders();
+
+        return Boolean.TRUE.equals(ok);
+
+    }
+
 /**
  * Perform a Setting service request.
  *
@@ -927,9 +964,10 @@ public class ResourceLink implements LTISource {
             if (this.doService(todo, url, params)) {
                 switch (action) {
                     case EXT_READ:
-                    	Element el = LTIUtil.getXmlChild(this.extDoc.getRootElement(), "setting");
+                    	XmlIndex index = this.extIndex;
+                    	Element el = index.getChild("setting");
                         if (el != null) {
-                          this.setSetting("ext_ims_lti_tool_setting", LTIUtil.getXmlChildValue(el, "value"));
+                          this.setSetting("ext_ims_lti_tool_setting", index.getChildValue(el, "value"));
                         }
                         response = true;
                         break;
@@ -1319,10 +1357,11 @@ public class ResourceLink implements LTISource {
     {
 
         boolean ok = false;
-        this.extRequest = null;
-        this.extRequestHeaders = new HashMap<String, String>();
-        this.extResponse = null;
-        this.extResponseHeaders = new HashMap<String, String>();
+        String request = null;
+        Map<String, String> requestHeaders = new HashMap<String, String>();
+        Map<String, String> responseHeaders = new HashMap<String, String>();
+        Document doc = null;
+        XmlIndex index = null;
         if (url != null) {
             params = this.getConsumer().signParameters(
             		url.toExternalForm(), 
@@ -1333,16 +1372,16 @@ public class ResourceLink implements LTISource {
 // Connect to tool consumer
             LTIMessage http = new LTIMessage(url.toExternalForm(), "POST", params);
 // Parse XML response
-            if (http.send()) {
-                this.extResponse = http.getResponse();
-                this.extResponseHeaders = http.getResponseHeaders();
+            doc = http.send(HttpTransport.getDefault(), XML_RESPONSE);
+            if (http.isOk()) {
+                responseHeaders = http.getResponseHeaders();
                 try {
-                	extDoc = LTIUtil.getXMLDoc(http.getResponse());
-                	if (extDoc != null) {
-                		Element el = LTIUtil.getXmlChild(extDoc.getRootElement(), "statusinfo");
+                	if (doc != null) {
+                		index = new XmlIndex(doc);
+                		Element el = index.getChild("statusinfo");
                 		ok = el != null;
                 		if (ok) {
-                			String responseCode = LTIUtil.getXmlChildValue(el, "codemajor");
+                			String responseCode = index.getChildValue(el, "codemajor");
                 			ok = responseCode != null;
                 			if (ok) {
                 				ok = responseCode.equals("Success");
@@ -1353,8 +1392,18 @@ public class ResourceLink implements LTISource {
                 	e.printStackTrace();
                 }
             }
-            this.extRequest = http.getRequest();
-            this.extRequestHeaders = http.getRequestHeaders();
+            request = http.getRequest();
+            requestHeaders = http.getRequestHeaders();
+        }
+// Only record the exchange once it is complete, as outcomes may be sent concurrently for one resource link
+        this.extRequest = request;
+        this.extRequestHeaders = requestHeaders;
+// The response is parsed as it is read, so its text is not kept
+        this.extResponse = null;
+        this.extResponseHeaders = responseHeaders;
+        if (doc != null) {
+        	this.extDoc = doc;
+        	this.extIndex = index;
         }
 
         return ok;
@@ -1362,42 +1411,28 @@ public class ResourceLink implements LTISource {
     }
 
 /**
- * Send a service request to the tool consumer.
+ * Send an LTI 1.1 outcomes service request to the tool consumer.
  *
- * @param string type Message type value
- * @param string url  URL to send request to
- * @param string xml  XML of message request
+ * @param string type       Operation name (readResult, replaceResult or deleteResult)
+ * @param string url        URL to send request to
+ * @param string sourcedId  Result sourcedId
+ * @param string language   Language of the result value
+ * @param string value      Result value (null if the request does not include a result)
  *
  * @return boolean True if the request successfully obtained a response
  */
-    private boolean doLTI11Service(String type, String url, String xml)
+    private boolean doLTI11Service(String type, String url, String sourcedId, String language, String value)
     {
 
         boolean ok = false;
-        this.extRequest = null;
-        this.extRequestHeaders = null;
-        this.extResponse = null;
-        this.extResponseHeaders = null;
+        Document doc = null;
+        XmlIndex index = null;
         if (StringUtils.isNotEmpty(url)) {
             String messageId = UUID.randomUUID().toString();
-            String xmlRequest = "<?xml version = \"1.0\" encoding = \"UTF-8\"?>\n"
-+"<imsx_POXEnvelopeRequest xmlns = \"http://www.imsglobal.org/services/ltiv1p1/xsd/imsoms_v1p0\">\n"
-+"  <imsx_POXHeader>\n"
-+"    <imsx_POXRequestHeaderInfo>\n"
-+"      <imsx_version>V1.0</imsx_version>\n"
-+"      <imsx_messageIdentifier>" + id + "</imsx_messageIdentifier>\n"
-+"    </imsx_POXRequestHeaderInfo>\n"
-+"  </imsx_POXHeader>\n"
-+"  <imsx_POXBody>\n"
-+"    <" + type + "Request>\n"
-+xml
-+"    </" + type + "Request>\n"
-+"  </imsx_POXBody>\n"
-+"</imsx_POXEnvelopeRequest>\n";
-         // Calculate body hash
-            String hash = Base64.encodeBase64String(DigestUtils.sha1(xmlRequest.toString()));
+            PoxEnvelopeWriter envelope = PoxEnvelopeWriter.get().write(messageId, type, sourcedId, language, value);
+         // Body hash, calculated as the envelope was written
             Map<String,String> params = new HashMap<String,String>();
-            params.put("oauth_body_hash", hash);
+            params.put("oauth_body_hash", envelope.getBodyHash());
             HashSet<Map.Entry<String,String>> httpParams = new HashSet<Map.Entry<String,String>>();
             httpParams.addAll(params.entrySet());
       // Check for query parameters which need to be included in the signature
@@ -1425,46 +1460,40 @@ public class ResourceLink implements LTISource {
       // Add OAuth signature
             Map<String,String> header = new HashMap<String,String>();
             OAuthMessage oAuthMessage = new OAuthMessage("POST", urlNoQuery, httpParams);
-            OAuthConsumer oAuthConsumer = new OAuthConsumer("about:blank", this.consumer.getKey(), this.consumer.getSecret(), null);
-            OAuthAccessor oAuthAccessor = new OAuthAccessor(oAuthConsumer);
             try {
-              oAuthMessage.addRequiredParameters(oAuthAccessor);
+              this.consumer.getSigningContext().sign(oAuthMessage);
               header.put("Authorization", oAuthMessage.getAuthorizationHeader(null));
-              header.put("Content-Type", "application/xml");
             } catch (OAuthException e) {
             } catch (URISyntaxException e) {
             } catch (IOException e) {
             }
-            try {
-	            StringEntity entity = new StringEntity(xmlRequest);
-	            
-	      // Connect to tool consumer
-	            this.extResponse = doPostRequest(url, LTIUtil.getHTTPParams(params), header, entity);
-	      // Parse XML response
-	            if (this.extResponse != null) {
-	              this.extDoc = LTIUtil.getXMLDoc(extResponse);
-	              ok = this.extDoc != null;
-	              if (ok) {
-	                Element el = LTIUtil.getXmlChild(this.extDoc.getRootElement(), "imsx_statusInfo");
-	                ok = el != null;
-	                if (ok) {
-	                  String responseCode = LTIUtil.getXmlChildValue(el, "imsx_codeMajor");
-	                  ok = responseCode != null;
-	                  if (ok) {
-	                    ok = responseCode.equals("success");
-	                  }
-	                }
-	              }
-		          if (!ok) {
-		            this.extResponse = null;
-		          }
-	            }
-            } catch (UnsupportedEncodingException e) {
-            	e.printStackTrace();
+      // Connect to tool consumer and parse XML response
+            doc = doPostRequest(url, header, envelope.getEntity());
+            if (doc != null) {
+              index = new XmlIndex(doc);
+              Element el = index.getChild("imsx_statusInfo");
+              ok = el != null;
+              if (ok) {
+                String responseCode = index.getChildValue(el, "imsx_codeMajor");
+                ok = responseCode != null;
+                if (ok) {
+                  ok = responseCode.equals("success");
+                }
+              }
             }
           }
 
-          return (this.extResponse != null);
+      // Only record the exchange once it is complete, as outcomes may be sent concurrently for one resource link
+          this.extRequest = null;
+          this.extRequestHeaders = null;
+          this.extResponse = null;
+          this.extResponseHeaders = null;
+          if (doc != null) {
+            this.extDoc = doc;
+            this.extIndex = index;
+          }
+
+          return ok;
 
         }
 
@@ -1572,12 +1601,21 @@ public class ResourceLink implements LTISource {
 		this.settingsChanged = settingsChanged;
 	}
 
+	public RecordSnapshot getSnapshot() {
+		return snapshot;
+	}
+
+	public void setSnapshot(RecordSnapshot snapshot) {
+		this.snapshot = snapshot;
+	}
+
 	public Document getExtDoc() {
 		return extDoc;
 	}
 
 	public void setExtDoc(Document extDoc) {
 		this.extDoc = extDoc;
+		this.extIndex = (extDoc != null) ? new XmlIndex(extDoc) : null;
 	}
 
 	public Map<String, List<String>> getExtNodes() {
@@ -1626,51 +1664,29 @@ public class ResourceLink implements LTISource {
 	 * Performs an HTTP POST request.
 	 *
 	 * @param url     URL to send request to
-	 * @param params  map of parameter values to be passed
 	 * @param header  values to include in the request header
+	 * @param entity  request body
 	 *
-	 * @return response returned from request, null if an error occurred
+	 * @return XML document returned from request, null if an error occurred
 	 */
-	  private String doPostRequest(String url, List<NameValuePair> params, Map<String,String> header,
-	     StringEntity entity) {
-
-	    String fileContent = null;
-	    RequestConfig requestConfig = RequestConfig.custom()
-		   .setConnectTimeout(TIMEOUT)
-		   .setConnectionRequestTimeout(TIMEOUT)
-		   .setSocketTimeout(TIMEOUT)
-		   .build();
-		CloseableHttpClient httpClient = HttpClients.custom()
-		   .setDefaultRequestConfig(requestConfig)
-		   .setRedirectStrategy(new DefaultRedirectStrategy())
-		   .build();
+	  private Document doPostRequest(String url, Map<String,String> header, HttpEntity entity) {
+
+	    Document doc = null;
 	    HttpPost httpPost = new HttpPost(url);
 	    try {
 	    	if (header != null) {
 	    		for (String name : header.keySet()) {
-	    			params.add(new BasicNameValuePair(name, header.get(name)));
+	    			httpPost.setHeader(name, header.get(name));
 	    		}
 	    	}
-		    httpPost.setEntity(new UrlEncodedFormEntity(params));
-		    HttpResponse hr = httpClient.execute(httpPost);
-		    if (hr.getStatusLine().getStatusCode() < 400) { 
-		    	BufferedReader rd = new BufferedReader(
-		    			new InputStreamReader(hr.getEntity().getContent()));
-
-		    	StringBuffer result = new StringBuffer();
-		    	String line = "";
-		    	while ((line = rd.readLine()) != null) {
-		    		result.append(line);
-		    	}
-		    	fileContent = result.toString();
-		    }
-		    httpClient.close();
+		    httpPost.setEntity(entity);
+		    doc = HttpTransport.getDefault().execute(httpPost, XML_RESPONSE);
 	    } catch (IOException e) {
 	    	e.printStackTrace();
-	    	fileContent = null;
+	    	doc = null;
 	    }
 
-	    return fileContent;
+	    return doc;
 
 	  }
 
@@ -1683,5 +1699,35 @@ public class ResourceLink implements LTISource {
 
                 
 
+/**
+ * Class to pass the records read from memberships responses to a listener, noting
+ * whether any users have been read.
+ */
+    private static final class MembershipsListener implements MembershipsReader.Listener {
+
+        private final MembershipsReader.Listener listener;
+        private boolean read = false;
+
+        private MembershipsListener(MembershipsReader.Listener listener) {
+            this.listener = listener;
+        }
+
+        @Override
+        public void user(User user) {
+            read = true;
+            listener.user(user);
+        }
+
+        @Override
+        public void group(String id, Group group) {
+            listener.group(id, group);
+        }
+
+        @Override
+        public void groupSet(String id, GroupSet groupSet) {
+            listener.groupSet(id, groupSet);
+        }
+
+    }
 
-}
\ No newline at end of file
+}
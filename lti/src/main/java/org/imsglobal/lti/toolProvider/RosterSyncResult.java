@@ -0,0 +1,82 @@
+package org.imsglobal.lti.toolProvider;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Class to summarise the changes made to the stored users of a resource link when its
+ * roster is synchronised with the list of members from the tool consumer.
+ *
+ * @author  David Block (dave@northcreek.ca)
+ */
+public class RosterSyncResult {
+
+	/**
+	 * Users inserted (members with a result sourcedId which were not stored).
+	 */
+	    private final List<User> added = new ArrayList<User>();
+	/**
+	 * Users whose result sourcedId was changed.
+	 */
+	    private final List<User> updated = new ArrayList<User>();
+	/**
+	 * Stored users deleted as they are no longer members.
+	 */
+	    private final List<User> removed = new ArrayList<User>();
+	/**
+	 * Number of members whose stored user did not need changing.
+	 */
+	    private int unchanged = 0;
+	/**
+	 * Whether the changes were written successfully.
+	 */
+	    private boolean ok = true;
+
+	public List<User> getAdded() {
+		return added;
+	}
+
+	public List<User> getUpdated() {
+		return updated;
+	}
+
+	public List<User> getRemoved() {
+		return removed;
+	}
+
+	public int getUnchanged() {
+		return unchanged;
+	}
+
+	public void setUnchanged(int unchanged) {
+		this.unchanged = unchanged;
+	}
+
+	public void incUnchanged() {
+		this.unchanged++;
+	}
+
+	public boolean isOk() {
+		return ok;
+	}
+
+	public void setOk(boolean ok) {
+		this.ok = ok;
+	}
+
+	/**
+	 * Check whether any stored users were changed.
+	 *
+	 * @return <code>true</code> if users were added, updated or removed
+	 */
+	    public boolean hasChanges() {
+	    	return !added.isEmpty() || !updated.isEmpty() || !removed.isEmpty();
+	    }
+
+	    @Override
+	    public String toString() {
+	    	return "added=" + added.size() + ", updated=" + updated.size() + ", removed=" + removed.size() +
+	    			", unchanged=" + unchanged + (ok ? "" : " (failed)");
+	    }
+
+}
@@ -5,6 +5,7 @@ import java.io.UnsupportedEncodingException;
 import java.net.MalformedURLException;
 import java.net.URISyntaxException;
 import java.net.URL;
+import java.nio.charset.StandardCharsets;
 import java.security.MessageDigest;
 import java.security.NoSuchAlgorithmException;
 import java.util.ArrayList;
@@ -22,17 +23,17 @@ import org.apache.commons.lang3.StringUtils;
 import org.imsglobal.lti.LTIMessage;
 import org.imsglobal.lti.LTIUtil;
 import org.imsglobal.lti.profile.ServiceDefinition;
+import org.imsglobal.lti.signature.oauth1.OAuthSigningContext;
 import org.imsglobal.lti.signature.oauth1.OAuthUtil;
 import org.imsglobal.lti.toolProvider.dataConnector.DataConnector;
 import org.imsglobal.lti.toolProvider.dataConnector.DataConnectorFactory;
+import org.imsglobal.lti.toolProvider.dataConnector.RecordSnapshot;
 import org.imsglobal.lti.toolProvider.mediaType.ConsumerProfile;
 import org.imsglobal.lti.toolProvider.service.ToolSettings;
 import org.joda.time.DateTime;
 import org.json.simple.JSONObject;
 
 import net.oauth.OAuth;
-import net.oauth.OAuthAccessor;
-import net.oauth.OAuthConsumer;
 import net.oauth.OAuthException;
 import net.oauth.OAuthMessage;
 import net.oauth.signature.OAuthSignatureMethod;
@@ -172,6 +173,12 @@ public class ToolConsumer implements LTISource {
 	 * @var boolean settingsChanged
 	 */
 	    private boolean settingsChanged = false;
+	/**
+	 * Column values as last loaded or saved (null if not known).
+	 *
+	 * @var RecordSnapshot snapshot
+	 */
+	    private RecordSnapshot snapshot = null;
 	/**
 	 * Data connector object or string.
 	 *
@@ -185,6 +192,12 @@ public class ToolConsumer implements LTISource {
 		private Map<String, List<String>> toolProxyMap;
 		
 		private ConsumerProfile profile = new ConsumerProfile();
+	/**
+	 * OAuth signing context for the current key and secret.
+	 *
+	 * @var OAuthSigningContext signingContext
+	 */
+	    private volatile OAuthSigningContext signingContext = null;
 	    
 	    public String getName() {
 			return name;
@@ -201,6 +214,25 @@ public class ToolConsumer implements LTISource {
 		public void setSecret(String secret) {
 			this.secret = secret;
 		}
+
+	/**
+	 * Get the OAuth signing context for the consumer, creating a new one if the key or
+	 * secret has changed since it was last used.
+	 *
+	 * @return signing context
+	 */
+		public OAuthSigningContext getSigningContext() {
+			OAuthSigningContext context = signingContext;
+			if ((context == null) || !context.matches(key, secret)) {
+				context = OAuthSigningContext.forConsumer(key, secret);
+				signingContext = context;
+			}
+			return context;
+		}
+
+		public void setSigningContext(OAuthSigningContext signingContext) {
+			this.signingContext = signingContext;
+		}
 	
 		public String getLtiVersion() {
 			return ltiVersion;
@@ -330,6 +362,14 @@ public class ToolConsumer implements LTISource {
 			this.settingsChanged = settingsChanged;
 		}
 	
+		public RecordSnapshot getSnapshot() {
+			return snapshot;
+		}
+	
+		public void setSnapshot(RecordSnapshot snapshot) {
+			this.snapshot = snapshot;
+		}
+	
 		public void setKey(String key) {
 			this.key = key;
 		}
@@ -714,7 +754,7 @@ public class ToolConsumer implements LTISource {
 		            }
 		            
 		// Add OAuth signature
-					OAuthMessage message = doSignature(urlString, oparams, getKey(), getSecret(), method);
+					OAuthMessage message = doSignature(urlString, oparams, getSigningContext(), method);
 					oparams = message.getParameters(); //replace with signed parameters
 		// Remove parameters being passed on the query string
 					oparams = removeQueryParams(oparams, queryParams);
@@ -767,7 +807,7 @@ public class ToolConsumer implements LTISource {
 			    oparams = convert(params);
 			    
 	// Add OAuth signature
-			    OAuthMessage message = doSignature(endpoint, oparams, consumerKey, consumerSecret, method);
+			    OAuthMessage message = doSignature(endpoint, oparams, OAuthSigningContext.forConsumer(consumerKey, consumerSecret), method);
 			    oparams = message.getParameters();
 			    
 	// Remove parameters being passed on the query string
@@ -811,7 +851,7 @@ public class ToolConsumer implements LTISource {
 			
 		// Calculate body hash
 		    	MessageDigest md = MessageDigest.getInstance("SHA1");
-		    	byte[] sha1 = md.digest(data.getBytes());
+		    	byte[] sha1 = md.digest(((data != null) ? data : "").getBytes(StandardCharsets.UTF_8));
 		        String hash = Base64.encodeBase64String(sha1);
 		        List<String> hashList = new ArrayList<String>();
 		        hashList.add(hash);
@@ -820,12 +860,13 @@ public class ToolConsumer implements LTISource {
 		        oparams = convert(params);
 
 		// Add OAuth signature
-		        OAuthMessage message = doSignature(endpoint, oparams, consumerKey, consumerSecret, method);
+		        OAuthMessage message = doSignature(endpoint, oparams, OAuthSigningContext.forConsumer(consumerKey, consumerSecret), method);
 		        
 		// Remove parameters being passed on the query string
 				oparams = removeQueryParams(message.getParameters(), queryParams);
 					    	
-	            headers = message.getHeaders();
+	            headers = new ArrayList<Entry<String, String>>(message.getHeaders());
+	            headers = addHeader(headers, "Authorization", message.getAuthorizationHeader(null));
 		        if (StringUtils.isEmpty(data)) {
 		        	if (type != null) {
 		        		headers = addHeader(headers, "Accept", type);
@@ -868,9 +909,8 @@ public class ToolConsumer implements LTISource {
 	    	for (Entry<String, String> e : headers) {
 	    		sb.append("\n")
    				.append(e.getKey())
-   				.append(": {")
-   				.append(e.getValue())
-   				.append("}");
+   				.append(": ")
+   				.append(e.getValue());
 	    	}
 	    	return sb.toString();
 	    }
@@ -878,15 +918,12 @@ public class ToolConsumer implements LTISource {
 		private static OAuthMessage doSignature(
 				String urlString, 
 				List<Entry<String, String>> oparams,
-				String key,
-				String secret,
+				OAuthSigningContext signing,
 				String method)
 				throws IOException, OAuthException, URISyntaxException {
 			
-			OAuthConsumer oAuthConsumer = new OAuthConsumer("about:blank", key, secret, null);
-			OAuthAccessor oAuthAccessor = new OAuthAccessor(oAuthConsumer);
 			OAuthMessage message = new OAuthMessage(method, urlString, oparams);
-			message.sign(oAuthAccessor);
+			signing.sign(message);
 			return message;
 		}
 
@@ -1019,9 +1056,7 @@ public class ToolConsumer implements LTISource {
 	private boolean load(String key, boolean autoEnable)
 	{
 		setKey(key);
-		dataConnector = DataConnectorFactory.getDataConnector();
-	    boolean ok = dataConnector.loadToolConsumer(this);
-	    ok = this.dataConnector.loadToolConsumer(this);
+	    boolean ok = this.dataConnector.loadToolConsumer(this);
 	    if (!ok) {
 	    	setEnabled(autoEnable);
 	    }
@@ -1035,7 +1070,7 @@ public class ToolConsumer implements LTISource {
 	}
 
 	public DataConnector getDataConnector() {
-		return DataConnectorFactory.getDataConnector();
+		return dataConnector;
 	}
 
 	public Map<String, User> getUserResultSourcedIDs(boolean flag, int scope) {
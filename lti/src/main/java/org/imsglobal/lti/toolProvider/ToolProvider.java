@@ -1,7 +1,9 @@
 package org.imsglobal.lti.toolProvider;
 
 import java.io.IOException;
-import java.lang.reflect.InvocationTargetException;
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
 import java.lang.reflect.Method;
 import java.net.MalformedURLException;
 import java.net.URI;
@@ -16,6 +18,8 @@ import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import javax.crypto.Mac;
 import javax.crypto.spec.SecretKeySpec;
@@ -25,39 +29,26 @@ import javax.servlet.http.HttpServletResponse;
 import org.apache.commons.codec.binary.Base64;
 import org.apache.commons.lang3.StringEscapeUtils;
 import org.apache.commons.lang3.StringUtils;
-import org.apache.http.HttpResponse;
-import org.apache.http.client.ClientProtocolException;
-import org.apache.http.client.HttpClient;
-import org.apache.http.client.methods.HttpGet;
 import org.apache.http.client.utils.URIBuilder;
-import org.apache.http.impl.client.HttpClientBuilder;
-import org.apache.http.util.EntityUtils;
 import org.imsglobal.lti.LTIMessage;
-import org.imsglobal.lti.LTIUtil;
 import org.imsglobal.lti.product.Product;
 import org.imsglobal.lti.product.ProductFamily;
-import org.imsglobal.lti.profile.ProfileMessage;
 import org.imsglobal.lti.profile.ProfileResourceHandler;
 import org.imsglobal.lti.profile.ServiceDefinition;
+import org.imsglobal.lti.signature.oauth1.OAuthBaseString;
+import org.imsglobal.lti.signature.oauth1.OAuthSigningContext;
 import org.imsglobal.lti.toolProvider.dataConnector.DataConnector;
+import org.imsglobal.lti.toolProvider.dataConnector.DataConnectorFactory;
 import org.imsglobal.lti.toolProvider.mediaType.ConsumerProfile;
-import org.imsglobal.lti.toolProvider.mediaType.JSONContext;
 import org.imsglobal.lti.toolProvider.mediaType.MediaTypeToolProxy;
 import org.imsglobal.lti.toolProvider.mediaType.ToolService;
 import org.joda.time.DateTime;
-import org.json.simple.JSONObject;
-import org.json.simple.parser.JSONParser;
+import org.json.simple.parser.ParseException;
 
 import net.oauth.OAuth;
-import net.oauth.OAuthAccessor;
-import net.oauth.OAuthConsumer;
-import net.oauth.OAuthMessage;
 import net.oauth.OAuthProblemException;
-import net.oauth.OAuthValidator;
-import net.oauth.SimpleOAuthValidator;
 import net.oauth.server.HttpRequestMessage;
 import net.oauth.server.OAuthServlet;
-import net.oauth.signature.OAuthSignatureMethod;
 
 public class ToolProvider {
 	
@@ -135,6 +126,32 @@ public class ToolProvider {
 	    	bMap.put("ToolProxyRegistrationRequest", "onRegister");
 	    	METHOD_NAMES = Collections.unmodifiableMap(bMap);
 	    }
+	/**
+	 * Handlers registered for each tool provider class, by message type.  The handler tables are
+	 * held against each class (rather than in a map keyed by class) so they do not keep the class
+	 * loader of a web application alive after it has been undeployed.
+	 */
+	    private static final ClassValue<Map<String, MessageHandler>> REGISTERED_HANDLERS =
+	    	new ClassValue<Map<String, MessageHandler>>() {
+	    		@Override
+	    		protected Map<String, MessageHandler> computeValue(Class<?> clazz) {
+	    			return new ConcurrentHashMap<String, MessageHandler>();
+	    		}
+	    	};
+	/**
+	 * Handlers resolved for each tool provider class, by message type.
+	 */
+	    private static final ClassValue<HandlerTable> HANDLERS = new ClassValue<HandlerTable>() {
+	    	@Override
+	    	protected HandlerTable computeValue(Class<?> clazz) {
+	    		return new HandlerTable(clazz);
+	    	}
+	    };
+	/**
+	 * Number of handlers registered so far; a resolved table built before the latest registration
+	 * is built again.
+	 */
+	    private static final AtomicInteger HANDLER_GENERATION = new AtomicInteger();
 	/**
 	 * Names of LTI parameters to be retained in the consumer settings property.
 	 *
@@ -250,29 +267,19 @@ public class ToolProvider {
 	 */
 	    private Context context = null;
 	/**
-	 * Data connector object.
-	 *
-	 * @var DataConnector dataConnector
-	 */
-	    private DataConnector dataConnector = null;
-	/**
-	 * Default email domain.
-	 *
-	 * @var string defaultEmail
-	 */
-	    private String defaultEmail = "";
-	/**
-	 * Scope to use for user IDs.
+	 * Configuration shared by every request (null until first needed when the tool provider
+	 * was constructed from a data connector).
 	 *
-	 * @var int idScope
+	 * @var LaunchEngine engine
 	 */
-	    private int idScope = ID_SCOPE_ID_ONLY;
+	    private LaunchEngine engine = null;
 	/**
-	 * Whether shared resource link arrangements are permitted.
+	 * Configuration private to this tool provider, from which its engine is built (null when
+	 * the tool provider was constructed from a shared engine).
 	 *
-	 * @var boolean allowSharing
+	 * @var LaunchEngine.Builder builder
 	 */
-	    private boolean allowSharing = false;
+	    private LaunchEngine.Builder builder = null;
 	/**
 	 * Message for last request processed
 	 *
@@ -291,44 +298,6 @@ public class ToolProvider {
 	 * @var array details
 	 */
 	    private List<String> details = new ArrayList<String>();
-	/**
-	 * Base URL for tool provider service
-	 *
-	 * @var string baseUrl
-	 */
-	  private URL baseUrl = null;
-	/**
-	 * Vendor details
-	 *
-	 * @var Item vendor
-	 */
-	  private ProductFamily vendor = null;
-	/**
-	 * Product details
-	 *
-	 * @var Item product
-	 */
-	  public Product product = null;
-	/**
-	 * Services required by Tool Provider
-	 *
-	 * @var array requiredServices
-	 */
- 	  private List<ToolService> requiredServices = new ArrayList<ToolService>();
-
-	/**
-	 * Optional services used by Tool Provider
-	 *
-	 * @var array optionalServices
-	 */
-  	  private List<ToolService> optionalServices = new ArrayList<ToolService>();
-	/**
-	 * Resource handlers for Tool Provider
-	 *
-	 * @var array resourceHandlers
-	 */
-	  private List<ProfileResourceHandler> resourceHandlers = new ArrayList<ProfileResourceHandler>();
-
 	/**
 	 * URL to redirect user to on successful completion of the request.
 	 *
@@ -371,12 +340,6 @@ public class ToolProvider {
      */
       private String error = null;
 
-	/**
-	 * LTI parameter constraints for auto validation checks.
-	 *
-	 * @var array constraints
-	 */
-	    private Map<String, ParameterConstraint> constraints = new HashMap<String, ParameterConstraint>();
 	    
 	    private String messageType;
 	    private String ltiVersion;
@@ -384,33 +347,61 @@ public class ToolProvider {
 	    
 	    private HttpServletRequest request;
 	    private HttpServletResponse response;
+	/**
+	 * Parameters of the request being processed.
+	 *
+	 * @var LaunchParameters parameters
+	 */
+	    private LaunchParameters parameters;
       	
 	/**
 	 * Class constructor
 	 *
+	 * The tool provider is configured through its own setters; where many requests are
+	 * processed, build a LaunchEngine once and use the constructor which accepts it instead.
+	 *
 	 * @param DataConnector     dataConnector    Object containing a database connection object
 	 */
 	    public ToolProvider(DataConnector dataConnector, HttpServletRequest request, HttpServletResponse response)
 	    {
-	        this.dataConnector = dataConnector;
-	        ok = (dataConnector != null);
+	        this.builder = LaunchEngine.builder(dataConnector);
+	        init(request, response);
+
+	    }
+
+	/**
+	 * Class constructor using a shared configuration
+	 *
+	 * @param LaunchEngine      engine           Configuration shared by every request
+	 */
+	    public ToolProvider(LaunchEngine engine, HttpServletRequest request, HttpServletResponse response)
+	    {
+	        this.engine = engine;
+	        init(request, response);
+
+	    }
+
+	    private void init(HttpServletRequest request, HttpServletResponse response)
+	    {
+	        ok = (getDataConnector() != null);
 	        this.request = request;
 	        this.response = response;
+	        this.parameters = LaunchParameters.fromRequest(request);
 	        
 
 	// Set debug mode
-	        String customDebug = request.getParameter("custom_debug");
+	        String customDebug = parameters.get("custom_debug");
 	        if(StringUtils.isNotEmpty(customDebug) && StringUtils.equalsIgnoreCase(customDebug, "true")) {
 	        	setDebugMode(true);
 	        }
 
 	// Set return URL if available
             try {
-		        String tryreturnUrl = request.getParameter("launch_presentation_return_url");
+		        String tryreturnUrl = parameters.get("launch_presentation_return_url");
 		        if (StringUtils.isNotEmpty(tryreturnUrl)) {
 					setReturnUrl(new URL(tryreturnUrl));
 		        } else {
-		        	tryreturnUrl = request.getParameter("content_item_return_url");
+		        	tryreturnUrl = parameters.get("content_item_return_url");
 		        	if (StringUtils.isNotEmpty(tryreturnUrl)) {
 		        		setReturnUrl(new URL(tryreturnUrl));
 		        	}
@@ -419,10 +410,8 @@ public class ToolProvider {
 				e.printStackTrace();
 			}
 
-	        setMessageType(request.getParameter("lti_message_type"));
-	        setLTIVersion(request.getParameter("lti_version"));
-	        vendor = new ProductFamily();
-	        product = new Product();
+	        setMessageType(parameters.getMessageType());
+	        setLTIVersion(parameters.getLtiVersion());
 
 	    }
 
@@ -445,6 +434,27 @@ public class ToolProvider {
 
 	    }
 
+	/**
+	 * Register the handler for a message type, in place of the callback method of a tool provider
+	 * class.  The handler also applies to subclasses which do not declare their own callback method
+	 * or register their own handler.
+	 *
+	 * @param clazz        tool provider class
+	 * @param messageType  message type (basic-lti-launch-request, ContentItemSelectionRequest or ToolProxyRegistrationRequest)
+	 * @param handler      handler for the message type
+	 */
+	    public static void registerHandler(Class<? extends ToolProvider> clazz, String messageType, MessageHandler handler)
+	    {
+
+	        if (!METHOD_NAMES.containsKey(messageType)) {
+	            throw new IllegalArgumentException("Message type not supported: " + messageType);
+	        }
+	        REGISTERED_HANDLERS.get(clazz).put(messageType, handler);
+	// Subclasses may have resolved their handlers from this class
+	        HANDLER_GENERATION.incrementAndGet();
+
+	    }
+
 	/**
 	 * Add a parameter constraint to be checked on launch
 	 *
@@ -469,14 +479,7 @@ public class ToolProvider {
 	    		String[] messageTypes)
 	    {
 
-	        name = StringUtils.trim(name);
-	        if (name.length() > 0) {
-	        	ParameterConstraint pc = new ParameterConstraint(required, maxLength);
-	        	Set<String> types = new HashSet<String>();
-	        	Collections.addAll(types, messageTypes);
-	        	pc.setMessageTypes(types);
-	        	constraints.put(name, pc);
-	        }
+	        configure().setParameterConstraint(name, required, maxLength, messageTypes);
 
 	    }
 
@@ -488,7 +491,7 @@ public class ToolProvider {
 	    public List<ToolConsumer> getConsumers()
 	    {
 
-	        return dataConnector.getToolConsumers();
+	        return getDataConnector().getToolConsumers();
 
 	    }
 
@@ -503,28 +506,9 @@ public class ToolProvider {
 	    public ServiceDefinition findService(String format, List<String> methods)
 	    {
 
-	        ServiceDefinition found = null;
-	        List<ServiceDefinition> services = consumer.getProfile().getServicesOffered();
-            for (ServiceDefinition service: services) {
-                List<String> formats = service.getFormats();
-                if (!formats.contains(format)) {
-                	continue;
-                }
-                
-                List<String> missing = new ArrayList<String>();
-                List<String> actions = service.getActions();
-                for (String method: methods) {
-                	if (!actions.contains(method)) {
-                		missing.add(method);
-                	}
-                }
-                if (missing.isEmpty()) {
-                    found = service;
-                    break;
-                }
-            }
-
-	        return found;
+	        ConsumerProfile profile = consumer.getProfile();
+
+	        return (profile != null) ? profile.findService(format, methods) : null;
 
 	    }
 
@@ -580,7 +564,7 @@ public class ToolProvider {
 	        for (String role : roles) {
 	            role = StringUtils.trim(role);
 	            if (StringUtils.isNotEmpty(role)) {
-	                if (role.substring(0, 4) != "urn:") {
+	                if (!role.startsWith("urn:")) {
 	                    role = "urn:lti:role:ims/lis/" + role;
 	                }
 	                parsedRoles.add(role);
@@ -711,53 +695,124 @@ public class ToolProvider {
 	 * @return boolean True if no error reported
 	 */
 	    private boolean doCallback() {
-	    	String type = request.getParameter("lti_message_type");
-	    	if (type != null) {
-	    		if (METHOD_NAMES.containsKey(type)) {
-	    			return doCallback(METHOD_NAMES.get(type));
-	    		}
-	    	}
-	    	return false;
-	    }
-	    
-	    private boolean doCallback(String method)
-	    {
 
-	        String callback = method;
-	        Boolean retVal = null;
-	        if (callback == null) {
-	            callback = getMessageType();
+	        String type = parameters.getMessageType();
+	        if ((type == null) || !METHOD_NAMES.containsKey(type)) {
+	            return false;
 	        }
-	        Class<? extends ToolProvider> clazz = this.getClass();
-	        boolean methodExists = false;
-	        for (Method m : clazz.getDeclaredMethods()) {
-	        	if (m.getName().equals(callback)) {
-	        		methodExists = true;
-					try {
-						retVal = (Boolean) m.invoke(this);
-					} catch (IllegalAccessException e) {
-						e.printStackTrace();
-					} catch (IllegalArgumentException e) {
-						e.printStackTrace();
-					} catch (InvocationTargetException e) {
-						e.printStackTrace();
-					} //returns a boolean
-	        	}
-	        }
-	        if (!methodExists) { //didn"t find the method in declared methods
-	        	if (StringUtils.isNotEmpty(method)) {
-	        		reason = "Message type not supported: " + getMessageType();
-	        		retVal = false;
-	        	}
+	        boolean retVal;
+	        MessageHandler handler = getHandlers(this.getClass()).get(type);
+	        if (handler == null) {
+	            reason = "Message type not supported: " + getMessageType();
+	            retVal = false;
+	        } else {
+	            retVal = handler.handle(this);
 	        }
 	        if (retVal && (getMessageType().equals("ToolProxyRegistrationRequest"))) {
 	            consumer.save();
 	        }
-	        
+
 	        return retVal;
 
 	    }
 
+	/**
+	 * Get the message handlers for a tool provider class, building its table on first use and
+	 * again after any handler has since been registered.
+	 *
+	 * @param clazz  tool provider class
+	 *
+	 * @return map of message types to handlers
+	 */
+	    private static Map<String, MessageHandler> getHandlers(Class<? extends ToolProvider> clazz)
+	    {
+
+	        HandlerTable table = HANDLERS.get(clazz);
+	        while (table.generation != HANDLER_GENERATION.get()) {
+	            HANDLERS.remove(clazz);
+	            table = HANDLERS.get(clazz);
+	        }
+
+	        return table.handlers;
+
+	    }
+
+	/**
+	 * Create a handler which calls a callback method declared by a class.
+	 *
+	 * @param clazz       class to check
+	 * @param methodName  name of callback method
+	 *
+	 * @return handler, or null if the class does not declare a suitable method
+	 */
+	    private static MessageHandler methodHandler(Class<?> clazz, String methodName)
+	    {
+
+	        Method method;
+	        try {
+	            method = clazz.getDeclaredMethod(methodName);
+	        } catch (NoSuchMethodException e) {
+	            return null;
+	        }
+	        if ((method.getReturnType() != boolean.class) && (method.getReturnType() != Boolean.class)) {
+	            return null;
+	        }
+	        final MethodHandle callback;
+	        try {
+	            method.setAccessible(true);
+	            callback = MethodHandles.lookup().unreflect(method)
+	            	.asType(MethodType.methodType(Object.class, ToolProvider.class));
+	        } catch (IllegalAccessException | SecurityException e) {
+	            e.printStackTrace();
+	            return null;
+	        }
+
+	        return new MessageHandler() {
+	            @Override
+	            public boolean handle(ToolProvider toolProvider) {
+	                try {
+	                    return Boolean.TRUE.equals(callback.invokeExact(toolProvider));
+	                } catch (Throwable e) {
+	                    e.printStackTrace();
+	                    return false;
+	                }
+	            }
+	        };
+
+	    }
+
+	/**
+	 * Class to represent the message handlers resolved for a tool provider class.
+	 *
+	 * For each message type the class and then each of its superclasses (below ToolProvider
+	 * itself) is checked, first for a registered handler and then for a declared callback
+	 * method; the nearest one found is used.
+	 */
+	    private static final class HandlerTable {
+
+	        private final int generation;
+	        private final Map<String, MessageHandler> handlers;
+
+	        private HandlerTable(Class<?> clazz) {
+	            this.generation = HANDLER_GENERATION.get();
+	            Map<String, MessageHandler> handlers = new HashMap<String, MessageHandler>();
+	            for (Map.Entry<String, String> entry : METHOD_NAMES.entrySet()) {
+	                MessageHandler handler = null;
+	                for (Class<?> c = clazz; (handler == null) && (c != ToolProvider.class); c = c.getSuperclass()) {
+	                    handler = REGISTERED_HANDLERS.get(c).get(entry.getKey());
+	                    if (handler == null) {
+	                        handler = methodHandler(c, entry.getValue());
+	                    }
+	                }
+	                if (handler != null) {
+	                    handlers.put(entry.getKey(), handler);
+	                }
+	            }
+	            this.handlers = Collections.unmodifiableMap(handlers);
+	        }
+
+	    }
+
 	/**
 	 * Perform the result of an action.
 	 *
@@ -793,19 +848,13 @@ public class ToolProvider {
 						errorUrl = errorUrlBuilder.build().toURL();
 					
 			    		if (consumer != null && request != null) {
-			    			String ltiMessageType = request.getParameter("lti_message_type");
-			    			if (ltiMessageType.equals("ContentItemSelectionRequest")) {
-			    				String version = request.getParameter("lti_version");
+			    			String ltiMessageType = parameters.getMessageType();
+			    			if ("ContentItemSelectionRequest".equals(ltiMessageType)) {
+			    				String version = parameters.getLtiVersion();
 			    				if (version == null) {
 			    					version = LTI_VERSION1;
 			    				}
-			    				Map<String, List<String>> toSend = new HashMap<String, List<String>>();
-								Map<String, String[]> formParams = request.getParameterMap();
-			    				for (String key : formParams.keySet()) {
-			    					for (String v : formParams.get(key)) {
-			    						LTIUtil.setParameter(toSend, key, v);
-			    					}
-			    				}
+			    				Map<String, List<String>> toSend = parameters.copy();
 			    				Map<String, List<String>> signedParams = 
 			    						consumer.signParameters(
 			    								errorUrl.toExternalForm(), 
@@ -870,17 +919,14 @@ public class ToolProvider {
 	    private boolean authenticate()
 	    {
 	    	boolean doSaveConsumer = false;
-	    	//JSON Initialization
-	    	JSONParser parser = new JSONParser();
-    		JSONObject tcProfile = null;
-    		
-	    	String messageType = request.getParameter("lti_message_type");
+	    	LaunchEntities launch = null;
+	    	String messageType = parameters.getMessageType();
 	    	ok = (StringUtils.isNotEmpty(messageType) && MESSAGE_TYPES.containsKey(messageType));
 	    	if (!ok) {
 	    		reason = "Invalid or missing lti_message_type parameter.";
 	    	}
 	    	if (ok) {
-	    		String version = request.getParameter("lti_version");
+	    		String version = parameters.getLtiVersion();
 	    		ok = (StringUtils.isNotEmpty(version)) &&
 	    		     (LTI_VERSIONS.contains(version));
 	    		if (!ok) {
@@ -889,20 +935,15 @@ public class ToolProvider {
 	    	}
 	    	if (ok) {
 	    		if (messageType.equals("basic-lti-launch-request")) {
-	    			String resLinkId = request.getParameter("resource_link_id");
+	    			String resLinkId = parameters.get("resource_link_id");
 	    			ok = (StringUtils.isNotEmpty(resLinkId));
 	    			if (!ok) {
 	    				reason = "Missing resource link ID.";
 	    			}
 	    		} else if (messageType.equals("ContentItemSelectionRequest")) {
-	    			String accept = request.getParameter("accept_media_types");
-	    			ok = (StringUtils.isNotEmpty(accept));
+	    			ok = parameters.has("accept_media_types");
 	    			if (ok) {
-		    			String[] mediaTypes = StringUtils.split(accept, ",");
-		    			Set<String> mTypes = new HashSet<String>();
-		    			for (String m : mediaTypes) {
-		    				mTypes.add(m); //unique set of media types, no repeats
-		    			}
+		    			Set<String> mTypes = parameters.getSet("accept_media_types"); //unique set of media types, no repeats
 		    			ok = mTypes.size() > 0;
 		    			if (!ok) {
 		    				reason = "No accept_media_types found.";
@@ -912,12 +953,8 @@ public class ToolProvider {
 	    			} else { //no accept 
 	    				ok = false;
 	    			}
-	    			String targets = request.getParameter("accept_presentation_document_targets");
-	    			if (ok && StringUtils.isNotEmpty(targets)) {
-	    				Set<String> documentTargets = new HashSet<String>();
-	    				for (String t : StringUtils.split(targets, ",")) {
-	    					documentTargets.add(t);
-	    				}
+	    			if (ok && parameters.has("accept_presentation_document_targets")) {
+	    				Set<String> documentTargets = parameters.getSet("accept_presentation_document_targets");
 	    				ok = documentTargets.size() > 0;
 	    				if (!ok) {
 	    					reason = "Missing or empty accept_presentation_document_targets parameter.";
@@ -943,17 +980,17 @@ public class ToolProvider {
 	    				ok = false;
 	    			}
 	    			if (ok) {
-	    				String ciReturnUrl = request.getParameter("content_item_return_url");
+	    				String ciReturnUrl = parameters.get("content_item_return_url");
 	    				ok = StringUtils.isNotEmpty(ciReturnUrl);
 	    				if (!ok) {
 	    					reason = "Missing content_item_return_url parameter.";
 	    				}
 	    			}
 	    		} else if (messageType.equals("ToolProxyRegistrationRequest")) {
-	    			String regKey = request.getParameter("reg_key");
-	    			String regPass = request.getParameter("reg_password");
-	    			String profileUrl = request.getParameter("tc_profile_url");
-	    			String launchReturnUrl = request.getParameter("launch_presentation_return_url");
+	    			String regKey = parameters.get("reg_key");
+	    			String regPass = parameters.get("reg_password");
+	    			String profileUrl = parameters.get("tc_profile_url");
+	    			String launchReturnUrl = parameters.get("launch_presentation_return_url");
 	    			ok = StringUtils.isNotEmpty(regKey) && StringUtils.isNotEmpty(regPass)
 	    					&& StringUtils.isNotEmpty(profileUrl) && StringUtils.isNotEmpty(launchReturnUrl);
 	    			if (debugMode && !ok) {
@@ -964,13 +1001,22 @@ public class ToolProvider {
 	    	DateTime now = DateTime.now();
 	    	//check consumer key
 	    	if (ok && !messageType.equals("ToolProxyRegistrationRequest")) {
-	    		String key = request.getParameter("oauth_consumer_key");
+	    		String key = parameters.getConsumerKey();
 	    		ok = StringUtils.isNotEmpty(key);
 	    		if (!ok) {
 	    			reason = "Missing consumer key.";
 	    		}
 	    		if (ok) {
-	    			this.consumer = new ToolConsumer(key, dataConnector);
+	// Load the consumer together with the context, resource link and user of the launch
+	    			DataConnector dataConnector = getDataConnector();
+	    			if (dataConnector == null) {
+	    				dataConnector = DataConnectorFactory.getDataConnector();
+	    			}
+	    			String cId = parameters.get("context_id");
+	    			String uId = parameters.get("user_id");
+	    			launch = dataConnector.resolveLaunch(key, (cId != null) ? cId.trim() : null,
+	    					parameters.get("resource_link_id"), (uId != null) ? uId.trim() : null);
+	    			this.consumer = launch.getConsumer();
 	    			ok = consumer.getCreated() != null;
 	    			if (!ok) {
 	    				reason = "Invalid consumer key.";
@@ -987,23 +1033,12 @@ public class ToolProvider {
 	    			consumer.setLastAccess(now);
 	    			String baseString = "";
 	    			String signature = "";
-	    			OAuthMessage oAuthMessage = null;
 	    			try {
-						OAuthConsumer oAuthConsumer = new OAuthConsumer("about:blank", consumer.getKey(), consumer.getSecret(), null);
-						OAuthAccessor oAuthAccessor = new OAuthAccessor(oAuthConsumer);
-						OAuthValidator oAuthValidator = new SimpleOAuthValidator();
-						URL u = new URL(request.getRequestURI());
-						String url = u.getProtocol() + "://" + u.getHost() + u.getPath();
-						Map<String, String[]> params = request.getParameterMap();
-						Map<String, List<String>> param2 = new HashMap<String, List<String>>();
-						for (String k : params.keySet()) {
-							param2.put(k, Arrays.asList(params.get(k)));
-						}
-						List<Map.Entry<String, String>> param3 = ToolConsumer.convert(param2);
-						oAuthMessage = new OAuthMessage(request.getMethod(), url, param3);
-						baseString = OAuthSignatureMethod.getBaseString(oAuthMessage);
-						signature = oAuthMessage.getSignature();
-						oAuthValidator.validateMessage(oAuthMessage, oAuthAccessor);						
+						OAuthSigningContext signing = consumer.getSigningContext();
+						String url = request.getRequestURL().toString();
+						baseString = OAuthBaseString.build(request.getMethod(), url, parameters.getAll());
+						signature = parameters.get("oauth_signature");
+						signing.validate(request.getMethod(), url, parameters.getAll(), baseString);
 					} catch (Exception e) {
 						System.err.println(e.getMessage());
 						OAuthProblemException oe = null;
@@ -1020,7 +1055,7 @@ public class ToolProvider {
 								if (StringUtils.isEmpty(reason)) {
 									reason = "OAuth exception.";
 								}
-								details.add("Timestamp: " + request.getParameter("oauth_timestamp"));
+								details.add("Timestamp: " + parameters.get("oauth_timestamp"));
 								details.add("Current system time: " + System.currentTimeMillis());
 	                            details.add("Signature: " + signature);
 	                            details.add("Base string: " + baseString);
@@ -1029,6 +1064,13 @@ public class ToolProvider {
 							}
 						}
 					}
+	    			if (ok) {
+	    				ConsumerNonce nonce = new ConsumerNonce(consumer, parameters.get("oauth_nonce"));
+	    				ok = nonce.checkAndRecord();
+	    				if (!ok) {
+	    					reason = "Invalid nonce.";
+	    				}
+	    			}
 	    		}
 	    		if (ok) {
 	    			DateTime today = DateTime.now();
@@ -1040,7 +1082,7 @@ public class ToolProvider {
 	    			}
 	    			consumer.setLastAccess(today);
 	    			if (consumer.isThisprotected()) {
-	    				String guid = request.getParameter("tool_consumer_instance_guid");
+	    				String guid = parameters.get("tool_consumer_instance_guid");
 	    				if (StringUtils.isNotEmpty(consumer.getConsumerGuid())) {
 	                        ok = StringUtils.isEmpty(guid) || consumer.getConsumerGuid().equals(guid);
 	                        if (!ok) {
@@ -1075,12 +1117,12 @@ public class ToolProvider {
 	// Validate other message parameter values
 	            if (ok) {
 	            	List<String> boolValues = Arrays.asList("true", "false");
-	            	String acceptUnsigned = request.getParameter("accept_unsigned");
-	            	String acceptMultiple = request.getParameter("accept_multiple");
-	            	String acceptCopyAdvice = request.getParameter("accept_copy_advice");
-	            	String autoCreate = request.getParameter("auto_create");
-	            	String canConfirm = request.getParameter("can_confirm");
-	            	String lpdt = request.getParameter("launch_presentation_document_target");
+	            	String acceptUnsigned = parameters.get("accept_unsigned");
+	            	String acceptMultiple = parameters.get("accept_multiple");
+	            	String acceptCopyAdvice = parameters.get("accept_copy_advice");
+	            	String autoCreate = parameters.get("auto_create");
+	            	String canConfirm = parameters.get("can_confirm");
+	            	String lpdt = parameters.get("launch_presentation_document_target");
 	                if (messageType.equals("ContentItemSelectionRequest")) {
 	                    if (StringUtils.isNotEmpty(acceptUnsigned)) {
 	                    	ok = boolValues.contains(acceptUnsigned);
@@ -1124,71 +1166,26 @@ public class ToolProvider {
 
 	        if (ok && (messageType.equals("ToolProxyRegistrationRequest"))) {
 
-	            ok = request.getParameter("lti_version").equals(LTI_VERSION2);
+	            ok = LTI_VERSION2.equals(parameters.getLtiVersion());
 	            if (!ok) {
 	                reason = "Invalid lti_version parameter";
 	            }
+	            ConsumerProfile profile = null;
 	            if (ok) {
-	            	HttpClient client = HttpClientBuilder.create().build();
-	            	String tcProfUrl = request.getParameter("tc_profile_url");
-	            	HttpGet get = new HttpGet(tcProfUrl);
-	            	get.addHeader("Accept","application/vnd.ims.lti.v2.toolconsumerprofile+json");
-	            	HttpResponse response = null;
-					try {
-						response = client.execute(get);
-					} catch (ClientProtocolException e) {
-						e.printStackTrace();
-					} catch (IOException e) {
-						e.printStackTrace();
-					}
-	            	if (response == null) {
-	            		reason = "Tool consumer profile not accessible.";
-	            	} else {
-	            		try {
-	            			String json_string = EntityUtils.toString(response.getEntity());
-	            			tcProfile = (JSONObject)parser.parse(json_string);
-		            		ok = tcProfile != null;
-		            		if (!ok) {
-		            			reason = "Invalid JSON in tool consumer profile.";
-		            		} else {
-		            			JSONContext jsonContext = new JSONContext();
-		            			jsonContext.parse(tcProfile);
-		            			consumer.getProfile().setContext(jsonContext);
-		            		}
-	            		} catch (Exception je) {
-	            			je.printStackTrace();
-	            			ok = false;
-	            			reason = "Invalid JSON in tool consumer profile.";
-	            		}
-	                }
+	            	profile = getConsumerProfile(parameters.get("tc_profile_url"));
+	            	ok = profile != null;
 	            }
 	// Check for required capabilities
 	            if (ok) {
-	            	String regKey = request.getParameter("reg_key");
-	                consumer = new ToolConsumer(regKey, dataConnector);
-	                ConsumerProfile profile = new ConsumerProfile();
-	                JSONContext context = new JSONContext();
-	                context.parse(tcProfile);
-	                profile.setContext(context);
+	            	String regKey = parameters.get("reg_key");
+	                consumer = new ToolConsumer(regKey, getDataConnector());
 	                consumer.setProfile(profile);
-	                List<String> capabilities = consumer.getProfile().getCapabilityOffered();
 	                List<String> missing = new ArrayList<String>();
-	                for (ProfileResourceHandler handler : resourceHandlers) {
-	                	for (ProfileMessage message : handler.getRequiredMessages()) {
-	                		String type = message.getType();
-	                		if (!capabilities.contains(type)) {
-	                			missing.add(type);
-	                		}
+	                for (String name : getEngine().getRequiredCapabilities()) {
+	                	if (!profile.hasCapability(name)) {
+	                		missing.add(name);
 	                	}
 	                }
-	                for (String name : constraints.keySet()) {
-	                	ParameterConstraint constraint = constraints.get(name);
-	                    if (constraint.isRequired()) {
-	                        if (!capabilities.contains(name)) {
-	                            missing.add(name);
-	                        }
-	                    }
-	                }
 	                if (!missing.isEmpty()) {
 	                	StringBuilder sb = new StringBuilder();
 	                	for (String cap : missing) {
@@ -1200,7 +1197,7 @@ public class ToolProvider {
 	            }
 	// Check for required services
 	            if (ok) {
-	                for (ToolService tService : requiredServices) {
+	                for (ToolService tService : getEngine().getRequiredServices()) {
 	                    for (String format: tService.getFormats()) {
 	                    	ServiceDefinition sd = findService(format, tService.getActions());
 	                        if (sd == null) {
@@ -1221,13 +1218,8 @@ public class ToolProvider {
 	            }
 	            if (ok) {
 	                if (messageType.equals("ToolProxyRegistrationRequest")) {
-	                	ConsumerProfile profile = new ConsumerProfile();
-		                JSONContext context = new JSONContext();
-		                context.parse(tcProfile);
-		                profile.setContext(context);
-		                consumer.setProfile(profile);
-	                    consumer.setSecret(request.getParameter("reg_password"));
-	                    consumer.setLtiVersion(request.getParameter("lti_version"));
+	                    consumer.setSecret(parameters.get("reg_password"));
+	                    consumer.setLtiVersion(parameters.getLtiVersion());
 	                    consumer.setName(profile.getProduct().getProductInfo().getProductName().get("default_name"));
 	                    consumer.setConsumerName(consumer.getName());
 	                    consumer.setConsumerVersion("{tcProfile.product_instance.product_info.product_family.code}-{tcProfile.product_instance.product_info.product_version}");
@@ -1237,61 +1229,32 @@ public class ToolProvider {
 	                    doSaveConsumer = true;
 	                }
 	            }
-	        } else if (ok && !request.getParameter("custom_tc_profile_url").isEmpty() && consumer.getProfile() == null) {
-	        	String tcProfUrl = request.getParameter("custom_tc_profile_url");
-	        	HttpClient client = HttpClientBuilder.create().build();
-	        	HttpGet get = new HttpGet(tcProfUrl);
-            	get.addHeader("Accept","application/vnd.ims.lti.v2.toolconsumerprofile+json");
-            	HttpResponse response = null;
-				try {
-					response = client.execute(get);
-				} catch (ClientProtocolException e) {
-					e.printStackTrace();
-				} catch (IOException e) {
-					e.printStackTrace();
-				}
-            	if (response == null) {
-            		reason = "Tool consumer profile not accessible.";
-            	} else {
-            		try {
-            			String json_string = EntityUtils.toString(response.getEntity());
-            			tcProfile = (JSONObject)parser.parse(json_string);
-	            		ok = tcProfile != null;
-	            		if (!ok) {
-	            			reason = "Invalid JSON in tool consumer profile.";
-	            		} else {
-	            			JSONContext jsonContext = new JSONContext();
-	            			jsonContext.parse(tcProfile);
-	            			consumer.getProfile().setContext(jsonContext);
-	            			doSaveConsumer = true;
-	            		}
-            		} catch (Exception je) {
-            			je.printStackTrace();
-            			ok = false;
-            			reason = "Invalid JSON in tool consumer profile.";
-            		}
-                }
+	        } else if (ok && parameters.has("custom_tc_profile_url") && !hasConsumerProfile(consumer)) {
+	        	ConsumerProfile profile = getConsumerProfile(parameters.get("custom_tc_profile_url"));
+	        	ok = profile != null;
+	        	if (ok) {
+	        		consumer.setProfile(profile);
+	        		doSaveConsumer = true;
+	        	}
 	        }
 
 	// Validate message parameter constraints
 	        if (ok) {
 	            List<String> invalidParameters = new ArrayList<String>();
-	            for (String name : constraints.keySet()) {
-	            	ParameterConstraint constraint = constraints.get(name);
-	                if (constraint.getMessageTypes().isEmpty() || constraint.getMessageTypes().contains(messageType)) {
-	                    ok = true;
-	                    String n = request.getParameter("name");
-	                    if (constraint.isRequired()) {
-	                    	n = n.trim();
-	                        if (StringUtils.isBlank(n)) {
-	                            invalidParameters.add(name + " (missing)");
-	                            ok = false;
-	                        }
+	            for (Map.Entry<String, ParameterConstraint> entry : getEngine().getParameterConstraints(messageType).entrySet()) {
+	            	String name = entry.getKey();
+	            	ParameterConstraint constraint = entry.getValue();
+	                ok = true;
+	                String n = StringUtils.trimToEmpty(parameters.get(name));
+	                if (constraint.isRequired()) {
+	                    if (StringUtils.isBlank(n)) {
+	                        invalidParameters.add(name + " (missing)");
+	                        ok = false;
 	                    }
-	                    if (ok && constraint.getMaxLength() > 0 && StringUtils.isNotBlank(n)) {
-	                        if (n.trim().length()>constraint.getMaxLength()) {
-	                            invalidParameters.add(name + " (too long)");
-	                        }
+	                }
+	                if (ok && constraint.getMaxLength() > 0 && StringUtils.isNotBlank(n)) {
+	                    if (n.length()>constraint.getMaxLength()) {
+	                        invalidParameters.add(name + " (too long)");
 	                    }
 	                }
 	            }
@@ -1310,10 +1273,14 @@ public class ToolProvider {
 	        if (ok) {
 
 	// Set the request context
-	        	String cId = request.getParameter("context_id");
+	        	String cId = parameters.get("context_id");
 	            if (StringUtils.isNotEmpty(cId)) {
-	                context = Context.fromConsumer(consumer, cId.trim());
-	                String title = request.getParameter("context_title");
+	            	if ((launch != null) && (launch.getContext() != null)) {
+	            		context = launch.getContext();
+	            	} else {
+	            		context = Context.fromConsumer(consumer, cId.trim());
+	            	}
+	                String title = parameters.get("context_title");
 	                if (StringUtils.isNotEmpty(title)) {
 	                    title = title.trim();
 	                }
@@ -1324,14 +1291,19 @@ public class ToolProvider {
 	            }
 
 	// Set the request resource link
-	            String rlId = request.getParameter("resource_link_id");
+	            String rlId = parameters.get("resource_link_id");
 	            if (StringUtils.isNotEmpty(rlId)) {
-	            	String contentItemId = request.getParameter("custom_content_item_id");
-	                resourceLink = ResourceLink.fromConsumer(consumer, rlId, contentItemId);
+	            	String contentItemId = parameters.get("custom_content_item_id");
+	                if ((launch != null) && (launch.getResourceLink() != null) &&
+	                		((launch.getResourceLink().getRecordId() != 0) || StringUtils.isEmpty(contentItemId))) {
+	                	resourceLink = launch.getResourceLink();
+	                } else {
+	                	resourceLink = ResourceLink.fromConsumer(consumer, rlId, contentItemId);
+	                }
 	                if (context != null) {
 	                    resourceLink.setContextId(context.getRecordId());
 	                }
-	                String title = request.getParameter("resource_link_title");
+	                String title = parameters.get("resource_link_title");
 	                if (StringUtils.isEmpty(title)) {
 	                    title = "Resource " + resourceLink.getId();
 	                }
@@ -1357,7 +1329,7 @@ public class ToolProvider {
 	                }
 	// Save LTI parameters
 	                for (String name : LTI_CONSUMER_SETTING_NAMES) {
-	                	String s = request.getParameter(name);
+	                	String s = parameters.get(name);
 	                	if (StringUtils.isNotBlank(s)) {
 	                		consumer.setSetting(name, s);
 	                    } else {
@@ -1366,7 +1338,7 @@ public class ToolProvider {
 	                }
 	                if (context != null) {
 	                    for (String name : LTI_CONTEXT_SETTING_NAMES) {
-	                    	String s = request.getParameter(name);
+	                    	String s = parameters.get(name);
 	                        if (StringUtils.isNotBlank(s)) {
 	                            context.setSetting(name, s);
 	                        } else {
@@ -1375,7 +1347,7 @@ public class ToolProvider {
 	                    }
 	                }
 	                for (String name : LTI_RESOURCE_LINK_SETTING_NAMES) {
-	                	String sn = request.getParameter(name);
+	                	String sn = parameters.get(name);
 	                    if (StringUtils.isNotEmpty(sn)) {
 	                        resourceLink.setSetting(name, sn);
 	                    } else {
@@ -1387,35 +1359,37 @@ public class ToolProvider {
 	                combined.addAll(Arrays.asList(LTI_CONSUMER_SETTING_NAMES));
 	                combined.addAll(Arrays.asList(LTI_CONTEXT_SETTING_NAMES));
 	                combined.addAll(Arrays.asList(LTI_RESOURCE_LINK_SETTING_NAMES));
-	                for (String name : request.getParameterMap().keySet()) {
-	                	String value = request.getParameter(name);
-	                	if (StringUtils.startsWith(name, "custom_") &&
-	                		!combined.contains(name)) {
-	                		resourceLink.setSetting(name, value);
+	                for (Map.Entry<String, String> custom : parameters.getCustom().entrySet()) {
+	                	if (!combined.contains(custom.getKey())) {
+	                		resourceLink.setSetting(custom.getKey(), custom.getValue());
 	                	}
 	                }
 	            }
 
 	// Set the user instance
-	            String userId = request.getParameter("user_id");
+	            String userId = parameters.get("user_id");
 	            if (StringUtils.isNotEmpty(userId)) {
 	                userId = userId.trim();
 	            }
 
-	            user = User.fromResourceLink(resourceLink, userId);
+	            if ((launch != null) && (launch.getUser() != null) && (launch.getResourceLink() == resourceLink)) {
+	                user = launch.getUser();
+	            } else {
+	                user = User.fromResourceLink(resourceLink, userId);
+	            }
 
 	// Set the user name
-	            String firstname = request.getParameter("lis_person_name_given");
-	            String lastname = request.getParameter("lis_person_name_family");
-	            String fullname = request.getParameter("lis_person_name_full");
+	            String firstname = parameters.get("lis_person_name_given");
+	            String lastname = parameters.get("lis_person_name_family");
+	            String fullname = parameters.get("lis_person_name_full");
 	            user.setNames(firstname, lastname, fullname);
 
 	// Set the user email
-	            String email = request.getParameter("lis_person_contact_email_primary");
-	            user.setEmail(email, defaultEmail);
+	            String email = parameters.get("lis_person_contact_email_primary");
+	            user.setEmail(email, getEngine().getDefaultEmail());
 
 	// Set the user image URI
-	            String img = request.getParameter("user_image");
+	            String img = parameters.get("user_image");
 	            if (StringUtils.isNotEmpty(img)) {
 	            	try {
 	            		URL imgUrl = new URL(img);
@@ -1426,30 +1400,30 @@ public class ToolProvider {
 	            }
 
 	// Set the user roles
-	            String roles = request.getParameter("roles");
+	            String roles = parameters.get("roles");
 	            if (StringUtils.isNotEmpty(roles)) {
 	                user.setRoles(parseRoles(roles));
 	            }
 
 	// Initialise the consumer and check for changes
-	            consumer.setDefaultEmail(defaultEmail);
-	            String ltiV = request.getParameter("lti_version");
+	            consumer.setDefaultEmail(getEngine().getDefaultEmail());
+	            String ltiV = parameters.getLtiVersion();
 	            if (!ltiV.equals(consumer.getLtiVersion())) {
 	                consumer.setLtiVersion(ltiV);
 	                doSaveConsumer = true;
 	            }
-	            String instanceName = request.getParameter("tool_consumer_instance_name");
+	            String instanceName = parameters.get("tool_consumer_instance_name");
 	            if (StringUtils.isNotEmpty(instanceName)) {
 	                if (!instanceName.equals(consumer.getConsumerName())) {
 	                    consumer.setConsumerName(instanceName);
 	                    doSaveConsumer = true;
 	                }
 	            }
-	            String familyCode = request.getParameter("tool_consumer_info_product_family_code");
-	            String extLMS = request.getParameter("ext_lms");
+	            String familyCode = parameters.get("tool_consumer_info_product_family_code");
+	            String extLMS = parameters.get("ext_lms");
 	            if (StringUtils.isNotBlank(familyCode)) {
 	                String version = familyCode;
-	                String infoVersion = request.getParameter("tool_consumer_info_version");
+	                String infoVersion = parameters.get("tool_consumer_info_version");
 	                if (StringUtils.isNotEmpty(infoVersion)) {
 	                    version += "-" + infoVersion;
 	                }
@@ -1462,7 +1436,7 @@ public class ToolProvider {
 	                consumer.setConsumerVersion(extLMS);
 	                doSaveConsumer = true;
 	            }
-	            String tciGuid = request.getParameter("tool_consumer_instance_guid");
+	            String tciGuid = parameters.get("tool_consumer_instance_guid");
 	            if (StringUtils.isNotEmpty(tciGuid)) {
 	                if (StringUtils.isNotEmpty(consumer.getConsumerGuid())) {
 	                    consumer.setConsumerGuid(tciGuid);
@@ -1474,8 +1448,8 @@ public class ToolProvider {
 	                    }
 	                }
 	            }
-	            String css = request.getParameter("launch_presentation_css_url");
-	            String extCss = request.getParameter("ext_launch_presentation_css_url");
+	            String css = parameters.get("launch_presentation_css_url");
+	            String extCss = parameters.get("ext_launch_presentation_css_url");
 	            if (StringUtils.isNotEmpty(css)) {
 	                if (!css.equals(consumer.getCssPath())) {
 	                    consumer.setCssPath(css);
@@ -1491,38 +1465,90 @@ public class ToolProvider {
 	            }
 	        }
 
-	// Persist changes to consumer
-	        if (doSaveConsumer) {
-	            consumer.save();
-	        }
-	        if (ok && context != null) {
-	            context.save();
-	        }
-	        if (ok && resourceLink != null) {
+	// Persist changes to consumer, context, resource link and user together
+	        DataConnector dataConnector = getDataConnector();
+	        dataConnector.beginBatch();
+	        try {
+	            if (doSaveConsumer) {
+	                consumer.save();
+	            }
+	            if (ok && context != null) {
+	                context.save();
+	            }
+	            if (ok && resourceLink != null) {
 
 	// Check if a share arrangement is in place for this resource link
-	            ok = checkForShare();
+	                ok = checkForShare();
 
 	// Persist changes to resource link
-	            resourceLink.save();
+	                resourceLink.save();
 
 	// Save the user instance
-	            String lrsdid = request.getParameter("lis_result_sourcedid");
-	            if (StringUtils.isNotEmpty(lrsdid)) {
-	                if (!lrsdid.equals(user.getLtiResultSourcedId())) {
-	                    user.setLtiResultSourcedId(lrsdid);
+	                String lrsdid = parameters.get("lis_result_sourcedid");
+	                if (StringUtils.isNotEmpty(lrsdid)) {
+	                    if (!lrsdid.equals(user.getLtiResultSourcedId())) {
+	                        user.setLtiResultSourcedId(lrsdid);
+	                        user.save();
+	                    }
+	                } else if (StringUtils.isNotEmpty(user.getLtiResultSourcedId())) {
+	                    user.setLtiResultSourcedId("");
 	                    user.save();
 	                }
-	            } else if (StringUtils.isNotEmpty(user.getLtiResultSourcedId())) {
-	                user.setLtiResultSourcedId("");
-	                user.save();
 	            }
+	        } finally {
+	            dataConnector.commitBatch();
 	        }
 
 	        return ok;
 
 	    }
 
+	/**
+	 * Get a tool consumer profile from the shared profile cache, setting the reason if
+	 * it cannot be obtained.
+	 *
+	 * @param url  URL of the tool consumer profile
+	 *
+	 * @return profile, null if not accessible or invalid
+	 */
+	    private ConsumerProfile getConsumerProfile(String url)
+	    {
+
+	    	ConsumerProfile profile = null;
+	    	try {
+	    		profile = ConsumerProfileCache.getDefault().get(url);
+	    	} catch (IOException e) {
+	    		e.printStackTrace();
+	    		reason = "Tool consumer profile not accessible.";
+	    	} catch (ParseException e) {
+	    		e.printStackTrace();
+	    		reason = "Invalid JSON in tool consumer profile.";
+	    	} catch (RuntimeException e) {
+	    		e.printStackTrace();
+	    		reason = "Tool consumer profile not accessible.";
+	    	}
+
+	    	return profile;
+
+	    }
+
+	/**
+	 * Check whether a tool consumer has a profile.  A consumer loaded from the database is
+	 * given an empty profile when none has been saved, so this checks for profile content.
+	 *
+	 * @param consumer  tool consumer
+	 *
+	 * @return <code>true</code> if the consumer has a profile
+	 */
+	    private static boolean hasConsumerProfile(ToolConsumer consumer)
+	    {
+
+	    	ConsumerProfile profile = consumer.getProfile();
+
+	    	return (profile != null) && ((profile.toJson() != null) || (profile.getId() != null));
+
+	    }
+
 
 	/**
 	 * Check if a share arrangement is in place.
@@ -1537,11 +1563,11 @@ public class ToolProvider {
 
 	        String key = this.resourceLink.getPrimaryConsumerKey();
 	        int id = this.resourceLink.getPrimaryResourceLinkId();
-	        String shareKeyValue = this.request.getParameter("custom_share_key");
+	        String shareKeyValue = this.parameters.get("custom_share_key");
 
 	        boolean isShareRequest = (shareKeyValue != null) && (shareKeyValue.length() > 0);
 	        if (isShareRequest) {
-	            if (!allowSharing) {
+	            if (!getEngine().isAllowSharing()) {
 	                ok = false;
 	                reason = "Your sharing request has been refused because sharing is not being permitted.";
 	            } else {
@@ -1595,7 +1621,7 @@ public class ToolProvider {
 
 	// Look up primary resource link
 	        if (ok && id != 0) {
-	            consumer = new ToolConsumer(key, dataConnector);
+	            consumer = new ToolConsumer(key, getDataConnector());
 	            ok = (consumer.getCreated() != null);
 	            if (ok) {
 	                resourceLink = ResourceLink.fromConsumerWithPK(consumer, id);
@@ -1619,52 +1645,97 @@ public class ToolProvider {
 		return this.consumer;
 	}
 
+	/**
+	 * Get the parameters of the request being processed.
+	 *
+	 * @return LaunchParameters parameters
+	 */
+	public LaunchParameters getParameters() {
+		return this.parameters;
+	}
+
+	/**
+	 * Get the configuration used for this request.
+	 *
+	 * @return LaunchEngine engine
+	 */
+	public LaunchEngine getEngine() {
+		if (engine == null) {
+			engine = builder.build();
+		}
+		return engine;
+	}
+
+	/**
+	 * Get the configuration of this tool provider for changing; its engine is rebuilt when next needed.
+	 * Only setters call this: getters read the configuration without discarding the engine.
+	 *
+	 * @return LaunchEngine.Builder builder
+	 *
+	 * @throws IllegalStateException if the tool provider uses a shared engine
+	 */
+	private LaunchEngine.Builder configure() {
+		if (builder == null) {
+			throw new IllegalStateException("The configuration of a shared LaunchEngine cannot be changed");
+		}
+		engine = null;
+		return builder;
+	}
+
+	public boolean isAllowSharing() {
+		return (builder != null) ? builder.isAllowSharing() : engine.isAllowSharing();
+	}
+
+	public void setAllowSharing(boolean allowSharing) {
+		configure().setAllowSharing(allowSharing);
+	}
+
 	public Product getProduct() {
-		return product;
+		return (builder != null) ? builder.getProduct() : engine.getProduct();
 	}
 
 	public void setProduct(Product product) {
-		this.product = product;
+		configure().setProduct(product);
 	}
 
 	public List<ProfileResourceHandler> getResourceHandlers() {
-		return resourceHandlers;
+		return (builder != null) ? Collections.unmodifiableList(builder.getResourceHandlers()) : engine.getResourceHandlers();
 	}
 
 	public void setResourceHandlers(List<ProfileResourceHandler> resourceHandlers) {
-		this.resourceHandlers = resourceHandlers;
+		configure().setResourceHandlers(resourceHandlers);
 	}
 
 	public ProductFamily getVendor() {
-		return vendor;
+		return (builder != null) ? builder.getVendor() : engine.getVendor();
 	}
 
 	public void setVendor(ProductFamily vendor) {
-		this.vendor = vendor;
+		configure().setVendor(vendor);
 	}
 
 	public URL getBaseUrl() {
-		return baseUrl;
+		return (builder != null) ? builder.getBaseUrl() : engine.getBaseUrl();
 	}
 
 	public void setBaseUrl(URL baseUrl) {
-		this.baseUrl = baseUrl;
+		configure().setBaseUrl(baseUrl);
 	}
 
 	public List<ToolService> getRequiredServices() {
-		return requiredServices;
+		return (builder != null) ? Collections.unmodifiableList(builder.getRequiredServices()) : engine.getRequiredServices();
 	}
 
 	public void setRequiredServices(List<ToolService> requiredServices) {
-		this.requiredServices = requiredServices;
+		configure().setRequiredServices(requiredServices);
 	}
 
 	public List<ToolService> getOptionalServices() {
-		return optionalServices;
+		return (builder != null) ? Collections.unmodifiableList(builder.getOptionalServices()) : engine.getOptionalServices();
 	}
 
 	public void setOptionalServices(List<ToolService> optionalServices) {
-		this.optionalServices = optionalServices;
+		configure().setOptionalServices(optionalServices);
 	}
 
 	public boolean isOk() {
@@ -1700,27 +1771,27 @@ public class ToolProvider {
 	}
 
 	public DataConnector getDataConnector() {
-		return dataConnector;
+		return (builder != null) ? builder.getDataConnector() : engine.getDataConnector();
 	}
 
 	public void setDataConnector(DataConnector dataConnector) {
-		this.dataConnector = dataConnector;
+		configure().setDataConnector(dataConnector);
 	}
 
 	public String getDefaultEmail() {
-		return defaultEmail;
+		return (builder != null) ? builder.getDefaultEmail() : engine.getDefaultEmail();
 	}
 
 	public void setDefaultEmail(String defaultEmail) {
-		this.defaultEmail = defaultEmail;
+		configure().setDefaultEmail(defaultEmail);
 	}
 
 	public int getIdScope() {
-		return idScope;
+		return (builder != null) ? builder.getIdScope() : engine.getIdScope();
 	}
 
 	public void setIdScope(int idScope) {
-		this.idScope = idScope;
+		configure().setIdScope(idScope);
 	}
 
 	public String getMessage() {
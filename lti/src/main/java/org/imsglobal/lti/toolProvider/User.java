@@ -9,6 +9,7 @@ import java.util.List;
 
 import org.apache.commons.lang3.StringUtils;
 import org.imsglobal.lti.toolProvider.dataConnector.DataConnector;
+import org.imsglobal.lti.toolProvider.dataConnector.RecordSnapshot;
 import org.joda.time.DateTime;
 
 public class User {
@@ -34,6 +35,14 @@ public class User {
 		return updated;
 	}
 
+	public RecordSnapshot getSnapshot() {
+		return snapshot;
+	}
+
+	public void setSnapshot(RecordSnapshot snapshot) {
+		this.snapshot = snapshot;
+	}
+
 	public int getResourceLinkId() {
 		return resourceLinkId;
 	}
@@ -179,6 +188,12 @@ public class User {
  * @var string ltiUserId
  */
     private String ltiUserId = null;
+/**
+ * Column values as last loaded or saved (null if not known).
+ *
+ * @var RecordSnapshot snapshot
+ */
+    private RecordSnapshot snapshot = null;
 /**
  * Data connector object or string.
  *
@@ -215,6 +230,7 @@ public class User {
         this.ltiResultSourcedId = null;
         this.created = null;
         this.updated = null;
+        this.snapshot = null;
 
     }
 
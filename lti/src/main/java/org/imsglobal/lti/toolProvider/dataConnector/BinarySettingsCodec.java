@@ -0,0 +1,174 @@
+package org.imsglobal.lti.toolProvider.dataConnector;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.apache.commons.codec.binary.Base64;
+
+/**
+ * Codec storing settings in a compact binary format.
+ *
+ * The settings are written as a count of entries followed by, for each entry, the name,
+ * a count of values and each value.  Counts and lengths are variable-length integers and
+ * strings are UTF-8 (a null value is written with length 0, and other lengths are one
+ * more than the number of bytes).  As the settings column is text, the bytes are stored
+ * Base64-encoded after the prefix "lti1:", by which the format is recognised when read.
+ * Values in the JSON format are passed to JsonSettingsCodec, so existing rows can still
+ * be read after changing to this codec.
+ *
+ * @author  David Block (dave@northcreek.ca)
+ */
+public final class BinarySettingsCodec implements SettingsCodec {
+
+	/**
+	 * Prefix identifying a value in the binary format.
+	 */
+	    public static final String PREFIX = "lti1:";
+	/**
+	 * Shared instance.
+	 */
+	    public static final BinarySettingsCodec INSTANCE = new BinarySettingsCodec();
+
+	    private BinarySettingsCodec() {
+	    }
+
+	/**
+	 * Check whether a stored value is in the binary format.
+	 *
+	 * @param value  stored value
+	 *
+	 * @return <code>true</code> if the value starts with the binary prefix
+	 */
+	    public static boolean isBinary(String value) {
+
+	    	return (value != null) && value.startsWith(PREFIX);
+
+	    }
+
+	    @Override
+	    public String encode(Map<String, List<String>> settings) {
+
+	    	if ((settings == null) || settings.isEmpty()) {
+	    		return null;
+	    	}
+	    	ByteArrayOutputStream out = new ByteArrayOutputStream(32 * settings.size());
+	    	writeInt(out, settings.size());
+	    	for (Map.Entry<String, List<String>> entry : settings.entrySet()) {
+	    		writeString(out, entry.getKey());
+	    		List<String> values = entry.getValue();
+	    		if (values == null) {
+	    			writeInt(out, 0);
+	    			continue;
+	    		}
+	    		writeInt(out, values.size());
+	    		for (String value : values) {
+	    			writeString(out, value);
+	    		}
+	    	}
+
+	    	return PREFIX + Base64.encodeBase64String(out.toByteArray());
+
+	    }
+
+	    @Override
+	    public Map<String, List<String>> decode(String value) {
+
+	    	if (!isBinary(value)) {
+	    		return JsonSettingsCodec.INSTANCE.decode(value);
+	    	}
+	    	Reader in = new Reader(Base64.decodeBase64(value.substring(PREFIX.length())));
+	    	Map<String, List<String>> settings;
+	    	try {
+	    		int count = in.readInt();
+	    		settings = new HashMap<String, List<String>>();
+	    		for (int i = 0; i < count; i++) {
+	    			String name = in.readString();
+	    			int size = in.readInt();
+	    			List<String> values = new ArrayList<String>(Math.min(size, 16));
+	    			for (int j = 0; j < size; j++) {
+	    				values.add(in.readString());
+	    			}
+	    			settings.put(name, values);
+	    		}
+	    	} catch (IllegalArgumentException e) {
+	    		e.printStackTrace();
+	    		settings = new HashMap<String, List<String>>();
+	    	}
+
+	    	return settings;
+
+	    }
+
+	    private static void writeInt(ByteArrayOutputStream out, int value) {
+
+	    	while ((value & ~0x7F) != 0) {
+	    		out.write((value & 0x7F) | 0x80);
+	    		value >>>= 7;
+	    	}
+	    	out.write(value);
+
+	    }
+
+	    private static void writeString(ByteArrayOutputStream out, String value) {
+
+	    	if (value == null) {
+	    		writeInt(out, 0);
+	    	} else {
+	    		byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+	    		writeInt(out, bytes.length + 1);
+	    		out.write(bytes, 0, bytes.length);
+	    	}
+
+	    }
+
+	/**
+	 * Class to read the binary format, throwing IllegalArgumentException if it is truncated.
+	 */
+	    private static final class Reader {
+
+	    	private final byte[] data;
+	    	private int pos = 0;
+
+	    	private Reader(byte[] data) {
+	    		this.data = data;
+	    	}
+
+	    	private int readInt() {
+	    		int value = 0;
+	    		for (int shift = 0; shift < 35; shift += 7) {
+	    			if (pos >= data.length) {
+	    				throw new IllegalArgumentException("Truncated settings value");
+	    			}
+	    			int b = data[pos++];
+	    			value |= (b & 0x7F) << shift;
+	    			if ((b & 0x80) == 0) {
+	    				if (value < 0) {
+	    					break;
+	    				}
+	    				return value;
+	    			}
+	    		}
+	    		throw new IllegalArgumentException("Invalid length in settings value");
+	    	}
+
+	    	private String readString() {
+	    		int length = readInt();
+	    		if (length == 0) {
+	    			return null;
+	    		}
+	    		length--;
+	    		if (length > data.length - pos) {
+	    			throw new IllegalArgumentException("Truncated settings value");
+	    		}
+	    		String value = new String(data, pos, length, StandardCharsets.UTF_8);
+	    		pos += length;
+	    		return value;
+	    	}
+
+	    }
+
+}
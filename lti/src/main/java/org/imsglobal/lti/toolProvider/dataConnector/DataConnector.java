@@ -1,19 +1,27 @@
 package org.imsglobal.lti.toolProvider.dataConnector;
 
 import java.util.ArrayList;
+import java.util.Collection;
 import java.util.HashMap;
+import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
 import java.io.UnsupportedEncodingException;
 import java.security.MessageDigest;
 import java.security.NoSuchAlgorithmException;
 
+import org.apache.commons.lang3.StringUtils;
 import org.imsglobal.lti.toolProvider.ConsumerNonce;
 import org.imsglobal.lti.toolProvider.Context;
+import org.imsglobal.lti.toolProvider.LaunchEntities;
+import org.imsglobal.lti.toolProvider.PendingOutcome;
 import org.imsglobal.lti.toolProvider.ResourceLink;
 import org.imsglobal.lti.toolProvider.ResourceLinkShare;
 import org.imsglobal.lti.toolProvider.ResourceLinkShareKey;
+import org.imsglobal.lti.toolProvider.RosterSyncResult;
 import org.imsglobal.lti.toolProvider.ToolConsumer;
+import org.imsglobal.lti.toolProvider.ToolProvider;
 import org.imsglobal.lti.toolProvider.ToolProxy;
 import org.imsglobal.lti.toolProvider.User;
 import org.joda.time.DateTime;
@@ -60,6 +68,10 @@ public class DataConnector {
 	 * Default name for database table used to store nonce values.
 	 */
 	    public static String NONCE_TABLE_NAME = "lti2_nonce";
+	/**
+	 * Default name for database table used to store outcome writes waiting to be sent.
+	 */
+	    public static String OUTBOX_TABLE_NAME = "lti2_outcome_outbox";
 
 	/**
 	 * Database object.
@@ -88,6 +100,24 @@ public class DataConnector {
 	
 	    
 	    private ToolProxy methods;
+	/**
+	 * Cache of recently loaded tool consumers (null if consumers are always read from the database).
+	 *
+	 * @var ToolConsumerCache $consumerCache
+	 */
+	    protected ToolConsumerCache consumerCache = null;
+	/**
+	 * Store used to record nonce values (null if nonce values are not retained).
+	 *
+	 * @var NonceStore $nonceStore
+	 */
+	    protected NonceStore nonceStore = null;
+	/**
+	 * Codec used to store settings.
+	 *
+	 * @var SettingsCodec $settingsCodec
+	 */
+	    protected SettingsCodec settingsCodec = JsonSettingsCodec.INSTANCE;
 
 	/**
 	 * Class constructor
@@ -146,6 +176,45 @@ public class DataConnector {
 		this.methods = methods;
 	}
 
+	public ToolConsumerCache getConsumerCache() {
+		return consumerCache;
+	}
+
+	public void setConsumerCache(ToolConsumerCache consumerCache) {
+		this.consumerCache = consumerCache;
+	}
+
+	public SettingsCodec getSettingsCodec() {
+		return settingsCodec;
+	}
+
+	public void setSettingsCodec(SettingsCodec settingsCodec) {
+		this.settingsCodec = settingsCodec;
+	}
+
+	public NonceStore getNonceStore() {
+		return nonceStore;
+	}
+
+	public void setNonceStore(NonceStore nonceStore) {
+		this.nonceStore = nonceStore;
+	}
+
+	/**
+	 * Start collecting the changes made by the current thread so that they may be written
+	 * together.  Connectors which write every change immediately need not override this.
+	 */
+	    public void beginBatch()
+	    {
+	    }
+
+	/**
+	 * Write (or queue for writing) the changes collected since beginBatch was called.
+	 */
+	    public void commitBatch()
+	    {
+	    }
+
 	/**
 	 * Load tool consumer object.
 	 *
@@ -454,6 +523,9 @@ public class DataConnector {
 	 */
 	    public boolean loadConsumerNonce(ConsumerNonce nonce)
 	    {
+	    	if (nonceStore != null) {
+	    		return nonceStore.contains(nonce.getConsumer().getRecordId(), nonce.getValue());
+	    	}
 	        return false;  // assume the nonce does not already exist
 
 	    }
@@ -466,6 +538,91 @@ public class DataConnector {
 	 * @return boolean True if the nonce object was successfully saved
 	 */
 	    public boolean saveConsumerNonce(ConsumerNonce nonce)
+	    {
+
+	    	if (nonceStore != null) {
+	    		return nonceStore.record(nonce.getConsumer().getRecordId(), nonce.getValue(), nonce.getExpires().getMillis());
+	    	}
+	        return true;
+
+	    }
+
+	/**
+	 * Record a nonce value if it has not already been used, as a single operation.
+	 *
+	 * @param ConsumerNonce $nonce Nonce object
+	 *
+	 * @return boolean True if the nonce value was new and has been recorded
+	 */
+	    public boolean checkAndRecordNonce(ConsumerNonce nonce)
+	    {
+
+	    	if (nonceStore != null) {
+	    		return nonceStore.checkAndRecord(nonce.getConsumer().getRecordId(), nonce.getValue(), nonce.getExpires().getMillis());
+	    	}
+	        return !loadConsumerNonce(nonce) && saveConsumerNonce(nonce);
+
+	    }
+
+	//
+	//  PendingOutcome methods
+	//
+
+	/**
+	 * Add an outcome write to the outbox, replacing any write for the same result which is
+	 * not currently being sent.
+	 *
+	 * @param PendingOutcome $outcome Pending outcome object
+	 *
+	 * @return boolean True if the outcome write was successfully recorded
+	 */
+	    public boolean enqueueOutcome(PendingOutcome outcome)
+	    {
+
+	        return false;  // no outbox without a persistent store
+
+	    }
+
+	/**
+	 * Claim outcome writes which are due to be sent, so that no other worker sends them
+	 * until the lease has expired.
+	 *
+	 * @param int  $limit Maximum number of writes to claim
+	 * @param long $lease Length of the claim (in milliseconds)
+	 *
+	 * @return List Pending outcome objects claimed
+	 */
+	    public List<PendingOutcome> claimOutcomes(int limit, long lease)
+	    {
+
+	        return new ArrayList<PendingOutcome>();
+
+	    }
+
+	/**
+	 * Remove an outcome write which has been sent, together with any earlier writes for the
+	 * same result.
+	 *
+	 * @param PendingOutcome $outcome Pending outcome object
+	 *
+	 * @return boolean True if the outcome write was successfully removed
+	 */
+	    public boolean completeOutcome(PendingOutcome outcome)
+	    {
+
+	        return true;
+
+	    }
+
+	/**
+	 * Release a claimed outcome write to be sent again at its next attempt time, or remove it
+	 * if a later write for the same result has been added.
+	 *
+	 * @param PendingOutcome $outcome Pending outcome object
+	 *
+	 * @return boolean True if the outcome write was successfully updated
+	 */
+	    public boolean rescheduleOutcome(PendingOutcome outcome)
 	    {
 
 	        return true;
@@ -572,6 +729,143 @@ public class DataConnector {
 
 	    }
 
+	/**
+	 * Synchronise the stored users of a resource link with its current members.
+	 *
+	 * Members with a result sourcedId which are not stored are added, stored users whose
+	 * result sourcedId has changed are updated and stored users which are no longer members
+	 * are deleted.  Users which are unchanged are not written.  Each member is given the
+	 * record ID of its stored user.  Members are matched on their user ID; members without
+	 * a result sourcedId are never added.
+	 *
+	 * This implementation saves and deletes one user at a time; connectors should override
+	 * it to apply the changes as set operations.
+	 *
+	 * @param ResourceLink $resourceLink Resource link object
+	 * @param Collection   $members      User objects for the current members
+	 *
+	 * @return RosterSyncResult Summary of the changes made
+	 */
+	    public RosterSyncResult syncRoster(ResourceLink resourceLink, Collection<User> members)
+	    {
+
+	        RosterSyncResult result = new RosterSyncResult();
+	        Map<String, User> stored = getUserResultSourcedIDsResourceLink(resourceLink, true, ToolProvider.ID_SCOPE_ID_ONLY);
+	        Set<String> seen = new HashSet<String>();
+	        for (User user : members) {
+	            String id = user.getId(ToolProvider.ID_SCOPE_ID_ONLY);
+	            if (!seen.add(id)) {
+	                continue;
+	            }
+	            User old = stored.remove(id);
+	            if (old != null) {
+	                user.setRecordId(old.getRecordId());
+	                user.setCreated(old.getCreated());
+	                user.setUpdated(old.getUpdated());
+	            }
+	            String sourcedId = user.getLtiResultSourcedId();
+	            if (old == null) {
+	                if (sourcedId != null) {
+	                    if (saveUser(user)) {
+	                        result.getAdded().add(user);
+	                    } else {
+	                        result.setOk(false);
+	                    }
+	                }
+	            } else if ((sourcedId == null) || sourcedId.equals(old.getLtiResultSourcedId())) {
+	                result.incUnchanged();
+	            } else if (saveUser(user)) {
+	                result.getUpdated().add(user);
+	            } else {
+	                result.setOk(false);
+	            }
+	        }
+	        for (User old : stored.values()) {
+	            if (deleteUser(old)) {
+	                result.getRemoved().add(old);
+	            } else {
+	                result.setOk(false);
+	            }
+	        }
+
+	        return result;
+
+	    }
+
+	/**
+	 * Synchronise the stored users of a resource link with its current members, given as
+	 * their user IDs and result sourcedIds.  This allows a roster to be synchronised without
+	 * holding a User object for each member.
+	 *
+	 * This implementation creates a User object for each member and calls
+	 * syncRoster(ResourceLink, Collection); connectors should override it.
+	 *
+	 * @param ResourceLink $resourceLink Resource link object
+	 * @param Map          $members      Result sourcedId of each current member (null if none), keyed by user ID
+	 *
+	 * @return RosterSyncResult Summary of the changes made
+	 */
+	    public RosterSyncResult syncRoster(ResourceLink resourceLink, Map<String, String> members)
+	    {
+
+	        List<User> users = new ArrayList<User>();
+	        for (Map.Entry<String, String> member : members.entrySet()) {
+	            User user = User.fromResourceLink(resourceLink, null);
+	            user.setLtiUserId(member.getKey());
+	            user.setLtiResultSourcedId(member.getValue());
+	            users.add(user);
+	        }
+
+	        return syncRoster(resourceLink, users);
+
+	    }
+
+	//
+	//  Launch methods
+	//
+
+	/**
+	 * Load the tool consumer, context, resource link and user of a launch request.
+	 *
+	 * The context, resource link and user are only loaded if the tool consumer is found.
+	 * The resource link is matched on the tool consumer (directly or through its context)
+	 * and the user on the resource link.  Objects without a matching record hold only
+	 * their LTI ID.
+	 *
+	 * This implementation loads each object in turn; connectors should override it to
+	 * load them together.
+	 *
+	 * @param string $consumerKey       Consumer key
+	 * @param string $ltiContextId      LTI context ID (null if none)
+	 * @param string $ltiResourceLinkId LTI resource link ID (null if none)
+	 * @param string $ltiUserId         LTI user ID (null if none)
+	 *
+	 * @return LaunchEntities Objects for the launch request
+	 */
+	    public LaunchEntities resolveLaunch(String consumerKey, String ltiContextId, String ltiResourceLinkId, String ltiUserId)
+	    {
+
+	        ToolConsumer consumer = new ToolConsumer(null, this);
+	        consumer.setKey(consumerKey);
+	        LaunchEntities launch = LaunchEntities.create(consumer, ltiContextId, ltiResourceLinkId, ltiUserId);
+	        if (loadToolConsumer(consumer)) {
+	            if (launch.getContext() != null) {
+	                loadContext(launch.getContext());
+	            }
+	            ResourceLink resourceLink = launch.getResourceLink();
+	            if ((resourceLink != null) && loadResourceLink(resourceLink)) {
+	                User user = launch.getUser();
+	                user.setResourceLinkId(resourceLink.getRecordId());
+	                if (StringUtils.isNotEmpty(ltiUserId)) {
+	                    loadUser(user);
+	                }
+	            }
+	        }
+
+	        return launch;
+
+	    }
+
 	//
 	//  Other methods
 	//
@@ -600,6 +894,8 @@ public class DataConnector {
 				} catch (UnsupportedEncodingException e2) {
 					e2.printStackTrace();
 				}
+	        } else {
+	        	sb.append(key);
 	        }
 
 	        return sb.toString();
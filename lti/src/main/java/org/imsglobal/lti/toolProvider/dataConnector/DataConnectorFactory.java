@@ -1,14 +1,17 @@
 package org.imsglobal.lti.toolProvider.dataConnector;
 
+import java.sql.Connection;
+
+import javax.sql.DataSource;
+
 public class DataConnectorFactory {
 	
-	private static DataConnector dc;
+	/**
+	 * Shared dummy connector with no persistence; it holds no state so may be used by any thread.
+	 */
+	private static final DataConnector dc = new DataConnector(new Object(), null);
 
 	public static DataConnector getDataConnector() {
-		Object obj = new Object();
-		if (dc == null) {
-			dc = new DataConnector(obj, null);
-		}
 		return dc;
 	}
 	
@@ -47,11 +50,18 @@ public class DataConnectorFactory {
 	            type = "DataConnector";
 	        }
 	        //this is PHP Reflection!
-	        dc = new DataConnector(db, dbTableNamePrefix);
 	        //$type = "\\IMSGlobal\\LTI\\ToolProvider\\DataConnector\\{$type}";
 	        //$dataConnector = new $type($db, $dbTableNamePrefix);
+	        DataConnector dataConnector;
+	        if (db instanceof DataSource) {
+	        	dataConnector = new JDBC((DataSource)db, dbTableNamePrefix);
+	        } else if (db instanceof Connection) {
+	        	dataConnector = new JDBC((Connection)db, dbTableNamePrefix);
+	        } else {
+	        	dataConnector = new DataConnector(db, dbTableNamePrefix);
+	        }
 
-	        return dc;
+	        return dataConnector;
 
 	    }
 
@@ -1,5 +1,9 @@
 package org.imsglobal.lti.toolProvider.dataConnector;
 
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
 import java.sql.Connection;
 import java.sql.Date;
 import java.sql.PreparedStatement;
@@ -7,18 +11,25 @@ import java.sql.ResultSet;
 import java.sql.SQLException;
 import java.sql.Statement;
 import java.sql.Timestamp;
+import java.sql.Types;
 import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
 import java.util.HashMap;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
 
+import javax.sql.DataSource;
+
 import org.apache.commons.lang3.StringUtils;
-import org.imsglobal.lti.LTIUtil;
-import org.imsglobal.lti.toolProvider.ConsumerNonce;
 import org.imsglobal.lti.toolProvider.Context;
+import org.imsglobal.lti.toolProvider.LaunchEntities;
+import org.imsglobal.lti.toolProvider.PendingOutcome;
 import org.imsglobal.lti.toolProvider.ResourceLink;
 import org.imsglobal.lti.toolProvider.ResourceLinkShare;
 import org.imsglobal.lti.toolProvider.ResourceLinkShareKey;
+import org.imsglobal.lti.toolProvider.RosterSyncResult;
 import org.imsglobal.lti.toolProvider.ToolConsumer;
 import org.imsglobal.lti.toolProvider.ToolProvider;
 import org.imsglobal.lti.toolProvider.User;
@@ -30,31 +41,392 @@ import org.json.simple.JSONObject;
 import org.json.simple.parser.JSONParser;
 import org.json.simple.parser.ParseException;
 
-import com.google.gson.Gson;
-import com.google.gson.JsonSyntaxException;
-import com.google.gson.reflect.TypeToken;
-
 /**
  * Class to represent a data connector for a JDBC database connection.
  *
+ * When constructed from a DataSource each operation borrows its own connection from the
+ * pool and returns it when done, so the connector may be shared by all request threads.
+ * Statements and result sets are always closed.  Prepared statement caching is left to the
+ * pool or driver (for example, cachePrepStmts=true for MySQL Connector/J); every statement
+ * is issued with the same SQL text so those caches are hit on each call.
+ *
+ * Nonce values are held in a MemoryNonceStore by default; where launches are balanced
+ * across several servers use setNonceStore(new JDBCNonceStore(connector)) instead.
+ *
+ * Updates to existing records may be written on a background thread by setting a
+ * WriteBehindQueue; the updates made while processing a launch are then written together
+ * in a single transaction.  Write-behind is disabled by default.
+ *
+ * Outcome writes queued with enqueueOutcome are held in an outbox table alongside the
+ * standard LTI tables, which must be created before the outbox is used (shown here for
+ * MySQL, without any table name prefix):
+ * <pre>
+ * CREATE TABLE lti2_outcome_outbox (
+ *   outbox_pk int(11) NOT NULL AUTO_INCREMENT,
+ *   consumer_pk int(11) NOT NULL,
+ *   resource_link_pk int(11) NOT NULL,
+ *   user_pk int(11) DEFAULT NULL,
+ *   sourcedid varchar(1024) NOT NULL,
+ *   result_value varchar(255) DEFAULT NULL,
+ *   language varchar(10) DEFAULT NULL,
+ *   result_type varchar(20) DEFAULT NULL,
+ *   status varchar(20) DEFAULT NULL,
+ *   data_source varchar(255) DEFAULT NULL,
+ *   result_date datetime DEFAULT NULL,
+ *   attempts int(11) NOT NULL,
+ *   next_attempt datetime NOT NULL,
+ *   locked_until datetime NOT NULL,
+ *   last_error text,
+ *   created datetime NOT NULL,
+ *   PRIMARY KEY (outbox_pk),
+ *   KEY lti2_outcome_outbox_next_attempt (next_attempt),
+ *   KEY lti2_outcome_outbox_resource_link (resource_link_pk, sourcedid(191))
+ * ) ENGINE=InnoDB DEFAULT CHARSET=utf8mb4;
+ * </pre>
+ *
  * @author      Stephen P Vickers
  * @version     1.1.01 (18-Jun-13)
  */
 
 public class JDBC extends DataConnector {
+
+	/**
+	 * Maximum number of keys in the IN list of a single delete statement.
+	 */
+	private static final int MAX_IN_LIST = 500;
 	
-	private Connection conn;
+	private DataSource dataSource = null;
+	private Connection conn = null;
+	private WriteBehindQueue writeBehind = null;
+	private final ThreadLocal<Map<String, WriteBehindQueue.Write>> batch = new ThreadLocal<Map<String, WriteBehindQueue.Write>>();
 
 	/**
 	 * Constructs a data connector object using the specified database table name
 	 * prefix and JDBC database connection.
 	 *
+	 * The single connection is shared by every operation, so this form should only be
+	 * used where requests are not processed concurrently.
+	 *
 	 * @param conn    database connection
 	 * @param prefix  table name prefix
 	 */
 	  public JDBC(Connection conn, String prefix) {
 		  super(conn, prefix);
-		  this.conn = (Connection)this.db;
+		  this.conn = unclosable((Connection)this.db);
+		  this.consumerCache = new ToolConsumerCache();
+		  this.nonceStore = new MemoryNonceStore();
+	  }
+
+	/**
+	 * Constructs a data connector object using the specified database table name
+	 * prefix and pooled JDBC data source.
+	 *
+	 * @param dataSource  data source from which connections are borrowed
+	 * @param prefix      table name prefix
+	 */
+	  public JDBC(DataSource dataSource, String prefix) {
+		  super(dataSource, prefix);
+		  this.dataSource = dataSource;
+		  this.consumerCache = new ToolConsumerCache();
+		  this.nonceStore = new MemoryNonceStore();
+	  }
+
+	/**
+	 * Get a connection for a single operation; it must be closed once the operation is complete.
+	 *
+	 * @return database connection
+	 *
+	 * @throws SQLException if a connection is not available
+	 */
+	  protected Connection getConnection() throws SQLException {
+
+	    if (this.dataSource != null) {
+	      return this.dataSource.getConnection();
+	    }
+	    return this.conn;
+
+	  }
+
+	/**
+	 * Wrap a connection so that closing it leaves the underlying connection open.
+	 */
+	  private static Connection unclosable(final Connection connection) {
+
+	    return (Connection)Proxy.newProxyInstance(Connection.class.getClassLoader(),
+	    	new Class<?>[] {Connection.class}, new InvocationHandler() {
+	    		@Override
+	    		public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+	    			if (method.getName().equals("close") && (method.getParameterTypes().length == 0)) {
+	    				return null;
+	    			}
+	    			try {
+	    				return method.invoke(connection, args);
+	    			} catch (InvocationTargetException e) {
+	    				throw e.getCause();
+	    			}
+	    		}
+	    	});
+
+	  }
+
+	/**
+	 * Execute an update statement which has a single integer parameter.
+	 */
+	  private static int executeUpdate(Connection conn, String sql, int id) throws SQLException {
+
+	    try (PreparedStatement stmt = conn.prepareStatement(sql)) {
+	      stmt.setInt(1, id);
+	      return stmt.executeUpdate();
+	    }
+
+	  }
+
+
+	/**
+	 * Get the queue used to write updates on a background thread.
+	 *
+	 * @return write-behind queue (null if updates are written immediately)
+	 */
+	  public WriteBehindQueue getWriteBehind() {
+
+	    return this.writeBehind;
+
+	  }
+
+	/**
+	 * Set the queue used to write updates on a background thread.
+	 *
+	 * @param writeBehind  write-behind queue (null to write updates immediately)
+	 */
+	  public void setWriteBehind(WriteBehindQueue writeBehind) {
+
+	    this.writeBehind = writeBehind;
+
+	  }
+
+	/**
+	 * Start collecting the updates made by this thread so they can be written together.
+	 */
+	  @Override
+	  public void beginBatch() {
+
+	    if ((this.writeBehind != null) && (this.batch.get() == null)) {
+	      this.batch.set(new LinkedHashMap<String, WriteBehindQueue.Write>());
+	    }
+
+	  }
+
+	/**
+	 * Pass the updates collected by this thread to the write-behind queue.
+	 */
+	  @Override
+	  public void commitBatch() {
+
+	    Map<String, WriteBehindQueue.Write> writes = this.batch.get();
+	    if (writes == null) {
+	      return;
+	    }
+	    this.batch.remove();
+	    if (!writes.isEmpty()) {
+	      List<WriteBehindQueue.Write> list = new ArrayList<WriteBehindQueue.Write>(writes.values());
+	      if ((this.writeBehind == null) || !this.writeBehind.submit(list)) {
+	        writeBatch(list);
+	      }
+	    }
+
+	  }
+
+	/**
+	 * Check whether connections are borrowed from a pool.
+	 */
+	  boolean isPooled() {
+
+	    return this.dataSource != null;
+
+	  }
+
+	/**
+	 * Defer an update when write-behind is enabled.  Within a batch a later update to the
+	 * same record replaces an earlier one.
+	 *
+	 * @return <code>true</code> if the update has been deferred, <code>false</code> if it should be executed now
+	 */
+	  private boolean deferWrite(String key, String sql, Object[] params) {
+
+	    if (this.writeBehind == null) {
+	      return false;
+	    }
+	    WriteBehindQueue.Write write = new WriteBehindQueue.Write(key, sql, params);
+	    Map<String, WriteBehindQueue.Write> writes = this.batch.get();
+	    if (writes != null) {
+	      writes.put(key, write);
+	      return true;
+	    }
+	    return this.writeBehind.submit(Collections.singletonList(write));
+
+	  }
+
+	/**
+	 * Write a set of deferred updates in a single transaction, grouping updates with the
+	 * same SQL into one statement batch.
+	 *
+	 * @return <code>true</code> if the updates were successfully written
+	 */
+	  boolean writeBatch(List<WriteBehindQueue.Write> writes) {
+
+	    boolean ok;
+	    Map<String, List<Object[]>> statements = new LinkedHashMap<String, List<Object[]>>();
+	    for (WriteBehindQueue.Write write : writes) {
+	      List<Object[]> params = statements.get(write.sql);
+	      if (params == null) {
+	        params = new ArrayList<Object[]>();
+	        statements.put(write.sql, params);
+	      }
+	      params.add(write.params);
+	    }
+	    try (Connection conn = getConnection()) {
+	      boolean autoCommit = conn.getAutoCommit();
+	      conn.setAutoCommit(false);
+	      try {
+	        for (Map.Entry<String, List<Object[]>> entry : statements.entrySet()) {
+	          try (PreparedStatement stmt = conn.prepareStatement(entry.getKey())) {
+	            for (Object[] params : entry.getValue()) {
+	              setParameters(stmt, params);
+	              stmt.addBatch();
+	            }
+	            stmt.executeBatch();
+	          }
+	        }
+	        conn.commit();
+	        ok = true;
+	      } catch (SQLException e) {
+	        conn.rollback();
+	        throw e;
+	      } finally {
+	        conn.setAutoCommit(autoCommit);
+	      }
+	    } catch (SQLException e) {
+	      e.printStackTrace();
+	      ok = false;
+	    }
+	// Consumers read while an update was queued may have been cached with the old values
+	    if (this.consumerCache != null) {
+	      String prefix = DataConnector.CONSUMER_TABLE_NAME + ":";
+	      for (WriteBehindQueue.Write write : writes) {
+	        if (write.key.startsWith(prefix)) {
+	          this.consumerCache.invalidate(write.key.substring(prefix.length()));
+	        }
+	      }
+	    }
+
+	    return ok;
+
+	  }
+
+	/**
+	 * Bind parameter values to a statement, in order.
+	 */
+	  private static void setParameters(PreparedStatement stmt, Object[] params) throws SQLException {
+
+	    for (int i = 0; i < params.length; i++) {
+	      if (params[i] == null) {
+	        stmt.setNull(i + 1, Types.NULL);
+	      } else {
+	        stmt.setObject(i + 1, params[i]);
+	      }
+	    }
+
+	  }
+
+	/**
+	 * Convert an optional date/time to a timestamp.
+	 */
+	  private static Timestamp toTimestamp(DateTime dateTime) {
+
+	    return (dateTime != null) ? new Timestamp(dateTime.getMillis()) : null;
+
+	  }
+
+	/**
+	 * Convert a column value held in a snapshot to a statement parameter.  The profile is
+	 * held as an object, so that it is only converted to JSON when it is written.
+	 */
+	  private static Object toParameter(Object value) {
+
+	    if (value instanceof ConsumerProfile) {
+	      return ((ConsumerProfile)value).toJson();
+	    }
+
+	    return value;
+
+	  }
+
+	/**
+	 * Get the value to store for a map of settings.  If the settings are the same as those
+	 * in the value previously stored (though encoded differently, for example in another
+	 * order), the previous value is returned so that the column is not seen as changed.
+	 */
+	  private String settingsValue(Map<String, List<String>> settings, RecordSnapshot snapshot) {
+
+	    String value = serialize(settings);
+	    if (snapshot != null) {
+	      String stored = (String)snapshot.get("settings");
+	      if ((stored != null) && !stored.equals(value) && this.settingsCodec.decode(stored).equals(settings)) {
+	        value = stored;
+	      }
+	    }
+
+	    return value;
+
+	  }
+
+	/**
+	 * Update the columns of a row which have changed since it was last loaded or saved.
+	 * Nothing is written if no column has changed.  When write-behind is enabled every
+	 * column is written, as a later update to the same row within a batch replaces this one.
+	 *
+	 * @param table        table name (without prefix)
+	 * @param key          key identifying the row to the write-behind queue
+	 * @param before       column values as last loaded or saved (null if not known)
+	 * @param after        current column values
+	 * @param time         value for the updated column
+	 * @param where        condition identifying the row
+	 * @param whereParams  parameter values for the condition
+	 *
+	 * @return 1 if the row was updated (or the update deferred), 0 if there was nothing to write, -1 if the update failed
+	 */
+	  private int updateChangedColumns(String table, String key, RecordSnapshot before, RecordSnapshot after,
+	      Timestamp time, String where, Object... whereParams) {
+
+	    Map<String, Object> changes = (before != null) ? before.getChanges(after) : after.getValues();
+	    if (changes.isEmpty()) {
+	      return 0;
+	    }
+	    if (this.writeBehind != null) {
+	      changes = after.getValues();
+	    }
+	    StringBuilder sql = new StringBuilder("UPDATE ").append(this.prefix).append(table).append(" SET ");
+	    List<Object> params = new ArrayList<Object>();
+	    for (Map.Entry<String, Object> entry : changes.entrySet()) {
+	      sql.append(entry.getKey()).append(" = ?, ");
+	      params.add(toParameter(entry.getValue()));
+	    }
+	    sql.append("updated = ? WHERE ").append(where);
+	    params.add(time);
+	    Collections.addAll(params, whereParams);
+	    Object[] values = params.toArray();
+	    if (deferWrite(table + ":" + key, sql.toString(), values)) {
+	      return 1;
+	    }
+	    try (Connection conn = getConnection();
+	         PreparedStatement stmt = conn.prepareStatement(sql.toString())) {
+	      setParameters(stmt, values);
+	      return (stmt.executeUpdate() > 0) ? 1 : -1;
+	    } catch (SQLException e) {
+	      e.printStackTrace();
+	      return -1;
+	    }
+
 	  }
 
 
@@ -76,6 +448,7 @@ public class JDBC extends DataConnector {
 	    String parameter = "";
 	    String sql = "";
 	    String key256 = null;
+	    long generation = (this.consumerCache != null) ? this.consumerCache.getGeneration() : -1L;
 	    if (consumer.getRecordId() > 0) {
 		    sql = "SELECT consumer_pk, name, consumer_key256, consumer_key, secret, lti_version, " +
 	        "consumer_name, consumer_version, consumer_guid, " +
@@ -86,6 +459,9 @@ public class JDBC extends DataConnector {
 		    parameter = String.valueOf(consumer.getRecordId());
 	    } else {
 	    	key256 = DataConnector.getConsumerKey(consumer.getKey());
+	    	if ((this.consumerCache != null) && this.consumerCache.load(key256, consumer)) {
+	    		return true;
+	    	}
 	    	sql = "SELECT consumer_pk, name, consumer_key256, consumer_key, secret, lti_version, " +
                     "consumer_name, consumer_version, consumer_guid, " +
                     "profile, tool_proxy, settings, protected, enabled, " +
@@ -94,65 +470,89 @@ public class JDBC extends DataConnector {
                     "WHERE consumer_key256 = ?";
 	    	parameter = key256;
 	    }
-	    try {
-	      PreparedStatement stmt = this.conn.prepareStatement(sql);
+	    try (Connection conn = getConnection();
+	         PreparedStatement stmt = conn.prepareStatement(sql)) {
 	      stmt.setString(1, parameter);
-	      ResultSet rs = stmt.executeQuery();
-	      ok = rs.next();
-	      if (ok) {
-	    	  if (StringUtils.isEmpty(key256) || 
-	    			  StringUtils.isEmpty(rs.getString("consumer_key")) || 
-	    			  consumer.getKey().equals(rs.getString("consumer_key"))) {
-				consumer.setRecordId(rs.getInt("consumer_pk"));
-	    		consumer.setName(rs.getString("name"));
-	    		consumer.setKey(StringUtils.isEmpty(rs.getString("consumer_key")) ? rs.getString("consumer_key256") : rs.getString("consumer_key"));
-				consumer.setSecret(rs.getString("secret"));
-				consumer.setLtiVersion(rs.getString("lti_version"));
-				consumer.setConsumerName(rs.getString("consumer_name"));
-				consumer.setConsumerVersion(rs.getString("consumer_version"));
-				consumer.setConsumerGuid(rs.getString("consumer_guid"));
-				String jsonProfile = rs.getString("profile");
-				consumer.setProfile(setupProfile(jsonProfile));
-				consumer.setToolProxy(rs.getString("tool_proxy"));
-				String settings = rs.getString("settings");
-				consumer.setSettings(unserialize(settings));
-				consumer.setThisprotected(rs.getInt("protected") == 1);
-				consumer.setEnabled(rs.getInt("enabled") == 1);
-				consumer.setEnableFrom(null);
-				if (rs.getTimestamp("enable_from") != null) {
-				  consumer.setEnableFrom(new DateTime(rs.getTimestamp("enable_from")));
-				}
-				consumer.setEnableUntil(null);
-				if (rs.getTimestamp("enable_until") != null) {
-				  consumer.setEnableUntil(new DateTime(rs.getTimestamp("enable_until")));
-				}
-				consumer.setLastAccess(null);
-				if (rs.getDate("last_access") != null) {
-				  consumer.setLastAccess(new DateTime(rs.getTimestamp("last_access")));
-				}
-				consumer.setCreated(new DateTime(rs.getTimestamp("created")));
-				consumer.setUpdated(new DateTime(rs.getTimestamp("updated")));
-	    	  }
+	      try (ResultSet rs = stmt.executeQuery()) {
+	        ok = false;
+	        if (rs.next()) {
+	    	    if (StringUtils.isEmpty(key256) || 
+	    			    StringUtils.isEmpty(rs.getString("consumer_key")) || 
+	    			    consumer.getKey().equals(rs.getString("consumer_key"))) {
+	    		  ok = true;
+	    		  readToolConsumer(rs, "", consumer);
+	    	    }
+	        }
 	      }
 	    } catch (SQLException e) {
 	      ok = false;
 	    }
+	    if (ok && (generation >= 0L)) {
+	    	this.consumerCache.put(DataConnector.getConsumerKey(consumer.getKey()), consumer, generation);
+	    }
 
 	    return ok;
 
 	  }
 
+	/**
+	 * Set the properties of a tool consumer from the current row of a result set.
+	 *
+	 * @param rs        result set
+	 * @param column    prefix of the column names (empty if none)
+	 * @param consumer  ToolConsumer object
+	 */
+	  private void readToolConsumer(ResultSet rs, String column, ToolConsumer consumer) throws SQLException {
+
+		consumer.setRecordId(rs.getInt(column + "consumer_pk"));
+		consumer.setName(rs.getString(column + "name"));
+		consumer.setKey(StringUtils.isEmpty(rs.getString(column + "consumer_key")) ? rs.getString(column + "consumer_key256") : rs.getString(column + "consumer_key"));
+		consumer.setSecret(rs.getString(column + "secret"));
+		consumer.setLtiVersion(rs.getString(column + "lti_version"));
+		consumer.setConsumerName(rs.getString(column + "consumer_name"));
+		consumer.setConsumerVersion(rs.getString(column + "consumer_version"));
+		consumer.setConsumerGuid(rs.getString(column + "consumer_guid"));
+		String jsonProfile = rs.getString(column + "profile");
+		consumer.setProfile(setupProfile(jsonProfile));
+		consumer.setToolProxy(rs.getString(column + "tool_proxy"));
+		String settings = rs.getString(column + "settings");
+		consumer.setSettings(unserialize(settings));
+		consumer.setThisprotected(rs.getInt(column + "protected") == 1);
+		consumer.setEnabled(rs.getInt(column + "enabled") == 1);
+		consumer.setEnableFrom(null);
+		if (rs.getTimestamp(column + "enable_from") != null) {
+		  consumer.setEnableFrom(new DateTime(rs.getTimestamp(column + "enable_from")));
+		}
+		consumer.setEnableUntil(null);
+		if (rs.getTimestamp(column + "enable_until") != null) {
+		  consumer.setEnableUntil(new DateTime(rs.getTimestamp(column + "enable_until")));
+		}
+		consumer.setLastAccess(null);
+		if (rs.getDate(column + "last_access") != null) {
+		  consumer.setLastAccess(new DateTime(rs.getTimestamp(column + "last_access")));
+		}
+		consumer.setCreated(new DateTime(rs.getTimestamp(column + "created")));
+		consumer.setUpdated(new DateTime(rs.getTimestamp(column + "updated")));
+		consumer.setSettingsChanged(false);
+		consumer.setSnapshot(consumerSnapshot(consumer, null));
+
+	  }
+
 
 	private ConsumerProfile setupProfile(String jsonProfile) {
-		ConsumerProfile profile = new ConsumerProfile();
-		JSONContext context = new JSONContext();
 		JSONParser parser = new JSONParser();
 		try {
-			context.parse((JSONObject)parser.parse(jsonProfile));
+			if (jsonProfile != null) {
+				Object json = parser.parse(jsonProfile);
+				if (json instanceof JSONObject) {
+					return ConsumerProfile.fromJson((JSONObject)json);
+				}
+			}
 		} catch (ParseException e) {
 			e.printStackTrace();
 		}
-		profile.setContext(context);
+		ConsumerProfile profile = new ConsumerProfile();
+		profile.setContext(new JSONContext());
 		return profile;
 	}
 
@@ -169,79 +569,53 @@ public class JDBC extends DataConnector {
 	    boolean ok;
         String key = consumer.getKey();
         String key256 = DataConnector.getConsumerKey(key);
-        if (key.equals(key256)) {
-            key = null;
-        }
-        int protect = (consumer.isThisprotected()) ? 1 : 0;
-        int enabled = (consumer.isEnabled())? 1 : 0;
-        String profile = (consumer.getProfile() != null) ? consumer.getProfile().toJson() : null;
-        String settingsValue = serialize(consumer.getSettings());
 	    DateTime now = DateTime.now();
-	    DateTime from = null;
-	    if (consumer.getEnableFrom() != null) {
-	      from = consumer.getEnableFrom();
-	    }
-	    DateTime until = null;
-	    if (consumer.getEnableUntil() != null) {
-	      until = consumer.getEnableUntil();
-	    }
-	    DateTime last = null;
-	    if (consumer.getLastAccess() != null) {
-	      last = consumer.getLastAccess();
+	    Timestamp time = new Timestamp(now.getMillis());
+	    RecordSnapshot current = consumerSnapshot(consumer, consumer.getSnapshot());
+	    if (consumer.getCreated() != null) {
+	      int written = updateChangedColumns(DataConnector.CONSUMER_TABLE_NAME, key256, consumer.getSnapshot(), current,
+	    	  time, "consumer_pk = ?", consumer.getRecordId());
+	      if (written > 0) {
+	        if (this.consumerCache != null) {
+	          this.consumerCache.invalidate(key256);
+	        }
+	        consumer.setUpdated(now);
+	      }
+	      if (written >= 0) {
+	        consumer.setSnapshot(current);
+	      }
+	      return written >= 0;
 	    }
-	    String sql;
-	    if (consumer.getCreated() == null) {
-	      sql = "INSERT INTO " + this.prefix + DataConnector.CONSUMER_TABLE_NAME + " " +
+        if (this.consumerCache != null) {
+        	this.consumerCache.invalidate(key256);
+        }
+	    String sql = "INSERT INTO " + this.prefix + DataConnector.CONSUMER_TABLE_NAME + " " +
 	            "(consumer_key256, consumer_key, name, secret, lti_version, consumer_name, " + //6
 	    		"consumer_version, consumer_guid, profile, tool_proxy, settings, protected, " + //6
 	            "enabled, enable_from, enable_until, last_access, created, updated) " + //6
 	            "VALUES (?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?)";//18
-	    } else {
-	      sql = "UPDATE " + this.prefix + DataConnector.CONSUMER_TABLE_NAME + " " +
-	            "SET consumer_key256 = ?, consumer_key = ?, name = ?, secret = ?, lti_version = ?, " +
-	            "consumer_name = ?, consumer_version = ?, consumer_guid = ?, profile = ?, tool_proxy = ?, " +
-	            "settings = ?, protected = ?, enabled = ?, enable_from = ?, enable_until = ?, " +
-	            "last_access = ?, updated = ? " +
-	            "WHERE consumer_key = ?";
+	    List<Object> params = new ArrayList<Object>();
+	    for (Object value : current.getValues().values()) {
+	      params.add(toParameter(value));
 	    }
-	    try {
-	      PreparedStatement stmt = this.conn.prepareStatement(sql, Statement.RETURN_GENERATED_KEYS);
-
-	      stmt.setString(1, key256);
-	      stmt.setString(2, key);
-	      stmt.setString(3, consumer.getName());
-	      stmt.setString(4, consumer.getSecret());
-	      stmt.setString(5, consumer.getLtiVersion());
-	      stmt.setString(6, consumer.getConsumerName());
-	      stmt.setString(7, consumer.getConsumerVersion());
-	      stmt.setString(8, consumer.getConsumerGuid());
-	      stmt.setString(9, profile);
-	      stmt.setString(10, consumer.getToolProxy());
-	      stmt.setString(11, settingsValue);
-	      stmt.setInt(12, protect);
-	      stmt.setInt(13, enabled);
-	      stmt.setTimestamp(14, new Timestamp(from.getMillis()));
-	      stmt.setTimestamp(15, new Timestamp(until.getMillis()));
-	      stmt.setDate(16, new Date(last.getMillis()));
-	      Timestamp time = new Timestamp(DateTime.now().getMillis());
-	      stmt.setTimestamp(17, time);  // created or updated
-	      if (consumer.getCreated() == null) {
-	    	  stmt.setTimestamp(18, time);  // updated
-	      } else {
-	  	      stmt.setString(18, consumer.getKey());
-	  	  }
+	    params.add(time);  // created
+	    params.add(time);  // updated
+	    try (Connection conn = getConnection();
+	         PreparedStatement stmt = conn.prepareStatement(sql, Statement.RETURN_GENERATED_KEYS)) {
+
+	      setParameters(stmt, params.toArray());
 	      
 	      ok = stmt.executeUpdate() == 1;
 	      if (ok) {
-	        if (consumer.getCreated() == null) {
-	          consumer.setCreated(now);
-	          ResultSet rs = stmt.getGeneratedKeys();
-      		  if (rs.next()) {
-      			int last_inserted_id = rs.getInt(1);
-      			consumer.setRecordId(last_inserted_id);
-      		  }
+	        consumer.setCreated(now);
+	        try (ResultSet rs = stmt.getGeneratedKeys()) {
+      	      if (rs.next()) {
+      		    int last_inserted_id = rs.getInt(1);
+      		    consumer.setRecordId(last_inserted_id);
+      	      }
 	        }
 	        consumer.setUpdated(now);
+	        consumer.setSnapshot(current);
 	      }
 	    } catch (SQLException e) {
 	      ok = false;
@@ -251,6 +625,40 @@ public class JDBC extends DataConnector {
 
 	  }
 
+	/**
+	 * Get the values of the columns of a tool consumer which may be updated, in the order
+	 * they are inserted.
+	 */
+	  private RecordSnapshot consumerSnapshot(ToolConsumer consumer, RecordSnapshot before) {
+
+	    String key = consumer.getKey();
+	    String key256 = DataConnector.getConsumerKey(key);
+	    if (key.equals(key256)) {
+	      key = null;
+	    }
+	    DateTime last = consumer.getLastAccess();
+	    Map<String, Object> values = new LinkedHashMap<String, Object>();
+	    values.put("consumer_key256", key256);
+	    values.put("consumer_key", key);
+	    values.put("name", consumer.getName());
+	    values.put("secret", consumer.getSecret());
+	    values.put("lti_version", consumer.getLtiVersion());
+	    values.put("consumer_name", consumer.getConsumerName());
+	    values.put("consumer_version", consumer.getConsumerVersion());
+	    values.put("consumer_guid", consumer.getConsumerGuid());
+	    values.put("profile", consumer.getProfile());
+	    values.put("tool_proxy", consumer.getToolProxy());
+	    values.put("settings", settingsValue(consumer.getSettings(), before));
+	    values.put("protected", consumer.isThisprotected() ? 1 : 0);
+	    values.put("enabled", consumer.isEnabled() ? 1 : 0);
+	    values.put("enable_from", toTimestamp(consumer.getEnableFrom()));
+	    values.put("enable_until", toTimestamp(consumer.getEnableUntil()));
+	    values.put("last_access", (last != null) ? new Date(last.getMillis()) : null);
+
+	    return new RecordSnapshot(values);
+
+	  }
+
 	/**
 	 * Delete tool consumer object.
 	 *
@@ -263,21 +671,20 @@ public class JDBC extends DataConnector {
 
 	    boolean ok;
 
-	    try {
+	    if (this.consumerCache != null) {
+	    	this.consumerCache.invalidate(DataConnector.getConsumerKey(consumer.getKey()));
+	    }
+	    try (Connection conn = getConnection()) {
 	// Delete any nonce values for this consumer
 	      String sql = "DELETE FROM " + this.prefix + DataConnector.NONCE_TABLE_NAME + " WHERE consumer_pk = ?";
-	      PreparedStatement stmt = this.conn.prepareStatement(sql);
-	      stmt.setInt(1, consumer.getRecordId());
-	      stmt.executeUpdate();
+	      executeUpdate(conn, sql, consumer.getRecordId());
 
 	// Delete any outstanding share keys for contexts for this consumer
 	      sql = "DELETE sk FROM " + this.prefix + DataConnector.RESOURCE_LINK_SHARE_KEY_TABLE_NAME + " sk " +
 	      "INNER JOIN " + this.prefix + DataConnector.RESOURCE_LINK_TABLE_NAME + 
 	      " rl ON sk.resource_link_pk = rl.resource_link_pk " +
 	      "WHERE rl.consumer_pk = ?";
-	      stmt = this.conn.prepareStatement(sql);
-	      stmt.setInt(1, consumer.getRecordId());
-	      stmt.executeUpdate();
+	      executeUpdate(conn, sql, consumer.getRecordId());
 	      
 	// Delete any outstanding share keys for resource links for contexts in this consumer
 	      sql = "DELETE sk FROM " + this.prefix + DataConnector.RESOURCE_LINK_SHARE_KEY_TABLE_NAME + " sk " +
@@ -286,27 +693,21 @@ public class JDBC extends DataConnector {
 	      "INNER JOIN " + this.prefix + DataConnector.CONTEXT_TABLE_NAME + 
 	      " c ON rl.context_pk = c.context_pk " +
 	      "WHERE c.consumer_pk = ?";
-	      stmt = this.conn.prepareStatement(sql);
-	      stmt.setInt(1, consumer.getRecordId());
-	      stmt.executeUpdate();
+	      executeUpdate(conn, sql, consumer.getRecordId());
 
 	// Delete any users in contexts for this consumer
 	      sql = "DELETE u FROM " + this.prefix + DataConnector.USER_RESULT_TABLE_NAME + " u " +
 	      "INNER JOIN " + this.prefix + DataConnector.RESOURCE_LINK_TABLE_NAME + " rl " + 
 	      "ON u.resource_link_pk = rl.resource_link_pk " +
 	      "WHERE rl.consumer_key = ?";
-	      stmt = this.conn.prepareStatement(sql);
-	      stmt.setInt(1, consumer.getRecordId());
-	      stmt.executeUpdate();
+	      executeUpdate(conn, sql, consumer.getRecordId());
 
 	   // Delete any users in resource links for this consumer
 	        sql = "DELETE u " +
 	                       "FROM " + this.prefix + DataConnector.USER_RESULT_TABLE_NAME + " u " +
 	                       "INNER JOIN " + this.prefix + DataConnector.RESOURCE_LINK_TABLE_NAME + " rl ON u.resource_link_pk = rl.resource_link_pk " +
 	                       "WHERE rl.consumer_pk = ?";
-	        stmt = this.conn.prepareStatement(sql);
-		    stmt.setInt(1, consumer.getRecordId());
-		    stmt.executeUpdate();
+	        executeUpdate(conn, sql, consumer.getRecordId());
 
 
 	// Delete any users in resource links for contexts in this consumer
@@ -315,9 +716,7 @@ public class JDBC extends DataConnector {
 	                       "INNER JOIN " + this.prefix + DataConnector.RESOURCE_LINK_TABLE_NAME + " rl ON u.resource_link_pk = rl.resource_link_pk " +
 	                       "INNER JOIN " + this.prefix + DataConnector.CONTEXT_TABLE_NAME + " c ON rl.context_pk = c.context_pk " +
 	                       "WHERE c.consumer_pk = ?";
-	        stmt = this.conn.prepareStatement(sql);
-		      stmt.setInt(1, consumer.getRecordId());
-		      stmt.executeUpdate();
+	        executeUpdate(conn, sql, consumer.getRecordId());
 
 
 	// Update any resource links for which this consumer is acting as a primary resource link
@@ -325,9 +724,7 @@ public class JDBC extends DataConnector {
 	                       "INNER JOIN " + this.prefix + DataConnector.RESOURCE_LINK_TABLE_NAME + " rl ON prl.primary_resource_link_pk = rl.resource_link_pk " +
 	                       "SET prl.primary_resource_link_pk = NULL, prl.share_approved = NULL " +
 	                       "WHERE rl.consumer_pk = ?";
-	        stmt = this.conn.prepareStatement(sql);
-		      stmt.setInt(1, consumer.getRecordId());
-		      stmt.executeUpdate();
+	        executeUpdate(conn, sql, consumer.getRecordId());
 
 	// Update any resource links for contexts in which this consumer is acting as a primary resource link
 	        sql = "UPDATE " + this.prefix + DataConnector.RESOURCE_LINK_TABLE_NAME + " prl " +
@@ -335,43 +732,33 @@ public class JDBC extends DataConnector {
 	                       "INNER JOIN " + this.prefix + DataConnector.CONTEXT_TABLE_NAME + " c ON rl.context_pk = c.context_pk " +
 	                       "SET prl.primary_resource_link_pk = NULL, prl.share_approved = NULL " +
 	                       "WHERE c.consumer_pk = ?";
-	        stmt = this.conn.prepareStatement(sql);
-		      stmt.setInt(1, consumer.getRecordId());
-		      ok = stmt.executeUpdate() >= 1;
+	        ok = executeUpdate(conn, sql, consumer.getRecordId()) >= 1;
 
 	// Delete any resource links for this consumer
 	        sql = "DELETE rl " +
 	                       "FROM " + this.prefix + DataConnector.RESOURCE_LINK_TABLE_NAME + " rl " +
 	                       "WHERE rl.consumer_pk = ?";
-	        stmt = this.conn.prepareStatement(sql);
-		      stmt.setInt(1, consumer.getRecordId());
-		      stmt.executeUpdate();
+	        executeUpdate(conn, sql, consumer.getRecordId());
 
 	// Delete any resource links for contexts in this consumer
 	        sql = "DELETE rl " +
 	                       "FROM " + this.prefix + DataConnector.RESOURCE_LINK_TABLE_NAME + " rl " +
 	                       "INNER JOIN " + this.prefix + DataConnector.CONTEXT_TABLE_NAME + " c ON rl.context_pk = c.context_pk " +
 	                       "WHERE c.consumer_pk = ?";
-	        stmt = this.conn.prepareStatement(sql);
-		      stmt.setInt(1, consumer.getRecordId());
-		      stmt.executeUpdate();
+	        executeUpdate(conn, sql, consumer.getRecordId());
 
 	// Delete any contexts for this consumer
 	        sql = "DELETE c " +
 	                       "FROM " + this.prefix + DataConnector.CONTEXT_TABLE_NAME + " c " +
 	                       "WHERE c.consumer_pk = ?";
-	        stmt = this.conn.prepareStatement(sql);
-		      stmt.setInt(1, consumer.getRecordId());
-		      stmt.executeUpdate();
+	        executeUpdate(conn, sql, consumer.getRecordId());
 
 
 	// Delete consumer
 	        sql = "DELETE c " +
 	                       "FROM " + this.prefix + DataConnector.CONSUMER_TABLE_NAME + " c " +
 	                       "WHERE c.consumer_pk = ?";
-	        stmt = this.conn.prepareStatement(sql);
-		      stmt.setInt(1, consumer.getRecordId());
-		      ok = stmt.executeUpdate() == 1;
+	        ok = executeUpdate(conn, sql, consumer.getRecordId()) == 1;
 
 	      if (ok) {
 	        consumer.initialise();
@@ -395,17 +782,18 @@ public class JDBC extends DataConnector {
 
 	    List<ToolConsumer> consumers = new ArrayList<ToolConsumer>();
 
-	    String sql = "SELECT consumer_pk, consumer_key, consumer_key, name, secret, lti_version, " + 
+	    String sql = "SELECT consumer_pk, consumer_key256, consumer_key, name, secret, lti_version, " + 
 	    		     "consumer_name, consumer_version, consumer_guid, " +
 	    		     "profile, tool_proxy, settings, " +
 	                 "protected, enabled, enable_from, enable_until, last_access, created, updated " +
 	                 "FROM " + this.prefix + DataConnector.CONSUMER_TABLE_NAME + " " +
 	                 "ORDER BY name";
-	    try {
-	      PreparedStatement stmt = this.conn.prepareStatement(sql);
-	      ResultSet rs = stmt.executeQuery();
+	    try (Connection conn = getConnection();
+	         PreparedStatement stmt = conn.prepareStatement(sql);
+	         ResultSet rs = stmt.executeQuery()) {
 	      while (rs.next()) {
-	        ToolConsumer consumer = new ToolConsumer(rs.getString("consumer_key"), this, false);
+	        ToolConsumer consumer = new ToolConsumer(null, this);
+	        consumer.setKey(StringUtils.isEmpty(rs.getString("consumer_key")) ? rs.getString("consumer_key256") : rs.getString("consumer_key"));
 	        consumer.setRecordId(rs.getInt("consumer_pk"));
 	        consumer.setName(rs.getString("name"));
 	        consumer.setSecret(rs.getString("secret"));
@@ -435,6 +823,7 @@ public class JDBC extends DataConnector {
 	        }
 	        consumer.setCreated(new DateTime(rs.getTimestamp("created")));
 	        consumer.setUpdated(new DateTime(rs.getTimestamp("updated")));
+	        consumer.setSnapshot(consumerSnapshot(consumer, null));
 	        consumers.add(consumer);
 	      }
 	    } catch (SQLException e) {
@@ -506,25 +895,20 @@ public class JDBC extends DataConnector {
                                "WHERE (consumer_pk = ?) AND (lti_context_id = ?)";
                                
             }
-            try {
-      	      PreparedStatement stmt = this.conn.prepareStatement(sql);
+            try (Connection conn = getConnection();
+                 PreparedStatement stmt = conn.prepareStatement(sql)) {
       	      if (context.getRecordId() > 0) {
       	    	  stmt.setInt(1, context.getRecordId());
       	      } else {
 		    	  stmt.setInt(1, context.getConsumer().getRecordId());
 		    	  stmt.setString(2, context.getLtiContextId());
 		      }
-      	      ResultSet rs = stmt.executeQuery();
-      	      while (rs.next()) {
-                context.setRecordId(rs.getInt("context_pk"));
-                context.setConsumerId(rs.getInt("consumer_pk"));
-                context.setLtiContextId(rs.getString("lti_context_id"));
-                Map<String, List<String>> settings = unserialize(rs.getString("settings"));
-                context.setSettings(settings);
-    	        context.setCreated(new DateTime(rs.getTimestamp("created")));
-    	        context.setUpdated(new DateTime(rs.getTimestamp("updated")));
-                ok = true;
-              }
+      	      try (ResultSet rs = stmt.executeQuery()) {
+      	        while (rs.next()) {
+                  readContext(rs, "", context);
+                  ok = true;
+                }
+      	      }
             } catch (SQLException e) {
             	e.printStackTrace();
             	ok = false;
@@ -534,6 +918,27 @@ public class JDBC extends DataConnector {
 
         }
 
+    /**
+     * Set the properties of a context from the current row of a result set.
+     *
+     * @param ResultSet rs      Result set
+     * @param String    column  Prefix of the column names (empty if none)
+     * @param Context   context Context object
+     */
+        private void readContext(ResultSet rs, String column, Context context) throws SQLException
+        {
+
+            context.setRecordId(rs.getInt(column + "context_pk"));
+            context.setConsumerId(rs.getInt(column + "consumer_pk"));
+            context.setLtiContextId(rs.getString(column + "lti_context_id"));
+            Map<String, List<String>> settings = unserialize(rs.getString(column + "settings"));
+            context.setSettings(settings);
+            context.setCreated(new DateTime(rs.getTimestamp(column + "created")));
+            context.setUpdated(new DateTime(rs.getTimestamp(column + "updated")));
+            context.setSnapshot(contextSnapshot(context, null));
+
+        }
+
     /**
      * Save context object.
      *
@@ -545,47 +950,41 @@ public class JDBC extends DataConnector {
         {
         	boolean ok = false;
             DateTime now = DateTime.now();
-            String settingsValue = serialize(context.getSettings());
+            Timestamp time = new Timestamp(now.getMillis());
+            RecordSnapshot current = contextSnapshot(context, context.getSnapshot());
             int id = context.getRecordId();
             int consumer_pk = context.getConsumer().getRecordId();
-            try {
-            	String sql = "";
-            	PreparedStatement stmt;
-	            if (id == 0) {
-	                sql = "INSERT INTO " + this.prefix + DataConnector.CONTEXT_TABLE_NAME + " (consumer_pk, lti_context_id, " +
-	                               "settings, created, updated) " +
-	                               "VALUES (?, ?, ?, ?, ?)";
-	                stmt = this.conn.prepareStatement(sql, Statement.RETURN_GENERATED_KEYS);
-	                stmt.setInt(1, consumer_pk);
-	                stmt.setString(2, context.getLtiContextId());
-	                stmt.setString(3, settingsValue);
-	                stmt.setTimestamp(4, new Timestamp(now.getMillis()));
-	      	        stmt.setTimestamp(5, new Timestamp(now.getMillis()));
-	            } else {
-	                sql = "UPDATE " + this.prefix + DataConnector.CONTEXT_TABLE_NAME + " SET " +
-	                               "lti_context_id = ?, settings = ?, " +
-	                               "updated = ?" +
-	                               "WHERE (consumer_pk = ?) AND (context_pk = ?)";
-	                stmt = this.conn.prepareStatement(sql);
-	                stmt.setString(1, context.getLtiContextId());
-	                stmt.setString(2, settingsValue);
-	                stmt.setTimestamp(3, new Timestamp(now.getMillis()));
-	                stmt.setInt(4, consumer_pk);
-	                stmt.setInt(5, id);
-	            }
+            if (id != 0) {
+            	int written = updateChangedColumns(DataConnector.CONTEXT_TABLE_NAME, String.valueOf(id), context.getSnapshot(), current,
+            		time, "(consumer_pk = ?) AND (context_pk = ?)", consumer_pk, id);
+            	if (written > 0) {
+            		context.setUpdated(now);
+            	}
+            	if (written >= 0) {
+            		context.setSnapshot(current);
+            	}
+            	return written >= 0;
+            }
+            String sql = "INSERT INTO " + this.prefix + DataConnector.CONTEXT_TABLE_NAME + " (consumer_pk, lti_context_id, " +
+                           "settings, created, updated) " +
+                           "VALUES (?, ?, ?, ?, ?)";
+            Object[] params = new Object[] {consumer_pk, current.get("lti_context_id"), current.get("settings"), time, time};
+            try (Connection conn = getConnection();
+                 PreparedStatement stmt = conn.prepareStatement(sql, Statement.RETURN_GENERATED_KEYS)) {
+	            setParameters(stmt, params);
 	            ok = stmt.executeUpdate() >= 1;
 	            
               
                 if (ok) {
-                	if (id == 0) {
-                		ResultSet rs = stmt.getGeneratedKeys();
-                		if (rs.next()) {
-                			int last_inserted_id = rs.getInt(1);
-                			context.setRecordId(last_inserted_id);
-                			context.setCreated(now);
-                		}
+                	try (ResultSet rs = stmt.getGeneratedKeys()) {
+                	  if (rs.next()) {
+                		  int last_inserted_id = rs.getInt(1);
+                		  context.setRecordId(last_inserted_id);
+                		  context.setCreated(now);
+                	  }
                 	}
                 	context.setUpdated(now);
+                	context.setSnapshot(current);
                 }
               } catch (SQLException e) {
               	e.printStackTrace();
@@ -596,6 +995,19 @@ public class JDBC extends DataConnector {
 
         }
 
+    /**
+     * Get the values of the columns of a context which may be updated.
+     */
+        private RecordSnapshot contextSnapshot(Context context, RecordSnapshot before)
+        {
+            Map<String, Object> values = new LinkedHashMap<String, Object>();
+            values.put("lti_context_id", context.getLtiContextId());
+            values.put("settings", settingsValue(context.getSettings(), before));
+
+            return new RecordSnapshot(values);
+
+        }
+
     /**
      * Delete context object.
      *
@@ -606,51 +1018,40 @@ public class JDBC extends DataConnector {
         public boolean deleteContext(Context context)
         {
         	String sql;
-        	PreparedStatement stmt;
         	boolean ok = false;
-        	try {
+        	try (Connection conn = getConnection()) {
 	    // Delete any outstanding share keys for resource links for this context
 	            sql = "DELETE sk " +
 	                           "FROM " + this.prefix + DataConnector.RESOURCE_LINK_SHARE_KEY_TABLE_NAME + " sk " +
 	                           "INNER JOIN " + this.prefix + DataConnector.RESOURCE_LINK_TABLE_NAME + " rl ON sk.resource_link_pk = rl.resource_link_pk " +
 	                           "WHERE rl.context_pk = ?";
-	            stmt = this.conn.prepareStatement(sql);
-		        stmt.setInt(1, context.getRecordId());
-		        stmt.executeUpdate();
+	            executeUpdate(conn, sql, context.getRecordId());
 		        
 	    // Delete any users in resource links for this context
 	            sql = "DELETE u " +
 	                           "FROM " + this.prefix + DataConnector.USER_RESULT_TABLE_NAME + " u " +
 	                           "INNER JOIN " + this.prefix + DataConnector.RESOURCE_LINK_TABLE_NAME + " rl ON u.resource_link_pk = rl.resource_link_pk " +
 	                           "WHERE rl.context_pk = ?";
-	            stmt = this.conn.prepareStatement(sql);
-	   	        stmt.setInt(1, context.getRecordId());
-	   	        stmt.executeUpdate();
+	            executeUpdate(conn, sql, context.getRecordId());
 	               	        
 	    // Update any resource links for which this consumer is acting as a primary resource link
 	            sql = "UPDATE " + this.prefix + DataConnector.RESOURCE_LINK_TABLE_NAME + " prl " +
 	                           "INNER JOIN " + this.prefix + DataConnector.RESOURCE_LINK_TABLE_NAME + " rl ON prl.primary_resource_link_pk = rl.resource_link_pk " +
 	                           "SET prl.primary_resource_link_pk = null, prl.share_approved = null " +
 	                           "WHERE rl.context_pk = ?";
-	            stmt = this.conn.prepareStatement(sql);
-		        stmt.setInt(1, context.getRecordId());
-		        stmt.executeUpdate();
+	            executeUpdate(conn, sql, context.getRecordId());
 		        
 	    // Delete any resource links for this consumer
 	            sql = "DELETE rl " +
 	                           "FROM " + this.prefix + DataConnector.RESOURCE_LINK_TABLE_NAME + " rl " +
 	                           "WHERE rl.context_pk = ?";
-	            stmt = this.conn.prepareStatement(sql);
-		        stmt.setInt(1, context.getRecordId());
-		        stmt.executeUpdate();
+	            executeUpdate(conn, sql, context.getRecordId());
 		        
 	    // Delete context
 	            sql = "DELETE c " +
 	                           "FROM " + this.prefix + DataConnector.CONTEXT_TABLE_NAME + " c " +
 	                           "WHERE c.context_pk = ?";
-	            stmt = this.conn.prepareStatement(sql);
-		        stmt.setInt(1, context.getRecordId());
-		        stmt.executeUpdate();
+	            ok = executeUpdate(conn, sql, context.getRecordId()) == 1;
         	} catch (SQLException e) {
         		e.printStackTrace();
         		ok = false;
@@ -681,46 +1082,38 @@ public class JDBC extends DataConnector {
 
 	    boolean ok = false;
 	    String sql;
-	    PreparedStatement stmt;
-	    try {
+	    if (resourceLink.getRecordId() > 0) {
+	    	sql = "SELECT resource_link_pk, context_pk, consumer_pk, lti_resource_link_id, settings, primary_resource_link_pk, share_approved, created, updated " +
+	    			"FROM " + this.prefix + DataConnector.RESOURCE_LINK_TABLE_NAME + " " +
+	    			"WHERE (resource_link_pk = ?)";
+	    } else if (resourceLink.getContext() != null) {
+	    	sql = "SELECT resource_link_pk, context_pk, consumer_pk, lti_resource_link_id, settings, primary_resource_link_pk, share_approved, created, updated " +
+	    			"FROM " + this.prefix + DataConnector.RESOURCE_LINK_TABLE_NAME + " " +
+	    			"WHERE (context_pk = ?) AND (lti_resource_link_id = ?)";
+	    } else {
+	    	sql = "SELECT r.resource_link_pk, r.context_pk, r.consumer_pk, r.lti_resource_link_id, r.settings, r.primary_resource_link_pk, r.share_approved, r.created, r.updated " +
+	    			"FROM " + this.prefix + DataConnector.RESOURCE_LINK_TABLE_NAME + " r LEFT OUTER JOIN " +
+	    			this.prefix + DataConnector.CONTEXT_TABLE_NAME + " c ON r.context_pk = c.context_pk " +
+	    			" WHERE ((r.consumer_pk = ?) OR (c.consumer_pk = ?)) AND (lti_resource_link_id = ?)";
+	    }
+	    try (Connection conn = getConnection();
+	         PreparedStatement stmt = conn.prepareStatement(sql)) {
 		    if (resourceLink.getRecordId() > 0) {
-	            sql = "SELECT resource_link_pk, context_pk, consumer_pk, lti_resource_link_id, settings, primary_resource_link_pk, share_approved, created, updated " +
-	                           "FROM " + this.prefix + DataConnector.RESOURCE_LINK_TABLE_NAME + " " +
-	                           "WHERE (resource_link_pk = ?)";
-	            stmt = this.conn.prepareStatement(sql);
 	            stmt.setInt(1, resourceLink.getRecordId());
 	        } else if (resourceLink.getContext() != null) {
-	            sql = "SELECT resource_link_pk, context_pk, consumer_pk, lti_resource_link_id, settings, primary_resource_link_pk, share_approved, created, updated " +
-	                           "FROM " + this.prefix + DataConnector.RESOURCE_LINK_TABLE_NAME + " " +
-	                           "WHERE (context_pk = ?) AND (lti_resource_link_id = ?)";
-	            stmt = this.conn.prepareStatement(sql);
-	            stmt.setInt(1, resourceLink.getRecordId());
+	            stmt.setInt(1, resourceLink.getContext().getRecordId());
 	            stmt.setString(2, resourceLink.getId());
 	        } else {
-	            sql = "SELECT r.resource_link_pk, r.context_pk, r.consumer_pk, r.lti_resource_link_id, r.settings, r.primary_resource_link_pk, r.share_approved, r.created, r.updated " +
-	                           "FROM " + this.prefix + DataConnector.RESOURCE_LINK_TABLE_NAME + " r LEFT OUTER JOIN " +
-	                           this.prefix + DataConnector.CONTEXT_TABLE_NAME + " c ON r.context_pk = c.context_pk " +
-	                           " WHERE ((r.consumer_pk = ?) OR (c.consumer_pk = ?)) AND (lti_resource_link_id = ?)";
-	            stmt = this.conn.prepareStatement(sql);
 	            stmt.setInt(1, resourceLink.getConsumer().getRecordId());
 	            stmt.setInt(2, resourceLink.getConsumer().getRecordId());
 	            stmt.setString(3, resourceLink.getId());
 	        }
 
-	      ResultSet rs = stmt.executeQuery();
-	      ok = rs.next();
-	      if (ok) {
-	    	  resourceLink.setRecordId(rs.getInt("resource_link_pk"));
-	    	  resourceLink.setContextId(rs.getInt("context_pk"));
-	    	  resourceLink.setConsumerId(rs.getInt("consumer_pk"));
-	    	  resourceLink.setLtiResourceLinkId(rs.getString("lti_resource_link_id"));
-	    	  Map<String, List<String>> settings = unserialize(rs.getString("settings"));
-              resourceLink.setSettings(settings);
-	    	  resourceLink.setPrimaryResourceLinkId(rs.getInt("primary_resource_link_pk"));
-	    	  resourceLink.setShareApproved(rs.getInt("share_approved") != 0);
-	    	  resourceLink.setCreated(new DateTime(rs.getTimestamp("created")));
-  	          resourceLink.setUpdated(new DateTime(rs.getTimestamp("updated")));
-	    	  
+	      try (ResultSet rs = stmt.executeQuery()) {
+	        ok = rs.next();
+	        if (ok) {
+	    	    readResourceLink(rs, "", resourceLink);
+	        }
 	      }
 	    } catch (SQLException e) {
 	      ok = false;
@@ -730,6 +1123,29 @@ public class JDBC extends DataConnector {
 
 	  }
 
+	/**
+	 * Set the properties of a resource link from the current row of a result set.
+	 *
+	 * @param rs            result set
+	 * @param column        prefix of the column names (empty if none)
+	 * @param resourceLink  ResourceLink object
+	 */
+	  private void readResourceLink(ResultSet rs, String column, ResourceLink resourceLink) throws SQLException {
+
+		resourceLink.setRecordId(rs.getInt(column + "resource_link_pk"));
+		resourceLink.setContextId(rs.getInt(column + "context_pk"));
+		resourceLink.setConsumerId(rs.getInt(column + "consumer_pk"));
+		resourceLink.setLtiResourceLinkId(rs.getString(column + "lti_resource_link_id"));
+		Map<String, List<String>> settings = unserialize(rs.getString(column + "settings"));
+		resourceLink.setSettings(settings);
+		resourceLink.setPrimaryResourceLinkId(rs.getInt(column + "primary_resource_link_pk"));
+		resourceLink.setShareApproved(rs.getInt(column + "share_approved") != 0);
+		resourceLink.setCreated(new DateTime(rs.getTimestamp(column + "created")));
+		resourceLink.setUpdated(new DateTime(rs.getTimestamp(column + "updated")));
+		resourceLink.setSnapshot(resourceLinkSnapshot(resourceLink, null));
+
+	  }
+
 	/**
 	 * Save resource link object.
 	 *
@@ -741,20 +1157,9 @@ public class JDBC extends DataConnector {
 	  public boolean saveResourceLink(ResourceLink resourceLink) {
 
 	    boolean ok;
-	    Integer approved = null;
-	    if (resourceLink.isShareApproved() == null) {
-	    	approved = null;
-	    } else if (resourceLink.isShareApproved()) {
-	    	approved = 1;
-	    } else {
-	    	approved = 0;
-	    }
-	    int primaryResourceLinkId = 0;
-        if (resourceLink.getPrimaryResourceLinkId() != 0) {
-            primaryResourceLinkId = resourceLink.getPrimaryResourceLinkId();
-        }
         DateTime now = DateTime.now();
-        String settingsValue = serialize(resourceLink.getSettings());
+        Timestamp time = new Timestamp(now.getMillis());
+        RecordSnapshot current = resourceLinkSnapshot(resourceLink, resourceLink.getSnapshot());
         Integer consumerId = null;
         Integer contextId = null;
         if (resourceLink.getContext() != null) {
@@ -765,78 +1170,46 @@ public class JDBC extends DataConnector {
             consumerId = resourceLink.getConsumer().getRecordId();
         }
         int id = resourceLink.getRecordId();
-	    String sql;
-	    PreparedStatement stmt;
-	    try {
-			     
-		    if (id == 0) {
-		    	sql = "INSERT INTO " + this.prefix + DataConnector.RESOURCE_LINK_TABLE_NAME + " " +
-		            "(consumer_pk, context_pk, lti_resource_link_id, settings, " +
-		            "primary_resource_link_pk, share_approved, created, updated) " +
-		            "VALUES (?, ?, ?, ?, ?, ?, ?, ?)";
-		    	stmt = this.conn.prepareStatement(sql, Statement.RETURN_GENERATED_KEYS);
-		    	if (consumerId == null) {
-		    		stmt.setNull(1, java.sql.Types.INTEGER);
-		    	} else {
-		    		stmt.setInt(1, consumerId);
-		    	}
-		    	if (contextId == null) {
-		    		stmt.setNull(2, java.sql.Types.INTEGER);
-		    	} else {
-		    		stmt.setInt(2, contextId);
-		    	}
-			    stmt.setString(3, resourceLink.getLtiResourceLinkId());
-			    stmt.setString(4, settingsValue);
-			    stmt.setInt(5, primaryResourceLinkId);
-		        stmt.setInt(6, approved);
-	            stmt.setTimestamp(7, new Timestamp(now.getMillis()));
-	  	        stmt.setTimestamp(8, new Timestamp(now.getMillis()));
-		    } else if (contextId != null) {
-		    	sql = "UPDATE " + this.prefix + DataConnector.RESOURCE_LINK_TABLE_NAME + " " +
-		            "SET consumer_pk = ?, lti_resource_link_id = ?, settings = ?, " +
-		            "primary_resource_link_pk = ?, share_approved = ?, updated = ? " +
-		            "WHERE (context_pk = ?) AND (resource_link_pk = ?)";
-		    	stmt = this.conn.prepareStatement(sql);
-		    	if (consumerId == null) {
-		    		//I think this will usually be the case here if I follow the above logic
-		    		stmt.setNull(1, java.sql.Types.INTEGER);
-		    	} else {
-		    		stmt.setInt(1, consumerId);
-		    	}
-			    stmt.setString(2, resourceLink.getLtiResourceLinkId());
-			    stmt.setString(3, settingsValue);
-			    stmt.setInt(4, primaryResourceLinkId);
-		        stmt.setInt(5, approved);
-	            stmt.setTimestamp(6, new Timestamp(now.getMillis()));
-	            stmt.setInt(7, contextId);
-	            stmt.setInt(8, id);
-		    } else {
-		    	sql = "UPDATE " + this.prefix + DataConnector.RESOURCE_LINK_TABLE_NAME + " " +
-			            "SET context_pk = ?, lti_resource_link_id = ?, settings = ?, " +
-			            "primary_resource_link_pk = ?, share_approved = ?, updated = ? " +
-			            "WHERE (consumer_pk = ?) AND (resource_link_pk = ?)";
-			    stmt = this.conn.prepareStatement(sql);
-		    	stmt.setNull(1, java.sql.Types.INTEGER); //will always be null
-			    stmt.setString(2, resourceLink.getLtiResourceLinkId());
-			    stmt.setString(3, settingsValue);
-			    stmt.setInt(4, primaryResourceLinkId);
-		        stmt.setInt(5, approved);
-	            stmt.setTimestamp(6, new Timestamp(now.getMillis()));
-	            stmt.setInt(7, consumerId);
-	            stmt.setInt(8, id);
-		    }
+	    if (id != 0) {
+	    	int written;
+	    	if (contextId != null) {
+	    		written = updateChangedColumns(DataConnector.RESOURCE_LINK_TABLE_NAME, String.valueOf(id), resourceLink.getSnapshot(), current,
+	    			time, "(context_pk = ?) AND (resource_link_pk = ?)", contextId, id);
+	    	} else {
+	    		written = updateChangedColumns(DataConnector.RESOURCE_LINK_TABLE_NAME, String.valueOf(id), resourceLink.getSnapshot(), current,
+	    			time, "(consumer_pk = ?) AND (resource_link_pk = ?)", consumerId, id);
+	    	}
+	    	if (written > 0) {
+	    		resourceLink.setUpdated(now);
+	    	}
+	    	if (written >= 0) {
+	    		resourceLink.setSnapshot(current);
+	    	}
+	    	return written >= 0;
+	    }
+	    String sql = "INSERT INTO " + this.prefix + DataConnector.RESOURCE_LINK_TABLE_NAME + " " +
+	    		"(consumer_pk, context_pk, lti_resource_link_id, settings, " +
+	    		"primary_resource_link_pk, share_approved, created, updated) " +
+	    		"VALUES (?, ?, ?, ?, ?, ?, ?, ?)";
+	    Object[] params = new Object[] {consumerId, contextId, current.get("lti_resource_link_id"), current.get("settings"),
+	    	current.get("primary_resource_link_pk"), current.get("share_approved"), time, time};
+	    try (Connection conn = getConnection();
+	         PreparedStatement stmt = conn.prepareStatement(sql, Statement.RETURN_GENERATED_KEYS)) {
+	    	setParameters(stmt, params);
 	 
 	        ok = stmt.executeUpdate() == 1;
 	        if (ok) {
 	        	if (resourceLink.getCreated() == null) {
-	        		resourceLink.setCreated(DateTime.now());
-	        		ResultSet rs = stmt.getGeneratedKeys();
-            		if (rs.next()) {
-            			int last_inserted_id = rs.getInt(1);
-            			resourceLink.setRecordId(last_inserted_id);
-            		}
+	        		resourceLink.setCreated(now);
+	        		try (ResultSet rs = stmt.getGeneratedKeys()) {
+            		  if (rs.next()) {
+            			  int last_inserted_id = rs.getInt(1);
+            			  resourceLink.setRecordId(last_inserted_id);
+            		  }
+	        		}
 	        	}
-	            resourceLink.setUpdated(DateTime.now());
+	            resourceLink.setUpdated(now);
+	            resourceLink.setSnapshot(current);
 	        }
 	    } catch (SQLException e) {
 	      ok = false;
@@ -846,6 +1219,37 @@ public class JDBC extends DataConnector {
 
 	  }
 
+	/**
+	 * Get the values of the columns of a resource link which may be updated.  A resource
+	 * link belongs either to a context or directly to a tool consumer, and the other
+	 * column is cleared.
+	 */
+	  private RecordSnapshot resourceLinkSnapshot(ResourceLink resourceLink, RecordSnapshot before) {
+
+	    Integer approved = null;
+	    if (resourceLink.isShareApproved() == null) {
+	    	approved = null;
+	    } else if (resourceLink.isShareApproved()) {
+	    	approved = 1;
+	    } else {
+	    	approved = 0;
+	    }
+	    Map<String, Object> values = new LinkedHashMap<String, Object>();
+	// Test the context ID first, so a context which has not been loaded is not read
+	    if ((resourceLink.getContextId() > 0) || (resourceLink.getContext() != null)) {
+	    	values.put("consumer_pk", null);
+	    } else {
+	    	values.put("context_pk", null);
+	    }
+	    values.put("lti_resource_link_id", resourceLink.getLtiResourceLinkId());
+	    values.put("settings", settingsValue(resourceLink.getSettings(), before));
+	    values.put("primary_resource_link_pk", resourceLink.getPrimaryResourceLinkId());
+	    values.put("share_approved", approved);
+
+	    return new RecordSnapshot(values);
+
+	  }
+
 	/**
 	 * Delete resource link object.
 	 *
@@ -858,21 +1262,17 @@ public class JDBC extends DataConnector {
 
 	    boolean ok = true;
 
-	    try {
+	    try (Connection conn = getConnection()) {
 	// Delete any outstanding share keys for resource links for this consumer
 	      String sql = "DELETE FROM " + this.prefix + DataConnector.RESOURCE_LINK_SHARE_KEY_TABLE_NAME + " " +
 	                   "WHERE (resource_link_pk = ?)";
-	      PreparedStatement stmt = this.conn.prepareStatement(sql);
-	      stmt.setInt(1, resourceLink.getRecordId());
-	      stmt.executeUpdate();
+	      executeUpdate(conn, sql, resourceLink.getRecordId());
 
 	// Delete users
 	      if (ok) {
 	        sql = "DELETE FROM " + this.prefix + DataConnector.USER_RESULT_TABLE_NAME + " " +
 	               "WHERE (resource_link_pk = ?)";
-	        stmt = this.conn.prepareStatement(sql);
-	        stmt.setInt(1, resourceLink.getRecordId());
-	        stmt.executeUpdate();
+	        executeUpdate(conn, sql, resourceLink.getRecordId());
 	      }
 
 	// Update any resource links for which this is the primary resource link
@@ -880,18 +1280,14 @@ public class JDBC extends DataConnector {
 	        sql = "UPDATE " + this.prefix + DataConnector.RESOURCE_LINK_TABLE_NAME + " " +
 	               "SET primary_resource_link_pk = NULL " +
 	               "WHERE (primary_resource_link_pk = ?)";
-	        stmt = this.conn.prepareStatement(sql);
-	        stmt.setInt(1, resourceLink.getRecordId());
-	        stmt.executeUpdate();
+	        executeUpdate(conn, sql, resourceLink.getRecordId());
 	      }
 
 	// Delete resource link
 	      if (ok) {
 	        sql = "DELETE FROM " + this.prefix + DataConnector.RESOURCE_LINK_TABLE_NAME + " " +
 	        		"WHERE (resource_link_pk = ?)";
-	        stmt = this.conn.prepareStatement(sql);
-	        stmt.setInt(1, resourceLink.getRecordId());
-	        ok = stmt.executeUpdate() == 1;
+	        ok = executeUpdate(conn, sql, resourceLink.getRecordId()) == 1;
 	      }
 
 	      if (ok) {
@@ -935,20 +1331,22 @@ public class JDBC extends DataConnector {
             "WHERE ((rl.resource_link_pk = ?) AND (rl.primary_resource_link_pk IS NULL)) OR " +
             "((rl.primary_resource_link_pk = ?) AND (share_approved = 1))";
 	    }
-	    try {
-	      PreparedStatement stmt = this.conn.prepareStatement(sql);
+	    try (Connection conn = getConnection();
+	         PreparedStatement stmt = conn.prepareStatement(sql)) {
 	      stmt.setInt(1, resourceLink.getRecordId());
 	      if (!localOnly) {
 	    	  stmt.setInt(2, resourceLink.getRecordId());
 	      }
-	      ResultSet rs = stmt.executeQuery();
-	      while (rs.next()) {
-	        User user = User.fromResourceLink(resourceLink, rs.getString("lti_user_id"));
-	        user.setRecordId(rs.getInt("user_pk"));
-	        user.setLtiResultSourcedId(rs.getString("lti_result_sourcedid"));
-	        user.setCreated(new DateTime(rs.getTimestamp("created")));
-	        user.setUpdated(new DateTime(rs.getTimestamp("updated")));
-	        users.put(user.getId(scope), user);
+	      try (ResultSet rs = stmt.executeQuery()) {
+	        while (rs.next()) {
+	          User user = User.fromResourceLink(resourceLink, null);
+	          user.setLtiUserId(rs.getString("lti_user_id"));
+	          user.setRecordId(rs.getInt("user_pk"));
+	          user.setLtiResultSourcedId(rs.getString("lti_result_sourcedid"));
+	          user.setCreated(new DateTime(rs.getTimestamp("created")));
+	          user.setUpdated(new DateTime(rs.getTimestamp("updated")));
+	          users.put(user.getId(scope), user);
+	        }
 	      }
 	    } catch (SQLException e) {
 	      users.clear();
@@ -974,18 +1372,19 @@ public class JDBC extends DataConnector {
 	                 "FROM " + this.prefix + DataConnector.RESOURCE_LINK_TABLE_NAME + " " +
 	                 "WHERE (primary_resource_link_pk = ?) " +
 	                 "ORDER BY consumer_pk";
-	    try {
-	      PreparedStatement stmt = this.conn.prepareStatement(sql);
+	    try (Connection conn = getConnection();
+	         PreparedStatement stmt = conn.prepareStatement(sql)) {
 	      stmt.setInt(1, resourceLink.getRecordId());
-	      ResultSet rs = stmt.executeQuery();
-	      while (rs.next()) {
-	        ResourceLinkShare share = new ResourceLinkShare();
-	        share.setResourceLinkId(rs.getString("resource_link_pk"));
-	        share.setApproved(rs.getInt("share_approved") == 1);
-	        if (rs.wasNull()) {
-	        	share.setApproved(null);
+	      try (ResultSet rs = stmt.executeQuery()) {
+	        while (rs.next()) {
+	          ResourceLinkShare share = new ResourceLinkShare();
+	          share.setResourceLinkId(rs.getString("resource_link_pk"));
+	          share.setApproved(rs.getInt("share_approved") == 1);
+	          if (rs.wasNull()) {
+	        	  share.setApproved(null);
+	          }
+	          shares.add(share);
 	        }
-	        shares.add(share);
 	      }
 	    } catch (SQLException e) {
 	      shares.clear();
@@ -997,37 +1396,71 @@ public class JDBC extends DataConnector {
 
 
 	///
-	///  ConsumerNonce methods
+	///  PendingOutcome methods
 	///
 
 	/**
-	 * Load nonce object.
+	 * Add an outcome write to the outbox.  Any write for the same result which has not
+	 * been claimed is deleted in the same transaction, so only the latest value is sent.
 	 *
-	 * @param nonce  Nonce object
+	 * @param outcome  Pending outcome object
 	 *
-	 * @return <code>true</code> if the nonce object was successfully loaded
+	 * @return <code>true</code> if the outcome write was successfully recorded
 	 */
 	  @Override
-	  public boolean loadConsumerNonce(ConsumerNonce nonce) {
+	  public boolean enqueueOutcome(PendingOutcome outcome) {
 
 	    boolean ok;
-
-	    try {
-	// Delete any expired nonce values
-	    	DateTime now = DateTime.now();
-	    	String sql = "DELETE FROM " + this.prefix + DataConnector.NONCE_TABLE_NAME + " WHERE expires <= ?";
-	    	PreparedStatement stmt = this.conn.prepareStatement(sql);
-	    	stmt.setTimestamp(1, new Timestamp(now.getMillis()));
-	     	stmt.executeUpdate();
-	// Load the nonce
-	     	sql = "SELECT value AS T FROM " + this.prefix + DataConnector.NONCE_TABLE_NAME + " WHERE (consumer_pk = ?) AND (value = ?)";
-	     	stmt = this.conn.prepareStatement(sql);
-	     	stmt.setInt(1, nonce.getConsumer().getRecordId());
-	     	stmt.setString(2, nonce.getValue());
-	     	ResultSet rs = stmt.executeQuery();
-	     	ok = rs.next();
+	    DateTime now = DateTime.now();
+	    if (outcome.getNextAttempt() == null) {
+	      outcome.setNextAttempt(now);
+	    }
+	    if (outcome.getCreated() == null) {
+	      outcome.setCreated(now);
+	    }
+	    String deleteSql = "DELETE FROM " + this.prefix + DataConnector.OUTBOX_TABLE_NAME + " " +
+	                       "WHERE (resource_link_pk = ?) AND (sourcedid = ?) AND (locked_until <= ?)";
+	    String insertSql = "INSERT INTO " + this.prefix + DataConnector.OUTBOX_TABLE_NAME + " " +
+	                       "(consumer_pk, resource_link_pk, user_pk, sourcedid, result_value, language, result_type, " +
+	                       "status, data_source, result_date, attempts, next_attempt, locked_until, last_error, created) " +
+	                       "VALUES (?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?)";
+	    Object[] params = new Object[] {outcome.getConsumerId(), outcome.getResourceLinkId(), outcome.getUserId(),
+	                                    outcome.getSourcedId(), outcome.getValue(), outcome.getLanguage(),
+	                                    outcome.getType(), outcome.getStatus(), outcome.getDataSource(),
+	                                    toTimestamp(outcome.getDate()), outcome.getAttempts(),
+	                                    toTimestamp(outcome.getNextAttempt()), toTimestamp(now),
+	                                    outcome.getLastError(), toTimestamp(outcome.getCreated())};
+	    try (Connection conn = getConnection()) {
+	      boolean autoCommit = conn.getAutoCommit();
+	      conn.setAutoCommit(false);
+	      try {
+	        try (PreparedStatement stmt = conn.prepareStatement(deleteSql)) {
+	          stmt.setInt(1, outcome.getResourceLinkId());
+	          stmt.setString(2, outcome.getSourcedId());
+	          stmt.setTimestamp(3, toTimestamp(now));
+	          stmt.executeUpdate();
+	        }
+	        try (PreparedStatement stmt = conn.prepareStatement(insertSql, Statement.RETURN_GENERATED_KEYS)) {
+	          setParameters(stmt, params);
+	          ok = stmt.executeUpdate() == 1;
+	          if (ok) {
+	            try (ResultSet rs = stmt.getGeneratedKeys()) {
+	              if (rs.next()) {
+	                outcome.setRecordId(rs.getInt(1));
+	              }
+	            }
+	          }
+	        }
+	        conn.commit();
+	      } catch (SQLException e) {
+	        conn.rollback();
+	        throw e;
+	      } finally {
+	        conn.setAutoCommit(autoCommit);
+	      }
 	    } catch (SQLException e) {
-	    	ok = false;
+	      e.printStackTrace();
+	      ok = false;
 	    }
 
 	    return ok;
@@ -1035,25 +1468,168 @@ public class JDBC extends DataConnector {
 	  }
 
 	/**
-	 * Save nonce object.
+	 * Claim outcome writes which are due to be sent.  Each write is claimed with its own
+	 * conditional update, so a write selected by more than one worker is only claimed by one.
+	 * A write is not claimed while another write for the same result is being sent, and a
+	 * write which has been replaced by a later one for the same result is deleted instead.
+	 *
+	 * @param limit  maximum number of writes to claim
+	 * @param lease  length of the claim (in milliseconds)
+	 *
+	 * @return list of pending outcome objects claimed
+	 */
+	  @Override
+	  public List<PendingOutcome> claimOutcomes(int limit, long lease) {
+
+	    List<PendingOutcome> claimed = new ArrayList<PendingOutcome>();
+	    Timestamp now = new Timestamp(System.currentTimeMillis());
+	    Timestamp lockedUntil = new Timestamp(now.getTime() + lease);
+	    String table = this.prefix + DataConnector.OUTBOX_TABLE_NAME;
+	    String selectSql = "SELECT o.outbox_pk, o.consumer_pk, o.resource_link_pk, o.user_pk, o.sourcedid, o.result_value, " +
+	                       "o.language, o.result_type, o.status, o.data_source, o.result_date, o.attempts, o.next_attempt, " +
+	                       "o.last_error, o.created, " +
+	                       "(SELECT COUNT(*) FROM " + table + " n WHERE (n.resource_link_pk = o.resource_link_pk) AND " +
+	                       "(n.sourcedid = o.sourcedid) AND (n.outbox_pk > o.outbox_pk)) AS newer " +
+	                       "FROM " + table + " o " +
+	                       "WHERE (o.next_attempt <= ?) AND (o.locked_until <= ?) AND NOT EXISTS (" +
+	                       "SELECT l.outbox_pk FROM " + table + " l WHERE (l.resource_link_pk = o.resource_link_pk) AND " +
+	                       "(l.sourcedid = o.sourcedid) AND (l.outbox_pk <> o.outbox_pk) AND (l.locked_until > ?)) " +
+	                       "ORDER BY o.next_attempt";
+	    String claimSql = "UPDATE " + table + " " +
+	                      "SET locked_until = ? WHERE (outbox_pk = ?) AND (locked_until <= ?)";
+	    String dropSql = "DELETE FROM " + table + " WHERE (outbox_pk = ?) AND (locked_until <= ?)";
+	    try (Connection conn = getConnection()) {
+	      List<PendingOutcome> due = new ArrayList<PendingOutcome>();
+	      List<Integer> replaced = new ArrayList<Integer>();
+	      try (PreparedStatement stmt = conn.prepareStatement(selectSql)) {
+	        stmt.setMaxRows(limit);
+	        stmt.setTimestamp(1, now);
+	        stmt.setTimestamp(2, now);
+	        stmt.setTimestamp(3, now);
+	        try (ResultSet rs = stmt.executeQuery()) {
+	          while (rs.next()) {
+	            if (rs.getInt("newer") > 0) {
+	              replaced.add(rs.getInt("outbox_pk"));
+	              continue;
+	            }
+	            PendingOutcome outcome = new PendingOutcome();
+	            outcome.setRecordId(rs.getInt("outbox_pk"));
+	            outcome.setConsumerId(rs.getInt("consumer_pk"));
+	            outcome.setResourceLinkId(rs.getInt("resource_link_pk"));
+	            outcome.setUserId(rs.getInt("user_pk"));
+	            outcome.setSourcedId(rs.getString("sourcedid"));
+	            outcome.setValue(rs.getString("result_value"));
+	            outcome.setLanguage(rs.getString("language"));
+	            outcome.setType(rs.getString("result_type"));
+	            outcome.setStatus(rs.getString("status"));
+	            outcome.setDataSource(rs.getString("data_source"));
+	            Timestamp date = rs.getTimestamp("result_date");
+	            outcome.setDate((date != null) ? new DateTime(date) : null);
+	            outcome.setAttempts(rs.getInt("attempts"));
+	            outcome.setNextAttempt(new DateTime(rs.getTimestamp("next_attempt")));
+	            outcome.setLastError(rs.getString("last_error"));
+	            outcome.setCreated(new DateTime(rs.getTimestamp("created")));
+	            due.add(outcome);
+	          }
+	        }
+	      }
+	      if (!replaced.isEmpty()) {
+	        try (PreparedStatement stmt = conn.prepareStatement(dropSql)) {
+	          for (Integer id : replaced) {
+	            stmt.setInt(1, id);
+	            stmt.setTimestamp(2, now);
+	            stmt.executeUpdate();
+	          }
+	        }
+	      }
+	      try (PreparedStatement stmt = conn.prepareStatement(claimSql)) {
+	        for (PendingOutcome outcome : due) {
+	          stmt.setTimestamp(1, lockedUntil);
+	          stmt.setInt(2, outcome.getRecordId());
+	          stmt.setTimestamp(3, now);
+	          if (stmt.executeUpdate() == 1) {
+	            claimed.add(outcome);
+	          }
+	        }
+	      }
+	    } catch (SQLException e) {
+	      e.printStackTrace();
+	    }
+
+	    return claimed;
+
+	  }
+
+	/**
+	 * Remove an outcome write which has been sent, together with any earlier writes for the
+	 * same result, so they cannot be sent after it.
 	 *
-	 * @param nonce  Nonce object
+	 * @param outcome  Pending outcome object
 	 *
-	 * @return <code>true</code> if the nonce object was successfully saved
+	 * @return <code>true</code> if the outcome write was successfully removed
 	 */
 	  @Override
-	  public boolean saveConsumerNonce(ConsumerNonce nonce) {
+	  public boolean completeOutcome(PendingOutcome outcome) {
 
 	    boolean ok;
+	    String sql = "DELETE FROM " + this.prefix + DataConnector.OUTBOX_TABLE_NAME + " " +
+	                 "WHERE (resource_link_pk = ?) AND (sourcedid = ?) AND (outbox_pk <= ?)";
+	    Object[] params = new Object[] {outcome.getResourceLinkId(), outcome.getSourcedId(), outcome.getRecordId()};
+	    try (Connection conn = getConnection();
+	         PreparedStatement stmt = conn.prepareStatement(sql)) {
+	      setParameters(stmt, params);
+	      ok = stmt.executeUpdate() >= 1;
+	    } catch (SQLException e) {
+	      e.printStackTrace();
+	      ok = false;
+	    }
 
-	    String sql = "INSERT INTO " + this.prefix + DataConnector.NONCE_TABLE_NAME + " (consumer_pk, value, expires) VALUES (?, ?, ?)";
-	    try {
-	      PreparedStatement stmt = this.conn.prepareStatement(sql);
-	      stmt.setInt(1, nonce.getConsumer().getRecordId());
-	      stmt.setString(2, nonce.getValue());
-	      stmt.setTimestamp(3, new Timestamp(nonce.getExpires().getMillis()));
-	      ok = stmt.executeUpdate() == 1;
+	    return ok;
+
+	  }
+
+	/**
+	 * Release a claimed outcome write, recording its attempts, next attempt time and last error.
+	 * The write is deleted instead if a later write for the same result has been added since
+	 * it was claimed, so the earlier value cannot be sent after the later one.
+	 *
+	 * @param outcome  Pending outcome object
+	 *
+	 * @return <code>true</code> if the outcome write was successfully updated or replaced
+	 */
+	  @Override
+	  public boolean rescheduleOutcome(PendingOutcome outcome) {
+
+	    boolean ok;
+	    String table = this.prefix + DataConnector.OUTBOX_TABLE_NAME;
+	    String newerSql = "SELECT COUNT(*) FROM " + table + " " +
+	                      "WHERE (resource_link_pk = ?) AND (sourcedid = ?) AND (outbox_pk > ?)";
+	    String deleteSql = "DELETE FROM " + table + " WHERE outbox_pk = ?";
+	    String updateSql = "UPDATE " + table + " " +
+	                       "SET attempts = ?, next_attempt = ?, locked_until = ?, last_error = ? " +
+	                       "WHERE outbox_pk = ?";
+	    Object[] params = new Object[] {outcome.getAttempts(), toTimestamp(outcome.getNextAttempt()),
+	                                    new Timestamp(System.currentTimeMillis()), outcome.getLastError(),
+	                                    outcome.getRecordId()};
+	    try (Connection conn = getConnection()) {
+	      boolean replaced = false;
+	      try (PreparedStatement stmt = conn.prepareStatement(newerSql)) {
+	        setParameters(stmt, new Object[] {outcome.getResourceLinkId(), outcome.getSourcedId(), outcome.getRecordId()});
+	        try (ResultSet rs = stmt.executeQuery()) {
+	          replaced = rs.next() && (rs.getInt(1) > 0);
+	        }
+	      }
+	      if (replaced) {
+	        executeUpdate(conn, deleteSql, outcome.getRecordId());
+	        ok = true;
+	      } else {
+	        try (PreparedStatement stmt = conn.prepareStatement(updateSql)) {
+	          setParameters(stmt, params);
+	          ok = stmt.executeUpdate() == 1;
+	        }
+	      }
 	    } catch (SQLException e) {
+	      e.printStackTrace();
 	      ok = false;
 	    }
 
@@ -1078,26 +1654,29 @@ public class JDBC extends DataConnector {
 
 	    boolean ok;
 
-	    try {
+	    try (Connection conn = getConnection()) {
 	// Clear expired share keys
 	      Timestamp now = new Timestamp(System.currentTimeMillis());
 	      String sql = "DELETE FROM " + this.prefix + DataConnector.RESOURCE_LINK_SHARE_KEY_TABLE_NAME + " WHERE expires <= ?";
-	      PreparedStatement stmt = this.conn.prepareStatement(sql);
-	      stmt.setTimestamp(1, now);
-	      stmt.executeUpdate();
+	      try (PreparedStatement stmt = conn.prepareStatement(sql)) {
+	        stmt.setTimestamp(1, now);
+	        stmt.executeUpdate();
+	      }
 
 	// Load share key
 	      sql = "SELECT resource_link_pk, auto_approve, expires " +
 	            "FROM " + this.prefix + DataConnector.RESOURCE_LINK_SHARE_KEY_TABLE_NAME + " " +
 	            "WHERE share_key_id = ?";
-	      stmt = this.conn.prepareStatement(sql);
-	      stmt.setString(1, shareKey.getId());
-	      ResultSet rs = stmt.executeQuery();
-	      ok = rs.next();
-	      if (ok) {
-	        shareKey.setResourceLinkId(rs.getInt("resource_link_pk"));
-	        shareKey.setAutoApprove(rs.getInt("auto_approve") == 1);
-	        shareKey.setExpires(new DateTime(rs.getTimestamp("expires")));
+	      try (PreparedStatement stmt = conn.prepareStatement(sql)) {
+	        stmt.setString(1, shareKey.getId());
+	        try (ResultSet rs = stmt.executeQuery()) {
+	          ok = rs.next();
+	          if (ok) {
+	            shareKey.setResourceLinkId(rs.getInt("resource_link_pk"));
+	            shareKey.setAutoApprove(rs.getInt("auto_approve") == 1);
+	            shareKey.setExpires(new DateTime(rs.getTimestamp("expires")));
+	          }
+	        }
 	      }
 	    } catch (SQLException e) {
 	      ok = false;
@@ -1127,8 +1706,8 @@ public class JDBC extends DataConnector {
 	    sql = "INSERT INTO " + this.prefix + DataConnector.RESOURCE_LINK_SHARE_KEY_TABLE_NAME + " " +
 	          "(share_key_id, resource_link_pk, auto_approve, expires) " +
 	          "VALUES (?, ?, ?, ?)";
-	    try {
-	      PreparedStatement stmt = this.conn.prepareStatement(sql);
+	    try (Connection conn = getConnection();
+	         PreparedStatement stmt = conn.prepareStatement(sql)) {
 	      stmt.setString(1, shareKey.getId());
 	      stmt.setInt(2, shareKey.getResourceLinkId());
 	      stmt.setInt(3, approve);
@@ -1155,8 +1734,8 @@ public class JDBC extends DataConnector {
 	    boolean ok;
 
 	    String sql = "DELETE FROM " + this.prefix + DataConnector.RESOURCE_LINK_SHARE_KEY_TABLE_NAME + " WHERE share_key_id = ?";
-	    try {
-	      PreparedStatement stmt = this.conn.prepareStatement(sql);
+	    try (Connection conn = getConnection();
+	         PreparedStatement stmt = conn.prepareStatement(sql)) {
 	      stmt.setString(1, shareKey.getId());
 	      ok = stmt.executeUpdate() == 1;
 	      if (ok) {
@@ -1187,32 +1766,29 @@ public class JDBC extends DataConnector {
 
 	    boolean ok;
 	    String sql;
-	    PreparedStatement stmt;
-	    try {
+	    if (user.getRecordId() != 0) {
+	    	sql = "SELECT user_pk, resource_link_pk, lti_user_id, lti_result_sourcedid, created, updated " +
+	    			"FROM " + this.prefix + DataConnector.USER_RESULT_TABLE_NAME + " " +
+	    			"WHERE (user_pk = ?)";
+	    } else {
+	    	sql = "SELECT user_pk, resource_link_pk, lti_user_id, lti_result_sourcedid, created, updated " +
+	    			"FROM " + this.prefix + DataConnector.USER_RESULT_TABLE_NAME + " " +
+	    			"WHERE (resource_link_pk = ?) AND (lti_user_id = ?)";
+	    }
+	    try (Connection conn = getConnection();
+	         PreparedStatement stmt = conn.prepareStatement(sql)) {
 		    if (user.getRecordId() != 0) {
-		    	sql = "SELECT user_pk, resource_link_pk, lti_user_id, lti_result_sourcedid, created, updated " +
-		    			"FROM " + this.prefix + DataConnector.USER_RESULT_TABLE_NAME + " " +
-		                "WHERE (user_pk = ?)";
-		    	stmt = this.conn.prepareStatement(sql);
 		    	stmt.setInt(1, user.getRecordId());
 		  	} else {
-		  		sql = "SELECT user_pk, resource_link_pk, lti_user_id, lti_result_sourcedid, created, updated " +
-		  				"FROM " + this.prefix + DataConnector.USER_RESULT_TABLE_NAME + " " +
-		  				"WHERE (resource_link_pk = ?) AND (lti_user_id = ?)";
-		  		stmt = this.conn.prepareStatement(sql);
 		  		stmt.setInt(1, user.getResourceLink().getRecordId());
 		  		stmt.setString(2, user.getId(ToolProvider.ID_SCOPE_ID_ONLY));
 		  	}
 
-	        ResultSet rs = stmt.executeQuery();
-	        ok = rs.next();
-	        if (ok) {
-	        	user.setRecordId(rs.getInt("user_pk"));
-	        	user.setResourceLinkId(rs.getInt("resource_link_pk"));
-	        	user.setLtiUserId(rs.getString("lti_user_id"));
-		        user.setLtiResultSourcedId(rs.getString("lti_result_sourcedid"));
-		        user.setCreated(new DateTime(rs.getTimestamp("created")));
-		        user.setUpdated(new DateTime(rs.getTimestamp("updated")));
+	        try (ResultSet rs = stmt.executeQuery()) {
+	          ok = rs.next();
+	          if (ok) {
+	        	  readUser(rs, "", user);
+	          }
 	        }
 	    } catch (SQLException e) {
 	      ok = false;
@@ -1222,6 +1798,25 @@ public class JDBC extends DataConnector {
 
 	  }
 
+	/**
+	 * Set the properties of a user from the current row of a result set.
+	 *
+	 * @param rs      result set
+	 * @param column  prefix of the column names (empty if none)
+	 * @param user    User object
+	 */
+	  private static void readUser(ResultSet rs, String column, User user) throws SQLException {
+
+		user.setRecordId(rs.getInt(column + "user_pk"));
+		user.setResourceLinkId(rs.getInt(column + "resource_link_pk"));
+		user.setLtiUserId(rs.getString(column + "lti_user_id"));
+		user.setLtiResultSourcedId(rs.getString(column + "lti_result_sourcedid"));
+		user.setCreated(new DateTime(rs.getTimestamp(column + "created")));
+		user.setUpdated(new DateTime(rs.getTimestamp(column + "updated")));
+		user.setSnapshot(userSnapshot(user));
+
+	  }
+
 	/**
 	 * Save user object.
 	 *
@@ -1235,40 +1830,38 @@ public class JDBC extends DataConnector {
 	    boolean ok;
 
 	    Timestamp time = new Timestamp(DateTime.now().getMillis());
-	    String sql;
-	    PreparedStatement stmt;
-	    try {
-		    if (user.getCreated() == null) {
-		      sql = "INSERT INTO " + this.prefix + DataConnector.USER_RESULT_TABLE_NAME + " (resource_link_pk, " +
-		            "lti_user_id, lti_result_sourcedid, created, updated) " +
-		            "VALUES (?, ?, ?, ?, ?)";
-		      stmt = this.conn.prepareStatement(sql, Statement.RETURN_GENERATED_KEYS);
-		      stmt.setInt(1, user.getResourceLink().getRecordId());
-		      stmt.setString(2, user.getId(ToolProvider.ID_SCOPE_ID_ONLY));
-		      stmt.setString(3, user.getLtiResultSourcedId());
-		      stmt.setTimestamp(4, time);
-		      stmt.setTimestamp(5, time);
-		    } else {
-		      sql = "UPDATE " + this.prefix + DataConnector.USER_RESULT_TABLE_NAME + " " +
-		             "SET lti_result_sourcedid = ?, updated = ? " +
-		             "WHERE user_pk = ?";
-		      stmt = this.conn.prepareStatement(sql);
-		      stmt.setString(1, user.getLtiResultSourcedId());
-		      stmt.setTimestamp(2, time);
-		      stmt.setInt(3, user.getRecordId());
-		    }
+	    RecordSnapshot current = userSnapshot(user);
+	    if (user.getCreated() != null) {
+	      int written = updateChangedColumns(DataConnector.USER_RESULT_TABLE_NAME, String.valueOf(user.getRecordId()), user.getSnapshot(), current,
+	    	  time, "user_pk = ?", user.getRecordId());
+	      if (written > 0) {
+	        user.setUpdated(DateTime.now());
+	      }
+	      if (written >= 0) {
+	        user.setSnapshot(current);
+	      }
+	      return written >= 0;
+	    }
+	    String sql = "INSERT INTO " + this.prefix + DataConnector.USER_RESULT_TABLE_NAME + " (resource_link_pk, " +
+	            "lti_user_id, lti_result_sourcedid, created, updated) " +
+	            "VALUES (?, ?, ?, ?, ?)";
+	    Object[] params = new Object[] {user.getResourceLink().getRecordId(), user.getId(ToolProvider.ID_SCOPE_ID_ONLY),
+	    	user.getLtiResultSourcedId(), time, time};
+	    try (Connection conn = getConnection();
+	         PreparedStatement stmt = conn.prepareStatement(sql, Statement.RETURN_GENERATED_KEYS)) {
+		    setParameters(stmt, params);
 	      
 		    ok = stmt.executeUpdate() == 1;
 		    if (ok) {
-		    	if (user.getCreated() == null) {
-		    		user.setCreated(DateTime.now());
-		    		ResultSet rs = stmt.getGeneratedKeys();
-            		if (rs.next()) {
-            			int last_inserted_id = rs.getInt(1);
-            			user.setRecordId(last_inserted_id);
-            		}
+		    	user.setCreated(DateTime.now());
+		    	try (ResultSet rs = stmt.getGeneratedKeys()) {
+            	  if (rs.next()) {
+            		  int last_inserted_id = rs.getInt(1);
+            		  user.setRecordId(last_inserted_id);
+            	  }
 		    	}
 		        user.setUpdated(DateTime.now());
+		        user.setSnapshot(current);
 		    }
 	    } catch (SQLException e) {
 	      ok = false;
@@ -1278,6 +1871,18 @@ public class JDBC extends DataConnector {
 
 	  }
 
+	/**
+	 * Get the values of the columns of a user which may be updated.
+	 */
+	  private static RecordSnapshot userSnapshot(User user) {
+
+	    Map<String, Object> values = new LinkedHashMap<String, Object>();
+	    values.put("lti_result_sourcedid", user.getLtiResultSourcedId());
+
+	    return new RecordSnapshot(values);
+
+	  }
+
 	/**
 	 * Delete user object.
 	 *
@@ -1292,10 +1897,8 @@ public class JDBC extends DataConnector {
 
 	    String sql = "DELETE FROM " + this.prefix + DataConnector.USER_RESULT_TABLE_NAME + " " +
 	                 "WHERE (user_pk = ?)";
-	    try {
-	      PreparedStatement stmt = this.conn.prepareStatement(sql);
-	      stmt.setInt(1, user.getRecordId());
-	      ok = stmt.executeUpdate() == 1;
+	    try (Connection conn = getConnection()) {
+	      ok = executeUpdate(conn, sql, user.getRecordId()) == 1;
 
 	      if (ok) {
 	        user.initialise();
@@ -1308,31 +1911,315 @@ public class JDBC extends DataConnector {
 	    return ok;
 
 	  }
+
+	/**
+	 * Synchronise the stored users of a resource link with its current members.  The stored
+	 * users are read with one query and the changes are written in a single transaction:
+	 * new users as one insert batch, changed result sourcedIds as one update batch and
+	 * users no longer in the roster with a delete on their keys.
+	 *
+	 * @param resourceLink  ResourceLink object
+	 * @param members       User objects for the current members
+	 *
+	 * @return summary of the changes made
+	 */
+	  @Override
+	  public RosterSyncResult syncRoster(ResourceLink resourceLink, Collection<User> members) {
+
+	    Map<String, User> users = new LinkedHashMap<String, User>();
+	    Map<String, String> sourcedIds = new LinkedHashMap<String, String>();
+	    for (User user : members) {
+	      String id = user.getId(ToolProvider.ID_SCOPE_ID_ONLY);
+	      if (!users.containsKey(id)) {
+	        users.put(id, user);
+	        sourcedIds.put(id, user.getLtiResultSourcedId());
+	      }
+	    }
+
+	    return syncRoster(resourceLink, sourcedIds, users);
+
+	  }
+
+	/**
+	 * Synchronise the stored users of a resource link with its current members, given as
+	 * their user IDs and result sourcedIds.  User objects are only created for the stored
+	 * users which are added.
+	 *
+	 * @param resourceLink  ResourceLink object
+	 * @param members       result sourcedId of each current member (null if none), keyed by user ID
+	 *
+	 * @return summary of the changes made
+	 */
+	  @Override
+	  public RosterSyncResult syncRoster(ResourceLink resourceLink, Map<String, String> members) {
+
+	    return syncRoster(resourceLink, members, null);
+
+	  }
+
+	  private RosterSyncResult syncRoster(ResourceLink resourceLink, Map<String, String> members, Map<String, User> users) {
+
+	    RosterSyncResult result = new RosterSyncResult();
+	    int resourceLinkId = resourceLink.getRecordId();
+	    String selectSql = "SELECT user_pk, lti_user_id, lti_result_sourcedid, created, updated " +
+	                       "FROM " + this.prefix + DataConnector.USER_RESULT_TABLE_NAME + " " +
+	                       "WHERE (resource_link_pk = ?)";
+	    String insertSql = "INSERT INTO " + this.prefix + DataConnector.USER_RESULT_TABLE_NAME + " (resource_link_pk, " +
+	                       "lti_user_id, lti_result_sourcedid, created, updated) " +
+	                       "VALUES (?, ?, ?, ?, ?)";
+	    String updateSql = "UPDATE " + this.prefix + DataConnector.USER_RESULT_TABLE_NAME + " " +
+	                       "SET lti_result_sourcedid = ?, updated = ? " +
+	                       "WHERE user_pk = ?";
+	    DateTime now = DateTime.now();
+	    Timestamp time = toTimestamp(now);
+	    try (Connection conn = getConnection()) {
+	      Map<String, User> stored = new HashMap<String, User>();
+	      try (PreparedStatement stmt = conn.prepareStatement(selectSql)) {
+	        stmt.setInt(1, resourceLinkId);
+	        try (ResultSet rs = stmt.executeQuery()) {
+	          while (rs.next()) {
+	            User user = User.fromResourceLink(resourceLink, null);
+	            user.setLtiUserId(rs.getString("lti_user_id"));
+	            user.setRecordId(rs.getInt("user_pk"));
+	            user.setLtiResultSourcedId(rs.getString("lti_result_sourcedid"));
+	            user.setCreated(new DateTime(rs.getTimestamp("created")));
+	            user.setUpdated(new DateTime(rs.getTimestamp("updated")));
+	            stored.put(user.getLtiUserId(), user);
+	          }
+	        }
+	      }
+	      List<User> added = new ArrayList<User>();
+	      List<User> updated = new ArrayList<User>();
+	      for (Map.Entry<String, String> member : members.entrySet()) {
+	        String id = member.getKey();
+	        String sourcedId = member.getValue();
+	        User old = stored.remove(id);
+	        User user = (users != null) ? users.get(id) : null;
+	        if ((user != null) && (old != null)) {
+	          user.setRecordId(old.getRecordId());
+	          user.setCreated(old.getCreated());
+	          user.setUpdated(old.getUpdated());
+	        }
+	        if (old == null) {
+	          if (sourcedId != null) {
+	            if (user == null) {
+	              user = User.fromResourceLink(resourceLink, null);
+	              user.setLtiUserId(id);
+	              user.setLtiResultSourcedId(sourcedId);
+	            }
+	            added.add(user);
+	          }
+	        } else if ((sourcedId == null) || sourcedId.equals(old.getLtiResultSourcedId())) {
+	          result.incUnchanged();
+	        } else {
+	          if (user == null) {
+	            user = old;
+	            user.setLtiResultSourcedId(sourcedId);
+	          }
+	          updated.add(user);
+	        }
+	      }
+	      List<User> removed = new ArrayList<User>(stored.values());
+	      if (added.isEmpty() && updated.isEmpty() && removed.isEmpty()) {
+	        return result;
+	      }
+	      boolean autoCommit = conn.getAutoCommit();
+	      conn.setAutoCommit(false);
+	      try {
+	        if (!added.isEmpty()) {
+	          try (PreparedStatement stmt = conn.prepareStatement(insertSql, Statement.RETURN_GENERATED_KEYS)) {
+	            for (User user : added) {
+	              setParameters(stmt, new Object[] {resourceLinkId, user.getId(ToolProvider.ID_SCOPE_ID_ONLY),
+	                                                user.getLtiResultSourcedId(), time, time});
+	              stmt.addBatch();
+	            }
+	            stmt.executeBatch();
+	// Not all drivers return the keys generated by a batch
+	            try (ResultSet rs = stmt.getGeneratedKeys()) {
+	              for (User user : added) {
+	                if ((rs == null) || !rs.next()) {
+	                  break;
+	                }
+	                user.setRecordId(rs.getInt(1));
+	              }
+	            }
+	          }
+	        }
+	        if (!updated.isEmpty()) {
+	          try (PreparedStatement stmt = conn.prepareStatement(updateSql)) {
+	            for (User user : updated) {
+	              setParameters(stmt, new Object[] {user.getLtiResultSourcedId(), time, user.getRecordId()});
+	              stmt.addBatch();
+	            }
+	            stmt.executeBatch();
+	          }
+	        }
+	        for (int i = 0; i < removed.size(); i += MAX_IN_LIST) {
+	          List<User> chunk = removed.subList(i, Math.min(removed.size(), i + MAX_IN_LIST));
+	          String deleteSql = "DELETE FROM " + this.prefix + DataConnector.USER_RESULT_TABLE_NAME + " " +
+	                             "WHERE (resource_link_pk = ?) AND user_pk IN (" +
+	                             StringUtils.repeat("?", ", ", chunk.size()) + ")";
+	          try (PreparedStatement stmt = conn.prepareStatement(deleteSql)) {
+	            stmt.setInt(1, resourceLinkId);
+	            for (int j = 0; j < chunk.size(); j++) {
+	              stmt.setInt(j + 2, chunk.get(j).getRecordId());
+	            }
+	            stmt.executeUpdate();
+	          }
+	        }
+	        conn.commit();
+	      } catch (SQLException e) {
+	        conn.rollback();
+	        throw e;
+	      } finally {
+	        conn.setAutoCommit(autoCommit);
+	      }
+	      for (User user : added) {
+	        user.setCreated(now);
+	        user.setUpdated(now);
+	      }
+	      for (User user : updated) {
+	        user.setUpdated(now);
+	      }
+	      for (User user : removed) {
+	        user.initialise();
+	      }
+	      result.getAdded().addAll(added);
+	      result.getUpdated().addAll(updated);
+	      result.getRemoved().addAll(removed);
+	    } catch (SQLException e) {
+	      e.printStackTrace();
+	      result.setOk(false);
+	    }
+
+	    return result;
+
+	  }
+
+	/**
+	 * Load the tool consumer, context, resource link and user of a launch request with a
+	 * single query, joining the context, resource link and user records to the tool consumer
+	 * record.  If the tool consumer is in the cache it is not read again, and its record ID
+	 * is used to select the row.
+	 *
+	 * @param consumerKey        consumer key
+	 * @param ltiContextId       LTI context ID (null if none)
+	 * @param ltiResourceLinkId  LTI resource link ID (null if none)
+	 * @param ltiUserId          LTI user ID (null if none)
+	 *
+	 * @return objects for the launch request
+	 */
+	  @Override
+	  public LaunchEntities resolveLaunch(String consumerKey, String ltiContextId, String ltiResourceLinkId, String ltiUserId) {
+
+	    ToolConsumer consumer = new ToolConsumer(null, this);
+	    consumer.setKey(consumerKey);
+	    LaunchEntities launch = LaunchEntities.create(consumer, ltiContextId, ltiResourceLinkId, ltiUserId);
+	    Context context = launch.getContext();
+	    ResourceLink resourceLink = launch.getResourceLink();
+	    User user = launch.getUser();
+	    String key256 = DataConnector.getConsumerKey(consumerKey);
+	    long generation = (this.consumerCache != null) ? this.consumerCache.getGeneration() : -1L;
+	    boolean cached = (this.consumerCache != null) && this.consumerCache.load(key256, consumer);
+	    String contextTable = this.prefix + DataConnector.CONTEXT_TABLE_NAME;
+	// A cached consumer only needs its key, not its profile, tool proxy and settings
+	    String consumerColumns = cached ? selectColumns("c", "consumer_pk") :
+	    		selectColumns("c", "consumer_pk", "name", "consumer_key256", "consumer_key", "secret", "lti_version",
+	    				"consumer_name", "consumer_version", "consumer_guid", "profile", "tool_proxy", "settings",
+	    				"protected", "enabled", "enable_from", "enable_until", "last_access", "created", "updated");
+	    String sql = "SELECT " + consumerColumns + ", " +
+	    		selectColumns("x", "context_pk", "consumer_pk", "lti_context_id", "settings", "created", "updated") + ", " +
+	    		selectColumns("r", "resource_link_pk", "context_pk", "consumer_pk", "lti_resource_link_id", "settings",
+	    				"primary_resource_link_pk", "share_approved", "created", "updated") + ", " +
+	    		selectColumns("u", "user_pk", "resource_link_pk", "lti_user_id", "lti_result_sourcedid", "created", "updated") + " " +
+	    		"FROM " + this.prefix + DataConnector.CONSUMER_TABLE_NAME + " c " +
+	    		"LEFT OUTER JOIN " + contextTable + " x ON (x.consumer_pk = c.consumer_pk) AND (x.lti_context_id = ?) " +
+	    		"LEFT OUTER JOIN " + this.prefix + DataConnector.RESOURCE_LINK_TABLE_NAME + " r ON (r.lti_resource_link_id = ?) " +
+	    		"AND ((r.consumer_pk = c.consumer_pk) OR (r.context_pk IN (SELECT rc.context_pk FROM " + contextTable + " rc " +
+	    		"WHERE rc.consumer_pk = c.consumer_pk))) " +
+	    		"LEFT OUTER JOIN " + this.prefix + DataConnector.USER_RESULT_TABLE_NAME + " u " +
+	    		"ON (u.resource_link_pk = r.resource_link_pk) AND (u.lti_user_id = ?) " +
+	    		(cached ? "WHERE (c.consumer_pk = ?)" : "WHERE (c.consumer_key256 = ?)");
+	    boolean ok = cached;
+	    try (Connection conn = getConnection();
+	         PreparedStatement stmt = conn.prepareStatement(sql)) {
+	      stmt.setString(1, (context != null) ? ltiContextId : null);
+	      stmt.setString(2, (resourceLink != null) ? ltiResourceLinkId : null);
+	      stmt.setString(3, ((user != null) && StringUtils.isNotEmpty(ltiUserId)) ? ltiUserId : null);
+	      if (cached) {
+	        stmt.setInt(4, consumer.getRecordId());
+	      } else {
+	        stmt.setString(4, key256);
+	      }
+	      try (ResultSet rs = stmt.executeQuery()) {
+	        if (rs.next()) {
+	    	  if (!cached) {
+	    	    String storedKey = rs.getString("c_consumer_key");
+	    	    ok = StringUtils.isEmpty(storedKey) || consumerKey.equals(storedKey);
+	    	    if (ok) {
+	    		  readToolConsumer(rs, "c_", consumer);
+	    	    }
+	    	  }
+	    	  if (ok) {
+	    	    if ((context != null) && (rs.getInt("x_context_pk") != 0)) {
+	    		  readContext(rs, "x_", context);
+	    	    }
+	    	    if ((resourceLink != null) && (rs.getInt("r_resource_link_pk") != 0)) {
+	    		  readResourceLink(rs, "r_", resourceLink);
+	// Use the context read from the same row rather than loading it again
+	    		  if ((context != null) && (context.getRecordId() != 0) &&
+	    		      (resourceLink.getContextId() == context.getRecordId())) {
+	    		    resourceLink.setContext(context);
+	    		  }
+	    		  user.setResourceLinkId(resourceLink.getRecordId());
+	    		  if (rs.getInt("u_user_pk") != 0) {
+	    		    readUser(rs, "u_", user);
+	    		  }
+	    	    }
+	    	  }
+	        }
+	      }
+	    } catch (SQLException e) {
+	      e.printStackTrace();
+	      ok = cached;
+	    }
+	    if (ok && !cached && (this.consumerCache != null)) {
+	    	this.consumerCache.put(DataConnector.getConsumerKey(consumer.getKey()), consumer, generation);
+	    } else if (!ok) {
+	    	consumer.setEnabled(false);
+	    }
+
+	    return launch;
+
+	  }
+
+	/**
+	 * Get a select list of columns from an aliased table, each named with the alias as a prefix
+	 * (for example, "c.name AS c_name").
+	 */
+	  private static String selectColumns(String alias, String... columns) {
+
+		StringBuilder sb = new StringBuilder();
+		for (String column : columns) {
+		  if (sb.length() > 0) {
+			sb.append(", ");
+		  }
+		  sb.append(alias).append('.').append(column).append(" AS ").append(alias).append('_').append(column);
+		}
+
+		return sb.toString();
+
+	  }
 	  
 	  private Map<String, List<String>> unserialize(String settingsValue) {
-		  Map<String, String> settings = new HashMap<String, String>();
-		  Gson gson = new Gson();
-		  if ((settingsValue != null) && (settingsValue.length() > 0)) {
-			  try {
-				  settings = gson.fromJson(settingsValue, new TypeToken<Map<String, String>>() {}.getType());
-			  } catch (JsonSyntaxException e) {
-				  e.printStackTrace();
-			  }
-		  }
-		  Map<String, List<String>> s2 = new HashMap<String, List<String>>();
-		  for (String k : settings.keySet()) {
-			  LTIUtil.setParameter(s2, k, settings.get(k));
-		  }
-		  return s2;
+		  return new LazySettings(settingsValue, this.settingsCodec);
 	  }
 	  
 	  private String serialize(Map<String, List<String>> settings) {
-		  Gson gson = new Gson();
-		  String settingsValue = null;
-		  if (settings.size() > 0) {
-		      settingsValue = gson.toJson(settings);
+		  if (settings instanceof LazySettings) {
+			  return ((LazySettings)settings).encode(this.settingsCodec);
 		  }
-		  return settingsValue;
+		  return this.settingsCodec.encode(settings);
 	  }
 
 
@@ -0,0 +1,156 @@
+package org.imsglobal.lti.toolProvider.dataConnector;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.SQLIntegrityConstraintViolationException;
+import java.sql.Timestamp;
+import java.util.concurrent.ScheduledFuture;
+
+/**
+ * Nonce store which holds values in the nonce table of a JDBC data connector, for use
+ * when launches are balanced across several servers.
+ *
+ * Expired values are excluded from lookups and deleted by the background sweeper, not
+ * as part of each check.
+ *
+ * @author  David Block (dave@northcreek.ca)
+ */
+public class JDBCNonceStore implements NonceStore {
+
+	    private final JDBC connector;
+	    private final ScheduledFuture<?> sweeper;
+
+	/**
+	 * Class constructor.
+	 *
+	 * @param connector  JDBC data connector providing the database connections and table name prefix
+	 */
+	    public JDBCNonceStore(JDBC connector) {
+	    	this.connector = connector;
+	    	this.sweeper = NonceSweeper.schedule(this);
+	    }
+
+	    @Override
+	    public boolean contains(int consumerId, String value) {
+
+	    	boolean ok;
+
+	    	String sql = "SELECT value AS T FROM " + getTableName() + " WHERE (consumer_pk = ?) AND (value = ?) AND (expires > ?)";
+	    	try (Connection conn = connector.getConnection();
+	    	     PreparedStatement stmt = conn.prepareStatement(sql)) {
+	    		stmt.setInt(1, consumerId);
+	    		stmt.setString(2, value);
+	    		stmt.setTimestamp(3, new Timestamp(System.currentTimeMillis()));
+	    		try (ResultSet rs = stmt.executeQuery()) {
+	    			ok = rs.next();
+	    		}
+	    	} catch (SQLException e) {
+	    		ok = false;
+	    	}
+
+	    	return ok;
+
+	    }
+
+	    @Override
+	    public boolean record(int consumerId, String value, long expires) {
+
+	    	boolean ok;
+
+	    	String sql = "INSERT INTO " + getTableName() + " (consumer_pk, value, expires) VALUES (?, ?, ?)";
+	    	try (Connection conn = connector.getConnection();
+	    	     PreparedStatement stmt = conn.prepareStatement(sql)) {
+	    		stmt.setInt(1, consumerId);
+	    		stmt.setString(2, value);
+	    		stmt.setTimestamp(3, new Timestamp(expires));
+	    		ok = stmt.executeUpdate() == 1;
+	    	} catch (SQLException e) {
+	    		ok = false;
+	    	}
+
+	    	return ok;
+
+	    }
+
+	/**
+	 * Record a nonce value with a single INSERT, relying on the primary key of the nonce table
+	 * (consumer_pk, value) to reject a value which has already been used.  A duplicate which has
+	 * expired but not yet been purged is claimed with a further UPDATE.
+	 */
+	    @Override
+	    public boolean checkAndRecord(int consumerId, String value, long expires) {
+
+	    	boolean ok;
+
+	    	String sql = "INSERT INTO " + getTableName() + " (consumer_pk, value, expires) VALUES (?, ?, ?)";
+	    	try (Connection conn = connector.getConnection()) {
+	    		try (PreparedStatement stmt = conn.prepareStatement(sql)) {
+	    			stmt.setInt(1, consumerId);
+	    			stmt.setString(2, value);
+	    			stmt.setTimestamp(3, new Timestamp(expires));
+	    			ok = stmt.executeUpdate() == 1;
+	    		} catch (SQLException e) {
+	    			if (!isDuplicateKey(e)) {
+	    				throw e;
+	    			}
+	    			sql = "UPDATE " + getTableName() + " SET expires = ? WHERE (consumer_pk = ?) AND (value = ?) AND (expires <= ?)";
+	    			try (PreparedStatement stmt = conn.prepareStatement(sql)) {
+	    				stmt.setTimestamp(1, new Timestamp(expires));
+	    				stmt.setInt(2, consumerId);
+	    				stmt.setString(3, value);
+	    				stmt.setTimestamp(4, new Timestamp(System.currentTimeMillis()));
+	    				ok = stmt.executeUpdate() == 1;
+	    			}
+	    		}
+	    	} catch (SQLException e) {
+	    		ok = false;
+	    	}
+
+	    	return ok;
+
+	    }
+
+	    @Override
+	    public int purgeExpired(long now) {
+
+	    	int removed;
+
+	    	String sql = "DELETE FROM " + getTableName() + " WHERE expires <= ?";
+	    	try (Connection conn = connector.getConnection();
+	    	     PreparedStatement stmt = conn.prepareStatement(sql)) {
+	    		stmt.setTimestamp(1, new Timestamp(now));
+	    		removed = stmt.executeUpdate();
+	    	} catch (SQLException e) {
+	    		e.printStackTrace();
+	    		removed = 0;
+	    	}
+
+	    	return removed;
+
+	    }
+
+	/**
+	 * Stop the background sweeper.
+	 */
+	    public void close() {
+
+	    	sweeper.cancel(false);
+
+	    }
+
+	    private static boolean isDuplicateKey(SQLException e) {
+
+	    	return (e instanceof SQLIntegrityConstraintViolationException) ||
+	    		((e.getSQLState() != null) && e.getSQLState().startsWith("23"));
+
+	    }
+
+	    private String getTableName() {
+
+	    	return connector.getDbTableNamePrefix() + DataConnector.NONCE_TABLE_NAME;
+
+	    }
+
+}
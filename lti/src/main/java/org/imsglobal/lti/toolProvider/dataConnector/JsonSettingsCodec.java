@@ -0,0 +1,84 @@
+package org.imsglobal.lti.toolProvider.dataConnector;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import com.google.gson.Gson;
+import com.google.gson.JsonElement;
+import com.google.gson.JsonObject;
+import com.google.gson.JsonParseException;
+import com.google.gson.JsonParser;
+
+/**
+ * Codec storing settings as a JSON object, with each setting an array of string values.
+ *
+ * This is the original format of the settings column, and the default.  Values stored
+ * as a single string (rather than an array) are also read.  Values in the binary format
+ * are passed to BinarySettingsCodec.
+ *
+ * @author  David Block (dave@northcreek.ca)
+ */
+public final class JsonSettingsCodec implements SettingsCodec {
+
+	/**
+	 * Shared instance.
+	 */
+	    public static final JsonSettingsCodec INSTANCE = new JsonSettingsCodec();
+
+	// Gson and JsonParser are thread-safe, so are created once
+	    private static final Gson GSON = new Gson();
+	    private static final JsonParser PARSER = new JsonParser();
+
+	    private JsonSettingsCodec() {
+	    }
+
+	    @Override
+	    public String encode(Map<String, List<String>> settings) {
+
+	    	if ((settings == null) || settings.isEmpty()) {
+	    		return null;
+	    	}
+
+	    	return GSON.toJson(settings);
+
+	    }
+
+	    @Override
+	    public Map<String, List<String>> decode(String value) {
+
+	    	if (BinarySettingsCodec.isBinary(value)) {
+	    		return BinarySettingsCodec.INSTANCE.decode(value);
+	    	}
+	    	Map<String, List<String>> settings = new HashMap<String, List<String>>();
+	    	if ((value == null) || value.isEmpty()) {
+	    		return settings;
+	    	}
+	    	try {
+	    		JsonElement json = PARSER.parse(value);
+	    		if (!json.isJsonObject()) {
+	    			return settings;
+	    		}
+	    		for (Map.Entry<String, JsonElement> entry : ((JsonObject)json).entrySet()) {
+	    			List<String> values = new ArrayList<String>();
+	    			JsonElement element = entry.getValue();
+	    			if (element.isJsonArray()) {
+	    				for (JsonElement item : element.getAsJsonArray()) {
+	    					values.add(item.isJsonNull() ? null : item.getAsString());
+	    				}
+	    			} else if (!element.isJsonNull()) {
+	    				values.add(element.getAsString());
+	    			}
+	    			settings.put(entry.getKey(), values);
+	    		}
+	    	} catch (JsonParseException | IllegalStateException | UnsupportedOperationException e) {
+	    		e.printStackTrace();
+	    		settings.clear();
+	    	}
+
+	    	return settings;
+
+	    }
+
+}
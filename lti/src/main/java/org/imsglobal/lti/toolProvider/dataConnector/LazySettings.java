@@ -0,0 +1,168 @@
+package org.imsglobal.lti.toolProvider.dataConnector;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Map of settings loaded from the settings column, which is only decoded when it is
+ * first used.
+ *
+ * Most requests never read the settings of every object loaded, so the stored value is
+ * kept as it is until a method of the map is called.  If the map is saved without having
+ * been used, the stored value is written back unchanged rather than being decoded and
+ * encoded again.  Like HashMap, the map is not thread-safe.
+ *
+ * @author  David Block (dave@northcreek.ca)
+ */
+public class LazySettings implements Map<String, List<String>> {
+
+	    private final String encoded;
+	    private final SettingsCodec codec;
+	    private Map<String, List<String>> settings = null;
+
+	/**
+	 * Class constructor.
+	 *
+	 * @param encoded  stored value (null or empty for no settings)
+	 * @param codec    codec used to decode the value
+	 */
+	    public LazySettings(String encoded, SettingsCodec codec) {
+	    	this.encoded = encoded;
+	    	this.codec = codec;
+	    }
+
+	/**
+	 * Check whether the stored value has been decoded.
+	 *
+	 * @return <code>true</code> if the map has been used
+	 */
+	    public boolean isDecoded() {
+	    	return settings != null;
+	    }
+
+	/**
+	 * Get the value to store for the settings.
+	 *
+	 * @param codec  codec to use if the map has been used
+	 *
+	 * @return encoded value, null if there are no settings
+	 */
+	    public String encode(SettingsCodec codec) {
+
+	    	if (settings == null) {
+	    		return ((encoded != null) && !encoded.isEmpty()) ? encoded : null;
+	    	}
+
+	    	return codec.encode(settings);
+
+	    }
+
+	/**
+	 * Copy the settings, without decoding them if they have not been used.
+	 *
+	 * @return copy of the settings
+	 */
+	    public Map<String, List<String>> copy() {
+
+	    	if (settings == null) {
+	    		return new LazySettings(encoded, codec);
+	    	}
+	    	Map<String, List<String>> copy = new HashMap<String, List<String>>();
+	    	for (Map.Entry<String, List<String>> entry : settings.entrySet()) {
+	    		copy.put(entry.getKey(), (entry.getValue() != null) ? new ArrayList<String>(entry.getValue()) : null);
+	    	}
+
+	    	return copy;
+
+	    }
+
+	    private Map<String, List<String>> settings() {
+
+	    	if (settings == null) {
+	    		settings = codec.decode(encoded);
+	    	}
+
+	    	return settings;
+
+	    }
+
+	    @Override
+	    public int size() {
+	    	return settings().size();
+	    }
+
+	    @Override
+	    public boolean isEmpty() {
+	    	return settings().isEmpty();
+	    }
+
+	    @Override
+	    public boolean containsKey(Object key) {
+	    	return settings().containsKey(key);
+	    }
+
+	    @Override
+	    public boolean containsValue(Object value) {
+	    	return settings().containsValue(value);
+	    }
+
+	    @Override
+	    public List<String> get(Object key) {
+	    	return settings().get(key);
+	    }
+
+	    @Override
+	    public List<String> put(String key, List<String> value) {
+	    	return settings().put(key, value);
+	    }
+
+	    @Override
+	    public List<String> remove(Object key) {
+	    	return settings().remove(key);
+	    }
+
+	    @Override
+	    public void putAll(Map<? extends String, ? extends List<String>> m) {
+	    	settings().putAll(m);
+	    }
+
+	    @Override
+	    public void clear() {
+	    	settings = new HashMap<String, List<String>>();
+	    }
+
+	    @Override
+	    public Set<String> keySet() {
+	    	return settings().keySet();
+	    }
+
+	    @Override
+	    public Collection<List<String>> values() {
+	    	return settings().values();
+	    }
+
+	    @Override
+	    public Set<Map.Entry<String, List<String>>> entrySet() {
+	    	return settings().entrySet();
+	    }
+
+	    @Override
+	    public boolean equals(Object o) {
+	    	return settings().equals(o);
+	    }
+
+	    @Override
+	    public int hashCode() {
+	    	return settings().hashCode();
+	    }
+
+	    @Override
+	    public String toString() {
+	    	return settings().toString();
+	    }
+
+}
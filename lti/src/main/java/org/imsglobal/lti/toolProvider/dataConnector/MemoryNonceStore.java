@@ -0,0 +1,220 @@
+package org.imsglobal.lti.toolProvider.dataConnector;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ScheduledFuture;
+
+import org.imsglobal.lti.toolProvider.ConsumerNonce;
+
+/**
+ * Nonce store which holds values in memory.
+ *
+ * Values are spread over a number of independently locked stripes so that concurrent
+ * launches rarely contend.  Within each stripe values are also grouped into one-minute
+ * buckets by expiry time; the ring of buckets covers ConsumerNonce.MAX_NONCE_AGE (longer
+ * expiry times are capped at that age), so purging expired values only visits the buckets
+ * which have passed rather than every value held.  Purging is carried out by a background
+ * sweeper.
+ *
+ * Values are only visible within a single JVM; a shared store (such as JDBCNonceStore)
+ * should be used when requests are balanced across several servers.
+ *
+ * @author  David Block (dave@northcreek.ca)
+ */
+public class MemoryNonceStore implements NonceStore {
+
+	/**
+	 * Default number of lock stripes.
+	 */
+	    public static final int DEFAULT_STRIPES = 16;
+
+	    private static final long BUCKET_WIDTH = 60 * 1000L;  // in milliseconds (1 minute)
+	    private static final long MAX_AGE = ConsumerNonce.MAX_NONCE_AGE * BUCKET_WIDTH;
+
+	    private final Stripe[] stripes;
+	    private final ScheduledFuture<?> sweeper;
+
+	/**
+	 * Class constructor using the default number of stripes.
+	 */
+	    public MemoryNonceStore() {
+	    	this(DEFAULT_STRIPES);
+	    }
+
+	/**
+	 * Class constructor.
+	 *
+	 * @param stripes  number of lock stripes
+	 */
+	    public MemoryNonceStore(int stripes) {
+	    	int buckets = ConsumerNonce.MAX_NONCE_AGE + 2;
+	    	this.stripes = new Stripe[Math.max(1, stripes)];
+	    	for (int i = 0; i < this.stripes.length; i++) {
+	    		this.stripes[i] = new Stripe(buckets);
+	    	}
+	    	this.sweeper = NonceSweeper.schedule(this);
+	    }
+
+	    @Override
+	    public boolean contains(int consumerId, String value) {
+
+	    	String key = getKey(consumerId, value);
+	    	Stripe stripe = getStripe(key);
+	    	long now = System.currentTimeMillis();
+	    	synchronized (stripe) {
+	    		Long expires = stripe.expiries.get(key);
+	    		return (expires != null) && (expires.longValue() > now);
+	    	}
+
+	    }
+
+	    @Override
+	    public boolean record(int consumerId, String value, long expires) {
+
+	    	String key = getKey(consumerId, value);
+	    	Stripe stripe = getStripe(key);
+	    	long now = System.currentTimeMillis();
+	    	synchronized (stripe) {
+	    		stripe.add(key, Math.min(expires, now + MAX_AGE));
+	    	}
+
+	    	return true;
+
+	    }
+
+	    @Override
+	    public boolean checkAndRecord(int consumerId, String value, long expires) {
+
+	    	String key = getKey(consumerId, value);
+	    	Stripe stripe = getStripe(key);
+	    	long now = System.currentTimeMillis();
+	    	synchronized (stripe) {
+	    		Long existing = stripe.expiries.get(key);
+	    		if ((existing != null) && (existing.longValue() > now)) {
+	    			return false;
+	    		}
+	    		stripe.add(key, Math.min(expires, now + MAX_AGE));
+	    	}
+
+	    	return true;
+
+	    }
+
+	    @Override
+	    public int purgeExpired(long now) {
+
+	    	int removed = 0;
+	    	for (Stripe stripe : stripes) {
+	    		synchronized (stripe) {
+	    			removed += stripe.purge(now);
+	    		}
+	    	}
+
+	    	return removed;
+
+	    }
+
+	/**
+	 * Get the number of nonce values currently held (including any which have expired but
+	 * not yet been purged).
+	 *
+	 * @return number of values
+	 */
+	    public int size() {
+
+	    	int size = 0;
+	    	for (Stripe stripe : stripes) {
+	    		synchronized (stripe) {
+	    			size += stripe.expiries.size();
+	    		}
+	    	}
+
+	    	return size;
+
+	    }
+
+	/**
+	 * Stop the background sweeper; values are then only purged by explicit calls to purgeExpired.
+	 */
+	    public void close() {
+
+	    	sweeper.cancel(false);
+
+	    }
+
+	    private Stripe getStripe(String key) {
+
+	    	return stripes[(key.hashCode() & 0x7fffffff) % stripes.length];
+
+	    }
+
+	    private static String getKey(int consumerId, String value) {
+
+	    	return consumerId + ":" + value;
+
+	    }
+
+	/**
+	 * One lock stripe: the values it holds with their expiry times, plus a ring of buckets
+	 * recording which values expire in each minute.
+	 */
+	    private static final class Stripe {
+
+	    	private final Map<String, Long> expiries = new HashMap<String, Long>();
+	    	private final long[] bucketMinutes;
+	    	private final List<List<String>> buckets;
+
+	    	private Stripe(int size) {
+	    		bucketMinutes = new long[size];
+	    		buckets = new ArrayList<List<String>>(size);
+	    		for (int i = 0; i < size; i++) {
+	    			bucketMinutes[i] = -1;
+	    			buckets.add(new ArrayList<String>());
+	    		}
+	    	}
+
+	    	private void add(String key, long expires) {
+	    		long minute = expires / BUCKET_WIDTH;
+	    		int i = (int)(minute % bucketMinutes.length);
+	    		if (bucketMinutes[i] != minute) {
+	// The slot still holds an older minute which the sweeper has not yet reached
+	    			drain(i);
+	    			bucketMinutes[i] = minute;
+	    		}
+	    		expiries.put(key, Long.valueOf(expires));
+	    		buckets.get(i).add(key);
+	    	}
+
+	    	private int purge(long now) {
+	    		int removed = 0;
+	    		long current = now / BUCKET_WIDTH;
+	    		for (int i = 0; i < bucketMinutes.length; i++) {
+	    			if ((bucketMinutes[i] >= 0) && (bucketMinutes[i] < current)) {
+	    				removed += drain(i);
+	    				bucketMinutes[i] = -1;
+	    			}
+	    		}
+	    		return removed;
+	    	}
+
+	    	private int drain(int i) {
+	    		int removed = 0;
+	    		long minute = bucketMinutes[i];
+	    		List<String> keys = buckets.get(i);
+	    		for (String key : keys) {
+	    			Long expires = expiries.get(key);
+	// Leave values which have since been recorded again with a later expiry
+	    			if ((expires != null) && ((expires.longValue() / BUCKET_WIDTH) == minute)) {
+	    				expiries.remove(key);
+	    				removed++;
+	    			}
+	    		}
+	    		keys.clear();
+	    		return removed;
+	    	}
+
+	    }
+
+}
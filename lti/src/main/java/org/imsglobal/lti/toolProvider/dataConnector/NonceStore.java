@@ -0,0 +1,55 @@
+package org.imsglobal.lti.toolProvider.dataConnector;
+
+/**
+ * Interface for a store of OAuth nonce values used to detect replayed requests.
+ *
+ * A data connector passes nonce operations to its nonce store, if one has been set.
+ * Implementations must be safe for use by concurrent request threads.
+ *
+ * @author  David Block (dave@northcreek.ca)
+ */
+public interface NonceStore {
+
+	/**
+	 * Check whether a nonce value has already been recorded and has not yet expired.
+	 *
+	 * @param consumerId  record ID of the tool consumer
+	 * @param value       nonce value
+	 *
+	 * @return <code>true</code> if the nonce value is known
+	 */
+	    boolean contains(int consumerId, String value);
+
+	/**
+	 * Record a nonce value.
+	 *
+	 * @param consumerId  record ID of the tool consumer
+	 * @param value       nonce value
+	 * @param expires     time at which the value may be forgotten (milliseconds since the epoch)
+	 *
+	 * @return <code>true</code> if the nonce value was successfully recorded
+	 */
+	    boolean record(int consumerId, String value, long expires);
+
+	/**
+	 * Record a nonce value only if it is not already known, as a single atomic operation.
+	 *
+	 * @param consumerId  record ID of the tool consumer
+	 * @param value       nonce value
+	 * @param expires     time at which the value may be forgotten (milliseconds since the epoch)
+	 *
+	 * @return <code>true</code> if the nonce value was new and has been recorded,
+	 *         <code>false</code> if it had already been used or could not be recorded
+	 */
+	    boolean checkAndRecord(int consumerId, String value, long expires);
+
+	/**
+	 * Remove all nonce values which have expired.
+	 *
+	 * @param now  current time (milliseconds since the epoch)
+	 *
+	 * @return number of values removed
+	 */
+	    int purgeExpired(long now);
+
+}
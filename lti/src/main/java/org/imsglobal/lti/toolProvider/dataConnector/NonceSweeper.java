@@ -0,0 +1,73 @@
+package org.imsglobal.lti.toolProvider.dataConnector;
+
+import java.lang.ref.WeakReference;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Background task which periodically purges expired values from nonce stores.
+ *
+ * All stores share a single daemon thread.  A store is only weakly referenced, so one
+ * which is no longer used is dropped from the schedule once it has been collected.
+ *
+ * @author  David Block (dave@northcreek.ca)
+ */
+final class NonceSweeper {
+
+	/**
+	 * Interval between purges.
+	 */
+	    static final long INTERVAL = 60 * 1000L;  // in milliseconds (1 minute)
+
+	    private static final ScheduledExecutorService EXECUTOR = Executors.newSingleThreadScheduledExecutor(
+	    	new ThreadFactory() {
+	    		@Override
+	    		public Thread newThread(Runnable r) {
+	    			Thread thread = new Thread(r, "lti-nonce-sweeper");
+	    			thread.setDaemon(true);
+	    			return thread;
+	    		}
+	    	});
+
+	    private NonceSweeper() {
+	    }
+
+	/**
+	 * Schedule regular purges of a nonce store.
+	 *
+	 * @param store  nonce store
+	 *
+	 * @return scheduled task, which may be cancelled to stop purging the store
+	 */
+	    static ScheduledFuture<?> schedule(NonceStore store) {
+
+	    	final WeakReference<NonceStore> ref = new WeakReference<NonceStore>(store);
+	    	final ScheduledFuture<?>[] task = new ScheduledFuture<?>[1];
+	    	synchronized (task) {
+	    		task[0] = EXECUTOR.scheduleWithFixedDelay(new Runnable() {
+	    			@Override
+	    			public void run() {
+	    				NonceStore nonceStore = ref.get();
+	    				if (nonceStore == null) {
+	    					synchronized (task) {
+	    						task[0].cancel(false);
+	    					}
+	    				} else {
+	    					try {
+	    						nonceStore.purgeExpired(System.currentTimeMillis());
+	    					} catch (RuntimeException e) {
+	    						e.printStackTrace();
+	    					}
+	    				}
+	    			}
+	    		}, INTERVAL, INTERVAL, TimeUnit.MILLISECONDS);
+	    	}
+
+	    	return task[0];
+
+	    }
+
+}
@@ -0,0 +1,78 @@
+package org.imsglobal.lti.toolProvider.dataConnector;
+
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Class to record the column values of a database row as they were last loaded or saved,
+ * so that a data connector can tell which columns an object has changed.
+ *
+ * A data connector takes a snapshot of an object after loading or saving it and
+ * compares it with a new snapshot when the object is next saved: the row is not written
+ * if nothing has changed, and otherwise only the changed columns are updated.  Snapshots
+ * are never modified once created.
+ *
+ * @author  David Block (dave@northcreek.ca)
+ */
+public final class RecordSnapshot {
+
+	    private final Map<String, Object> values;
+
+	/**
+	 * Class constructor.
+	 *
+	 * @param values  column values, in the order the columns should be written
+	 */
+	    public RecordSnapshot(Map<String, Object> values) {
+	    	this.values = Collections.unmodifiableMap(new LinkedHashMap<String, Object>(values));
+	    }
+
+	/**
+	 * Get the column values.
+	 *
+	 * @return map of column name to value
+	 */
+	    public Map<String, Object> getValues() {
+	    	return values;
+	    }
+
+	/**
+	 * Get the value of a column.
+	 *
+	 * @param column  column name
+	 *
+	 * @return value, null if null or not recorded
+	 */
+	    public Object get(String column) {
+	    	return values.get(column);
+	    }
+
+	/**
+	 * Get the columns of another snapshot whose values differ from this one.
+	 *
+	 * @param current  snapshot of the object as it is now
+	 *
+	 * @return map of changed column name to new value (empty if nothing has changed)
+	 */
+	    public Map<String, Object> getChanges(RecordSnapshot current) {
+
+	    	Map<String, Object> changes = new LinkedHashMap<String, Object>();
+	    	for (Map.Entry<String, Object> entry : current.values.entrySet()) {
+	    		String column = entry.getKey();
+	    		Object value = entry.getValue();
+	    		if (!values.containsKey(column)) {
+	    			changes.put(column, value);
+	    		} else {
+	    			Object old = values.get(column);
+	    			if ((old == null) ? (value != null) : !old.equals(value)) {
+	    				changes.put(column, value);
+	    			}
+	    		}
+	    	}
+
+	    	return changes;
+
+	    }
+
+}
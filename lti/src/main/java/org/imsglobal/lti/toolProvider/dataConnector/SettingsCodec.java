@@ -0,0 +1,36 @@
+package org.imsglobal.lti.toolProvider.dataConnector;
+
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Interface for the format in which the settings of a tool consumer, context or resource
+ * link are stored in the settings column.
+ *
+ * A data connector encodes settings with its codec when saving, and decodes them (in any
+ * of the supported formats, whichever codec is set) when loading.  Implementations hold
+ * no state between calls and one instance is shared by all data connectors.
+ *
+ * @author  David Block (dave@northcreek.ca)
+ */
+public interface SettingsCodec {
+
+	/**
+	 * Encode a map of settings.
+	 *
+	 * @param settings  setting values
+	 *
+	 * @return encoded value, null if there are no settings
+	 */
+	    String encode(Map<String, List<String>> settings);
+
+	/**
+	 * Decode a stored value into a map of settings.
+	 *
+	 * @param value  stored value (null or empty for no settings)
+	 *
+	 * @return setting values (empty if none or if the value could not be decoded)
+	 */
+	    Map<String, List<String>> decode(String value);
+
+}
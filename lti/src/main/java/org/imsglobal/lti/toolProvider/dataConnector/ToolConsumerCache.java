@@ -0,0 +1,253 @@
+package org.imsglobal.lti.toolProvider.dataConnector;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.imsglobal.lti.signature.oauth1.OAuthSigningContext;
+import org.imsglobal.lti.toolProvider.ToolConsumer;
+import org.imsglobal.lti.toolProvider.mediaType.ConsumerProfile;
+import org.joda.time.DateTime;
+
+/**
+ * Class to hold recently loaded tool consumers in memory so that repeated launches
+ * from the same consumer key do not each need a database round trip.
+ *
+ * Entries are keyed by the hashed consumer key (the consumer_key256 column), expire
+ * after a fixed time-to-live and the least recently used entry is dropped once the
+ * cache is full.  A data connector must invalidate an entry whenever the underlying
+ * consumer record is saved or deleted.  So that a consumer read from the database before
+ * an entry was invalidated is not then added to the cache, a data connector gets the
+ * cache generation before reading and passes it to put(); the consumer is only added if
+ * no entry has been invalidated in the meantime.
+ *
+ * @author  David Block (dave@northcreek.ca)
+ */
+public class ToolConsumerCache {
+
+	/**
+	 * Default number of tool consumers held.
+	 */
+	    public static final int DEFAULT_MAX_ENTRIES = 1000;
+	/**
+	 * Default life of a cached tool consumer.
+	 */
+	    public static final long DEFAULT_TTL = 5 * 60 * 1000L;  // in milliseconds (5 minutes)
+
+	    private final int maxEntries;
+	    private final long ttl;
+	    private final Map<String, CachedConsumer> entries;
+	    private long generation = 0L;
+
+	/**
+	 * Class constructor using the default size and time-to-live.
+	 */
+	    public ToolConsumerCache() {
+	    	this(DEFAULT_MAX_ENTRIES, DEFAULT_TTL);
+	    }
+
+	/**
+	 * Class constructor.
+	 *
+	 * @param maxEntries  maximum number of tool consumers to hold
+	 * @param ttl         time-to-live of each entry in milliseconds
+	 */
+	    public ToolConsumerCache(int maxEntries, long ttl) {
+	    	this.maxEntries = maxEntries;
+	    	this.ttl = ttl;
+	    	this.entries = new LinkedHashMap<String, CachedConsumer>(16, 0.75f, true) {
+				private static final long serialVersionUID = 1L;
+
+				@Override
+	    		protected boolean removeEldestEntry(Map.Entry<String, CachedConsumer> eldest) {
+	    			return size() > ToolConsumerCache.this.maxEntries;
+	    		}
+	    	};
+	    }
+
+	/**
+	 * Copy a cached tool consumer into the object provided.
+	 *
+	 * @param key256    hashed consumer key
+	 * @param consumer  ToolConsumer object to populate
+	 *
+	 * @return <code>true</code> if a current entry was found and copied
+	 */
+	    public boolean load(String key256, ToolConsumer consumer) {
+	    	CachedConsumer cached;
+	    	synchronized (entries) {
+	    		cached = entries.get(key256);
+	    		if ((cached != null) && (cached.expires <= System.currentTimeMillis())) {
+	    			entries.remove(key256);
+	    			cached = null;
+	    		}
+	    	}
+	    	if (cached == null) {
+	    		return false;
+	    	}
+	    	cached.copyTo(consumer);
+	    	return true;
+	    }
+
+	/**
+	 * Get the current generation of the cache, which changes whenever an entry is
+	 * invalidated.  This should be called before a tool consumer is read from the database.
+	 *
+	 * @return generation
+	 */
+	    public long getGeneration() {
+	    	synchronized (entries) {
+	    		return generation;
+	    	}
+	    }
+
+	/**
+	 * Add a freshly loaded tool consumer to the cache, unless an entry has been invalidated
+	 * since it was read.
+	 *
+	 * @param key256      hashed consumer key
+	 * @param consumer    ToolConsumer object as loaded from the database
+	 * @param generation  cache generation obtained before the consumer was read
+	 *
+	 * @return <code>true</code> if the tool consumer was added
+	 */
+	    public boolean put(String key256, ToolConsumer consumer, long generation) {
+	    	CachedConsumer cached = new CachedConsumer(consumer, System.currentTimeMillis() + ttl);
+	    	synchronized (entries) {
+	    		if (generation != this.generation) {
+	    			return false;
+	    		}
+	    		entries.put(key256, cached);
+	    	}
+	    	return true;
+	    }
+
+	/**
+	 * Remove a tool consumer from the cache.
+	 *
+	 * @param key256  hashed consumer key
+	 */
+	    public void invalidate(String key256) {
+	    	synchronized (entries) {
+	    		entries.remove(key256);
+	    		generation++;
+	    	}
+	    }
+
+	/**
+	 * Remove all tool consumers from the cache.
+	 */
+	    public void clear() {
+	    	synchronized (entries) {
+	    		entries.clear();
+	    		generation++;
+	    	}
+	    }
+
+	/**
+	 * Get the number of tool consumers currently held (including any which have expired
+	 * but not yet been requested).
+	 *
+	 * @return number of entries
+	 */
+	    public int size() {
+	    	synchronized (entries) {
+	    		return entries.size();
+	    	}
+	    }
+
+	/**
+	 * Snapshot of the persistent properties of a tool consumer.  The snapshot is never
+	 * modified once created so it may be copied from several threads at once: the settings
+	 * and profile are copied both into the snapshot and out of it, so no consumer shares
+	 * them with the cache.  The objects within a profile (its context, product and service
+	 * definitions) are still shared, and are treated as read-only once loaded.  The OAuth
+	 * signing context is shared too, so the signing key is set up once for each entry.
+	 */
+	    private static class CachedConsumer {
+
+	    	private final long expires;
+	    	private final int recordId;
+	    	private final String name;
+	    	private final String key;
+	    	private final String secret;
+	    	private final String ltiVersion;
+	    	private final String consumerName;
+	    	private final String consumerVersion;
+	    	private final String consumerGuid;
+	    	private final ConsumerProfile profile;
+	    	private final Map<String, List<String>> settings;
+	    	private final boolean thisprotected;
+	    	private final boolean enabled;
+	    	private final DateTime enableFrom;
+	    	private final DateTime enableUntil;
+	    	private final DateTime lastAccess;
+	    	private final DateTime created;
+	    	private final DateTime updated;
+	    	private final RecordSnapshot snapshot;
+	    	private final OAuthSigningContext signingContext;
+
+	    	private CachedConsumer(ToolConsumer consumer, long expires) {
+	    		this.expires = expires;
+	    		this.recordId = consumer.getRecordId();
+	    		this.name = consumer.getName();
+	    		this.key = consumer.getKey();
+	    		this.secret = consumer.getSecret();
+	    		this.ltiVersion = consumer.getLtiVersion();
+	    		this.consumerName = consumer.getConsumerName();
+	    		this.consumerVersion = consumer.getConsumerVersion();
+	    		this.consumerGuid = consumer.getConsumerGuid();
+	    		this.profile = (consumer.getProfile() != null) ? consumer.getProfile().copy() : null;
+	    		this.settings = copySettings(consumer.getSettings());
+	    		this.thisprotected = consumer.isThisprotected();
+	    		this.enabled = consumer.isEnabled();
+	    		this.enableFrom = consumer.getEnableFrom();
+	    		this.enableUntil = consumer.getEnableUntil();
+	    		this.lastAccess = consumer.getLastAccess();
+	    		this.created = consumer.getCreated();
+	    		this.updated = consumer.getUpdated();
+	    		this.snapshot = consumer.getSnapshot();
+	    		this.signingContext = consumer.getSigningContext();
+	    	}
+
+	    	private void copyTo(ToolConsumer consumer) {
+	    		consumer.setRecordId(recordId);
+	    		consumer.setName(name);
+	    		consumer.setKey(key);
+	    		consumer.setSecret(secret);
+	    		consumer.setLtiVersion(ltiVersion);
+	    		consumer.setConsumerName(consumerName);
+	    		consumer.setConsumerVersion(consumerVersion);
+	    		consumer.setConsumerGuid(consumerGuid);
+	    		consumer.setProfile((profile != null) ? profile.copy() : null);
+	    		consumer.setSettings(copySettings(settings));
+	    		consumer.setSettingsChanged(false);
+	    		consumer.setThisprotected(thisprotected);
+	    		consumer.setEnabled(enabled);
+	    		consumer.setEnableFrom(enableFrom);
+	    		consumer.setEnableUntil(enableUntil);
+	    		consumer.setLastAccess(lastAccess);
+	    		consumer.setCreated(created);
+	    		consumer.setUpdated(updated);
+	    		consumer.setSnapshot(snapshot);
+	    		consumer.setSigningContext(signingContext);
+	    	}
+
+	    	private static Map<String, List<String>> copySettings(Map<String, List<String>> settings) {
+	    		if (settings instanceof LazySettings) {
+	    			return ((LazySettings)settings).copy();
+	    		}
+	    		Map<String, List<String>> copy = new HashMap<String, List<String>>();
+	    		if (settings != null) {
+	    			for (Map.Entry<String, List<String>> e : settings.entrySet()) {
+	    				copy.put(e.getKey(), new ArrayList<String>(e.getValue()));
+	    			}
+	    		}
+	    		return copy;
+	    	}
+
+	    }
+
+}
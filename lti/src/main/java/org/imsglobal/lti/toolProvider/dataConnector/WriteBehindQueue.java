@@ -0,0 +1,251 @@
+package org.imsglobal.lti.toolProvider.dataConnector;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+
+/**
+ * Queue of record updates which a JDBC data connector writes to the database on a
+ * background thread rather than on the request thread.
+ *
+ * Each entry is the set of updates made by one launch (or a single update made outside
+ * a batch).  The worker takes every batch waiting in the queue, keeps only the latest
+ * update to each record and writes them all in one transaction using JDBC statement
+ * batches.  The queue is bounded: once it is full a request thread submitting a further
+ * batch waits for space, so a slow database slows launches rather than exhausting memory.
+ * If a transaction fails its updates are kept and retried after a delay which doubles
+ * with each failure (up to a maximum); batches queued in the meantime are merged into
+ * the retry, and a batch only counts as written once its updates have been committed.
+ *
+ * Only updates to existing records are queued; inserts are always made immediately since
+ * the new record ID is needed straight away.  Reads may not see queued updates until they
+ * have been written, so only enable write-behind where that is acceptable.
+ *
+ * @author  David Block (dave@northcreek.ca)
+ */
+public class WriteBehindQueue {
+
+	/**
+	 * Default maximum number of batches waiting to be written.
+	 */
+	    public static final int DEFAULT_CAPACITY = 1000;
+	/**
+	 * Delay before the first retry of a failed transaction.
+	 */
+	    public static final long RETRY_DELAY = 1000L;  // in milliseconds (1 second)
+	/**
+	 * Maximum delay between retries of a failed transaction.
+	 */
+	    public static final long MAX_RETRY_DELAY = 60 * 1000L;  // in milliseconds (1 minute)
+
+	    private static final Write[] STOP = new Write[0];
+
+	    private final JDBC connector;
+	    private final BlockingQueue<Write[]> queue;
+	    private final Thread worker;
+	    private volatile boolean closed = false;
+	    private int pending = 0;
+
+	/**
+	 * Class constructor using the default capacity.
+	 *
+	 * @param connector  JDBC data connector, which must have been constructed from a DataSource
+	 */
+	    public WriteBehindQueue(JDBC connector) {
+	    	this(connector, DEFAULT_CAPACITY);
+	    }
+
+	/**
+	 * Class constructor.
+	 *
+	 * @param connector  JDBC data connector, which must have been constructed from a DataSource
+	 * @param capacity   maximum number of batches waiting to be written
+	 */
+	    public WriteBehindQueue(JDBC connector, int capacity) {
+	    	if (!connector.isPooled()) {
+	    		throw new IllegalArgumentException("Write-behind requires a connector constructed from a DataSource");
+	    	}
+	    	this.connector = connector;
+	    	this.queue = new ArrayBlockingQueue<Write[]>(Math.max(1, capacity));
+	    	this.worker = new Thread(new Runnable() {
+	    		@Override
+	    		public void run() {
+	    			drain();
+	    		}
+	    	}, "lti-write-behind");
+	    	this.worker.setDaemon(true);
+	    	this.worker.start();
+	    }
+
+	/**
+	 * Add a batch of updates to the queue, waiting for space if the queue is full.
+	 *
+	 * @param writes  updates to be written
+	 *
+	 * @return <code>true</code> if the updates were queued, <code>false</code> if the queue has been
+	 *         closed (or the thread was interrupted) and they must be written by the caller
+	 */
+	    boolean submit(List<Write> writes) {
+
+	    	if (closed) {
+	    		return false;
+	    	}
+	    	synchronized (this) {
+	    		pending++;
+	    	}
+	    	try {
+	    		queue.put(writes.toArray(new Write[writes.size()]));
+	    		return true;
+	    	} catch (InterruptedException e) {
+	    		Thread.currentThread().interrupt();
+	    		done(1);
+	    		return false;
+	    	}
+
+	    }
+
+	/**
+	 * Wait until every batch queued so far has been written.
+	 *
+	 * @param timeout  maximum time to wait in milliseconds
+	 *
+	 * @return <code>true</code> if the queue was emptied within the time allowed
+	 *
+	 * @throws InterruptedException if the thread is interrupted while waiting
+	 */
+	    public boolean flush(long timeout) throws InterruptedException {
+
+	    	long end = System.currentTimeMillis() + timeout;
+	    	synchronized (this) {
+	    		long wait;
+	    		while ((pending > 0) && ((wait = end - System.currentTimeMillis()) > 0)) {
+	    			wait(wait);
+	    		}
+	    		return pending == 0;
+	    	}
+
+	    }
+
+	/**
+	 * Stop accepting updates, write any which are already queued and stop the worker thread.
+	 * If the queue is full this waits until the worker has taken the batches waiting in it,
+	 * even once the timeout has passed.
+	 *
+	 * @param timeout  maximum time to wait for queued updates to be written, in milliseconds
+	 *
+	 * @return <code>true</code> if all queued updates were written within the time allowed
+	 *
+	 * @throws InterruptedException if the thread is interrupted while waiting
+	 */
+	    public boolean close(long timeout) throws InterruptedException {
+
+	    	closed = true;
+	    	boolean ok = flush(timeout);
+	// Wait for space if the queue is full, so the worker is always told to stop
+	    	queue.put(STOP);
+	    	return ok;
+
+	    }
+
+	/**
+	 * Get the number of batches queued but not yet written.
+	 *
+	 * @return number of batches
+	 */
+	    public synchronized int getPending() {
+
+	    	return pending;
+
+	    }
+
+	    private synchronized void done(int batches) {
+
+	    	pending -= batches;
+	    	if (pending <= 0) {
+	    		notifyAll();
+	    	}
+
+	    }
+
+	    private void drain() {
+
+	    	List<Write[]> batches = new ArrayList<Write[]>();
+	// Updates not yet written, and the number of batches they came from
+	    	Map<String, Write> writes = new LinkedHashMap<String, Write>();
+	    	int count = 0;
+	    	long delay = RETRY_DELAY;
+	    	while (true) {
+	    		if (writes.isEmpty()) {
+	    			try {
+	    				batches.add(queue.take());
+	    			} catch (InterruptedException e) {
+	    				if (closed) {
+	    					return;
+	    				}
+	    				continue;
+	    			}
+	    		} else {
+	// Wait before retrying; batches submitted meanwhile stay in the queue so it still fills up
+	    			try {
+	    				Thread.sleep(delay);
+	    			} catch (InterruptedException e) {
+	    			}
+	    			delay = Math.min(delay * 2, MAX_RETRY_DELAY);
+	    		}
+	    		queue.drainTo(batches);
+	    		boolean stop = false;
+	// Keep only the latest update to each record, in the order the records were first updated
+	    		for (Write[] batch : batches) {
+	    			if (batch == STOP) {
+	    				stop = true;
+	    				continue;
+	    			}
+	    			count++;
+	    			for (Write write : batch) {
+	    				writes.put(write.key, write);
+	    			}
+	    		}
+	    		batches.clear();
+	    		boolean ok = false;
+	    		try {
+	    			ok = writes.isEmpty() || connector.writeBatch(new ArrayList<Write>(writes.values()));
+	    		} catch (RuntimeException e) {
+	    			e.printStackTrace();
+	    		}
+	    		if (ok || stop) {
+	    			if (!ok) {
+	    				System.err.println("Write-behind queue closed with " + writes.size() + " updates not written");
+	    			}
+	    			writes.clear();
+	    			done(count);
+	    			count = 0;
+	    			delay = RETRY_DELAY;
+	    		}
+	    		if (stop) {
+	    			return;
+	    		}
+	    	}
+
+	    }
+
+	/**
+	 * A single deferred update: the record it applies to, the SQL statement and its parameter values.
+	 */
+	    static final class Write {
+
+	    	final String key;
+	    	final String sql;
+	    	final Object[] params;
+
+	    	Write(String key, String sql, Object[] params) {
+	    		this.key = key;
+	    		this.sql = sql;
+	    		this.params = params;
+	    	}
+
+	    }
+
+}
@@ -1,9 +1,22 @@
 package org.imsglobal.lti.toolProvider.mediaType;
 
+import java.net.MalformedURLException;
+import java.net.URL;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.IdentityHashMap;
+import java.util.LinkedHashSet;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
 
 import org.imsglobal.lti.product.Product;
 import org.imsglobal.lti.profile.ServiceDefinition;
+import org.json.simple.JSONArray;
+import org.json.simple.JSONObject;
 
 public class ConsumerProfile {
 	private JSONContext context;
@@ -11,11 +24,72 @@ public class ConsumerProfile {
 	private List<ServiceDefinition> servicesOffered;
 	private String id;
 	private Product product;
+	private JSONObject json;
+	private List<String> capabilityOffered = Collections.emptyList();
+	// Indexes built when the capabilities and services are set
+	private Set<String> capabilities = Collections.emptySet();
+	private Map<String, List<ServiceDefinition>> servicesByAction = Collections.emptyMap();
+	private Map<String, ServiceDefinition> servicesByFormat = Collections.emptyMap();
+	private Map<ServiceDefinition, Set<String>> serviceActions = Collections.emptyMap();
 	
 	public ConsumerProfile() {
 		
 	}
 
+	/**
+	 * Create a profile from a parsed application/vnd.ims.lti.v2.toolconsumerprofile+json document.
+	 *
+	 * @param json  tool consumer profile
+	 *
+	 * @return profile
+	 */
+	public static ConsumerProfile fromJson(JSONObject json) {
+		ConsumerProfile profile = new ConsumerProfile();
+		JSONContext context = new JSONContext();
+		context.parse(json);
+		profile.setContext(context);
+		Object id = json.get("@id");
+		if (id != null) {
+			profile.setId(id.toString());
+		}
+		profile.setCapabilityOffered(getStrings(json.get("capability_offered")));
+		List<ServiceDefinition> services = new ArrayList<ServiceDefinition>();
+		Object offered = json.get("service_offered");
+		if (offered instanceof JSONArray) {
+			for (Object service : (JSONArray)offered) {
+				if (service instanceof JSONObject) {
+					services.add(toService((JSONObject)service));
+				}
+			}
+		}
+		profile.setServicesOffered(services);
+		profile.json = json;
+		return profile;
+	}
+
+	/**
+	 * Create a copy of this profile which may be changed without affecting it.  The
+	 * context, product, service definitions and parsed JSON are shared with this profile.
+	 *
+	 * @return profile
+	 */
+	public ConsumerProfile copy() {
+		ConsumerProfile profile = new ConsumerProfile();
+		profile.context = context;
+		profile.contexts = (contexts != null) ? new ArrayList<JSONContext>(contexts) : null;
+		profile.servicesOffered = (servicesOffered != null) ? new ArrayList<ServiceDefinition>(servicesOffered) : null;
+		profile.id = id;
+		profile.product = product;
+		profile.json = json;
+		// The capability list and indexes are never modified once built
+		profile.capabilityOffered = capabilityOffered;
+		profile.capabilities = capabilities;
+		profile.servicesByAction = servicesByAction;
+		profile.servicesByFormat = servicesByFormat;
+		profile.serviceActions = serviceActions;
+		return profile;
+	}
+
 	public JSONContext getContext() {
 		return context;
 	}
@@ -42,17 +116,101 @@ public class ConsumerProfile {
 	
 	public void setServicesOffered(List<ServiceDefinition> offered) {
 		this.servicesOffered = offered;
+		Map<String, List<ServiceDefinition>> byAction = new HashMap<String, List<ServiceDefinition>>();
+		Map<String, ServiceDefinition> byFormat = new HashMap<String, ServiceDefinition>();
+		Map<ServiceDefinition, Set<String>> actions = new IdentityHashMap<ServiceDefinition, Set<String>>();
+		if (offered != null) {
+			for (ServiceDefinition service : offered) {
+				Set<String> serviceActions = new HashSet<String>();
+				if (service.getActions() != null) {
+					serviceActions.addAll(service.getActions());
+				}
+				actions.put(service, serviceActions);
+				if (service.getFormats() == null) {
+					continue;
+				}
+				for (String format : service.getFormats()) {
+					if (!byFormat.containsKey(format)) {
+						byFormat.put(format, service);
+					}
+					for (String action : serviceActions) {
+						String key = serviceKey(format, action);
+						List<ServiceDefinition> list = byAction.get(key);
+						if (list == null) {
+							list = new ArrayList<ServiceDefinition>();
+							byAction.put(key, list);
+						}
+						if (!list.contains(service)) {
+							list.add(service);
+						}
+					}
+				}
+			}
+		}
+		this.servicesByAction = byAction;
+		this.servicesByFormat = byFormat;
+		this.serviceActions = actions;
 	}
 
 	public List<ServiceDefinition> getServicesOffered() {
 		return servicesOffered;
 	}
 
-	public List<String> getCapabilityOffered() {
-		// TODO Auto-generated method stub
+	/**
+	 * Find the first offered service which supports a media type and all of the HTTP
+	 * actions given.
+	 *
+	 * @param format   media type required
+	 * @param actions  HTTP actions required
+	 *
+	 * @return service, null if none is offered
+	 */
+	public ServiceDefinition findService(String format, Collection<String> actions) {
+		if ((actions == null) || actions.isEmpty()) {
+			return servicesByFormat.get(format);
+		}
+		List<ServiceDefinition> candidates = servicesByAction.get(serviceKey(format, actions.iterator().next()));
+		if (candidates == null) {
+			return null;
+		}
+		for (ServiceDefinition service : candidates) {
+			if (serviceActions.get(service).containsAll(actions)) {
+				return service;
+			}
+		}
 		return null;
 	}
 
+	public void setCapabilityOffered(List<String> capabilityOffered) {
+		this.capabilityOffered = (capabilityOffered != null) ?
+				Collections.unmodifiableList(new ArrayList<String>(capabilityOffered)) : Collections.<String>emptyList();
+		this.capabilities = Collections.unmodifiableSet(new LinkedHashSet<String>(this.capabilityOffered));
+	}
+
+	public List<String> getCapabilityOffered() {
+		return capabilityOffered;
+	}
+
+	/**
+	 * Get the capabilities offered as a set, for checking whether each one is offered.
+	 *
+	 * @return set of capability names
+	 */
+	public Set<String> getCapabilitySet() {
+		return capabilities;
+	}
+
+	/**
+	 * Check whether a capability is offered.
+	 *
+	 * @param capability  name of capability
+	 *
+	 * @return <code>true</code> if the capability is offered
+	 */
+	public boolean hasCapability(String capability) {
+		return capabilities.contains(capability);
+	}
+
 	public Product getProduct() {
 		return product;
 	}
@@ -62,9 +220,42 @@ public class ConsumerProfile {
 	}
 
 	public String toJson() {
-		// TODO Auto-generated method stub
 		// TODO convert values into JSON so interoperable with PHP
-		return null;
+		return (json != null) ? json.toJSONString() : null;
+	}
+
+	private static String serviceKey(String format, String action) {
+		return format + ' ' + action;
+	}
+
+	private static ServiceDefinition toService(JSONObject service) {
+		Object id = service.get("@id");
+		Object endpoint = service.get("endpoint");
+		URL url = null;
+		if (endpoint != null) {
+			try {
+				url = new URL(endpoint.toString());
+			} catch (MalformedURLException e) {
+				e.printStackTrace();
+			}
+		}
+		return new ServiceDefinition(getStrings(service.get("format")), getStrings(service.get("action")),
+				(id != null) ? id.toString() : null, url);
+	}
+
+	// Get a JSON value which may be a single string or an array of strings
+	private static List<String> getStrings(Object value) {
+		List<String> strings = new ArrayList<String>();
+		if (value instanceof JSONArray) {
+			for (Object item : (JSONArray)value) {
+				if (item != null) {
+					strings.add(item.toString());
+				}
+			}
+		} else if (value != null) {
+			strings.add(value.toString());
+		}
+		return strings;
 	}
 	
 	
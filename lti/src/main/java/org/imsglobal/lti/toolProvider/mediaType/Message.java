@@ -1,6 +1,7 @@
 package org.imsglobal.lti.toolProvider.mediaType;
 
 import java.util.ArrayList;
+import java.util.Collection;
 import java.util.List;
 import java.util.Map;
 
@@ -29,9 +30,9 @@ public class Message {
 	 * Class constructor.
 	 *
 	 * @param ProfileMessage message               Message object
-	 * @param array   capabilitiesOffered   Capabilities offered
+	 * @param Collection   capabilitiesOffered   Capabilities offered (a Set for fast lookups)
 	 */
-	    public Message(ProfileMessage pMessage, List<String> capabilitiesOffered)
+	    public Message(ProfileMessage pMessage, Collection<String> capabilitiesOffered)
 	    {
 
 	        this.type = pMessage.type;
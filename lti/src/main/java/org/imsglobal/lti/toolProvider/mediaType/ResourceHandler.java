@@ -2,8 +2,10 @@ package org.imsglobal.lti.toolProvider.mediaType;
 
 import java.util.ArrayList;
 import java.util.HashMap;
+import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
 
 import org.imsglobal.lti.profile.ProfileMessage;
 import org.imsglobal.lti.profile.ProfileResourceHandler;
@@ -43,7 +45,13 @@ public class ResourceHandler {
 	        this.description.put("key", resourceHandler.getItem().getId() + ".resource.description");
 	        this.iconInfo.put("default_location.path", resourceHandler.getIcon());
 	        this.iconInfo.put("key", resourceHandler.getItem().getId() + ".icon.path");
-	        List<String> capsOffered = toolProvider.getConsumer().getCapabilitiesOffered();
+	        ConsumerProfile profile = toolProvider.getConsumer().getProfile();
+	        Set<String> capsOffered;
+	        if (profile != null) {
+	        	capsOffered = profile.getCapabilitySet();
+	        } else {
+	        	capsOffered = new HashSet<String>(toolProvider.getConsumer().getCapabilitiesOffered());
+	        }
 	        for (ProfileMessage pmessage : resourceHandler.getRequiredMessages()) {
 	            this.messages.add(new Message(pmessage, capsOffered));
 	        }
@@ -1,17 +1,39 @@
 package org.imsglobal.lti.toolProvider.service;
 
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.Reader;
+import java.nio.charset.StandardCharsets;
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.function.Supplier;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
 
+import org.apache.http.HttpEntity;
+import org.apache.http.HttpResponse;
+import org.apache.http.client.ResponseHandler;
+import org.imsglobal.lti.HttpTransport;
 import org.imsglobal.lti.LTIMessage;
 import org.imsglobal.lti.LTIUtil;
 import org.imsglobal.lti.toolProvider.LTISource;
 import org.imsglobal.lti.toolProvider.ResourceLink;
+import org.imsglobal.lti.toolProvider.RosterSyncResult;
 import org.imsglobal.lti.toolProvider.ToolConsumer;
 import org.imsglobal.lti.toolProvider.ToolProvider;
 import org.imsglobal.lti.toolProvider.User;
+import org.json.simple.parser.ParseException;
 
 public class Membership extends Service {
 	/**
@@ -31,6 +53,18 @@ public class Membership extends Service {
 	 */
 	    private LTISource source;
 
+	/**
+	 * Threads on which pages of memberships are requested and read.
+	 */
+	    private static final ExecutorService PAGE_EXECUTOR = Executors.newCachedThreadPool(new ThreadFactory() {
+	    	@Override
+	    	public Thread newThread(Runnable r) {
+	    		Thread thread = new Thread(r, "lti-membership-page");
+	    		thread.setDaemon(true);
+	    		return thread;
+	    	}
+	    });
+
 	/**
 	 * Class constructor.
 	 *
@@ -54,8 +88,12 @@ public class Membership extends Service {
 	/**
 	 * Get the memberships.
 	 *
+	 * All pages of memberships are read.  For a resource link the stored users are then
+	 * synchronised with the list returned.  Use sync() to synchronise the stored users
+	 * without holding all of the users in memory.
+	 *
 	 * @param string    role   Role for which memberships are to be requested (optional, default is all roles)
-	 * @param int       limit  Limit on the number of memberships to be returned (optional, default is all)
+	 * @param int       limit  Limit on the number of memberships on each page (optional, default is no limit)
 	 *
 	 * @return mixed The array of User objects if successful, otherwise false
 	 */
@@ -69,7 +107,77 @@ public class Membership extends Service {
 	    
 	    public List<User> get(String role, int limit) {
 
-	        boolean isLink = (this.source instanceof ResourceLink);
+	        List<User> users = new ArrayList<User>();
+	        try {
+	            for (User user : iterate(role, limit)) {
+	                users.add(user);
+	            }
+	        } catch (IllegalStateException e) {
+	            e.printStackTrace();
+	            return null;
+	        }
+
+	// Add, update and delete the stored users to match the latest list from the tool consumer
+	        if (this.source instanceof ResourceLink) {
+	            ResourceLink resourceLink = (ResourceLink)this.source;
+	            resourceLink.getDataConnector().syncRoster(resourceLink, users);
+	        }
+
+	        return users;
+
+	    }
+
+	/**
+	 * Synchronise the stored users of a resource link with its memberships.
+	 *
+	 * The memberships are read one page at a time and only the ID and result sourcedId
+	 * of each user are kept until the stored users are synchronised with them.
+	 *
+	 * @param string    role   Role for which memberships are to be requested (null for all roles)
+	 * @param int       limit  Limit on the number of memberships on each page (0 for no limit)
+	 *
+	 * @return RosterSyncResult Summary of the changes to the stored users, or null if the memberships could not be read
+	 */
+	    public RosterSyncResult sync(String role, int limit) {
+
+	        if (!(this.source instanceof ResourceLink)) {
+	            return null;
+	        }
+	        ResourceLink resourceLink = (ResourceLink)this.source;
+	        Map<String, String> roster = new LinkedHashMap<String, String>();
+	        try {
+	            for (User user : iterate(role, limit)) {
+	                String id = user.getId(ToolProvider.ID_SCOPE_ID_ONLY);
+	                if (!roster.containsKey(id)) {
+	                    roster.put(id, user.getLtiResultSourcedId());
+	                }
+	            }
+	        } catch (IllegalStateException e) {
+	            e.printStackTrace();
+	            return null;
+	        }
+
+	        return resourceLink.getDataConnector().syncRoster(resourceLink, roster);
+
+	    }
+
+	/**
+	 * Get the memberships one at a time.
+	 *
+	 * No request is sent until iteration starts.  Pages are requested as they are needed,
+	 * following the nextPage link of each; the next page is requested as soon as a page has
+	 * been received, so it is on its way while the users of the current page are processed.
+	 * Only the current and next pages are held in memory.  The stored users are not changed.
+	 *
+	 * If a page cannot be read the iterator throws an IllegalStateException.
+	 *
+	 * @param string    role   Role for which memberships are to be requested (null for all roles)
+	 * @param int       limit  Limit on the number of memberships on each page (0 for no limit)
+	 *
+	 * @return Iterable Users, in the order returned by the tool consumer
+	 */
+	    public Iterable<User> iterate(String role, int limit) {
+
 	        Map<String, List<String>> parameters = new HashMap<String, List<String>>();
 	        if (role != null) {
 	            LTIUtil.setParameter(parameters, "role", role);
@@ -77,86 +185,113 @@ public class Membership extends Service {
 	        if (limit > 0) {
 	        	LTIUtil.setParameter(parameters, "limit", String.valueOf(limit));
 	        }
-	        if (isLink) {
+	        if (this.source instanceof ResourceLink) {
 	        	LTIUtil.setParameter(parameters, "rlid", this.source.getId());
 	        }
-	        LTIMessage http = this.send("GET", parameters);
-	        List<User> users = null;
-	        if (!http.isOk()) {
-	            //still null
-	        } else {
-	            users = new ArrayList<User>();
-	            Map<String, User> oldUserIds = new HashMap<String, User>();
-	            if (isLink) {
-	                oldUserIds = this.source.getUserResultSourcedIDs(true, ToolProvider.ID_SCOPE_RESOURCE);
-	            }
-	            Map<String, Map<String, String>> membership = getMembership(http);
-	            for (String id : membership.keySet()) {
-	            	Map<String, String> member = membership.get(id);
-	            //foreach (http.responseJson.pageOf.membershipSubject.membership as membership) {
-	            	User user = new User();
-	                //User member = membership.get("member");
-	                if (isLink) {
-	                    user = User.fromResourceLink((ResourceLink)source, member.get("userId"));
-	                } else {
-	                    user.setLtiUserId(member.get("userId"));
-	                }
+	        final String url = addParameters(this.endpoint, parameters);
 
-	// Set the user name
-	                String firstname = (member.containsKey("givenName")) ? member.get("givenName") : "";
-	                String lastname = (member.containsKey("familyName")) ? member.get("lastName") : "";
-	                String fullname = (member.containsKey("name")) ? member.get("fullName") : "";
-	                user.setNames(firstname, lastname, fullname);
+	        return new Iterable<User>() {
+	        	@Override
+	        	public Iterator<User> iterator() {
+	        		return new PageIterator(url);
+	        	}
+	        };
 
-	// Set the user email
-	                String email = (member.containsKey("email")) ? member.get("email") : "";
-	                user.setEmail(email, this.source.getConsumer().getDefaultEmail());
+	    }
 
-	// Set the user roles
-	                if (member.containsKey("role")) {
-	                	user.setRoles(ToolProvider.parseRoles(member.get("role")));
-	                }
+	/**
+	 * Get the memberships as a stream.
+	 *
+	 * @param string    role   Role for which memberships are to be requested (null for all roles)
+	 * @param int       limit  Limit on the number of memberships on each page (0 for no limit)
+	 *
+	 * @return Stream Users, in the order returned by the tool consumer
+	 *
+	 * @see #iterate(String, int)
+	 */
+	    public Stream<User> stream(String role, int limit) {
 
-	// If a result sourcedid is provided save the user
-	                if (isLink) {
-	                    if (member.containsKey("message")) {
-	                    	for (Map<String, String> message : parseMessages(member.get("message"))) {
-	                            if (message.containsKey("message_type") && (message.get("message_type") == "basic-lti-launch-request")) {
-	                                if (message.containsKey("lis_result_sourcedid")) {
-	                                    user.setLtiResultSourcedId(message.get("lis_result_sourcedid"));
-	                                    user.save();
-	                                }
-	                                break;                                
-	                            }
-	                        }
-	                    }
-	                }
-	                users.add(user);
+	        return StreamSupport.stream(iterate(role, limit).spliterator(), false);
 
-	// Remove old user (if it exists)
-	                if (isLink) {
-	                	oldUserIds.remove(user.getId(ToolProvider.ID_SCOPE_RESOURCE));
-	                }
-	            }
+	    }
 
-	// Delete any old users which were not in the latest list from the tool consumer
-	            if (isLink) {
-	                for (User userToDelete : oldUserIds.values()) {
-	                    userToDelete.delete();
-	                }
-	            }
-	        }
+	/**
+	 * Request a page of memberships on a background thread.  The response is parsed as it
+	 * is read, so neither the body nor a JSON object tree for it is held in memory.
+	 */
+	    private CompletableFuture<MembershipPage> fetch(final String url) {
 
-	        return users;
+	        final ResourceLink resourceLink = (this.source instanceof ResourceLink) ? (ResourceLink)this.source : null;
+	        final LTIMessage http = createMessage(url, "GET", null);
+
+	        return CompletableFuture.supplyAsync(new Supplier<MembershipPage>() {
+	        	@Override
+	        	public MembershipPage get() {
+	        		MembershipPage page = http.send(HttpTransport.getDefault(), new ResponseHandler<MembershipPage>() {
+	        			@Override
+	        			public MembershipPage handleResponse(HttpResponse response) throws IOException {
+	        				HttpEntity entity = response.getEntity();
+	        				if ((response.getStatusLine().getStatusCode() >= 400) || (entity == null)) {
+	        					throw new IllegalStateException("Membership service request failed: " + url);
+	        				}
+	        				try (Reader in = new InputStreamReader(entity.getContent(), StandardCharsets.UTF_8)) {
+	        					return MembershipPage.parse(in, resourceLink);
+	        				} catch (ParseException e) {
+	        					throw new IllegalStateException("Invalid membership service response: " + url, e);
+	        				}
+	        			}
+	        		});
+	        		if (page == null) {
+	        			throw new IllegalStateException("Membership service request failed: " + url);
+	        		}
+	        		return page;
+	        	}
+	        }, PAGE_EXECUTOR);
 
 	    }
 
-		private List<Map<String, String>> parseMessages(String string) {
-			// TODO take JSON string, turn into list of messages and message IDs
-			return null;
-		}
+	/**
+	 * Class to iterate over the users on each page of memberships, prefetching the next page.
+	 */
+	    private final class PageIterator implements Iterator<User> {
+
+	    	private Iterator<User> current = Collections.<User>emptyIterator();
+	    	private CompletableFuture<MembershipPage> next;
+
+	    	private PageIterator(String url) {
+	    		this.next = fetch(url);
+	    	}
+
+	    	@Override
+	    	public boolean hasNext() {
+	    		while (!current.hasNext()) {
+	    			if (next == null) {
+	    				return false;
+	    			}
+	    			MembershipPage page;
+	    			try {
+	    				page = next.join();
+	    			} catch (CompletionException e) {
+	    				next = null;
+	    				if (e.getCause() instanceof IllegalStateException) {
+	    					throw (IllegalStateException)e.getCause();
+	    				}
+	    				throw new IllegalStateException(e.getCause());
+	    			}
+	    			next = (page.getNextPage() != null) ? fetch(page.getNextPage()) : null;
+	    			current = page.getUsers().iterator();
+	    		}
+	    		return true;
+	    	}
+
+	    	@Override
+	    	public User next() {
+	    		if (!hasNext()) {
+	    			throw new NoSuchElementException();
+	    		}
+	    		return current.next();
+	    	}
+
+	    }
 
-		private Map<String, Map<String, String>> getMembership(LTIMessage http) {
-			return new HashMap<String, Map<String, String>>();
-		}
 }
@@ -0,0 +1,278 @@
+package org.imsglobal.lti.toolProvider.service;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.List;
+
+import org.imsglobal.lti.toolProvider.ResourceLink;
+import org.imsglobal.lti.toolProvider.ToolProvider;
+import org.imsglobal.lti.toolProvider.User;
+import org.json.simple.JSONArray;
+import org.json.simple.JSONObject;
+import org.json.simple.parser.ContentHandler;
+import org.json.simple.parser.JSONParser;
+import org.json.simple.parser.ParseException;
+
+/**
+ * Class to represent one page of an application/vnd.ims.lis.v2.membershipcontainer+json
+ * response.
+ *
+ * The response is parsed as a stream of JSON events rather than into a complete object
+ * tree: only the membership being read is built as objects, and it is converted to a
+ * User as soon as it ends.  Everything other than the memberships and the nextPage link
+ * is skipped.
+ *
+ * @author  David Block (dave@northcreek.ca)
+ */
+public class MembershipPage {
+
+	    private final List<User> users;
+	    private final String nextPage;
+
+	    private MembershipPage(List<User> users, String nextPage) {
+	    	this.users = Collections.unmodifiableList(users);
+	    	this.nextPage = nextPage;
+	    }
+
+	/**
+	 * Parse a page of memberships.
+	 *
+	 * @param json          membership container response
+	 * @param resourceLink  resource link the users belong to (null if the memberships are for a context)
+	 *
+	 * @return page of users
+	 *
+	 * @throws ParseException  if the response is not valid JSON
+	 */
+	    public static MembershipPage parse(String json, ResourceLink resourceLink) throws ParseException {
+
+	    	Handler handler = new Handler(resourceLink);
+	    	new JSONParser().parse(json, handler);
+
+	    	return new MembershipPage(handler.users, handler.nextPage);
+
+	    }
+
+	/**
+	 * Parse a page of memberships as it is read, so the response is not held in memory.
+	 *
+	 * @param json          reader for the membership container response
+	 * @param resourceLink  resource link the users belong to (null if the memberships are for a context)
+	 *
+	 * @return page of users
+	 *
+	 * @throws IOException     if the response cannot be read
+	 * @throws ParseException  if the response is not valid JSON
+	 */
+	    public static MembershipPage parse(Reader json, ResourceLink resourceLink) throws IOException, ParseException {
+
+	    	Handler handler = new Handler(resourceLink);
+	    	new JSONParser().parse(json, handler);
+
+	    	return new MembershipPage(handler.users, handler.nextPage);
+
+	    }
+
+	/**
+	 * Get the users on this page.
+	 *
+	 * @return list of users
+	 */
+	    public List<User> getUsers() {
+	    	return users;
+	    }
+
+	/**
+	 * Get the URL of the next page.
+	 *
+	 * @return URL of the next page (null if this is the last page)
+	 */
+	    public String getNextPage() {
+	    	return nextPage;
+	    }
+
+	/**
+	 * Create a user from a membership object.
+	 */
+	    private static User toUser(JSONObject membership, ResourceLink resourceLink) {
+
+	    	Object value = membership.get("member");
+	    	if (!(value instanceof JSONObject)) {
+	    		return null;
+	    	}
+	    	JSONObject member = (JSONObject)value;
+	    	User user;
+	    	if (resourceLink != null) {
+	    		user = User.fromResourceLink(resourceLink, null);
+	    	} else {
+	    		user = new User();
+	    	}
+	    	user.setLtiUserId(getString(member, "userId"));
+
+	// Set the user name
+	    	user.setNames(getString(member, "givenName"), getString(member, "familyName"), getString(member, "name"));
+
+	// Set the user email
+	    	String defaultEmail = (resourceLink != null) ? resourceLink.getConsumer().getDefaultEmail() : "";
+	    	user.setEmail(getString(member, "email"), defaultEmail);
+
+	// Set the user roles
+	    	value = membership.get("role");
+	    	List<String> roles = new ArrayList<String>();
+	    	if (value instanceof JSONArray) {
+	    		for (Object role : (JSONArray)value) {
+	    			roles.add(String.valueOf(role));
+	    		}
+	    	} else if (value != null) {
+	    		roles.add(String.valueOf(value));
+	    	}
+	    	if (!roles.isEmpty()) {
+	    		user.setRoles(ToolProvider.parseRoles(roles));
+	    	}
+
+	// Set the result sourcedid from the launch message
+	    	value = membership.get("message");
+	    	if ((resourceLink != null) && (value instanceof JSONArray)) {
+	    		for (Object message : (JSONArray)value) {
+	    			if ((message instanceof JSONObject) &&
+	    					"basic-lti-launch-request".equals(((JSONObject)message).get("message_type"))) {
+	    				String sourcedId = getString((JSONObject)message, "lis_result_sourcedid");
+	    				if (!sourcedId.isEmpty()) {
+	    					user.setLtiResultSourcedId(sourcedId);
+	    				}
+	    				break;
+	    			}
+	    		}
+	    	}
+
+	    	return user;
+
+	    }
+
+	    private static String getString(JSONObject obj, String name) {
+
+	    	Object value = obj.get(name);
+
+	    	return (value != null) ? value.toString() : "";
+
+	    }
+
+	/**
+	 * Class to build each membership object from the parser events, skipping the rest of
+	 * the response.
+	 */
+	    private static final class Handler implements ContentHandler {
+
+	    	private final ResourceLink resourceLink;
+	    	private final List<User> users = new ArrayList<User>();
+	    	private String nextPage = null;
+	// Keys of the object entries being read
+	    	private final Deque<String> keys = new ArrayDeque<String>();
+	// Objects and arrays of the membership being built
+	    	private final Deque<Object> building = new ArrayDeque<Object>();
+	    	private int depth = 0;
+	    	private int membershipDepth = -1;
+
+	    	private Handler(ResourceLink resourceLink) {
+	    		this.resourceLink = resourceLink;
+	    	}
+
+	    	@Override
+	    	public void startJSON() {
+	    	}
+
+	    	@Override
+	    	public void endJSON() {
+	    	}
+
+	    	@Override
+	    	public boolean startObject() {
+	    		depth++;
+	    		JSONObject obj = new JSONObject();
+	    		if (!building.isEmpty()) {
+	    			add(obj);
+	    			building.push(obj);
+	    		} else if (depth == membershipDepth + 1) {
+	    			building.push(obj);
+	    		}
+	    		return true;
+	    	}
+
+	    	@Override
+	    	public boolean endObject() {
+	    		if (!building.isEmpty()) {
+	    			JSONObject obj = (JSONObject)building.pop();
+	    			if (building.isEmpty()) {
+	    				User user = toUser(obj, resourceLink);
+	    				if (user != null) {
+	    					users.add(user);
+	    				}
+	    			}
+	    		}
+	    		depth--;
+	    		return true;
+	    	}
+
+	    	@Override
+	    	public boolean startObjectEntry(String key) {
+	    		keys.push(key);
+	    		return true;
+	    	}
+
+	    	@Override
+	    	public boolean endObjectEntry() {
+	    		keys.pop();
+	    		return true;
+	    	}
+
+	    	@Override
+	    	public boolean startArray() {
+	    		depth++;
+	    		if (!building.isEmpty()) {
+	    			JSONArray array = new JSONArray();
+	    			add(array);
+	    			building.push(array);
+	    		} else if ((membershipDepth < 0) && "membership".equals(keys.peek())) {
+	    			membershipDepth = depth;
+	    		}
+	    		return true;
+	    	}
+
+	    	@Override
+	    	public boolean endArray() {
+	    		if (!building.isEmpty()) {
+	    			building.pop();
+	    		} else if (depth == membershipDepth) {
+	    			membershipDepth = -1;
+	    		}
+	    		depth--;
+	    		return true;
+	    	}
+
+	    	@Override
+	    	public boolean primitive(Object value) throws ParseException, IOException {
+	    		if (!building.isEmpty()) {
+	    			add(value);
+	    		} else if ((depth == 1) && "nextPage".equals(keys.peek()) && (value != null)) {
+	    			nextPage = value.toString();
+	    		}
+	    		return true;
+	    	}
+
+	    	@SuppressWarnings("unchecked")
+	    	private void add(Object value) {
+	    		Object parent = building.peek();
+	    		if (parent instanceof JSONArray) {
+	    			((JSONArray)parent).add(value);
+	    		} else {
+	    			((JSONObject)parent).put(keys.peek(), value);
+	    		}
+	    	}
+
+	    }
+
+}
@@ -5,6 +5,7 @@ import java.util.Map;
 import java.io.UnsupportedEncodingException;
 import java.net.URLEncoder;
 
+import org.apache.commons.lang3.StringUtils;
 import org.apache.http.HttpMessage;
 import org.imsglobal.lti.LTIMessage;
 import org.imsglobal.lti.toolProvider.ToolConsumer;
@@ -124,14 +125,57 @@ public class Service {
 	}
     public LTIMessage send(String method, Map<String, List<String>> parameters, String body)
     {
-    	String sep = "";
-    	String header = null;
-        String url = this.endpoint;
-        if (!parameters.isEmpty()) {
+
+        String url = addParameters(this.endpoint, parameters);
+// Connect to tool consumer
+        LTIMessage http = createMessage(url, method, body);
+// Parse JSON response
+        if (http.send() && StringUtils.isNotEmpty(http.getResponse())) {
+            http.setOk(http.getResponseJson() != null);
+        }
+
+        return http;
+
+    }
+
+/**
+ * Create a (signed) service request to a URL without sending it.
+ *
+ * @param string  url     URL to send request to, including any query parameters
+ * @param string  method  The action type constant
+ * @param string  body    Body of request (null for none)
+ *
+ * @return LTIMessage HTTP object for the request
+ */
+    protected LTIMessage createMessage(String url, String method, String body)
+    {
+
+        String header = null;
+        if (!this.isUnsigned()) {
+            header = ToolConsumer.addSignature(url, this.getConsumer().getKey(), this.getConsumer().getSecret(), body, method, this.getMediaType());
+        }
+
+        return new LTIMessage(url, method, body, header, null);
+
+    }
+
+/**
+ * Add query parameters to a URL.
+ *
+ * @param string  url         URL to add the parameters to
+ * @param array   parameters  Query parameters to add (null for none)
+ *
+ * @return string URL with the parameters added
+ */
+    protected static String addParameters(String url, Map<String, List<String>> parameters)
+    {
+
+        if ((parameters != null) && !parameters.isEmpty()) {
+            String sep;
             if (url.indexOf('?')>-1) {
-                sep = "?";
-            } else {
                 sep = "&";
+            } else {
+                sep = "?";
             }
             for (String name : parameters.keySet()) {
             	for (String value : parameters.get(name)) {
@@ -145,20 +189,8 @@ public class Service {
             	}
             }
         }
-        if (!this.isUnsigned()) {
-            header = ToolConsumer.addSignature(url, this.getConsumer().getKey(), this.getConsumer().getSecret(), body, method, this.getMediaType());
-        } else {
-            header = null;
-        }
-
-// Connect to tool consumer
-        LTIMessage http = new LTIMessage(url, method, body, header, null);
-// Parse JSON response
-        if (http.send() && http.getResponse().isEmpty()) {
-            http.setOk(http.getResponseJson() != null);
-        }
 
-        return http;
+        return url;
 
     }
 
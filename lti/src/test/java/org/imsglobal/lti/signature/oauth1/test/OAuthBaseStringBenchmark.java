@@ -0,0 +1,136 @@
+package org.imsglobal.lti.signature.oauth1.test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeSet;
+import java.util.concurrent.TimeUnit;
+
+import org.imsglobal.lti.signature.oauth1.OAuthBaseString;
+import org.imsglobal.lti.signature.oauth1.OAuthUtil;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import net.oauth.OAuth;
+import net.oauth.OAuthMessage;
+import net.oauth.signature.OAuthSignatureMethod;
+
+/**
+ * Compares building the signature base string of a typical launch (40 to 60 parameters,
+ * including custom and extension parameters with non-ASCII values) using OAuthBaseString
+ * with the previous route through the net.oauth library.
+ *
+ * Run the main method with the test classpath (after mvn test-compile).
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class OAuthBaseStringBenchmark {
+
+	private static final String URL = "https://tool.example.com/lti/launch.php";
+
+	@Param({"40", "60"})
+	public int size;
+
+	private Map<String, List<String>> params;
+
+	@Setup
+	public void setUp() {
+		params = new LinkedHashMap<String, List<String>>();
+		put("lti_message_type", "basic-lti-launch-request");
+		put("lti_version", "LTI-1p0");
+		put("resource_link_id", "429785226");
+		put("resource_link_title", "Week 3 – Reading & Quiz");
+		put("resource_link_description", "A weekly quiz, worth 5% of the final grade.");
+		put("user_id", "292832126");
+		put("roles", "Instructor,urn:lti:role:ims/lis/TeachingAssistant");
+		put("lis_person_name_given", "Renée");
+		put("lis_person_name_family", "O'Brien");
+		put("lis_person_name_full", "Renée O'Brien");
+		put("lis_person_contact_email_primary", "renee.obrien@example.edu");
+		put("lis_person_sourcedid", "school.edu:user");
+		put("context_id", "456434513");
+		put("context_type", "CourseSection");
+		put("context_title", "Design of Personal Environments");
+		put("context_label", "SI182");
+		put("launch_presentation_locale", "en-US");
+		put("launch_presentation_document_target", "iframe");
+		put("launch_presentation_return_url", "https://lms.example.edu/portal/return?course=456434513&tab=2");
+		put("lis_outcome_service_url", "https://lms.example.edu/imsblis/service/");
+		put("lis_result_sourcedid", "feb-123-456-2929::28883");
+		put("tool_consumer_instance_guid", "lmsng.school.edu");
+		put("tool_consumer_instance_name", "SchoolU");
+		put("tool_consumer_info_product_family_code", "moodle");
+		put("tool_consumer_info_version", "3.1");
+		put("oauth_consumer_key", "12345");
+		put("oauth_signature_method", "HMAC-SHA1");
+		put("oauth_timestamp", "1483228800");
+		put("oauth_nonce", "c8671ff2b4c1a0d94a0b8d5e3c1f8e7a");
+		put("oauth_version", "1.0");
+		put("oauth_callback", "about:blank");
+		put("oauth_signature", "QWxhZGRpbjpvcGVuIHNlc2FtZQ==");
+		for (int i = 0; params.size() < size; i++) {
+			if ((i % 2) == 0) {
+				put("custom_setting_" + i, "value " + i + " / über");
+			} else {
+				put("ext_setting_" + i, "value-" + i);
+			}
+		}
+	}
+
+	@Benchmark
+	public String baseString() {
+		return OAuthBaseString.build("POST", URL, params);
+	}
+
+	@Benchmark
+	public String netOAuth() throws Exception {
+		// As ToolConsumer.convert and OAuthMessage did before
+		TreeSet<Map.Entry<String, String>> sorted = new TreeSet<Map.Entry<String, String>>(new Comparator<Map.Entry<String, String>>() {
+			@Override
+			public int compare(Map.Entry<String, String> o1, Map.Entry<String, String> o2) {
+				int c = o1.getKey().compareTo(o2.getKey());
+				return (c != 0) ? c : o1.getValue().compareTo(o2.getValue());
+			}
+		});
+		for (Map.Entry<String, List<String>> entry : params.entrySet()) {
+			for (String value : entry.getValue()) {
+				sorted.add(new OAuth.Parameter(entry.getKey(), value));
+			}
+		}
+		OAuthMessage message = new OAuthMessage("POST", URL, new ArrayList<Map.Entry<String, String>>(sorted));
+		return OAuthSignatureMethod.getBaseString(message);
+	}
+
+	@Benchmark
+	public String httpQuery() {
+		return OAuthUtil.build_http_query(params);
+	}
+
+	private void put(String name, String value) {
+		params.put(name, Arrays.asList(value));
+	}
+
+	public static void main(String[] args) throws RunnerException {
+		new Runner(new OptionsBuilder().include(OAuthBaseStringBenchmark.class.getSimpleName()).build()).run();
+	}
+
+}
@@ -0,0 +1,43 @@
+package org.imsglobal.lti.signature.oauth1.test;
+
+import static org.junit.Assert.assertEquals;
+
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.imsglobal.lti.signature.oauth1.OAuthBaseString;
+import org.imsglobal.lti.signature.oauth1.OAuthUtil;
+import org.junit.Test;
+
+public class OAuthBaseStringTest {
+
+	@Test
+	public void testBaseStringMatchesSpecificationExample() {
+		// RFC 5849 section 3.4.1.1, with the body parameters given as message parameters
+		Map<String, List<String>> params = new LinkedHashMap<String, List<String>>();
+		params.put("oauth_consumer_key", Arrays.asList("9djdj82h48djs9d2"));
+		params.put("oauth_token", Arrays.asList("kkk9d7dh3k39sjv7"));
+		params.put("oauth_signature_method", Arrays.asList("HMAC-SHA1"));
+		params.put("oauth_timestamp", Arrays.asList("137131201"));
+		params.put("oauth_nonce", Arrays.asList("7d8f3e4a"));
+		params.put("oauth_signature", Arrays.asList("djosJKDKJSD8743243%2Fjdk33klY%3D"));
+		params.put("c2", Arrays.asList(""));
+		params.put("a3", Arrays.asList("2 q"));
+		String baseString = OAuthBaseString.build("post",
+			"http://EXAMPLE.COM:80/request?b5=%3D%253D&a3=a&c%40=&a2=r%20b", params);
+		assertEquals("POST&http%3A%2F%2Fexample.com%2Frequest&a2%3Dr%2520b%26a3%3D2%2520q%26a3%3Da" +
+			"%26b5%3D%253D%25253D%26c%2540%3D%26c2%3D%26oauth_consumer_key%3D9djdj82h48djs9d2" +
+			"%26oauth_nonce%3D7d8f3e4a%26oauth_signature_method%3DHMAC-SHA1" +
+			"%26oauth_timestamp%3D137131201%26oauth_token%3Dkkk9d7dh3k39sjv7", baseString);
+	}
+
+	@Test
+	public void testPercentEncode() {
+		assertEquals("a%20b%2A~%C3%A9%F0%9F%98%80", OAuthBaseString.percentEncode("a b*~é😀"));
+		assertEquals("", OAuthBaseString.percentEncode(null));
+		assertEquals(OAuthBaseString.percentEncode("x+y=z"), OAuthUtil.urlencode_rfc3986("x+y=z"));
+	}
+
+}
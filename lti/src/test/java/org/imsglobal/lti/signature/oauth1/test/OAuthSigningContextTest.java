@@ -0,0 +1,137 @@
+package org.imsglobal.lti.signature.oauth1.test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.imsglobal.lti.signature.oauth1.OAuthBaseString;
+import org.imsglobal.lti.signature.oauth1.OAuthSigningContext;
+import org.imsglobal.lti.toolProvider.ToolConsumer;
+import org.imsglobal.lti.toolProvider.dataConnector.DataConnector;
+import org.junit.Test;
+
+import net.oauth.OAuth;
+import net.oauth.OAuthAccessor;
+import net.oauth.OAuthConsumer;
+import net.oauth.OAuthMessage;
+import net.oauth.OAuthProblemException;
+import net.oauth.SimpleOAuthValidator;
+
+public class OAuthSigningContextTest {
+
+	private static final String URL = "http://tool.example.com/launch?course=a%20b";
+
+	// A launch signed by the OAuth library, as a tool consumer would send it
+	private static OAuthMessage launch(String secret) throws Exception {
+		List<Map.Entry<String, String>> params = new ArrayList<Map.Entry<String, String>>();
+		params.add(new OAuth.Parameter("lti_message_type", "basic-lti-launch-request"));
+		params.add(new OAuth.Parameter("lti_version", "LTI-1p0"));
+		params.add(new OAuth.Parameter("resource_link_id", "link-1"));
+		params.add(new OAuth.Parameter("user_id", "user 1"));
+		params.add(new OAuth.Parameter("course", "a b"));
+		OAuthMessage message = new OAuthMessage("POST", URL, params);
+		message.addRequiredParameters(new OAuthAccessor(new OAuthConsumer("about:blank", "key", secret, null)));
+		return message;
+	}
+
+	private static Map<String, List<String>> toMap(OAuthMessage message) throws Exception {
+		Map<String, List<String>> params = new LinkedHashMap<String, List<String>>();
+		for (Map.Entry<String, String> param : message.getParameters()) {
+			List<String> values = params.get(param.getKey());
+			if (values == null) {
+				values = new ArrayList<String>();
+				params.put(param.getKey(), values);
+			}
+			values.add(param.getValue());
+		}
+		return params;
+	}
+
+	private static void validate(OAuthSigningContext context, Map<String, List<String>> params) throws Exception {
+		context.validate("POST", URL, params, OAuthBaseString.build("POST", URL, params));
+	}
+
+	private static void assertRejected(OAuthSigningContext context, Map<String, List<String>> params, String problem)
+			throws Exception {
+		try {
+			validate(context, params);
+			fail("Expected the message to be rejected");
+		} catch (OAuthProblemException e) {
+			assertEquals(problem, e.getProblem());
+		}
+	}
+
+	@Test
+	public void testLibrarySignedLaunchIsValid() throws Exception {
+		validate(OAuthSigningContext.forConsumer("key", "secret"), toMap(launch("secret")));
+	}
+
+	@Test
+	public void testTamperedParameterIsRejected() throws Exception {
+		Map<String, List<String>> params = toMap(launch("secret"));
+		params.get("user_id").set(0, "user 2");
+		assertRejected(OAuthSigningContext.forConsumer("key", "secret"), params, OAuth.Problems.SIGNATURE_INVALID);
+	}
+
+	@Test
+	public void testWrongSecretIsRejected() throws Exception {
+		assertRejected(OAuthSigningContext.forConsumer("key", "other"), toMap(launch("secret")),
+			OAuth.Problems.SIGNATURE_INVALID);
+	}
+
+	@Test
+	public void testOldTimestampIsRejected() throws Exception {
+		OAuthSigningContext context = OAuthSigningContext.forConsumer("key", "secret");
+		long now = System.currentTimeMillis() / 1000L;
+		for (long timestamp : new long[] {now - 301L, now + 301L}) {
+			OAuthMessage message = launch("secret");
+			Map<String, List<String>> params = toMap(message);
+			params.get(OAuth.OAUTH_TIMESTAMP).set(0, Long.toString(timestamp));
+			// Sign again so only the timestamp is wrong
+			params.remove(OAuth.OAUTH_SIGNATURE);
+			List<String> signature = new ArrayList<String>();
+			signature.add(context.sign(OAuthBaseString.build("POST", URL, params)));
+			params.put(OAuth.OAUTH_SIGNATURE, signature);
+			assertRejected(context, params, OAuth.Problems.TIMESTAMP_REFUSED);
+		}
+	}
+
+	@Test
+	public void testUnsupportedVersionIsRejected() throws Exception {
+		Map<String, List<String>> params = toMap(launch("secret"));
+		params.get(OAuth.OAUTH_VERSION).set(0, "2.0");
+		assertRejected(OAuthSigningContext.forConsumer("key", "secret"), params, OAuth.Problems.VERSION_REJECTED);
+	}
+
+	@Test
+	public void testSignedMessageValidatesWithLibrary() throws Exception {
+		List<Map.Entry<String, String>> params = new ArrayList<Map.Entry<String, String>>();
+		params.add(new OAuth.Parameter("lti_message_type", "basic-lti-launch-request"));
+		params.add(new OAuth.Parameter("user_id", "user 1"));
+		OAuthMessage message = new OAuthMessage("POST", URL, params);
+		OAuthSigningContext.forConsumer("key", "s&cret").sign(message);
+		new SimpleOAuthValidator().validateMessage(message,
+			new OAuthAccessor(new OAuthConsumer("about:blank", "key", "s&cret", null)));
+	}
+
+	@Test
+	public void testContextHeldByConsumer() {
+		ToolConsumer consumer = new ToolConsumer(null, new DataConnector(null, ""));
+		consumer.setKey("key");
+		consumer.setSecret("secret");
+		OAuthSigningContext context = consumer.getSigningContext();
+		assertSame(context, consumer.getSigningContext());
+		assertTrue(context.matches("key", "secret"));
+		consumer.setSecret("changed");
+		assertNotSame(context, consumer.getSigningContext());
+		assertTrue(consumer.getSigningContext().matches("key", "changed"));
+	}
+
+}
@@ -0,0 +1,127 @@
+package org.imsglobal.lti.test;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.imsglobal.lti.LTIUtil;
+import org.imsglobal.lti.XmlIndex;
+import org.imsglobal.lti.XmlPath;
+import org.jdom2.Document;
+import org.jdom2.Element;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+/**
+ * Compares reading the fields of every member of a memberships response (10,000 members
+ * with groups) using descendant searches (LTIUtil.getXmlChild) with an XmlIndex built
+ * for the document and with compiled XmlPath lookups.
+ *
+ * Run the main method with the test classpath (after mvn test-compile).
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class XmlIndexBenchmark {
+
+	private static final String[] FIELDS = {"user_id", "person_name_given", "person_name_family", "person_name_full",
+		"person_contact_email_primary", "roles", "lis_result_sourcedid"};
+
+	private static final XmlPath MEMBERS = XmlPath.compile("memberships/member");
+	private static final XmlPath[] FIELD_PATHS = new XmlPath[FIELDS.length];
+	static {
+		for (int i = 0; i < FIELDS.length; i++) {
+			FIELD_PATHS[i] = XmlPath.compile(FIELDS[i]);
+		}
+	}
+	private static final XmlPath GROUP_IDS = XmlPath.compile("groups/group/id");
+
+	@Param({"10000"})
+	public int members;
+
+	private Document doc;
+
+	@Setup
+	public void setUp() {
+		StringBuilder xml = new StringBuilder();
+		xml.append("<?xml version=\"1.0\" encoding=\"UTF-8\"?>\n<message_response>\n");
+		xml.append("<lti_message_type>basic-lis-readmembershipsforcontextwithgroups</lti_message_type>\n");
+		xml.append("<statusinfo><codemajor>Success</codemajor><severity>Status</severity><codeminor>fullsuccess</codeminor></statusinfo>\n");
+		xml.append("<memberships>\n");
+		for (int i = 0; i < members; i++) {
+			xml.append("<member><user_id>user-").append(i).append("</user_id>");
+			xml.append("<roles>").append(((i % 25) == 0) ? "Instructor" : "Learner").append("</roles>");
+			xml.append("<person_sourcedid>school.edu:").append(i).append("</person_sourcedid>");
+			xml.append("<person_name_given>Given").append(i).append("</person_name_given>");
+			xml.append("<person_name_family>Family").append(i).append("</person_name_family>");
+			xml.append("<person_name_full>Given").append(i).append(" Family").append(i).append("</person_name_full>");
+			xml.append("<person_contact_email_primary>user").append(i).append("@example.edu</person_contact_email_primary>");
+			xml.append("<groups><group><id>g").append(i % 40).append("</id><title>Group ").append(i % 40).append("</title>");
+			xml.append("<set><id>s").append(i % 4).append("</id><title>Set ").append(i % 4).append("</title></set></group></groups>");
+			xml.append("<lis_result_sourcedid>feb-123-456-").append(i).append("</lis_result_sourcedid></member>\n");
+		}
+		xml.append("</memberships>\n</message_response>\n");
+		doc = LTIUtil.getXMLDoc(xml.toString());
+	}
+
+	@Benchmark
+	public void descendantSearch(Blackhole bh) {
+		Element memberships = LTIUtil.getXmlChild(doc.getRootElement(), "memberships");
+		for (Element member : memberships.getChildren("member")) {
+			for (String field : FIELDS) {
+				bh.consume(LTIUtil.getXmlChildValue(member, field));
+			}
+			Element groups = LTIUtil.getXmlChild(member, "groups");
+			for (Element group : groups.getChildren("group")) {
+				bh.consume(LTIUtil.getXmlChildValue(group, "id"));
+			}
+		}
+	}
+
+	@Benchmark
+	public void index(Blackhole bh) {
+		XmlIndex index = new XmlIndex(doc);
+		for (Element member : index.getElements("member")) {
+			for (String field : FIELDS) {
+				bh.consume(index.getChildValue(member, field));
+			}
+			Element groups = index.getChild(member, "groups");
+			for (Element group : groups.getChildren("group")) {
+				bh.consume(index.getChildValue(group, "id"));
+			}
+		}
+	}
+
+	@Benchmark
+	public void path(Blackhole bh) {
+		List<Element> list = MEMBERS.selectAll(doc.getRootElement());
+		for (Element member : list) {
+			for (XmlPath field : FIELD_PATHS) {
+				bh.consume(field.valueOf(member));
+			}
+			for (Element id : GROUP_IDS.selectAll(member)) {
+				bh.consume(id.getText());
+			}
+		}
+	}
+
+	public static void main(String[] args) throws RunnerException {
+		new Runner(new OptionsBuilder().include(XmlIndexBenchmark.class.getSimpleName()).build()).run();
+	}
+
+}
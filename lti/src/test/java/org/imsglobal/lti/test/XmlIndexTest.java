@@ -0,0 +1,50 @@
+package org.imsglobal.lti.test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+
+import org.imsglobal.lti.LTIUtil;
+import org.imsglobal.lti.XmlIndex;
+import org.imsglobal.lti.XmlPath;
+import org.jdom2.Document;
+import org.jdom2.Element;
+import org.junit.Test;
+
+public class XmlIndexTest {
+
+	private static final String XML =
+		"<?xml version=\"1.0\" encoding=\"UTF-8\"?>" +
+		"<imsx_POXEnvelopeResponse xmlns=\"http://www.imsglobal.org/services/ltiv1p1/xsd/imsoms_v1p0\">" +
+		"<imsx_POXHeader><imsx_POXResponseHeaderInfo><imsx_version>V1.0</imsx_version>" +
+		"<imsx_statusInfo><imsx_codeMajor>success</imsx_codeMajor></imsx_statusInfo>" +
+		"</imsx_POXResponseHeaderInfo></imsx_POXHeader>" +
+		"<imsx_POXBody><readResultResponse><result><resultScore><language>en</language>" +
+		"<textString>0.91</textString></resultScore></result></readResultResponse></imsx_POXBody>" +
+		"</imsx_POXEnvelopeResponse>";
+
+	@Test
+	public void testMatchesDescendantSearch() {
+		Document doc = LTIUtil.getXMLDoc(XML);
+		XmlIndex index = new XmlIndex(doc);
+		Element root = doc.getRootElement();
+		for (String name : new String[] {"imsx_statusInfo", "imsx_codeMajor", "textString", "language", "missing"}) {
+			assertSame(LTIUtil.getXmlChild(root, name), index.getChild(name));
+		}
+		Element status = index.getChild("imsx_statusInfo");
+		assertEquals("success", index.getChildValue(status, "imsx_codeMajor"));
+		// Only descendants of the parent are found
+		assertNull(index.getChild(status, "textString"));
+		assertEquals("0.91", index.getChildValue("textString"));
+	}
+
+	@Test
+	public void testPath() {
+		Document doc = LTIUtil.getXMLDoc(XML);
+		XmlPath path = XmlPath.compile("imsx_POXHeader/imsx_POXResponseHeaderInfo/imsx_statusInfo/imsx_codeMajor");
+		assertEquals("success", path.valueOf(doc.getRootElement()));
+		assertNull(XmlPath.compile("imsx_POXBody/textString").select(doc.getRootElement()));
+		assertEquals(1, XmlPath.compile("imsx_POXBody/readResultResponse").selectAll(doc.getRootElement()).size());
+	}
+
+}
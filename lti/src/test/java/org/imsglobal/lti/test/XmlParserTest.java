@@ -0,0 +1,37 @@
+package org.imsglobal.lti.test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+import java.io.ByteArrayInputStream;
+import java.nio.charset.StandardCharsets;
+
+import org.imsglobal.lti.LTIUtil;
+import org.jdom2.Document;
+import org.junit.Test;
+
+public class XmlParserTest {
+
+	@Test
+	public void testParseStream() {
+		String xml = "<?xml version=\"1.0\" encoding=\"UTF-8\"?><result><textString>Très bien</textString></result>";
+		Document doc = LTIUtil.getXMLDoc(new ByteArrayInputStream(xml.getBytes(StandardCharsets.UTF_8)));
+		assertEquals("Très bien", doc.getRootElement().getChildText("textString"));
+	}
+
+	@Test
+	public void testGarbageBeforeDeclaration() {
+		Document doc = LTIUtil.getXMLDoc("Notice: undefined index\n<?xml version=\"1.0\"?><result/>");
+		assertEquals("result", doc.getRootElement().getName());
+	}
+
+	@Test
+	public void testDoctypeRejected() {
+		String xml = "<?xml version=\"1.0\"?><!DOCTYPE result [<!ENTITY xxe SYSTEM \"file:///etc/passwd\">]>" +
+			"<result>&xxe;</result>";
+		assertNull(LTIUtil.getXMLDoc(xml));
+		// The parser is still usable after a rejected document
+		assertEquals("result", LTIUtil.getXMLDoc("<result/>").getRootElement().getName());
+	}
+
+}
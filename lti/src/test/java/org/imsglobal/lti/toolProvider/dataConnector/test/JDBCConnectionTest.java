@@ -0,0 +1,179 @@
+package org.imsglobal.lti.toolProvider.dataConnector.test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.PrintWriter;
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.sql.SQLFeatureNotSupportedException;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.logging.Logger;
+
+import javax.sql.DataSource;
+
+import org.imsglobal.lti.toolProvider.Context;
+import org.imsglobal.lti.toolProvider.ResourceLink;
+import org.imsglobal.lti.toolProvider.ToolConsumer;
+import org.imsglobal.lti.toolProvider.User;
+import org.imsglobal.lti.toolProvider.dataConnector.JDBC;
+import org.junit.Before;
+import org.junit.Test;
+
+public class JDBCConnectionTest {
+
+	private CountingDataSource dataSource;
+	private JDBC connector;
+
+	/**
+	 * Data source which counts the connections borrowed and not yet returned.
+	 */
+	private static class CountingDataSource implements DataSource {
+
+		private final DataSource dataSource;
+		private int borrowed = 0;
+		private int open = 0;
+
+		private CountingDataSource(DataSource dataSource) {
+			this.dataSource = dataSource;
+		}
+
+		@Override
+		public Connection getConnection() throws SQLException {
+			final Connection conn = dataSource.getConnection();
+			borrowed++;
+			open++;
+			return (Connection)Proxy.newProxyInstance(Connection.class.getClassLoader(), new Class<?>[] {Connection.class},
+				new InvocationHandler() {
+					private boolean closed = false;
+
+					@Override
+					public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+						if ("close".equals(method.getName()) && !closed) {
+							closed = true;
+							open--;
+						}
+						try {
+							return method.invoke(conn, args);
+						} catch (InvocationTargetException e) {
+							throw e.getCause();
+						}
+					}
+				});
+		}
+
+		@Override
+		public Connection getConnection(String username, String password) throws SQLException {
+			return getConnection();
+		}
+
+		@Override
+		public PrintWriter getLogWriter() throws SQLException {
+			return dataSource.getLogWriter();
+		}
+
+		@Override
+		public void setLogWriter(PrintWriter out) throws SQLException {
+			dataSource.setLogWriter(out);
+		}
+
+		@Override
+		public void setLoginTimeout(int seconds) throws SQLException {
+			dataSource.setLoginTimeout(seconds);
+		}
+
+		@Override
+		public int getLoginTimeout() throws SQLException {
+			return dataSource.getLoginTimeout();
+		}
+
+		@Override
+		public Logger getParentLogger() throws SQLFeatureNotSupportedException {
+			return dataSource.getParentLogger();
+		}
+
+		@Override
+		public <T> T unwrap(Class<T> iface) throws SQLException {
+			return dataSource.unwrap(iface);
+		}
+
+		@Override
+		public boolean isWrapperFor(Class<?> iface) throws SQLException {
+			return dataSource.isWrapperFor(iface);
+		}
+
+	}
+
+	@Before
+	public void setUp() throws SQLException {
+		dataSource = new CountingDataSource(TestDatabase.dataSource());
+		connector = new JDBC(dataSource, "");
+		connector.setConsumerCache(null);
+	}
+
+	// Check that the operation borrowed a connection and returned it
+	private void assertReturned(int borrowedBefore) {
+		assertTrue(dataSource.borrowed > borrowedBefore);
+		assertEquals(0, dataSource.open);
+	}
+
+	@Test
+	public void testConnectionReturnedAfterEachOperation() {
+		int borrowed = dataSource.borrowed;
+		ToolConsumer consumer = new ToolConsumer(null, connector);
+		consumer.setKey("key");
+		consumer.setName("Test");
+		assertTrue(consumer.save());
+		assertReturned(borrowed);
+
+		borrowed = dataSource.borrowed;
+		ToolConsumer loaded = new ToolConsumer("key", connector);
+		assertEquals(consumer.getRecordId(), loaded.getRecordId());
+		assertReturned(borrowed);
+
+		borrowed = dataSource.borrowed;
+		Context context = Context.fromConsumer(consumer, "context-1");
+		assertTrue(context.save());
+		ResourceLink resourceLink = ResourceLink.fromContext(context, "link-1");
+		resourceLink.setLtiResourceLinkId("link-1");
+		assertTrue(resourceLink.save());
+		User user = User.fromResourceLink(resourceLink, "user-1");
+		user.setLtiUserId("user-1");
+		user.setLtiResultSourcedId("sourcedid-1");
+		assertTrue(user.save());
+		assertReturned(borrowed);
+
+		borrowed = dataSource.borrowed;
+		assertEquals(1, connector.getToolConsumers().size());
+		assertTrue(connector.resolveLaunch("key", "context-1", "link-1", "user-1").isConsumerFound());
+		assertReturned(borrowed);
+
+		borrowed = dataSource.borrowed;
+		Map<String, String> members = new LinkedHashMap<String, String>();
+		members.put("user-2", "sourcedid-2");
+		assertTrue(connector.syncRoster(resourceLink, members).isOk());
+		assertReturned(borrowed);
+	}
+
+	@Test
+	public void testConnectionReturnedAfterFailure() {
+		int borrowed = dataSource.borrowed;
+		ToolConsumer consumer = new ToolConsumer(null, connector);
+		consumer.setKey("key");
+		consumer.setName("Test");
+		assertTrue(consumer.save());
+		// A second consumer with the same key breaks the unique key
+		ToolConsumer duplicate = new ToolConsumer(null, connector);
+		duplicate.setKey("key");
+		duplicate.setName("Duplicate");
+		assertFalse(duplicate.save());
+		assertReturned(borrowed);
+	}
+
+}
@@ -0,0 +1,91 @@
+package org.imsglobal.lti.toolProvider.dataConnector.test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import javax.sql.DataSource;
+
+import org.imsglobal.lti.toolProvider.dataConnector.JDBC;
+import org.imsglobal.lti.toolProvider.dataConnector.JDBCNonceStore;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+public class JDBCNonceStoreTest {
+
+	private Connection conn;
+	private JDBCNonceStore store;
+
+	@Before
+	public void setUp() throws SQLException {
+		conn = TestDatabase.open();
+		store = new JDBCNonceStore(new JDBC(conn, ""));
+	}
+
+	@After
+	public void tearDown() throws SQLException {
+		store.close();
+		conn.close();
+	}
+
+	@Test
+	public void testCheckAndRecordRejectsReplay() {
+		long expires = System.currentTimeMillis() + 60000L;
+		assertTrue(store.checkAndRecord(1, "abc", expires));
+		assertFalse(store.checkAndRecord(1, "abc", expires));
+		assertTrue(store.contains(1, "abc"));
+		// nonce values are scoped to a consumer
+		assertTrue(store.checkAndRecord(2, "abc", expires));
+	}
+
+	@Test
+	public void testExpiredValueDoesNotBlock() {
+		long now = System.currentTimeMillis();
+		assertTrue(store.record(1, "old", now - 1));
+		assertFalse(store.contains(1, "old"));
+		// The expired row has not been purged, so it is claimed rather than inserted
+		assertTrue(store.checkAndRecord(1, "old", now + 60000L));
+		assertTrue(store.contains(1, "old"));
+		assertFalse(store.checkAndRecord(1, "old", now + 60000L));
+		assertEquals(0, store.purgeExpired(now));
+		assertEquals(1, store.purgeExpired(now + 120000L));
+	}
+
+	@Test
+	public void testConcurrentCheckAndRecordAcceptsOnce() throws Exception {
+		DataSource dataSource = TestDatabase.dataSource();
+		final JDBCNonceStore shared = new JDBCNonceStore(new JDBC(dataSource, ""));
+		final long expires = System.currentTimeMillis() + 60000L;
+		final AtomicInteger accepted = new AtomicInteger();
+		final CountDownLatch start = new CountDownLatch(1);
+		Thread[] threads = new Thread[8];
+		for (int i = 0; i < threads.length; i++) {
+			threads[i] = new Thread(new Runnable() {
+				public void run() {
+					try {
+						start.await();
+					} catch (InterruptedException e) {
+						return;
+					}
+					if (shared.checkAndRecord(1, "race", expires)) {
+						accepted.incrementAndGet();
+					}
+				}
+			});
+			threads[i].start();
+		}
+		start.countDown();
+		for (Thread thread : threads) {
+			thread.join();
+		}
+		shared.close();
+		assertEquals(1, accepted.get());
+	}
+
+}
@@ -0,0 +1,123 @@
+package org.imsglobal.lti.toolProvider.dataConnector.test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.List;
+
+import javax.sql.DataSource;
+
+import org.imsglobal.lti.toolProvider.PendingOutcome;
+import org.imsglobal.lti.toolProvider.dataConnector.JDBC;
+import org.joda.time.DateTime;
+import org.junit.Before;
+import org.junit.Test;
+
+public class JDBCOutboxTest {
+
+	private static final long LEASE = 60000L;
+
+	private DataSource dataSource;
+	private JDBC connector;
+
+	@Before
+	public void setUp() throws Exception {
+		dataSource = TestDatabase.dataSource();
+		connector = new JDBC(dataSource, "");
+	}
+
+	private boolean enqueue(String value) {
+		PendingOutcome outcome = new PendingOutcome();
+		outcome.setConsumerId(1);
+		outcome.setResourceLinkId(2);
+		outcome.setUserId(3);
+		outcome.setSourcedId("sourcedid");
+		outcome.setValue(value);
+		return connector.enqueueOutcome(outcome);
+	}
+
+	private void retryNow(PendingOutcome outcome) {
+		outcome.setAttempts(outcome.getAttempts() + 1);
+		outcome.setNextAttempt(DateTime.now().minus(1000L));
+		outcome.setLastError("failed");
+		assertTrue(connector.rescheduleOutcome(outcome));
+	}
+
+	@Test
+	public void testClaimCompleteReschedule() {
+		assertTrue(enqueue("0.5"));
+		List<PendingOutcome> claimed = connector.claimOutcomes(10, LEASE);
+		assertEquals(1, claimed.size());
+		assertEquals("0.5", claimed.get(0).getValue());
+		// Claimed writes are not claimed again until released
+		assertEquals(0, connector.claimOutcomes(10, LEASE).size());
+
+		retryNow(claimed.get(0));
+		claimed = connector.claimOutcomes(10, LEASE);
+		assertEquals(1, claimed.size());
+		assertEquals(1, claimed.get(0).getAttempts());
+		assertEquals("failed", claimed.get(0).getLastError());
+
+		assertTrue(connector.completeOutcome(claimed.get(0)));
+		assertFalse(connector.rescheduleOutcome(claimed.get(0)));
+		assertEquals(0, connector.claimOutcomes(10, LEASE).size());
+	}
+
+	@Test
+	public void testUnclaimedWriteReplaced() {
+		assertTrue(enqueue("0.5"));
+		assertTrue(enqueue("0.8"));
+		List<PendingOutcome> claimed = connector.claimOutcomes(10, LEASE);
+		assertEquals(1, claimed.size());
+		assertEquals("0.8", claimed.get(0).getValue());
+	}
+
+	@Test
+	public void testFailedEarlierWriteNotSentAfterLater() {
+		assertTrue(enqueue("0.5"));
+		List<PendingOutcome> claimed = connector.claimOutcomes(10, LEASE);
+		assertEquals(1, claimed.size());
+		PendingOutcome earlier = claimed.get(0);
+		// A later value is written while the earlier one is being sent
+		assertTrue(enqueue("0.8"));
+		assertEquals(0, connector.claimOutcomes(10, LEASE).size());
+
+		// The earlier send fails, so it is dropped rather than retried
+		retryNow(earlier);
+		claimed = connector.claimOutcomes(10, LEASE);
+		assertEquals(1, claimed.size());
+		assertEquals("0.8", claimed.get(0).getValue());
+		assertTrue(connector.completeOutcome(claimed.get(0)));
+		assertEquals(0, connector.claimOutcomes(10, LEASE).size());
+	}
+
+	@Test
+	public void testExpiredEarlierWriteDropped() throws Exception {
+		assertTrue(enqueue("0.5"));
+		assertEquals(1, connector.claimOutcomes(10, LEASE).size());
+		assertTrue(enqueue("0.8"));
+		// The lease on the earlier write expires without it being released
+		TestDatabase.execute(dataSource, "UPDATE lti2_outcome_outbox SET locked_until = next_attempt");
+		List<PendingOutcome> claimed = connector.claimOutcomes(10, LEASE);
+		assertEquals(1, claimed.size());
+		assertEquals("0.8", claimed.get(0).getValue());
+	}
+
+	@Test
+	public void testEarlierWriteRemovedOnComplete() throws Exception {
+		assertTrue(enqueue("0.5"));
+		assertEquals(1, connector.claimOutcomes(10, LEASE).size());
+		assertTrue(enqueue("0.8"));
+		// The earlier write is released for a later attempt just before the later write is added
+		TestDatabase.execute(dataSource, "UPDATE lti2_outcome_outbox SET locked_until = created, " +
+			"next_attempt = DATEADD('HOUR', 1, created) WHERE result_value = '0.5'");
+		List<PendingOutcome> claimed = connector.claimOutcomes(10, LEASE);
+		assertEquals(1, claimed.size());
+		assertEquals("0.8", claimed.get(0).getValue());
+		assertTrue(connector.completeOutcome(claimed.get(0)));
+		TestDatabase.execute(dataSource, "UPDATE lti2_outcome_outbox SET next_attempt = created");
+		assertEquals(0, connector.claimOutcomes(10, LEASE).size());
+	}
+
+}
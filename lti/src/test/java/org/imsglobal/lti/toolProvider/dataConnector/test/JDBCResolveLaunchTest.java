@@ -0,0 +1,166 @@
+package org.imsglobal.lti.toolProvider.dataConnector.test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.sql.Connection;
+import java.sql.SQLException;
+
+import org.imsglobal.lti.toolProvider.Context;
+import org.imsglobal.lti.toolProvider.LaunchEntities;
+import org.imsglobal.lti.toolProvider.ResourceLink;
+import org.imsglobal.lti.toolProvider.ToolConsumer;
+import org.imsglobal.lti.toolProvider.User;
+import org.imsglobal.lti.toolProvider.dataConnector.JDBC;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+public class JDBCResolveLaunchTest {
+
+	private Connection conn;
+	private CountingConnector connector;
+	private ToolConsumer consumer;
+	private Context context;
+	private ResourceLink resourceLink;
+	private User user;
+
+	/**
+	 * JDBC connector which counts the records loaded one at a time.
+	 */
+	private static class CountingConnector extends JDBC {
+
+		private int loads = 0;
+
+		private CountingConnector(Connection conn) {
+			super(conn, "");
+		}
+
+		@Override
+		public boolean loadToolConsumer(ToolConsumer consumer) {
+			loads++;
+			return super.loadToolConsumer(consumer);
+		}
+
+		@Override
+		public boolean loadContext(Context context) {
+			loads++;
+			return super.loadContext(context);
+		}
+
+		@Override
+		public boolean loadResourceLink(ResourceLink resourceLink) {
+			loads++;
+			return super.loadResourceLink(resourceLink);
+		}
+
+		@Override
+		public boolean loadUser(User user) {
+			loads++;
+			return super.loadUser(user);
+		}
+
+	}
+
+	@Before
+	public void setUp() throws SQLException {
+		conn = TestDatabase.open();
+		connector = new CountingConnector(conn);
+		connector.setConsumerCache(null);
+		consumer = new ToolConsumer(null, connector);
+		consumer.setKey("key");
+		consumer.setName("Test");
+		consumer.setSecret("secret");
+		consumer.setEnabled(true);
+		consumer.setSetting("custom_a", "1");
+		assertTrue(consumer.save());
+		context = Context.fromConsumer(consumer, "context-1");
+		context.setSetting("custom_b", "2");
+		assertTrue(context.save());
+		resourceLink = ResourceLink.fromContext(context, null);
+		resourceLink.setLtiResourceLinkId("link-1");
+		resourceLink.setSetting("custom_c", "3");
+		assertTrue(resourceLink.save());
+		user = User.fromResourceLink(resourceLink, null);
+		user.setLtiUserId("user-1");
+		user.setLtiResultSourcedId("sourcedid-1");
+		assertTrue(user.save());
+		connector.loads = 0;
+	}
+
+	@After
+	public void tearDown() throws SQLException {
+		conn.close();
+	}
+
+	@Test
+	public void testResolveAll() {
+		LaunchEntities launch = connector.resolveLaunch("key", "context-1", "link-1", "user-1");
+		assertTrue(launch.isConsumerFound());
+
+		ToolConsumer loadedConsumer = launch.getConsumer();
+		assertEquals(consumer.getRecordId(), loadedConsumer.getRecordId());
+		assertEquals("key", loadedConsumer.getKey());
+		assertEquals("Test", loadedConsumer.getName());
+		assertEquals("secret", loadedConsumer.getSecret());
+		assertEquals("1", loadedConsumer.getSetting("custom_a"));
+		assertTrue(loadedConsumer.isEnabled());
+		assertNotNull(loadedConsumer.getCreated());
+
+		Context loadedContext = launch.getContext();
+		assertEquals(context.getRecordId(), loadedContext.getRecordId());
+		assertEquals("context-1", loadedContext.getLtiContextId());
+		assertEquals("2", loadedContext.getSetting("custom_b"));
+
+		ResourceLink loadedLink = launch.getResourceLink();
+		assertEquals(resourceLink.getRecordId(), loadedLink.getRecordId());
+		assertEquals("link-1", loadedLink.getLtiResourceLinkId());
+		assertEquals(context.getRecordId(), loadedLink.getContextId());
+		assertEquals("3", loadedLink.getSetting("custom_c"));
+		assertNotNull(loadedLink.getCreated());
+		assertSame(loadedContext, loadedLink.getContext());
+
+		User loadedUser = launch.getUser();
+		assertEquals(user.getRecordId(), loadedUser.getRecordId());
+		assertEquals("user-1", loadedUser.getLtiUserId());
+		assertEquals("sourcedid-1", loadedUser.getLtiResultSourcedId());
+		assertEquals(resourceLink.getRecordId(), loadedUser.getResourceLinkId());
+		assertNotNull(loadedUser.getCreated());
+
+		// Everything was read by the one query
+		assertEquals(0, connector.loads);
+	}
+
+	@Test
+	public void testResolveNewRecords() {
+		LaunchEntities launch = connector.resolveLaunch("key", "context-2", "link-2", "user-2");
+		assertTrue(launch.isConsumerFound());
+		assertEquals(0, launch.getContext().getRecordId());
+		assertEquals("context-2", launch.getContext().getLtiContextId());
+		assertEquals(0, launch.getResourceLink().getRecordId());
+		assertEquals("link-2", launch.getResourceLink().getLtiResourceLinkId());
+		assertEquals(0, launch.getUser().getRecordId());
+		assertEquals("user-2", launch.getUser().getLtiUserId());
+	}
+
+	@Test
+	public void testResolveResourceLinkWithoutContext() {
+		ResourceLink consumerLink = ResourceLink.fromConsumer(consumer, null);
+		consumerLink.setLtiResourceLinkId("link-3");
+		assertTrue(consumerLink.save());
+		LaunchEntities launch = connector.resolveLaunch("key", null, "link-3", null);
+		assertEquals(consumerLink.getRecordId(), launch.getResourceLink().getRecordId());
+		assertEquals(0, launch.getResourceLink().getContextId());
+	}
+
+	@Test
+	public void testUnknownConsumer() {
+		LaunchEntities launch = connector.resolveLaunch("other", "context-1", "link-1", "user-1");
+		assertFalse(launch.isConsumerFound());
+		assertFalse(launch.getConsumer().isEnabled());
+	}
+
+}
@@ -0,0 +1,70 @@
+package org.imsglobal.lti.toolProvider.dataConnector.test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.sql.Connection;
+import java.sql.SQLException;
+
+import org.imsglobal.lti.toolProvider.Context;
+import org.imsglobal.lti.toolProvider.ResourceLink;
+import org.imsglobal.lti.toolProvider.ToolConsumer;
+import org.imsglobal.lti.toolProvider.dataConnector.JDBC;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+public class JDBCResourceLinkTest {
+
+	private Connection conn;
+	private CountingConnector connector;
+
+	/**
+	 * JDBC connector which counts the contexts loaded.
+	 */
+	private static class CountingConnector extends JDBC {
+
+		private int contextLoads = 0;
+
+		private CountingConnector(Connection conn) {
+			super(conn, "");
+		}
+
+		@Override
+		public boolean loadContext(Context context) {
+			contextLoads++;
+			return super.loadContext(context);
+		}
+
+	}
+
+	@Before
+	public void setUp() throws SQLException {
+		conn = TestDatabase.open();
+		connector = new CountingConnector(conn);
+	}
+
+	@After
+	public void tearDown() throws SQLException {
+		conn.close();
+	}
+
+	@Test
+	public void testLoadDoesNotReadContext() {
+		ToolConsumer consumer = new ToolConsumer(null, connector);
+		consumer.setKey("key");
+		consumer.setName("Test");
+		assertTrue(consumer.save());
+		Context context = Context.fromConsumer(consumer, "context-1");
+		assertTrue(context.save());
+		ResourceLink resourceLink = ResourceLink.fromContext(context, null);
+		resourceLink.setLtiResourceLinkId("link-1");
+		assertTrue(resourceLink.save());
+
+		connector.contextLoads = 0;
+		ResourceLink loaded = ResourceLink.fromRecordId(resourceLink.getRecordId(), connector);
+		assertEquals(context.getRecordId(), loaded.getContextId());
+		assertEquals(0, connector.contextLoads);
+	}
+
+}
@@ -0,0 +1,133 @@
+package org.imsglobal.lti.toolProvider.dataConnector.test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.sql.Connection;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.imsglobal.lti.toolProvider.ResourceLink;
+import org.imsglobal.lti.toolProvider.RosterSyncResult;
+import org.imsglobal.lti.toolProvider.ToolConsumer;
+import org.imsglobal.lti.toolProvider.User;
+import org.imsglobal.lti.toolProvider.dataConnector.JDBC;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+public class JDBCRosterSyncTest {
+
+	private Connection conn;
+	private JDBC connector;
+	private ResourceLink resourceLink;
+
+	@Before
+	public void setUp() throws SQLException {
+		conn = TestDatabase.open();
+		connector = new JDBC(conn, "");
+		ToolConsumer consumer = new ToolConsumer(null, connector);
+		consumer.setKey("key");
+		consumer.setName("Test");
+		assertTrue(consumer.save());
+		resourceLink = ResourceLink.fromConsumer(consumer, null);
+		resourceLink.setLtiResourceLinkId("link-1");
+		assertTrue(resourceLink.save());
+	}
+
+	@After
+	public void tearDown() throws SQLException {
+		conn.close();
+	}
+
+	// Result sourcedId of each stored user, keyed by user ID
+	private Map<String, String> stored() throws SQLException {
+		Map<String, String> stored = new HashMap<String, String>();
+		try (Statement stmt = conn.createStatement();
+			 ResultSet rs = stmt.executeQuery("SELECT lti_user_id, lti_result_sourcedid FROM lti2_user_result")) {
+			while (rs.next()) {
+				stored.put(rs.getString(1), rs.getString(2));
+			}
+		}
+		return stored;
+	}
+
+	@Test
+	public void testAddUpdateRemove() throws SQLException {
+		Map<String, String> members = new LinkedHashMap<String, String>();
+		members.put("u1", "s1");
+		members.put("u2", "s2");
+		members.put("u3", "s3");
+		members.put("u4", null);
+		RosterSyncResult result = connector.syncRoster(resourceLink, members);
+		assertTrue(result.isOk());
+		assertEquals(3, result.getAdded().size());
+		assertTrue(result.getAdded().get(0).getRecordId() != 0);
+		assertEquals(3, stored().size());
+
+		members.clear();
+		members.put("u1", "s1");
+		members.put("u2", "s2-changed");
+		result = connector.syncRoster(resourceLink, members);
+		assertTrue(result.isOk());
+		assertEquals(0, result.getAdded().size());
+		assertEquals(1, result.getUpdated().size());
+		assertEquals("u2", result.getUpdated().get(0).getLtiUserId());
+		assertEquals(1, result.getRemoved().size());
+		assertEquals(1, result.getUnchanged());
+		Map<String, String> stored = stored();
+		assertEquals(2, stored.size());
+		assertEquals("s2-changed", stored.get("u2"));
+		assertFalse(stored.containsKey("u3"));
+
+		result = connector.syncRoster(resourceLink, members);
+		assertFalse(result.hasChanges());
+		assertEquals(2, result.getUnchanged());
+	}
+
+	@Test
+	public void testMembersGivenRecordIds() {
+		List<User> members = new ArrayList<User>();
+		User user = User.fromResourceLink(resourceLink, null);
+		user.setLtiUserId("u1");
+		user.setLtiResultSourcedId("s1");
+		members.add(user);
+		assertEquals(1, connector.syncRoster(resourceLink, members).getAdded().size());
+		int id = user.getRecordId();
+		assertTrue(id != 0);
+
+		User again = User.fromResourceLink(resourceLink, null);
+		again.setLtiUserId("u1");
+		again.setLtiResultSourcedId("s1");
+		members.set(0, again);
+		assertEquals(1, connector.syncRoster(resourceLink, members).getUnchanged());
+		assertEquals(id, again.getRecordId());
+	}
+
+	@Test
+	public void testRemoveMoreThanInList() throws SQLException {
+		// More users are removed than fit in one IN list
+		Map<String, String> members = new LinkedHashMap<String, String>();
+		for (int i = 0; i < 1201; i++) {
+			members.put("u" + i, "s" + i);
+		}
+		assertEquals(1201, connector.syncRoster(resourceLink, members).getAdded().size());
+		members.clear();
+		members.put("u600", "s600");
+		RosterSyncResult result = connector.syncRoster(resourceLink, members);
+		assertTrue(result.isOk());
+		assertEquals(1200, result.getRemoved().size());
+		assertEquals(1, result.getUnchanged());
+		Map<String, String> stored = stored();
+		assertEquals(1, stored.size());
+		assertTrue(stored.containsKey("u600"));
+	}
+
+}
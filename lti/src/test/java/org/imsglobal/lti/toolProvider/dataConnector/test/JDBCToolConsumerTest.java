@@ -0,0 +1,75 @@
+package org.imsglobal.lti.toolProvider.dataConnector.test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
+
+import java.sql.Connection;
+import java.sql.SQLException;
+
+import org.imsglobal.lti.toolProvider.Context;
+import org.imsglobal.lti.toolProvider.LaunchEntities;
+import org.imsglobal.lti.toolProvider.ToolConsumer;
+import org.imsglobal.lti.toolProvider.dataConnector.JDBC;
+import org.imsglobal.lti.toolProvider.dataConnector.ToolConsumerCache;
+import org.joda.time.DateTime;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+public class JDBCToolConsumerTest {
+
+	private Connection conn;
+	private JDBC connector;
+
+	@Before
+	public void setUp() throws SQLException {
+		conn = TestDatabase.open();
+		connector = new JDBC(conn, "");
+	}
+
+	@After
+	public void tearDown() throws SQLException {
+		conn.close();
+	}
+
+	@Test
+	public void testSaveExistingConsumer() {
+		ToolConsumer consumer = new ToolConsumer(null, connector);
+		consumer.setKey("short-key");
+		consumer.setName("Test");
+		assertTrue(consumer.save());
+
+		ToolConsumer loaded = new ToolConsumer("short-key", connector);
+		assertNotNull(loaded.getCreated());
+		loaded.setName("Renamed");
+		loaded.setSetting("custom_a", "1");
+		loaded.setLastAccess(DateTime.now());
+		assertTrue(loaded.save());
+
+		ToolConsumer reloaded = new ToolConsumer("short-key", connector);
+		assertEquals("Renamed", reloaded.getName());
+		assertEquals("1", reloaded.getSetting("custom_a"));
+		assertNotNull(reloaded.getLastAccess());
+	}
+
+	@Test
+	public void testResolveLaunchWithCachedConsumer() {
+		connector.setConsumerCache(new ToolConsumerCache(10, 60000L));
+		ToolConsumer consumer = new ToolConsumer(null, connector);
+		consumer.setKey("short-key");
+		consumer.setName("Test");
+		assertTrue(consumer.save());
+		Context context = Context.fromConsumer(consumer, "context-1");
+		assertTrue(context.save());
+
+		LaunchEntities first = connector.resolveLaunch("short-key", "context-1", null, null);
+		// The consumer is now cached, so only the context is read from the database
+		LaunchEntities second = connector.resolveLaunch("short-key", "context-1", null, null);
+		assertEquals("Test", first.getConsumer().getName());
+		assertEquals("Test", second.getConsumer().getName());
+		assertEquals(consumer.getRecordId(), second.getConsumer().getRecordId());
+		assertEquals(context.getRecordId(), second.getContext().getRecordId());
+	}
+
+}
@@ -0,0 +1,80 @@
+package org.imsglobal.lti.toolProvider.dataConnector.test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.imsglobal.lti.toolProvider.dataConnector.MemoryNonceStore;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+public class MemoryNonceStoreTest {
+
+	private MemoryNonceStore store;
+
+	@Before
+	public void setUp() {
+		store = new MemoryNonceStore(4);
+	}
+
+	@After
+	public void tearDown() {
+		store.close();
+	}
+
+	@Test
+	public void testCheckAndRecordRejectsReplay() {
+		long expires = System.currentTimeMillis() + 60000L;
+		assertTrue(store.checkAndRecord(1, "abc", expires));
+		assertFalse(store.checkAndRecord(1, "abc", expires));
+		assertTrue(store.contains(1, "abc"));
+		// nonce values are scoped to a consumer
+		assertTrue(store.checkAndRecord(2, "abc", expires));
+	}
+
+	@Test
+	public void testExpiredValuesArePurged() {
+		long now = System.currentTimeMillis();
+		store.record(1, "old", now - 1);
+		store.record(1, "new", now + 120000L);
+		assertFalse(store.contains(1, "old"));
+		assertTrue(store.checkAndRecord(1, "old", now + 120000L));
+		assertEquals(0, store.purgeExpired(now));
+		assertEquals(2, store.size());
+		assertEquals(2, store.purgeExpired(now + 240000L));
+		assertEquals(0, store.size());
+	}
+
+	@Test
+	public void testConcurrentCheckAndRecordAcceptsOnce() throws InterruptedException {
+		final long expires = System.currentTimeMillis() + 60000L;
+		final AtomicInteger accepted = new AtomicInteger();
+		final CountDownLatch start = new CountDownLatch(1);
+		Thread[] threads = new Thread[8];
+		for (int i = 0; i < threads.length; i++) {
+			threads[i] = new Thread(new Runnable() {
+				public void run() {
+					try {
+						start.await();
+					} catch (InterruptedException e) {
+						return;
+					}
+					if (store.checkAndRecord(1, "race", expires)) {
+						accepted.incrementAndGet();
+					}
+				}
+			});
+			threads[i].start();
+		}
+		start.countDown();
+		for (Thread thread : threads) {
+			thread.join();
+		}
+		assertEquals(1, accepted.get());
+	}
+
+}
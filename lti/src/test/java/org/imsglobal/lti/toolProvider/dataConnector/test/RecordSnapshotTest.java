@@ -0,0 +1,32 @@
+package org.imsglobal.lti.toolProvider.dataConnector.test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import org.imsglobal.lti.toolProvider.dataConnector.RecordSnapshot;
+import org.junit.Test;
+
+public class RecordSnapshotTest {
+
+	private static RecordSnapshot snapshot(String settings, Integer approved) {
+		Map<String, Object> values = new LinkedHashMap<String, Object>();
+		values.put("lti_resource_link_id", "rl1");
+		values.put("settings", settings);
+		values.put("share_approved", approved);
+		return new RecordSnapshot(values);
+	}
+
+	@Test
+	public void testChanges() {
+		RecordSnapshot loaded = snapshot("{\"a\":[\"1\"]}", null);
+		assertTrue(loaded.getChanges(snapshot("{\"a\":[\"1\"]}", null)).isEmpty());
+		Map<String, Object> changes = loaded.getChanges(snapshot("{\"a\":[\"2\"]}", 1));
+		assertEquals(Arrays.asList("settings", "share_approved"), Arrays.asList(changes.keySet().toArray()));
+		assertEquals(1, changes.get("share_approved"));
+	}
+
+}
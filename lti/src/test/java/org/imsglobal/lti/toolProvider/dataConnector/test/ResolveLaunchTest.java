@@ -0,0 +1,71 @@
+package org.imsglobal.lti.toolProvider.dataConnector.test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import org.imsglobal.lti.toolProvider.Context;
+import org.imsglobal.lti.toolProvider.LaunchEntities;
+import org.imsglobal.lti.toolProvider.ResourceLink;
+import org.imsglobal.lti.toolProvider.ToolConsumer;
+import org.imsglobal.lti.toolProvider.dataConnector.DataConnector;
+import org.junit.Test;
+
+public class ResolveLaunchTest {
+
+	private static class CountingConnector extends DataConnector {
+
+		private final boolean consumerFound;
+		private int contextLoads = 0;
+		private int resourceLinkLoads = 0;
+
+		CountingConnector(boolean consumerFound) {
+			super(null, "");
+			this.consumerFound = consumerFound;
+		}
+
+		@Override
+		public boolean loadToolConsumer(ToolConsumer consumer) {
+			return consumerFound && super.loadToolConsumer(consumer);
+		}
+
+		@Override
+		public boolean loadContext(Context context) {
+			contextLoads++;
+			return super.loadContext(context);
+		}
+
+		@Override
+		public boolean loadResourceLink(ResourceLink resourceLink) {
+			resourceLinkLoads++;
+			return super.loadResourceLink(resourceLink);
+		}
+
+	}
+
+	@Test
+	public void testResolve() {
+		CountingConnector connector = new CountingConnector(true);
+		LaunchEntities launch = connector.resolveLaunch("key", "ctx1", "rl1", "u1");
+		assertTrue(launch.isConsumerFound());
+		assertEquals("key", launch.getConsumer().getKey());
+		assertEquals("ctx1", launch.getContext().getLtiContextId());
+		assertEquals("rl1", launch.getResourceLink().getId());
+		assertSame(launch.getResourceLink(), launch.getUser().getResourceLink());
+		assertEquals(1, connector.contextLoads);
+		assertEquals(1, connector.resourceLinkLoads);
+	}
+
+	@Test
+	public void testUnknownConsumer() {
+		CountingConnector connector = new CountingConnector(false);
+		LaunchEntities launch = connector.resolveLaunch("key", "ctx1", null, null);
+		assertFalse(launch.isConsumerFound());
+		assertNull(launch.getResourceLink());
+		assertNull(launch.getUser());
+		assertEquals(0, connector.contextLoads);
+	}
+
+}
@@ -0,0 +1,61 @@
+package org.imsglobal.lti.toolProvider.dataConnector.test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.imsglobal.lti.toolProvider.dataConnector.BinarySettingsCodec;
+import org.imsglobal.lti.toolProvider.dataConnector.JsonSettingsCodec;
+import org.imsglobal.lti.toolProvider.dataConnector.LazySettings;
+import org.junit.Test;
+
+public class SettingsCodecTest {
+
+	private static Map<String, List<String>> settings() {
+		Map<String, List<String>> settings = new HashMap<String, List<String>>();
+		settings.put("custom_tc_profile_url", new ArrayList<String>(Arrays.asList("http://lms.example.com/profile")));
+		settings.put("roles", new ArrayList<String>(Arrays.asList("Learner", "Instructor", "Élève")));
+		settings.put("empty", new ArrayList<String>());
+		return settings;
+	}
+
+	@Test
+	public void testBinaryRoundTrip() {
+		String value = BinarySettingsCodec.INSTANCE.encode(settings());
+		assertTrue(BinarySettingsCodec.isBinary(value));
+		assertEquals(settings(), BinarySettingsCodec.INSTANCE.decode(value));
+		// Either codec reads either format
+		assertEquals(settings(), JsonSettingsCodec.INSTANCE.decode(value));
+		assertEquals(settings(), BinarySettingsCodec.INSTANCE.decode(JsonSettingsCodec.INSTANCE.encode(settings())));
+		assertNull(BinarySettingsCodec.INSTANCE.encode(new HashMap<String, List<String>>()));
+	}
+
+	@Test
+	public void testJsonStringValues() {
+		Map<String, List<String>> settings = JsonSettingsCodec.INSTANCE.decode("{\"a\":\"1\",\"b\":[\"2\",\"3\"]}");
+		assertEquals(Arrays.asList("1"), settings.get("a"));
+		assertEquals(Arrays.asList("2", "3"), settings.get("b"));
+		assertTrue(JsonSettingsCodec.INSTANCE.decode("lti1:AQ").isEmpty());
+	}
+
+	@Test
+	public void testLazy() {
+		String value = JsonSettingsCodec.INSTANCE.encode(settings());
+		LazySettings lazy = new LazySettings(value, JsonSettingsCodec.INSTANCE);
+		// Unused settings are written back as stored
+		assertSame(value, lazy.encode(BinarySettingsCodec.INSTANCE));
+		assertFalse(((LazySettings)lazy.copy()).isDecoded());
+		assertEquals(3, lazy.get("roles").size());
+		assertTrue(lazy.isDecoded());
+		assertTrue(BinarySettingsCodec.isBinary(lazy.encode(BinarySettingsCodec.INSTANCE)));
+	}
+
+}
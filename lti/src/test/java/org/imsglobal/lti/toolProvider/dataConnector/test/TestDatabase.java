@@ -0,0 +1,94 @@
+package org.imsglobal.lti.toolProvider.dataConnector.test;
+
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import javax.sql.DataSource;
+
+import org.h2.jdbcx.JdbcDataSource;
+
+/**
+ * In-memory H2 database (in MySQL mode) holding the tables used by the JDBC data connector.
+ */
+public final class TestDatabase {
+
+	private static final AtomicInteger COUNT = new AtomicInteger();
+
+	private static final String[] SCHEMA = {
+		"CREATE TABLE lti2_consumer (consumer_pk INT AUTO_INCREMENT PRIMARY KEY, name VARCHAR(50) NOT NULL, " +
+			"consumer_key256 VARCHAR(256) NOT NULL UNIQUE, consumer_key TEXT, secret VARCHAR(1024) NOT NULL, " +
+			"lti_version VARCHAR(10), consumer_name VARCHAR(255), consumer_version VARCHAR(255), " +
+			"consumer_guid VARCHAR(1024), profile TEXT, tool_proxy TEXT, settings TEXT, protected TINYINT NOT NULL, " +
+			"enabled TINYINT NOT NULL, enable_from DATETIME, enable_until DATETIME, last_access DATE, " +
+			"created DATETIME NOT NULL, updated DATETIME NOT NULL)",
+		"CREATE TABLE lti2_context (context_pk INT AUTO_INCREMENT PRIMARY KEY, consumer_pk INT NOT NULL, " +
+			"lti_context_id VARCHAR(255) NOT NULL, settings TEXT, created DATETIME NOT NULL, updated DATETIME NOT NULL)",
+		"CREATE TABLE lti2_resource_link (resource_link_pk INT AUTO_INCREMENT PRIMARY KEY, context_pk INT, " +
+			"consumer_pk INT, lti_resource_link_id VARCHAR(255) NOT NULL, settings TEXT, primary_resource_link_pk INT, " +
+			"share_approved TINYINT, created DATETIME NOT NULL, updated DATETIME NOT NULL)",
+		"CREATE TABLE lti2_user_result (user_pk INT AUTO_INCREMENT PRIMARY KEY, resource_link_pk INT NOT NULL, " +
+			"lti_user_id VARCHAR(255) NOT NULL, lti_result_sourcedid VARCHAR(1024) NOT NULL, " +
+			"created DATETIME NOT NULL, updated DATETIME NOT NULL)",
+		// As given in the JDBC class documentation
+		"CREATE TABLE lti2_outcome_outbox (outbox_pk INT AUTO_INCREMENT PRIMARY KEY, consumer_pk INT NOT NULL, " +
+			"resource_link_pk INT NOT NULL, user_pk INT, sourcedid VARCHAR(1024) NOT NULL, result_value VARCHAR(255), " +
+			"language VARCHAR(10), result_type VARCHAR(20), status VARCHAR(20), data_source VARCHAR(255), " +
+			"result_date DATETIME, attempts INT NOT NULL, next_attempt DATETIME NOT NULL, " +
+			"locked_until DATETIME NOT NULL, last_error TEXT, created DATETIME NOT NULL)",
+		"CREATE TABLE lti2_nonce (consumer_pk INT NOT NULL, value VARCHAR(50) NOT NULL, " +
+			"expires DATETIME NOT NULL, PRIMARY KEY (consumer_pk, value))"
+	};
+
+	private TestDatabase() {
+	}
+
+	/**
+	 * Open a connection to a new, empty database.
+	 *
+	 * @return connection
+	 */
+	public static Connection open() throws SQLException {
+		Connection conn = DriverManager.getConnection("jdbc:h2:mem:lti" + COUNT.incrementAndGet() + ";MODE=MySQL");
+		createTables(conn);
+		return conn;
+	}
+
+	/**
+	 * Create a new, empty database which is kept until the JVM exits.
+	 *
+	 * @return data source for the database
+	 */
+	public static DataSource dataSource() throws SQLException {
+		JdbcDataSource dataSource = new JdbcDataSource();
+		dataSource.setURL("jdbc:h2:mem:lti" + COUNT.incrementAndGet() + ";MODE=MySQL;DB_CLOSE_DELAY=-1");
+		try (Connection conn = dataSource.getConnection()) {
+			createTables(conn);
+		}
+		return dataSource;
+	}
+
+	/**
+	 * Execute a statement in a database.
+	 *
+	 * @param dataSource  data source for the database
+	 * @param sql         SQL statement
+	 */
+	public static void execute(DataSource dataSource, String sql) throws SQLException {
+		try (Connection conn = dataSource.getConnection();
+			 Statement stmt = conn.createStatement()) {
+			stmt.execute(sql);
+		}
+	}
+
+	private static void createTables(Connection conn) throws SQLException {
+		try (Statement stmt = conn.createStatement()) {
+			for (String sql : SCHEMA) {
+				stmt.execute(sql);
+			}
+		}
+	}
+
+}
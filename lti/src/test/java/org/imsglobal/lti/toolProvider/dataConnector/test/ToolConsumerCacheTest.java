@@ -0,0 +1,67 @@
+package org.imsglobal.lti.toolProvider.dataConnector.test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import org.imsglobal.lti.toolProvider.ToolConsumer;
+import org.imsglobal.lti.toolProvider.dataConnector.DataConnector;
+import org.imsglobal.lti.toolProvider.dataConnector.ToolConsumerCache;
+import org.imsglobal.lti.toolProvider.mediaType.ConsumerProfile;
+import org.junit.Test;
+
+public class ToolConsumerCacheTest {
+
+	private static ToolConsumer consumer(String key) {
+		ToolConsumer consumer = new ToolConsumer(null, new DataConnector(null, ""));
+		consumer.setKey(key);
+		ConsumerProfile profile = new ConsumerProfile();
+		profile.setId("http://lms.example.com/profile");
+		consumer.setProfile(profile);
+		return consumer;
+	}
+
+	@Test
+	public void testStalePutIgnored() {
+		ToolConsumerCache cache = new ToolConsumerCache(10, 60000L);
+		long generation = cache.getGeneration();
+		// The consumer is saved (and its entry invalidated) while an older copy is being read
+		cache.invalidate("key");
+		assertFalse(cache.put("key", consumer("key"), generation));
+		assertEquals(0, cache.size());
+		assertTrue(cache.put("key", consumer("key"), cache.getGeneration()));
+		assertEquals(1, cache.size());
+	}
+
+	@Test
+	public void testProfileNotShared() {
+		ToolConsumerCache cache = new ToolConsumerCache(10, 60000L);
+		ToolConsumer original = consumer("key");
+		cache.put("key", original, cache.getGeneration());
+		original.getProfile().setId("http://changed.example.com/profile");
+		ToolConsumer first = new ToolConsumer(null, new DataConnector(null, ""));
+		ToolConsumer second = new ToolConsumer(null, new DataConnector(null, ""));
+		assertTrue(cache.load("key", first));
+		assertTrue(cache.load("key", second));
+		assertNotSame(first.getProfile(), second.getProfile());
+		first.getProfile().setId("http://other.example.com/profile");
+		assertEquals("http://lms.example.com/profile", second.getProfile().getId());
+	}
+
+	@Test
+	public void testSigningContextShared() {
+		ToolConsumerCache cache = new ToolConsumerCache(10, 60000L);
+		ToolConsumer original = consumer("key");
+		original.setSecret("secret");
+		cache.put("key", original, cache.getGeneration());
+		ToolConsumer first = new ToolConsumer(null, new DataConnector(null, ""));
+		ToolConsumer second = new ToolConsumer(null, new DataConnector(null, ""));
+		assertTrue(cache.load("key", first));
+		assertTrue(cache.load("key", second));
+		assertSame(first.getSigningContext(), second.getSigningContext());
+		assertTrue(first.getSigningContext().matches("key", "secret"));
+	}
+
+}
@@ -0,0 +1,71 @@
+package org.imsglobal.lti.toolProvider.dataConnector.test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import javax.sql.DataSource;
+
+import org.imsglobal.lti.toolProvider.ToolConsumer;
+import org.imsglobal.lti.toolProvider.dataConnector.JDBC;
+import org.imsglobal.lti.toolProvider.dataConnector.WriteBehindQueue;
+import org.junit.Test;
+
+public class WriteBehindQueueTest {
+
+	@Test
+	public void testRetryFailedBatch() throws Exception {
+		DataSource dataSource = TestDatabase.dataSource();
+		JDBC connector = new JDBC(dataSource, "");
+		connector.setConsumerCache(null);
+		ToolConsumer consumer = new ToolConsumer(null, connector);
+		consumer.setKey("key");
+		consumer.setName("Before");
+		assertTrue(consumer.save());
+
+		WriteBehindQueue queue = new WriteBehindQueue(connector);
+		connector.setWriteBehind(queue);
+		try {
+			ToolConsumer loaded = new ToolConsumer("key", connector);
+			// Make the first attempt to write the update fail
+			TestDatabase.execute(dataSource, "ALTER TABLE lti2_consumer RENAME TO lti2_consumer_moved");
+			loaded.setName("After");
+			assertTrue(loaded.save());
+			assertFalse(queue.flush(200L));
+			TestDatabase.execute(dataSource, "ALTER TABLE lti2_consumer_moved RENAME TO lti2_consumer");
+			assertTrue(queue.flush(10000L));
+		} finally {
+			connector.setWriteBehind(null);
+			queue.close(1000L);
+		}
+		assertEquals("After", new ToolConsumer("key", connector).getName());
+	}
+
+	@Test
+	public void testCloseWhenQueueFull() throws Exception {
+		DataSource dataSource = TestDatabase.dataSource();
+		JDBC connector = new JDBC(dataSource, "");
+		connector.setConsumerCache(null);
+		ToolConsumer consumer = new ToolConsumer(null, connector);
+		consumer.setKey("key");
+		consumer.setName("Before");
+		assertTrue(consumer.save());
+
+		WriteBehindQueue queue = new WriteBehindQueue(connector, 1);
+		connector.setWriteBehind(queue);
+		ToolConsumer loaded = new ToolConsumer("key", connector);
+		// Every write fails, so the worker waits to retry while the queue fills
+		TestDatabase.execute(dataSource, "ALTER TABLE lti2_consumer RENAME TO lti2_consumer_moved");
+		loaded.setName("First");
+		assertTrue(loaded.save());
+		Thread.sleep(200L);
+		loaded.setName("Second");
+		assertTrue(loaded.save());
+		connector.setWriteBehind(null);
+		assertFalse(queue.close(0L));
+		// The worker stops once it has taken the waiting batch, rather than retrying for ever
+		assertTrue(queue.flush(10000L));
+		assertEquals(0, queue.getPending());
+	}
+
+}
@@ -0,0 +1,43 @@
+package org.imsglobal.lti.toolProvider.mediaType.test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Arrays;
+import java.util.Collections;
+
+import org.imsglobal.lti.toolProvider.mediaType.ConsumerProfile;
+import org.json.simple.JSONObject;
+import org.json.simple.parser.JSONParser;
+import org.junit.Test;
+
+public class ConsumerProfileTest {
+
+	private static final String PROFILE = "{" +
+		"\"@id\":\"http://lms.example.com/profile\"," +
+		"\"capability_offered\":[\"basic-lti-launch-request\",\"User.id\"]," +
+		"\"service_offered\":[" +
+		"{\"@id\":\"tcp:ToolProxy.collection\",\"endpoint\":\"http://lms.example.com/toolproxy\"," +
+		"\"format\":[\"application/vnd.ims.lti.v2.toolproxy+json\"],\"action\":[\"POST\"]}," +
+		"{\"@id\":\"tcp:ToolProxySettings\",\"endpoint\":\"http://lms.example.com/settings\"," +
+		"\"format\":[\"application/vnd.ims.lti.v2.toolsettings+json\",\"application/vnd.ims.lti.v2.toolsettings.simple+json\"]," +
+		"\"action\":[\"GET\",\"PUT\"]}]}";
+
+	@Test
+	public void testIndexes() throws Exception {
+		ConsumerProfile profile = ConsumerProfile.fromJson((JSONObject)new JSONParser().parse(PROFILE));
+		assertTrue(profile.hasCapability("User.id"));
+		assertFalse(profile.hasCapability("Person.email.primary"));
+		assertEquals(2, profile.getCapabilityOffered().size());
+
+		assertEquals("tcp:ToolProxy.collection",
+			profile.findService("application/vnd.ims.lti.v2.toolproxy+json", Collections.singletonList("POST")).getId());
+		assertEquals("tcp:ToolProxySettings",
+			profile.findService("application/vnd.ims.lti.v2.toolsettings.simple+json", Arrays.asList("PUT", "GET")).getId());
+		assertNull(profile.findService("application/vnd.ims.lti.v2.toolsettings+json", Arrays.asList("GET", "DELETE")));
+		assertNull(profile.findService("application/vnd.ims.lti.v2.toolproxy+json", Collections.singletonList("GET")));
+	}
+
+}
@@ -0,0 +1,43 @@
+package org.imsglobal.lti.toolProvider.service.test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+import org.imsglobal.lti.toolProvider.User;
+import org.imsglobal.lti.toolProvider.service.MembershipPage;
+import org.junit.Test;
+
+public class MembershipPageTest {
+
+	private static final String PAGE =
+		"{\"@context\":\"http://purl.imsglobal.org/ctx/lis/v2/MembershipContainer\"," +
+		"\"@type\":\"Page\",\"@id\":\"http://lms.example.com/sections/2923/membership?p=2\"," +
+		"\"nextPage\":\"http://lms.example.com/sections/2923/membership?p=3\"," +
+		"\"pageOf\":{\"@type\":\"LISMembershipContainer\",\"membershipSubject\":{\"@type\":\"Context\"," +
+		"\"contextId\":\"2923-abc\",\"membership\":[" +
+		"{\"status\":\"Active\",\"member\":{\"@type\":\"LISPerson\",\"userId\":\"0ae836b9\"," +
+		"\"givenName\":\"Jane\",\"familyName\":\"Doe\",\"name\":\"Jane Q. Doe\",\"email\":\"jane@example.com\"}," +
+		"\"role\":[\"urn:lti:role:ims/lis/Learner\"]}," +
+		"{\"status\":\"Active\",\"member\":{\"@type\":\"LISPerson\",\"userId\":\"7bc1a2f0\"," +
+		"\"givenName\":\"John\",\"familyName\":\"Smith\",\"name\":\"John Smith\",\"email\":\"john@example.com\"}," +
+		"\"role\":[\"urn:lti:role:ims/lis/Instructor\"],\"message\":[{\"message_type\":\"basic-lti-launch-request\"}]}" +
+		"]}}}";
+
+	@Test
+	public void testParsePage() throws Exception {
+		MembershipPage page = MembershipPage.parse(PAGE, null);
+		assertEquals("http://lms.example.com/sections/2923/membership?p=3", page.getNextPage());
+		assertEquals(2, page.getUsers().size());
+		User user = page.getUsers().get(0);
+		assertEquals("0ae836b9", user.getLtiUserId());
+		assertEquals("7bc1a2f0", page.getUsers().get(1).getLtiUserId());
+	}
+
+	@Test
+	public void testLastPage() throws Exception {
+		MembershipPage page = MembershipPage.parse("{\"pageOf\":{\"membershipSubject\":{\"membership\":[]}}}", null);
+		assertNull(page.getNextPage());
+		assertEquals(0, page.getUsers().size());
+	}
+
+}
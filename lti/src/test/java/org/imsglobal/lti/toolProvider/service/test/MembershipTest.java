@@ -0,0 +1,133 @@
+package org.imsglobal.lti.toolProvider.service.test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+
+import org.imsglobal.lti.toolProvider.Context;
+import org.imsglobal.lti.toolProvider.ToolConsumer;
+import org.imsglobal.lti.toolProvider.User;
+import org.imsglobal.lti.toolProvider.dataConnector.DataConnector;
+import org.imsglobal.lti.toolProvider.service.Membership;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+
+public class MembershipTest {
+
+	private HttpServer server;
+	private String base;
+	private final List<String> requested = new ArrayList<String>();
+	private boolean failPage2 = false;
+
+	private static String page(String nextPage, String... userIds) {
+		StringBuilder json = new StringBuilder("{\"@type\":\"Page\",");
+		if (nextPage != null) {
+			json.append("\"nextPage\":\"").append(nextPage).append("\",");
+		}
+		json.append("\"pageOf\":{\"membershipSubject\":{\"membership\":[");
+		for (int i = 0; i < userIds.length; i++) {
+			if (i > 0) {
+				json.append(',');
+			}
+			json.append("{\"status\":\"Active\",\"member\":{\"userId\":\"").append(userIds[i]).append("\"},")
+				.append("\"role\":[\"Learner\"]}");
+		}
+		return json.append("]}}}").toString();
+	}
+
+	@Before
+	public void setUp() throws IOException {
+		server = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+		base = "http://127.0.0.1:" + server.getAddress().getPort() + "/memberships";
+		server.createContext("/memberships", new HttpHandler() {
+			@Override
+			public void handle(HttpExchange exchange) throws IOException {
+				String query = exchange.getRequestURI().getQuery();
+				synchronized (requested) {
+					requested.add(query);
+				}
+				int status = 200;
+				String body;
+				if ((query != null) && query.contains("p=3")) {
+					body = page(null, "u5");
+				} else if ((query != null) && query.contains("p=2")) {
+					status = failPage2 ? 500 : 200;
+					body = page(base + "?p=3", "u3", "u4");
+				} else {
+					body = page(base + "?p=2", "u1", "u2");
+				}
+				byte[] bytes = body.getBytes(StandardCharsets.UTF_8);
+				exchange.getResponseHeaders().set("Content-Type", "application/vnd.ims.lis.v2.membershipcontainer+json");
+				exchange.sendResponseHeaders(status, bytes.length);
+				try (OutputStream out = exchange.getResponseBody()) {
+					out.write(bytes);
+				}
+			}
+		});
+		server.start();
+	}
+
+	@After
+	public void tearDown() {
+		server.stop(0);
+	}
+
+	private Membership membership() {
+		ToolConsumer consumer = new ToolConsumer(null, new DataConnector(null, ""));
+		consumer.setKey("key");
+		consumer.setSecret("secret");
+		return new Membership(Context.fromConsumer(consumer, null), base);
+	}
+
+	@Test
+	public void testIterateAllPages() {
+		List<String> ids = new ArrayList<String>();
+		for (User user : membership().iterate(null, 2)) {
+			ids.add(user.getLtiUserId());
+		}
+		assertEquals(5, ids.size());
+		assertEquals("u1", ids.get(0));
+		assertEquals("u5", ids.get(4));
+		// The last page has no nextPage, so no further request is sent
+		assertEquals(3, requested.size());
+		assertTrue(requested.get(0).contains("limit=2"));
+	}
+
+	@Test
+	public void testNoRequestUntilIterated() {
+		Iterable<User> users = membership().iterate(null, 0);
+		assertEquals(0, requested.size());
+		assertTrue(users.iterator().hasNext());
+	}
+
+	@Test
+	public void testLaterPageFails() {
+		failPage2 = true;
+		Iterator<User> users = membership().iterate(null, 0).iterator();
+		assertEquals("u1", users.next().getLtiUserId());
+		assertEquals("u2", users.next().getLtiUserId());
+		try {
+			users.hasNext();
+			fail("Expected the failed page to be reported");
+		} catch (IllegalStateException e) {
+			// expected
+		}
+		assertFalse(users.hasNext());
+		assertEquals(null, membership().get());
+	}
+
+}
@@ -0,0 +1,87 @@
+package org.imsglobal.lti.toolProvider.test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.imsglobal.lti.HttpTransport;
+import org.imsglobal.lti.toolProvider.ConsumerProfileCache;
+import org.imsglobal.lti.toolProvider.mediaType.ConsumerProfile;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+
+public class ConsumerProfileCacheTest {
+
+	private static final String ETAG = "\"v1\"";
+	private static final byte[] PROFILE = "{\"@id\":\"http://lms.example.com/profile\"}".getBytes(StandardCharsets.UTF_8);
+
+	private HttpServer server;
+	private HttpTransport transport;
+	private final AtomicInteger downloads = new AtomicInteger();
+	private final AtomicInteger revalidations = new AtomicInteger();
+	private String url;
+
+	@Before
+	public void setUp() throws IOException {
+		server = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+		server.createContext("/profile", new HttpHandler() {
+			@Override
+			public void handle(HttpExchange exchange) throws IOException {
+				exchange.getResponseHeaders().add("ETag", ETAG);
+				exchange.getResponseHeaders().add("Cache-Control", "no-cache");
+				if (ETAG.equals(exchange.getRequestHeaders().getFirst("If-None-Match"))) {
+					revalidations.incrementAndGet();
+					exchange.sendResponseHeaders(304, -1);
+				} else {
+					downloads.incrementAndGet();
+					exchange.sendResponseHeaders(200, PROFILE.length);
+					OutputStream out = exchange.getResponseBody();
+					out.write(PROFILE);
+				}
+				exchange.close();
+			}
+		});
+		server.start();
+		url = "http://127.0.0.1:" + server.getAddress().getPort() + "/profile";
+		transport = HttpTransport.builder().build();
+	}
+
+	@After
+	public void tearDown() {
+		transport.close();
+		server.stop(0);
+	}
+
+	@Test
+	public void testRevalidate() throws Exception {
+		ConsumerProfileCache cache = new ConsumerProfileCache(transport, 10, 60000L);
+		ConsumerProfile profile = cache.get(url);
+		assertEquals("http://lms.example.com/profile", profile.getId());
+		// no-cache: the second request is conditional and the parsed profile is reused
+		ConsumerProfile again = cache.get(url);
+		assertNotSame(profile, again);
+		assertEquals("http://lms.example.com/profile", again.getId());
+		assertEquals(1, downloads.get());
+		assertEquals(1, revalidations.get());
+		assertEquals(1, cache.size());
+	}
+
+	@Test
+	public void testProfileNotShared() throws Exception {
+		ConsumerProfileCache cache = new ConsumerProfileCache(transport, 10, 60000L);
+		cache.get(url).setId("http://changed.example.com/profile");
+		assertEquals("http://lms.example.com/profile", cache.get(url).getId());
+		assertEquals(1, downloads.get());
+	}
+
+}
@@ -0,0 +1,107 @@
+package org.imsglobal.lti.toolProvider.test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.ByteArrayInputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.imsglobal.lti.toolProvider.Group;
+import org.imsglobal.lti.toolProvider.GroupSet;
+import org.imsglobal.lti.toolProvider.MembershipsReader;
+import org.imsglobal.lti.toolProvider.ResourceLink;
+import org.imsglobal.lti.toolProvider.ToolConsumer;
+import org.imsglobal.lti.toolProvider.User;
+import org.imsglobal.lti.toolProvider.dataConnector.DataConnector;
+import org.junit.Test;
+
+public class MembershipsReaderTest {
+
+	private static final String RESPONSE =
+		"<?xml version=\"1.0\" encoding=\"UTF-8\"?>" +
+		"<message_response><lti_message_type>basic-lis-readmembershipsforcontextwithgroups</lti_message_type>" +
+		"<statusinfo><codemajor>Success</codemajor><severity>Status</severity></statusinfo>" +
+		"<memberships>" +
+		"<member><user_id>0ae836b9</user_id><roles>Learner</roles>" +
+		"<person_name_given>Jane</person_name_given><person_name_family>Doe</person_name_family>" +
+		"<lis_result_sourcedid>sourcedid-jane</lis_result_sourcedid>" +
+		"<extension><unknown>ignored</unknown></extension>" +
+		"<groups><group><id>g1</id><title>Group 1</title><set><id>s1</id><title>Set 1</title></set></group></groups>" +
+		"</member>" +
+		"<member><user_id>7bc1a2f0</user_id><roles>Instructor</roles>" +
+		"<groups><group><id>g1</id><title>Group 1</title><set><id>s1</id><title>Set 1</title></set></group>" +
+		"<group><id>g2</id><title>Group 2</title></group></groups>" +
+		"</member>" +
+		"</memberships></message_response>";
+
+	private static MembershipsReader reader(String xml) throws Exception {
+		ResourceLink resourceLink = ResourceLink.fromConsumer(new ToolConsumer(null, new DataConnector(null, "")), null);
+		return new MembershipsReader(resourceLink, new ByteArrayInputStream(xml.getBytes(StandardCharsets.UTF_8)));
+	}
+
+	@Test
+	public void testReadMembers() throws Exception {
+		final List<User> users = new ArrayList<User>();
+		final List<String> groups = new ArrayList<String>();
+		try (MembershipsReader reader = reader(RESPONSE)) {
+			assertTrue(reader.read(new MembershipsReader.Listener() {
+				@Override
+				public void user(User user) {
+					users.add(user);
+				}
+				@Override
+				public void group(String id, Group group) {
+					groups.add(id);
+				}
+			}));
+			assertEquals("Success", reader.getCodeMajor());
+			assertEquals(2, reader.getGroups().size());
+			assertEquals("Group 1", reader.getGroups().get("g1").getTitle());
+			assertEquals("s1", reader.getGroups().get("g1").getSetId());
+			assertNull(reader.getGroups().get("g2").getSetId());
+			GroupSet groupSet = reader.getGroupSets().get("s1");
+			assertEquals("Set 1", groupSet.getTitle());
+			assertEquals(2, groupSet.getNumMembers());
+			assertEquals(1, groupSet.getNumLearners());
+			assertEquals(1, groupSet.getNumStaff());
+		}
+		assertEquals(2, users.size());
+		User jane = users.get(0);
+		assertEquals("0ae836b9", jane.getLtiUserId());
+		assertEquals("sourcedid-jane", jane.getLtiResultSourcedId());
+		assertTrue(jane.isLearner());
+		assertEquals(1, jane.getGroups().size());
+		User john = users.get(1);
+		assertEquals("7bc1a2f0", john.getLtiUserId());
+		assertTrue(john.isStaff());
+		assertEquals(2, john.getGroups().size());
+		// Each group is reported once, when it is first read
+		assertEquals(2, groups.size());
+	}
+
+	@Test
+	public void testIterateMembers() throws Exception {
+		try (MembershipsReader reader = reader(RESPONSE)) {
+			assertTrue(reader.hasNext());
+			assertEquals("0ae836b9", reader.next().getLtiUserId());
+			assertEquals("7bc1a2f0", reader.next().getLtiUserId());
+			assertFalse(reader.hasNext());
+			assertTrue(reader.isSuccess());
+		}
+	}
+
+	@Test
+	public void testFailureReturnsNoMembers() throws Exception {
+		String xml = RESPONSE.replace("<codemajor>Success</codemajor>", "<codemajor>Failure</codemajor>");
+		try (MembershipsReader reader = reader(xml)) {
+			assertFalse(reader.hasNext());
+			assertFalse(reader.isSuccess());
+			assertEquals("Failure", reader.getCodeMajor());
+		}
+	}
+
+}
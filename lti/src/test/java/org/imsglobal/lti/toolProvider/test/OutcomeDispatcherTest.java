@@ -0,0 +1,179 @@
+package org.imsglobal.lti.toolProvider.test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+
+import org.imsglobal.lti.toolProvider.Outcome;
+import org.imsglobal.lti.toolProvider.OutcomeDispatcher;
+import org.imsglobal.lti.toolProvider.ResourceLink;
+import org.imsglobal.lti.toolProvider.User;
+import org.junit.Test;
+
+public class OutcomeDispatcherTest {
+
+	/**
+	 * Executor which only runs tasks when asked to.
+	 */
+	private static class ManualExecutor implements Executor {
+
+		private final ArrayDeque<Runnable> tasks = new ArrayDeque<Runnable>();
+		private boolean reject = false;
+
+		@Override
+		public void execute(Runnable task) {
+			if (reject) {
+				throw new RejectedExecutionException("rejected");
+			}
+			tasks.add(task);
+		}
+
+		private void runNext() {
+			tasks.poll().run();
+		}
+
+		private void runAll() {
+			while (!tasks.isEmpty()) {
+				runNext();
+			}
+		}
+
+	}
+
+	/**
+	 * Resource link which records the outcomes written rather than sending them.
+	 */
+	private static class StubResourceLink extends ResourceLink {
+
+		private final List<String> written = new ArrayList<String>();
+
+		private StubResourceLink(String url) {
+			setSetting("lis_outcome_service_url", url);
+		}
+
+		@Override
+		public boolean doOutcomesService(int action, Outcome ltiOutcome, User user) {
+			synchronized (written) {
+				written.add(user.getLtiResultSourcedId() + "=" + ltiOutcome.getValue());
+			}
+			return true;
+		}
+
+	}
+
+	private static User user(ResourceLink resourceLink, String sourcedId) {
+		User user = User.fromResourceLink(resourceLink, sourcedId);
+		user.setLtiResultSourcedId(sourcedId);
+		return user;
+	}
+
+	@Test
+	public void testWritesForOneResultCoalesce() throws Exception {
+		ManualExecutor executor = new ManualExecutor();
+		OutcomeDispatcher dispatcher = new OutcomeDispatcher(executor, 1);
+		StubResourceLink link = new StubResourceLink("http://lms.example.com/outcomes");
+		User user = user(link, "s1");
+		// The first write is in progress, so the next two wait and are merged
+		CompletableFuture<Boolean> first = dispatcher.submit(link, new Outcome("0.1"), user);
+		CompletableFuture<Boolean> second = dispatcher.submit(link, new Outcome("0.2"), user);
+		CompletableFuture<Boolean> third = dispatcher.submit(link, new Outcome("0.3"), user);
+		assertSame(second, third);
+		assertEquals(1, dispatcher.getPending());
+		executor.runAll();
+		assertTrue(first.get());
+		assertTrue(third.get());
+		assertEquals(2, link.written.size());
+		assertEquals("s1=0.1", link.written.get(0));
+		assertEquals("s1=0.3", link.written.get(1));
+		assertEquals(0, dispatcher.getPending());
+	}
+
+	@Test
+	public void testLimitPerHost() {
+		ManualExecutor executor = new ManualExecutor();
+		OutcomeDispatcher dispatcher = new OutcomeDispatcher(executor, 2);
+		StubResourceLink link = new StubResourceLink("http://lms.example.com/outcomes");
+		StubResourceLink other = new StubResourceLink("http://other.example.com/outcomes");
+		for (int i = 0; i < 5; i++) {
+			dispatcher.submit(link, new Outcome("1"), user(link, "s" + i));
+		}
+		dispatcher.submit(other, new Outcome("1"), user(other, "s0"));
+		// Two writes for the first host and one for the other
+		assertEquals(3, executor.tasks.size());
+		assertEquals(2, dispatcher.getHostCount());
+		executor.runNext();
+		assertEquals(3, executor.tasks.size());
+		executor.runAll();
+		assertEquals(5, link.written.size());
+		assertEquals(1, other.written.size());
+		// Idle hosts are not kept
+		assertEquals(0, dispatcher.getHostCount());
+	}
+
+	@Test
+	public void testRejectedWriteCompletesExceptionally() throws InterruptedException {
+		ManualExecutor executor = new ManualExecutor();
+		executor.reject = true;
+		OutcomeDispatcher dispatcher = new OutcomeDispatcher(executor, 1);
+		StubResourceLink link = new StubResourceLink("http://lms.example.com/outcomes");
+		CompletableFuture<Boolean> future = dispatcher.submit(link, new Outcome("1"), user(link, "s1"));
+		try {
+			future.get();
+			fail("Expected the write to fail");
+		} catch (ExecutionException e) {
+			assertTrue(e.getCause() instanceof RejectedExecutionException);
+		}
+		assertEquals(0, dispatcher.getPending());
+		assertEquals(0, dispatcher.getHostCount());
+		assertTrue(link.written.isEmpty());
+	}
+
+	@Test
+	public void testFlushAndClose() throws Exception {
+		OutcomeDispatcher dispatcher = new OutcomeDispatcher(2);
+		StubResourceLink link = new StubResourceLink("http://lms.example.com/outcomes");
+		List<CompletableFuture<Boolean>> futures = new ArrayList<CompletableFuture<Boolean>>();
+		for (int i = 0; i < 10; i++) {
+			futures.add(dispatcher.submit(link, new Outcome("1"), user(link, "s" + i)));
+		}
+		dispatcher.close();
+		assertTrue(dispatcher.flush(5000L));
+		for (CompletableFuture<Boolean> future : futures) {
+			assertTrue(future.isDone());
+			assertTrue(future.get());
+		}
+		assertEquals(10, link.written.size());
+		try {
+			dispatcher.submit(link, new Outcome("1"), user(link, "s0"));
+			fail("Expected a closed dispatcher to refuse writes");
+		} catch (IllegalStateException e) {
+			// expected
+		}
+		// The dispatcher's own threads end once the queue is drained
+		long end = System.currentTimeMillis() + 5000L;
+		while (hasDispatcherThread() && (System.currentTimeMillis() < end)) {
+			Thread.sleep(10L);
+		}
+		assertFalse(hasDispatcherThread());
+	}
+
+	private static boolean hasDispatcherThread() {
+		for (Thread thread : Thread.getAllStackTraces().keySet()) {
+			if (thread.isAlive() && "lti-outcome-dispatcher".equals(thread.getName())) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+}
@@ -0,0 +1,46 @@
+package org.imsglobal.lti.toolProvider.test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+
+import org.apache.commons.codec.binary.Base64;
+import org.apache.commons.codec.digest.DigestUtils;
+import org.imsglobal.lti.LTIUtil;
+import org.imsglobal.lti.toolProvider.PoxEnvelopeWriter;
+import org.jdom2.Document;
+import org.junit.Test;
+
+public class PoxEnvelopeWriterTest {
+
+	@Test
+	public void testBodyHash() throws IOException {
+		PoxEnvelopeWriter writer = PoxEnvelopeWriter.get().write("id1", "replaceResult", "abc", null, "0.75");
+		ByteArrayOutputStream body = new ByteArrayOutputStream();
+		writer.getEntity().writeTo(body);
+		assertEquals(writer.toString(), new String(body.toByteArray(), StandardCharsets.UTF_8));
+		assertEquals(Base64.encodeBase64String(DigestUtils.sha1(body.toByteArray())), writer.getBodyHash());
+	}
+
+	@Test
+	public void testEscapedValues() {
+		String sourcedId = "{\"id\":\"a<b>&c\"} é 😀";
+		String xml = PoxEnvelopeWriter.get().write("id2", "replaceResult", sourcedId, "fr-CA", "1").toString();
+		Document doc = LTIUtil.getXMLDoc(xml);
+		assertEquals(sourcedId, LTIUtil.getXmlChild(doc.getRootElement(), "sourcedId").getText());
+		assertEquals("fr-CA", LTIUtil.getXmlChild(doc.getRootElement(), "language").getText());
+		assertEquals("replaceResultRequest", LTIUtil.getXmlChild(doc.getRootElement(), "imsx_POXBody").getChildren().get(0).getName());
+	}
+
+	@Test
+	public void testNoResult() {
+		String xml = PoxEnvelopeWriter.get().write("id3", "readResult", "abc", null, null).toString();
+		assertFalse(xml.contains("<result>"));
+		assertTrue(xml.contains("<readResultRequest>"));
+	}
+
+}
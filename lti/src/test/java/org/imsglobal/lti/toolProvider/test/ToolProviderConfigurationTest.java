@@ -0,0 +1,32 @@
+package org.imsglobal.lti.toolProvider.test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import org.imsglobal.lti.toolProvider.LaunchEngine;
+import org.imsglobal.lti.toolProvider.ToolProvider;
+import org.imsglobal.lti.toolProvider.dataConnector.DataConnector;
+import org.junit.Test;
+
+public class ToolProviderConfigurationTest {
+
+	@Test
+	public void testGettersKeepEngine() {
+		DataConnector dataConnector = new DataConnector(null, "");
+		ToolProvider toolProvider = new ToolProvider(dataConnector, null, null);
+		LaunchEngine engine = toolProvider.getEngine();
+		assertSame(dataConnector, toolProvider.getDataConnector());
+		toolProvider.isAllowSharing();
+		toolProvider.getRequiredServices();
+		assertSame(engine, toolProvider.getEngine());
+
+		toolProvider.setAllowSharing(true);
+		assertTrue(toolProvider.isAllowSharing());
+		assertNotSame(engine, toolProvider.getEngine());
+		assertTrue(toolProvider.getEngine().isAllowSharing());
+		assertEquals(0, toolProvider.getResourceHandlers().size());
+	}
+
+}
@@ -0,0 +1,188 @@
+package org.imsglobal.lti.toolProvider.test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+
+import org.imsglobal.lti.toolProvider.MessageHandler;
+import org.imsglobal.lti.toolProvider.ToolConsumer;
+import org.imsglobal.lti.toolProvider.ToolProvider;
+import org.imsglobal.lti.toolProvider.dataConnector.DataConnector;
+import org.imsglobal.lti.toolProvider.dataConnector.JDBC;
+import org.imsglobal.lti.toolProvider.dataConnector.test.TestDatabase;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import net.oauth.OAuth;
+import net.oauth.OAuthMessage;
+
+public class ToolProviderDispatchTest {
+
+	private static final String URL = "http://tool.example.com/launch";
+	private static final List<String> CALLS = new ArrayList<String>();
+
+	private Connection conn;
+	private JDBC connector;
+	private ToolConsumer consumer;
+
+	public static class LaunchProvider extends ToolProvider {
+
+		public LaunchProvider(DataConnector dataConnector, HttpServletRequest request, HttpServletResponse response) {
+			super(dataConnector, request, response);
+		}
+
+		@Override
+		public boolean onLaunch() {
+			CALLS.add("LaunchProvider.onLaunch");
+			return true;
+		}
+
+	}
+
+	public static class InheritingProvider extends LaunchProvider {
+
+		public InheritingProvider(DataConnector dataConnector, HttpServletRequest request, HttpServletResponse response) {
+			super(dataConnector, request, response);
+		}
+
+	}
+
+	public static class RegisteredProvider extends LaunchProvider {
+
+		public RegisteredProvider(DataConnector dataConnector, HttpServletRequest request, HttpServletResponse response) {
+			super(dataConnector, request, response);
+		}
+
+	}
+
+	public static class RegisteredSubProvider extends RegisteredProvider {
+
+		public RegisteredSubProvider(DataConnector dataConnector, HttpServletRequest request, HttpServletResponse response) {
+			super(dataConnector, request, response);
+		}
+
+	}
+
+	public static class LateProvider extends LaunchProvider {
+
+		public LateProvider(DataConnector dataConnector, HttpServletRequest request, HttpServletResponse response) {
+			super(dataConnector, request, response);
+		}
+
+	}
+
+	public static class LateSubProvider extends LateProvider {
+
+		public LateSubProvider(DataConnector dataConnector, HttpServletRequest request, HttpServletResponse response) {
+			super(dataConnector, request, response);
+		}
+
+	}
+
+	private static MessageHandler handler(final String name) {
+		return new MessageHandler() {
+			@Override
+			public boolean handle(ToolProvider toolProvider) {
+				CALLS.add(name + ":" + toolProvider.getClass().getSimpleName());
+				return true;
+			}
+		};
+	}
+
+	@Before
+	public void setUp() throws SQLException {
+		CALLS.clear();
+		conn = TestDatabase.open();
+		connector = new JDBC(conn, "");
+		consumer = new ToolConsumer(null, connector);
+		consumer.setKey("key");
+		consumer.setName("Test");
+		consumer.setSecret("secret");
+		consumer.setEnabled(true);
+		assertTrue(consumer.save());
+	}
+
+	@After
+	public void tearDown() throws SQLException {
+		conn.close();
+	}
+
+	// A launch request signed by the consumer
+	private HttpServletRequest launch() throws Exception {
+		List<Map.Entry<String, String>> params = new ArrayList<Map.Entry<String, String>>();
+		params.add(new OAuth.Parameter("lti_message_type", "basic-lti-launch-request"));
+		params.add(new OAuth.Parameter("lti_version", "LTI-1p0"));
+		params.add(new OAuth.Parameter("resource_link_id", "link-1"));
+		params.add(new OAuth.Parameter("user_id", "user-1"));
+		params.add(new OAuth.Parameter(OAuth.OAUTH_CONSUMER_KEY, "key"));
+		OAuthMessage message = new OAuthMessage("POST", URL, params);
+		consumer.getSigningContext().sign(message);
+		final Map<String, String[]> parameters = new HashMap<String, String[]>();
+		for (Map.Entry<String, String> param : message.getParameters()) {
+			parameters.put(param.getKey(), new String[] {param.getValue()});
+		}
+		return (HttpServletRequest)Proxy.newProxyInstance(HttpServletRequest.class.getClassLoader(),
+			new Class<?>[] {HttpServletRequest.class}, new InvocationHandler() {
+				@Override
+				public Object invoke(Object proxy, Method method, Object[] args) {
+					if ("getParameterMap".equals(method.getName())) {
+						return parameters;
+					} else if ("getRequestURL".equals(method.getName())) {
+						return new StringBuffer(URL);
+					} else if ("getMethod".equals(method.getName())) {
+						return "POST";
+					}
+					return null;
+				}
+			});
+	}
+
+	@Test
+	public void testCallbackMethod() throws Exception {
+		new LaunchProvider(connector, launch(), null).handleRequest();
+		assertEquals(1, CALLS.size());
+		assertEquals("LaunchProvider.onLaunch", CALLS.get(0));
+	}
+
+	@Test
+	public void testInheritedCallbackMethod() throws Exception {
+		new InheritingProvider(connector, launch(), null).handleRequest();
+		assertEquals(1, CALLS.size());
+		assertEquals("LaunchProvider.onLaunch", CALLS.get(0));
+	}
+
+	@Test
+	public void testRegisteredHandler() throws Exception {
+		ToolProvider.registerHandler(RegisteredProvider.class, "basic-lti-launch-request", handler("registered"));
+		new RegisteredProvider(connector, launch(), null).handleRequest();
+		// A subclass without its own callback method or handler uses the inherited handler
+		new RegisteredSubProvider(connector, launch(), null).handleRequest();
+		assertEquals(2, CALLS.size());
+		assertEquals("registered:RegisteredProvider", CALLS.get(0));
+		assertEquals("registered:RegisteredSubProvider", CALLS.get(1));
+	}
+
+	@Test
+	public void testHandlerRegisteredAfterUse() throws Exception {
+		new LateSubProvider(connector, launch(), null).handleRequest();
+		ToolProvider.registerHandler(LateProvider.class, "basic-lti-launch-request", handler("late"));
+		new LateSubProvider(connector, launch(), null).handleRequest();
+		assertEquals(2, CALLS.size());
+		assertEquals("LaunchProvider.onLaunch", CALLS.get(0));
+		assertEquals("late:LateSubProvider", CALLS.get(1));
+	}
+
+}